@@ -44,6 +44,56 @@ tasks.withType(JavaCompile::class) {
     options.isDeprecation = true
 }
 
+// === MULTI-RELEASE ===============================================================================
+
+// Java 17+ versions of some classes (the Vector API array kernels in norswap.sigh.runtime),
+// packaged under META-INF/versions/17 where they override the Java 8 versions.
+val java17: SourceSet by sourceSets.creating {
+    java.srcDir("src17")
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+}
+
+val jdk17 = JavaLanguageVersion.of(17)
+
+tasks.named<JavaCompile>(java17.compileJavaTaskName) {
+    javaCompiler.set(javaToolchains.compilerFor { languageVersion.set(jdk17) })
+    sourceCompatibility = "17"
+    targetCompatibility = "17"
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
+tasks.jar.get().apply {
+    into("META-INF/versions/17") { from(java17.output) }
+    manifest.attributes("Multi-Release" to "true")
+}
+
+// Run the tests with the Java 17 classes (and so the SIMD kernels) in front.
+// Use -Dsigh.simd=false in jvmArgs to test the scalar loops instead.
+tasks.test.get().apply {
+    javaLauncher.set(javaToolchains.launcherFor { languageVersion.set(jdk17) })
+    classpath = files(java17.output) + classpath
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+}
+
+// === SIGHC =======================================================================================
+
+// Ahead-of-time compilation of a Sigh program to a runnable jar, e.g.
+// ./gradlew sighc --args="examples/fizzbuzz.si fizzbuzz.jar" && java -jar fizzbuzz.jar
+// (add -g before the source file to include debug information: source lines, local variables).
+tasks.register<JavaExec>("sighc") {
+    description = "Compiles a Sigh source file into a runnable jar."
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("norswap.sigh.Sighc")
+}
+
+// Compile time with stack map frames emitted by the compiler vs computed by ASM, e.g.
+// ./gradlew compilerBenchmark --args="1000 20" (functions in the generated program, iterations)
+tasks.register<JavaExec>("compilerBenchmark") {
+    description = "Benchmarks the bytecode compiler on a large generated program."
+    classpath = sourceSets.test.get().runtimeClasspath
+    mainClass.set("CompilerBenchmark")
+}
+
 // === IDE =========================================================================================
 
 idea.module {
@@ -0,0 +1,214 @@
+package norswap.sigh;
+
+import norswap.sigh.ast.ArrayAccessNode;
+import norswap.sigh.ast.DeclarationNode;
+import norswap.sigh.ast.DiadicForkNode;
+import norswap.sigh.ast.FieldAccessNode;
+import norswap.sigh.ast.MonadicForkNode;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.scopes.RootScope;
+import norswap.sigh.scopes.Scope;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.sigh.types.Type;
+import norswap.uranium.Reactor;
+import norswap.utils.visitors.ReflectiveFieldWalker;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import static norswap.utils.Util.cast;
+import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
+
+/**
+ * The results of semantic analysis needed at run time, frozen into dense tables after the {@link
+ * Reactor} has run, so that the reactor (and its whole attribute graph) can be released.
+ *
+ * <p>Every node of the tree (as well as the synthetic declarations of the {@link RootScope}) is
+ * given an index in the tables, kept in an identity map. Lookups therefore hash the node only
+ * once, by identity, instead of hashing an attribute (node + name) in the reactor for each
+ * attribute. The nodes themselves are not modified, so a tree can be frozen more than once.
+ *
+ * <p>The tables hold the attributes used by the backends (see {@link SemanticAnalysis} for their
+ * meaning): {@code type}, {@code scope}, {@code decl}, {@code declared}, {@code slot}, {@code
+ * columnarItem}, {@code tailCall}, {@code pure}, as well as {@code leftType} and {@code rightType}
+ * for forks. Use {@link #freeze(SighNode, Reactor)} to build them.
+ */
+public final class AnalysisTables
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final IdentityHashMap<SighNode, Integer> indices;
+    private final Type[] types;
+    private final Scope[] scopes;
+    private final DeclarationNode[] decls;
+    private final Type[] declared;
+    private final int[] slots;
+    private final ArrayAccessNode[] columnarItems;
+    private final Type[] leftTypes;
+    private final Type[] rightTypes;
+    private final boolean[] tailCalls;
+    private final boolean[] pure;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private AnalysisTables (IdentityHashMap<SighNode, Integer> indices) {
+        int size = indices.size();
+        this.indices = indices;
+        types    = new Type[size];
+        scopes   = new Scope[size];
+        decls    = new DeclarationNode[size];
+        declared = new Type[size];
+        slots    = new int[size];
+        columnarItems = new ArrayAccessNode[size];
+        leftTypes  = new Type[size];
+        rightTypes = new Type[size];
+        tailCalls  = new boolean[size];
+        pure       = new boolean[size];
+        Arrays.fill(slots, -1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Builds the tables for the given tree, on which semantic analysis must have been successfully
+     * run using {@code reactor}.
+     */
+    public static AnalysisTables freeze (SighNode root, Reactor reactor)
+    {
+        ArrayList<SighNode> nodes = new ArrayList<>();
+
+        ReflectiveFieldWalker<SighNode> walker = new ReflectiveFieldWalker<>(
+            SighNode.class, PRE_VISIT);
+        walker.registerFallback(PRE_VISIT, nodes::add);
+        walker.walk(root);
+
+        // Synthetic declarations are not part of the tree.
+        Scope rootScope = reactor.get(root, "scope");
+        if (rootScope != null)
+            for (DeclarationNode decl: rootScope.declarations())
+                if (decl instanceof SyntheticDeclarationNode)
+                    nodes.add(decl);
+
+        IdentityHashMap<SighNode, Integer> indices = new IdentityHashMap<>(nodes.size());
+        for (int i = 0; i < nodes.size(); ++i)
+            indices.put(nodes.get(i), i);
+        AnalysisTables tables = new AnalysisTables(indices);
+
+        for (int i = 0; i < nodes.size(); ++i) {
+            SighNode node = nodes.get(i);
+            tables.types[i]    = reactor.get(node, "type");
+            tables.scopes[i]   = reactor.get(node, "scope");
+            tables.decls[i]    = reactor.get(node, "decl");
+            tables.declared[i] = reactor.get(node, "declared");
+            Integer slot = reactor.get(node, "slot");
+            if (slot != null) tables.slots[i] = slot;
+            tables.columnarItems[i] = reactor.get(node, "columnarItem");
+            tables.tailCalls[i] = reactor.get(node, "tailCall") != null;
+            tables.pure[i] = Boolean.TRUE.equals(reactor.get(node, "pure"));
+            if (node instanceof MonadicForkNode || node instanceof DiadicForkNode) {
+                tables.leftTypes[i]  = reactor.get(node, "leftType");
+                tables.rightTypes[i] = reactor.get(node, "rightType");
+            }
+        }
+
+        return tables;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int index (SighNode node)
+    {
+        Integer index = indices.get(node);
+        if (index == null)
+            throw new IllegalArgumentException("node not part of the frozen tree: " + node);
+        return index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the {@code type} attribute of the node: the type of an expression, or the type of
+     * the value declared by a declaration.
+     */
+    public <T extends Type> T type (SighNode node) {
+        return cast(types[index(node)]);
+    }
+
+    /**
+     * Returns the {@code scope} attribute of the node: the scope introduced by the node for scope
+     * nodes, the scope of the referenced declaration for references, and the scope the
+     * declaration appears in for variable declarations and parameters.
+     */
+    public <T extends Scope> T scope (SighNode node) {
+        return cast(scopes[index(node)]);
+    }
+
+    /**
+     * Returns the {@code decl} attribute of the node: the declaration a reference refers to.
+     */
+    public <T extends DeclarationNode> T decl (SighNode node) {
+        return cast(decls[index(node)]);
+    }
+
+    /**
+     * Returns the {@code declared} attribute of the node: the type declared by a type declaration.
+     */
+    public <T extends Type> T declared (SighNode node) {
+        return cast(declared[index(node)]);
+    }
+
+    /**
+     * Returns the {@code slot} attribute of the node: the slot index of a variable declaration in
+     * its scope, or the index of the accessed field in the declaration of a structure.
+     */
+    public int slot (SighNode node) {
+        int slot = slots[index(node)];
+        if (slot < 0)
+            throw new Error("[implementation bug] no slot for node: " + node);
+        return slot;
+    }
+
+    /**
+     * Returns the {@code columnarItem} attribute of a field access: if the field access is on an
+     * item of an array of columnar structures (e.g. {@code a[i].x}), the array access, which can
+     * be skipped to access the field's array directly. Otherwise, returns null.
+     */
+    public ArrayAccessNode columnarItem (FieldAccessNode node) {
+        return columnarItems[index(node)];
+    }
+
+    /**
+     * Returns the {@code leftType} attribute of a fork node: the type of the value of its left
+     * verb.
+     */
+    public <T extends Type> T leftType (SighNode node) {
+        return cast(leftTypes[index(node)]);
+    }
+
+    /**
+     * Returns the {@code rightType} attribute of a fork node: the type of the value of its right
+     * verb.
+     */
+    public <T extends Type> T rightType (SighNode node) {
+        return cast(rightTypes[index(node)]);
+    }
+
+    /**
+     * Returns the {@code tailCall} attribute of the node: whether a return statement returns the
+     * result of a call to the surrounding function itself, or whether a function declaration
+     * contains such a return statement.
+     */
+    public boolean tailCall (SighNode node) {
+        return tailCalls[index(node)];
+    }
+
+    /**
+     * Returns the {@code pure} attribute of a function declaration: whether the function has no
+     * side effects and does not depend on mutable state declared outside of it.
+     */
+    public boolean pure (SighNode node) {
+        return pure[index(node)];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
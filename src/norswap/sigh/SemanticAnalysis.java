@@ -12,9 +12,14 @@ import norswap.uranium.Reactor;
 import norswap.uranium.Rule;
 import norswap.utils.visitors.ReflectiveFieldWalker;
 import norswap.utils.visitors.Walker;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.IntStream;
 
 import static java.lang.String.format;
@@ -44,6 +49,10 @@ import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
  *     <li>Every {@link ExpressionNode} instance must have its {@code type} attribute similarly
  *     set.</li>
  *
+ *     <li>{@link MonadicForkNode} and {@link DiadicForkNode} must additionally have their {@code
+ *     leftType} and {@code rightType} attributes set to the types of the values of their left and
+ *     right verbs, which are the operands of the middle verb.</li>
+ *
  *     <li>Every {@link ReferenceNode} instance must have its {@code decl} attribute set to the the
  *     declaration it references and its {@code scope} attribute set to the {@link Scope} in which
  *     the declaration it references lives. This speeds up lookups in the interpreter and simplifies the compiler.</li>
@@ -52,6 +61,19 @@ import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
  *     their {@code scope} attribute set to the scope in which they appear (this also speeds up the
  *     interpreter).</li>
  *
+ *     <li>Every variable declaration ({@link VarDeclarationNode}, {@link ParameterNode} and the
+ *     variables of {@link RootScope}) must have its {@code slot} attribute set to the index
+ *     allocated for it in its scope (see {@link Scope#allocateSlot()}). Together with the depth of
+ *     the scope, this lets the interpreter access variables without any name lookup.</li>
+ *
+ *     <li>Similarly, every {@link FieldAccessNode} on a structure must have its {@code slot}
+ *     attribute set to the index of the accessed field in the structure declaration, which is
+ *     also its index in the interpreter's fixed-layout structure records.</li>
+ *
+ *     <li>A {@link FieldAccessNode} on an item of an array of columnar structures (e.g. {@code
+ *     a[i].x}) must have its {@code columnarItem} attribute set to the {@link ArrayAccessNode} of
+ *     the item, which the backends skip to access the field's array directly.</li>
+ *
  *     <li>All statements introducing a new scope must have their {@code scope} attribute set to the
  *     corresponding {@link Scope} (only {@link RootNode}, {@link BlockNode} and {@link
  *     FunDeclarationNode} (for parameters)). These nodes must also update the {@code scope}
@@ -64,6 +86,18 @@ import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
  *     returns} attribute set to a boolean to indicate whether its execution causes
  *     unconditional exit from the surrounding function or main script.</li>
  *
+ *     <li>A {@link ReturnNode} whose value is a call to the surrounding function itself (a self
+ *     tail call, e.g. {@code return f(n - 1, acc * n)} in {@code f}) must have its {@code
+ *     tailCall} attribute set to true, as must the {@link FunDeclarationNode} of the function.
+ *     The backends run these calls as jumps back to the start of the function, reusing its
+ *     frame.</li>
+ *
+ *     <li>Every {@link FunDeclarationNode} must have its {@code pure} attribute set to a boolean
+ *     indicating whether the function is pure: it does not read or assign variables declared
+ *     outside of it, does not call {@code print}, does not assign array items or structure fields,
+ *     and only calls pure functions (and constructors). The backends can memoize the calls to pure
+ *     functions (see {@link norswap.sigh.runtime.MemoTable}).</li>
+ *
  *     <li>The rules check typing constraints: assignment of values to variables, of arguments to
  *     parameters, checking that if/while conditions are booleans, and array indices are
  *     integers.</li>
@@ -89,6 +123,14 @@ public final class SemanticAnalysis
     /** Index of the current function argument. */
     private int argumentIndex;
 
+    /** Functions whose own code is impure (excluding the functions they call), see {@link
+     * #purity}. */
+    private final Set<FunDeclarationNode> impure = new HashSet<>();
+
+    /** The functions called by each function declaration, by reference, see {@link #purity}. */
+    private final LinkedHashMap<FunDeclarationNode, List<ReferenceNode>> callees =
+        new LinkedHashMap<>();
+
     // ---------------------------------------------------------------------------------------------
 
     private SemanticAnalysis(Reactor reactor) {
@@ -138,7 +180,7 @@ public final class SemanticAnalysis
         walker.register(FunDeclarationNode.class,       PRE_VISIT,  analysis::funDecl);
         walker.register(StructDeclarationNode.class,    PRE_VISIT,  analysis::structDecl);
 
-        walker.register(RootNode.class,                 POST_VISIT, analysis::popScope);
+        walker.register(RootNode.class,                 POST_VISIT, analysis::purity);
         walker.register(BlockNode.class,                POST_VISIT, analysis::popScope);
         walker.register(FunDeclarationNode.class,       POST_VISIT, analysis::popScope);
 
@@ -186,6 +228,9 @@ public final class SemanticAnalysis
         DeclarationContext maybeCtx = scope.lookup(node.name);
 
         if (maybeCtx != null) {
+            if (!isPureReference(maybeCtx))
+                impure();
+
             R.set(node, "decl",  maybeCtx.declaration);
             R.set(node, "scope", maybeCtx.scope);
 
@@ -352,14 +397,18 @@ public final class SemanticAnalysis
 
             StructDeclarationNode decl = ((StructType) type).node;
 
-            for (DeclarationNode field: decl.fields)
+            for (int i = 0; i < decl.fields.size(); ++i)
             {
+                DeclarationNode field = decl.fields.get(i);
                 if (!field.name().equals(node.fieldName)) continue;
 
                 R.rule(node, "type")
                 .using(field, "type")
                 .by(Rule::copyFirst);
 
+                R.set(node, "slot", i);
+                if (decl.columnar && node.stem instanceof ArrayAccessNode)
+                    R.set(node, "columnarItem", node.stem);
                 return;
             }
 
@@ -398,6 +447,15 @@ public final class SemanticAnalysis
     {
         this.inferenceContext = node;
 
+        // The purity of the called functions is taken into account in purity().
+        if (node.function instanceof ReferenceNode) {
+            FunDeclarationNode caller = currentFunction();
+            if (caller != null)
+                callees.get(caller).add((ReferenceNode) node.function);
+        }
+        else if (!(node.function instanceof ConstructorNode))
+            impure();
+
         Attribute[] dependencies = new Attribute[node.arguments.size() + 1];
         dependencies[0] = node.function.attr("type");
         forEachIndexed(node.arguments, (i, arg) -> {
@@ -461,6 +519,9 @@ public final class SemanticAnalysis
                         if (node.operator == MonadicOperator.NOT || node.operator == MonadicOperator.SELF_ADD || node.operator == MonadicOperator.SELF_MULT) {
                             r.set(0, new ArrayType(FloatType.INSTANCE));
                         }
+                        else if (node.operator == MonadicOperator.HASHTAG) {
+                            r.set(0, IntType.INSTANCE); // the length, as for the # verb
+                        }
                         else {
                             r.set(0, FloatType.INSTANCE);
                         }
@@ -520,7 +581,8 @@ public final class SemanticAnalysis
 
     private void binaryArithmetic (Rule r, DiadicExpressionNode node, Type left, Type right)
     {
-        if (left instanceof ArrayType || right instanceof ArrayType)
+        // <> always builds an array, even from two scalars
+        if (left instanceof ArrayType || right instanceof ArrayType || node.operator == CONCAT)
         {
             Type leftType, rightType;
             if(left instanceof ArrayType)
@@ -637,6 +699,10 @@ public final class SemanticAnalysis
 
     private void assignment (AssignmentNode node)
     {
+        // Assigned variables are checked in reference().
+        if (!(node.left instanceof ReferenceNode))
+            impure();
+
         R.rule(node, "type")
         .using(node.left.attr("type"), node.right.attr("type"))
         .by(r -> {
@@ -725,7 +791,9 @@ public final class SemanticAnalysis
 
         if (a instanceof ArrayType)
             return b instanceof ArrayType
-                && isAssignableTo(((ArrayType)a).componentType, ((ArrayType)b).componentType);
+                && isAssignableTo(((ArrayType)a).componentType, ((ArrayType)b).componentType)
+                // e.g. Null[] to a columnar array, which can't hold nulls
+                && (((ArrayType) a).isColumnar() || !((ArrayType) b).isColumnar());
 
         return a instanceof NullType && b.isReference() || a.equals(b);
     }
@@ -801,6 +869,7 @@ public final class SemanticAnalysis
 
         scope.declare(node.name, node);
         R.set(node, "scope", scope);
+        R.set(node, "slot", scope.allocateSlot());
 
         R.rule(node, "type")
         .using(node.type, "value")
@@ -834,6 +903,7 @@ public final class SemanticAnalysis
     private void parameter (ParameterNode node)
     {
         R.set(node, "scope", scope);
+        R.set(node, "slot", scope.allocateSlot());
         scope.declare(node.name, node); // scope pushed by FunDeclarationNode
 
         R.rule(node, "type")
@@ -845,6 +915,7 @@ public final class SemanticAnalysis
 
     private void funDecl (FunDeclarationNode node)
     {
+        callees.put(node, new ArrayList<>());
         scope.declare(node.name, node);
         scope = new Scope(node, scope);
         R.set(node, "scope", scope);
@@ -928,6 +999,12 @@ public final class SemanticAnalysis
         if (function == null) // top-level return
             return;
 
+        if (isSelfCall(node.expression, function)) {
+            R.set(node, "tailCall", true);
+            if (R.get(function, "tailCall") == null)
+                R.set(function, "tailCall", true);
+        }
+
         if (node.expression == null)
             R.rule()
             .using(function.returnType, "value")
@@ -954,6 +1031,108 @@ public final class SemanticAnalysis
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Whether {@code expression} is a call to {@code function}. The function reference is looked
+     * up now, like {@link #reference} does for a name declared before it is used.
+     */
+    private boolean isSelfCall (ExpressionNode expression, FunDeclarationNode function)
+    {
+        if (!(expression instanceof FunCallNode))
+            return false;
+        ExpressionNode callee = ((FunCallNode) expression).function;
+        if (!(callee instanceof ReferenceNode))
+            return false;
+        DeclarationContext ctx = scope.lookup(((ReferenceNode) callee).name);
+        return ctx != null && ctx.declaration == function;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether a reference resolved to the given declaration keeps the current function pure: it
+     * must not refer to a variable declared outside of the function, or to {@code print}.
+     */
+    private boolean isPureReference (DeclarationContext ctx)
+    {
+        DeclarationNode decl = ctx.declaration;
+        if (decl instanceof SyntheticDeclarationNode)
+            return ((SyntheticDeclarationNode) decl).kind() != DeclarationKind.FUNCTION;
+        if (!(decl instanceof VarDeclarationNode || decl instanceof ParameterNode))
+            return true;
+
+        for (Scope scope = this.scope; scope != null; scope = scope.parent) {
+            if (scope == ctx.scope)
+                return true;
+            if (scope.node instanceof FunDeclarationNode)
+                return false;
+        }
+        return true; // top-level code
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Records that the code of the current function (if any) is impure, see {@link #purity}. */
+    private void impure () {
+        FunDeclarationNode function = currentFunction();
+        if (function != null)
+            impure.add(function);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Called at the end of the walk to set the {@code pure} attribute of all functions, once
+     * the functions they call are resolved. A function is pure if its code is, and it only calls
+     * pure functions: this is the greatest fixed point, so that recursive functions can be pure.
+     */
+    private void purity (RootNode node)
+    {
+        popScope(node);
+        if (callees.isEmpty())
+            return;
+
+        List<FunDeclarationNode> functions = new ArrayList<>(callees.keySet());
+        List<ReferenceNode> calls = new ArrayList<>();
+        callees.values().forEach(calls::addAll);
+
+        Attribute[] exports = functions.stream()
+            .map(it -> it.attr("pure"))
+            .toArray(Attribute[]::new);
+        Attribute[] dependencies = calls.stream()
+            .map(it -> it.attr("decl"))
+            .toArray(Attribute[]::new);
+
+        R.rule(exports)
+        .using(dependencies)
+        .by(r -> {
+            IdentityHashMap<ReferenceNode, DeclarationNode> targets = new IdentityHashMap<>();
+            for (int i = 0; i < calls.size(); ++i)
+                targets.put(calls.get(i), r.get(i));
+
+            Set<FunDeclarationNode> impure = new HashSet<>(this.impure);
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (FunDeclarationNode function: functions) {
+                    if (impure.contains(function)) continue;
+                    for (ReferenceNode call: callees.get(function)) {
+                        DeclarationNode target = targets.get(call);
+                        if (!(target instanceof FunDeclarationNode) || impure.contains(target)) {
+                            impure.add(function);
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (FunDeclarationNode function: functions)
+                r.set(function, "pure", !impure.contains(function));
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private FunDeclarationNode currentFunction()
     {
         Scope scope = this.scope;
@@ -990,83 +1169,85 @@ public final class SemanticAnalysis
 
     private void monadicforkexpression(MonadicForkNode node)
     {
-        R.rule(node, "type")
+        R.rule(node.attr("type"), node.attr("leftType"), node.attr("rightType"))
             .using(node.operand, "type")
             .by(r -> {
                 Type opType = r.get(0);
-                if(opType instanceof ArrayType)
-                {
-                    if(((ArrayType) opType).componentType instanceof IntType)
-                    {
-                        r.set(0, new ArrayType(IntType.INSTANCE));
-                    }
-                    else if(((ArrayType) opType).componentType instanceof FloatType)
-                    {
-                        r.set(0, new ArrayType(FloatType.INSTANCE));
-                    }
-                    else
-                    {
-                        //todo change this
-                        r.error(format("Error Unary, not correct array type : %s %s",node.operatorM.name().toLowerCase(),opType), node);
-                    }
-
-                }
-                else if( opType instanceof IntType)
-                {
-                    r.set(0, IntType.INSTANCE);
-                }
-                else if(opType instanceof FloatType)
-                {
-                    r.set(0, FloatType.INSTANCE);
+                Type left  = verbType(node.operatorL, opType);
+                Type right = verbType(node.operatorR, opType);
+
+                if (left == null || right == null) {
+                    r.error(format("Error fork, not correct operand type : (%s %s %s) %s",
+                        node.operatorL.string, node.operatorM.string, node.operatorR.string,
+                        opType), node);
+                    return;
                 }
+
+                r.set(0, verbType(node.operatorM, left, right));
+                r.set(1, left);
+                r.set(2, right);
             });
     }
 
     private void diadicforkexpression(DiadicForkNode node)
     {
-        R.rule(node, "type")
+        R.rule(node.attr("type"), node.attr("leftType"), node.attr("rightType"))
             .using(node.operandL.attr("type"), node.operandR.attr("type"))
             .by(r -> {
                 Type left  = r.get(0);
                 Type right = r.get(1);
 
-                boolean iscorrect = isCorrect(left) && isCorrect(right);
-
-                boolean isFloat = isFloat(left) || isFloat(right);
-
-                boolean isInt = isInt(left) && isInt(right);
-
-                boolean isArray = isArray(left) || isArray(right);
-
-                if(!iscorrect)
-                {
-                    r.error(format("Error diadic, not correct type : %s %s",left,right), node);
+                if (!isCorrect(left) || !isCorrect(right)) {
+                    r.error(format("Error diadic, not correct type : %s %s", left, right), node);
+                    return;
                 }
 
-                if(isArray)
-                {
-                    if(isFloat)
-                    {
-                        r.set(0, new ArrayType(FloatType.INSTANCE));
-                    }
-                    else if (isInt)
-                    {
-                        r.set(0, new ArrayType(IntType.INSTANCE));
-                    }
-                }
-                else if(isFloat){
-                    r.set(0, FloatType.INSTANCE);
-                }
-                else if(isInt){
-                    r.set(0, IntType.INSTANCE);
-                }
-                else
-                {
-                    throw new Error("Should not reach here");
-                }
+                Type leftType  = verbType(node.operatorL, left, right);
+                Type rightType = verbType(node.operatorR, left, right);
+                r.set(0, verbType(node.operatorM, leftType, rightType));
+                r.set(1, leftType);
+                r.set(2, rightType);
             });
     }
 
+    /**
+     * Returns the type of the value of the monadic verb {@code operator} applied to a value of type
+     * {@code type} in a fork, or null if the operand is not numeric.
+     *
+     * <p>The elementwise verbs ({@code !}, {@code +:}, {@code *:}) return an array of the same
+     * type, the other verbs reduce arrays to a scalar: {@code #} to an {@code Int}, the others to
+     * an item.
+     */
+    private Type verbType(MonadicOperator operator, Type type)
+    {
+        if (isNumeric(type))
+            return type;
+        if (!isCorrect(type))
+            return null;
+        switch (operator) {
+            case NOT:
+            case SELF_ADD:
+            case SELF_MULT:
+                return type;
+            case HASHTAG:
+                return IntType.INSTANCE;
+            default:
+                return ((ArrayType) type).componentType;
+        }
+    }
+
+    /**
+     * Returns the type of the value of the diadic verb {@code operator} applied to numeric values
+     * (or arrays) of type {@code left} and {@code right} in a fork.
+     */
+    private Type verbType(DiadicOperator operator, Type left, Type right)
+    {
+        Type item = isFloat(left) || isFloat(right) ? FloatType.INSTANCE : IntType.INSTANCE;
+        return operator == CONCAT || isArray(left) || isArray(right)
+            ? new ArrayType(item)
+            : item;
+    }
+
     private boolean isNumeric(Type type)
     {
         if(type instanceof FloatType)
@@ -59,6 +59,7 @@ public class SighGrammar extends Grammar
     public rule _else           = reserved("else");
     public rule _while          = reserved("while");
     public rule _return         = reserved("return");
+    public rule _columnar       = reserved("columnar");
 
     public rule GRAB_LAST       = word("{:");
     public rule SUM_SLASH       = word("+/");
@@ -273,8 +274,8 @@ public class SighGrammar extends Grammar
         seq(LBRACE, field_decl.at_least(0).as_list(DeclarationNode.class), RBRACE);
 
     public rule struct_decl =
-        seq(_struct, identifier, struct_body)
-        .push($ -> new StructDeclarationNode($.span(), $.$[0], $.$[1]));
+        seq(_columnar.as_bool(), _struct, identifier, struct_body)
+        .push($ -> new StructDeclarationNode($.span(), $.$[0], $.$[1], $.$[2]));
 
     public rule if_stmt =
         seq(_if, expression, statement, seq(_else, statement).or_push_null())
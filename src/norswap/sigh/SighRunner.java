@@ -5,7 +5,13 @@ import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
 import norswap.sigh.ast.SighNode;
 import norswap.sigh.ast.RootNode;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CodeCache;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.LoadedProgram;
+import norswap.sigh.interpreter.ExecutorCompiler;
 import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.Tiering;
 import norswap.uranium.AttributeTreeFormatter;
 import norswap.uranium.Reactor;
 import norswap.uranium.SemanticError;
@@ -21,7 +27,45 @@ public final class SighRunner
 {
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The backends that {@link #run(String)} can use to execute a program.
+     */
+    public enum Backend {
+        /** Walks the AST directly, see {@link Interpreter}. */
+        INTERPRETER,
+        /** Compiles the AST into a pre-linked executor tree first, see {@link ExecutorCompiler}. */
+        EXECUTOR_TREE,
+        /** Walks the AST, compiling hot functions in the background, see {@link Tiering}. */
+        TIERED,
+        /** Compiles the program to JVM bytecode, see {@link BytecodeCompiler}. */
+        BYTECODE
+    }
+
+    /** Name of the class the {@link Backend#BYTECODE} backend compiles programs into. */
+    private static final String PROGRAM_CLASS = "SighProgram";
+
+    /**
+     * Whether the {@link Backend#BYTECODE} backend emits debug information (see {@link
+     * BytecodeCompiler#debugInfo}), which lets profilers attribute samples to source lines. Set by
+     * the {@code sigh.bytecode.debug} system property, off by default. Programs compiled with debug
+     * information are not cached.
+     */
+    private static final boolean DEBUG_INFO = Boolean.getBoolean("sigh.bytecode.debug");
+
+    /**
+     * Capacity of the memo tables of the pure functions (see {@link
+     * norswap.sigh.runtime.MemoTable}), or 0 to disable memoization. Set by the {@code
+     * sigh.memo.capacity} system property, off by default (as well as for values that are not
+     * positive). Programs compiled with memoization are not cached.
+     */
+    private static final int MEMO_CAPACITY =
+        Math.max(0, Integer.getInteger("sigh.memo.capacity", 0));
+
+    // ---------------------------------------------------------------------------------------------
+
     private final SighGrammar grammar = new SighGrammar();
+    private final Backend backend;
+    private final CodeCache cache;
 
     private final ParseOptions parseOptions = ParseOptions.builder()
             .wellFormednessCheck(false)
@@ -29,10 +73,32 @@ public final class SighRunner
 
     // ---------------------------------------------------------------------------------------------
 
+    public SighRunner () {
+        this(Backend.INTERPRETER);
+    }
+
+    public SighRunner (Backend backend) {
+        this(backend, null);
+    }
+
+    /**
+     * Creates a runner whose {@link Backend#BYTECODE} backend looks up programs in {@code cache}
+     * (if non-null) before compiling them, in which case they are not even parsed.
+     */
+    public SighRunner (Backend backend, CodeCache cache) {
+        this.backend = backend;
+        this.cache = cache;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     public Object run(String input) {
-        Reactor reactor = new Reactor();
-        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
-        Interpreter interpreter = new Interpreter(reactor);
+        boolean useCache = cache != null && !DEBUG_INFO && MEMO_CAPACITY == 0;
+        if (backend == Backend.BYTECODE && useCache) {
+            CompilationResult compiled = cache.get(PROGRAM_CLASS, input);
+            if (compiled != null)
+                return run(compiled);
+        }
 
         ParseResult result = Autumn.parse(grammar.root, input, parseOptions);
         if (!result.fullMatch) {
@@ -46,6 +112,57 @@ public final class SighRunner
         }
 
         RootNode root = result.topValue();
+        AnalysisTables tables = analyze(root);
+
+        switch (backend) {
+            case INTERPRETER:
+                return interpreter(new Interpreter(tables)).interpret(root);
+            case EXECUTOR_TREE:
+                ExecutorCompiler executorCompiler = new ExecutorCompiler(tables);
+                if (MEMO_CAPACITY != 0)
+                    executorCompiler.memoize(MEMO_CAPACITY);
+                return executorCompiler.compile(root).run();
+            case TIERED:
+                return interpreter(new Interpreter(tables, new Tiering(tables))).interpret(root);
+            case BYTECODE:
+                BytecodeCompiler compiler = new BytecodeCompiler(tables);
+                if (DEBUG_INFO)
+                    compiler.debugInfo(PROGRAM_CLASS + ".si", input);
+                if (MEMO_CAPACITY != 0)
+                    compiler.memoize(MEMO_CAPACITY);
+                CompilationResult compiled = compiler.compile(PROGRAM_CLASS, root);
+                if (useCache)
+                    cache.put(PROGRAM_CLASS, input, compiled);
+                return run(compiled);
+            default:
+                throw new Error("unknown backend: " + backend);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Interpreter interpreter (Interpreter interpreter) {
+        return MEMO_CAPACITY == 0 ? interpreter : interpreter.memoize(MEMO_CAPACITY);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object run (CompilationResult compiled) {
+        // each run in its own class loader, which can be unloaded afterwards
+        try (LoadedProgram program = compiled.loadProgram()) {
+            return program.run();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs semantic analysis on the tree and returns its frozen results. The reactor does not
+     * outlive this method, so that its attribute graph isn't retained while the program runs.
+     */
+    private AnalysisTables analyze (RootNode root) {
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
         walker.walk(root);
         reactor.run();
         Set<SemanticError> errors = reactor.errors();
@@ -61,7 +178,7 @@ public final class SighRunner
             throw new AssertionError("semantic errors");
         }
 
-        return interpreter.interpret(root);
+        return AnalysisTables.freeze(root, reactor);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,127 @@
+package norswap.sigh;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.positions.LineMap;
+import norswap.autumn.positions.LineMapString;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.JarPackager;
+import norswap.uranium.Reactor;
+import norswap.utils.IO;
+import norswap.utils.visitors.Walker;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static norswap.utils.Util.cast;
+
+/**
+ * Ahead-of-time compiler: compiles a Sigh source file into a runnable jar.
+ *
+ * <p>Usage: {@code sighc [-g] <file.si> [<output.jar>]}. The jar is named after the source file
+ * by default, and can be run with {@code java -jar}, without the compiler on the classpath (see
+ * {@link JarPackager}). With {@code -g}, the classes contain debug information (see {@link
+ * BytecodeCompiler#debugInfo}), so that profilers and stack traces can refer to source lines.
+ */
+public final class Sighc
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args) throws IOException
+    {
+        boolean debugInfo = args.length > 0 && args[0].equals("-g");
+        if (debugInfo)
+            args = Arrays.copyOfRange(args, 1, args.length);
+
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("usage: sighc [-g] <file.si> [<output.jar>]");
+            System.exit(2);
+        }
+
+        Path source = Paths.get(args[0]);
+        String name = className(source);
+        Path jar = args.length == 2
+            ? Paths.get(args[1])
+            : source.resolveSibling(name + ".jar");
+
+        CompilationResult result =
+            compile(source.toString(), IO.slurp(source.toString()), name, debugInfo);
+        if (result == null)
+            System.exit(1);
+        JarPackager.write(result, jar);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the source into a class named {@code className}, or prints the errors and returns
+     * null if it is invalid. {@code path} is only used in error messages.
+     */
+    public static CompilationResult compile (String path, String src, String className) {
+        return compile(path, src, className, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #compile(String, String, String)}, but emits debug information if {@code
+     * debugInfo} is set, in which case the file name of {@code path} is the name of the source file
+     * in the generated classes.
+     */
+    public static CompilationResult compile (
+            String path, String src, String className, boolean debugInfo)
+    {
+        SighGrammar grammar = new SighGrammar();
+        ParseOptions options = ParseOptions.builder().recordCallStack(true).get();
+        ParseResult result = Autumn.parse(grammar.root, src, options);
+        LineMap lineMap = new LineMapString(path, src);
+
+        if (!result.fullMatch) {
+            System.err.println(result.toString(lineMap, false));
+            return null;
+        }
+
+        SighNode tree = cast(result.topValue());
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(tree);
+        reactor.run();
+
+        if (!reactor.errors().isEmpty()) {
+            System.err.println(reactor.reportErrors(it ->
+                it.toString() + " (" + ((SighNode) it).span.startString(lineMap) + ")"));
+            return null;
+        }
+
+        AnalysisTables tables = AnalysisTables.freeze(tree, reactor);
+        BytecodeCompiler compiler = new BytecodeCompiler(tables);
+        if (debugInfo)
+            compiler.debugInfo(Paths.get(path).getFileName().toString(), src);
+        return compiler.compile(className, tree);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Derives a valid Java class name from the name of the source file, without its extension.
+     */
+    static String className (Path source)
+    {
+        String file = source.getFileName().toString();
+        int dot = file.lastIndexOf('.');
+        if (dot > 0) file = file.substring(0, dot);
+
+        StringBuilder name = new StringBuilder();
+        for (char c: file.toCharArray())
+            name.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0)))
+            name.insert(0, '_');
+        return name.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -46,7 +46,7 @@ public final class Test
             return;
         }
 
-        Interpreter interpreter = new Interpreter(reactor);
+        Interpreter interpreter = new Interpreter(AnalysisTables.freeze(tree, reactor));
         interpreter.interpret(tree);
         System.out.println("success");
     }
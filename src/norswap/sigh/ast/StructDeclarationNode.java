@@ -9,9 +9,23 @@ public class StructDeclarationNode extends DeclarationNode
     public final String name;
     public final List<FieldDeclarationNode> fields;
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Whether the structure was declared {@code columnar}: arrays of the structure are then stored
+     * as one array per field, and hold their items by value. Reading an item that isn't
+     * immediately followed by a field access yields a copy of the item; assigning an item copies
+     * the fields of the assigned structure, which can't be null. In exchange, {@code a[i].x} and
+     * {@code a[i].x = v} directly access the array of the field.
+     */
+    public final boolean columnar;
+
     public StructDeclarationNode (Span span, Object name, Object fields) {
+        this(span, false, name, fields);
+    }
+
+    @SuppressWarnings("unchecked")
+    public StructDeclarationNode (Span span, Object columnar, Object name, Object fields) {
         super(span);
+        this.columnar = Util.cast(columnar, Boolean.class);
         this.name = Util.cast(name, String.class);
         this.fields = Util.cast(fields, List.class);
     }
@@ -21,7 +35,7 @@ public class StructDeclarationNode extends DeclarationNode
     }
 
     @Override public String contents () {
-        return "struct " + name;
+        return (columnar ? "columnar struct " : "struct ") + name;
     }
 
     @Override public String declaredThing () {
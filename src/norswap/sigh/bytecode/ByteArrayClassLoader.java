@@ -15,7 +15,12 @@ public final class ByteArrayClassLoader extends ClassLoader
 
     /**
      * Default reusable instance of the class loader.
+     *
+     * @deprecated The classes defined in this loader can never be unloaded, and the classes of
+     * different programs collide when they have the same name. Use a new loader for each program
+     * instead, e.g. through {@link CompilationResult#loadProgram()}.
      */
+    @Deprecated
     public static final ByteArrayClassLoader INSTANCE = new ByteArrayClassLoader();
 
     // ---------------------------------------------------------------------------------------------
@@ -1,23 +1,32 @@
 package norswap.sigh.bytecode;
 
+import norswap.sigh.AnalysisTables;
 import norswap.sigh.ast.*;
 import norswap.sigh.interpreter.Constructor;
+import norswap.sigh.runtime.ArrayKernels;
+import norswap.sigh.runtime.MemoTable;
 import norswap.sigh.scopes.Scope;
 import norswap.sigh.scopes.SyntheticDeclarationNode;
 import norswap.sigh.types.*;
-import norswap.uranium.Reactor;
 import norswap.utils.Vanilla;
 import norswap.utils.data.wrappers.Pair;
+import norswap.utils.visitors.ReflectiveFieldWalker;
 import norswap.utils.visitors.ValuedVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
 import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import static norswap.sigh.ast.DiadicOperator.*;
@@ -25,6 +34,8 @@ import static norswap.sigh.bytecode.AsmUtils.*;
 import static norswap.sigh.bytecode.TypeUtils.fieldDescriptor;
 import static norswap.sigh.bytecode.TypeUtils.methodDescriptor;
 import static norswap.sigh.bytecode.TypeUtils.*;
+import static norswap.utils.Util.cast;
+import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
 import static org.objectweb.asm.Opcodes.*;
 
 /**
@@ -42,7 +53,9 @@ import static org.objectweb.asm.Opcodes.*;
  *     <li>{@code String}: {@link String}</li>
  *     <li>{@code null}: {@link norswap.sigh.bytecode.Null#INSTANCE}</li>
  *     <li>Arrays: proper array type for the representation of the component. For multi-dimension
- *     arrays, object arrays (e.g. {@code Object[][]}).</li>
+ *     arrays, object arrays (e.g. {@code Object[][]}). Arrays of columnar structures are instances
+ *     of a class with one array per field, named after the structure followed by {@code
+ *     $Columns}.</li>
  *     <li>Structs: A Java class encoding the structure, in the default package and using the
  *     structure's name.</li>
  *     <li>TODO: Functions: a {@link MethodHandle} to the method that implements the function in
@@ -78,12 +91,26 @@ public class BytecodeCompiler
     // ---------------------------------------------------------------------------------------------
 
     private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
-    private final Reactor reactor;
+    private final AnalysisTables tables;
+    private final boolean computeFrames;
 
     // ---------------------------------------------------------------------------------------------
 
-    public BytecodeCompiler (Reactor reactor) {
-        this.reactor = reactor;
+    public BytecodeCompiler (AnalysisTables tables) {
+        this(tables, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If {@code computeFrames} is true, the stack map frames are computed by ASM ({@link
+     * ClassWriter#COMPUTE_FRAMES}) instead of being emitted by the compiler. This is slower, and
+     * only useful to compare the two (see {@code CompilerBenchmark}), or to rule out the emitted
+     * frames when debugging a verification error.
+     */
+    public BytecodeCompiler (AnalysisTables tables, boolean computeFrames) {
+        this.tables = tables;
+        this.computeFrames = computeFrames;
 
         // expressions
         visitor.register(IntLiteralNode.class,           this::intLiteral);
@@ -98,6 +125,8 @@ public class BytecodeCompiler
         visitor.register(FunCallNode.class,              this::funCall);
         visitor.register(MonadicExpressionNode.class,      this::unaryExpression);
         visitor.register(DiadicExpressionNode.class,     this::binaryExpression);
+        visitor.register(MonadicForkNode.class,          this::monadicFork);
+        visitor.register(DiadicForkNode.class,           this::diadicFork);
         visitor.register(AssignmentNode.class,           this::assignment);
 
         // statement groups & declarations
@@ -118,13 +147,53 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Makes the compiler emit debug information: the name of the source file, line numbers (the
+     * LineNumberTable attribute, mapping the code of each statement to its line) and the local
+     * variables (LocalVariableTable). This lets debuggers, profilers and stack traces point to
+     * the Sigh source. It makes the classes bigger, so it is off by default.
+     *
+     * <p>{@code source} must be the source the compiled tree was parsed from, as lines are
+     * derived from the spans of the nodes. Returns this compiler.
+     */
+    public BytecodeCompiler debugInfo (String sourceFile, String source)
+    {
+        int lines = 1;
+        for (int i = 0; i < source.length(); ++i)
+            if (source.charAt(i) == '\n') ++lines;
+
+        lineStarts = new int[lines];
+        for (int i = 0, line = 1; i < source.length(); ++i)
+            if (source.charAt(i) == '\n') lineStarts[line++] = i + 1;
+
+        this.sourceFile = sourceFile;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes the compiler memoize the calls to {@link MemoTable#memoizable memoizable} functions.
+     * The method of such a function looks up its arguments in the function's memo table, which
+     * holds at most {@code capacity} results, and only calls the method compiled from the body of
+     * the function ({@code name$body}) if they are not found. The table is created when the class
+     * is initialized, in the static field {@code name$memo} (see {@link
+     * LoadedProgram#memoTable}). Returns this compiler.
+     */
+    public BytecodeCompiler memoize (int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.memoCapacity = capacity;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /* Slash-separated binary class name for the class containing the emitted bytecode for the source
      * unit. */
     private String containerName;
 
-    /* Class visitor for the class containing the emitted bytecode for the source unit. */
-    private ClassWriter container;
-
     /* Class writer for the class representing the struct currently being emitted. */
     private ClassWriter struct;
 
@@ -141,96 +210,364 @@ public class BytecodeCompiler
     /** Counter used to number variables in {@link #variables}. */
     private int variableCounter = 0;
 
+    /**
+     * Verification types of the local variables of the current method, by index, as ASM
+     * represents them in stack map frames: {@link Opcodes#LONG} (followed by {@link Opcodes#TOP}
+     * for the second slot), internal names for references, etc. See {@link #jumpTarget}.
+     */
+    private final ArrayList<Object> locals = new ArrayList<>();
+
+    /**
+     * Maps top-level variables to the name of the static field that holds them, when the top-level
+     * code is split into chunks (see {@link #root}), in which case they are not in {@link
+     * #variables}.
+     */
+    private final HashMap<Pair<Scope, String>, String> fieldVariables = new HashMap<>();
+
     /** Whether we are in top-level code. */
     private boolean topLevel;
 
+    /** Start of the body of the current function, which self tail calls jump back to. */
+    private Label tailCallTarget;
+
+    /** Capacity of the memo tables, or 0 if memoization is disabled (see {@link #memoize}). */
+    private int memoCapacity;
+
+    /** The static fields holding the memo tables of the functions compiled for {@link #unit}. */
+    private final List<String> memoTables = new ArrayList<>();
+
+    /** Whether the top-level code is split into chunks, see {@link #root}. */
+    private boolean chunked;
+
+    /** The node this compiler compiles, see {@link #compileUnit}. */
+    private SighNode unit;
+
+    /** The methods generated for {@link #unit}, in order. */
+    private final List<MethodNode> methods = new ArrayList<>();
+
+    /** The static fields generated for {@link #unit} (only for chunked top-level code). */
+    private final List<FieldNode> fields = new ArrayList<>();
+
+    /** Name of the source file, if debug information is emitted (see {@link #debugInfo}). */
+    private String sourceFile;
+
+    /** Offsets at which the lines of the source start, or null if no debug information is
+     * emitted. */
+    private int[] lineStarts;
+
+    /** The last line number emitted in the current method. */
+    private int lastLine;
+
+    /** The local variables of the current method whose scope hasn't ended yet, for the
+     * LocalVariableTable. */
+    private final ArrayList<DebugLocal> debugLocals = new ArrayList<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum size of the code of a method, imposed by the JVM. */
+    private static final int MAX_CODE_SIZE = 65535;
+
+    /**
+     * Size of the code of a method from which no more top-level statements are added to it, if the
+     * top-level code is split into chunks. This leaves room for big statements.
+     */
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /** Minimum number of items of the constant array literals that are packed, see {@link
+     * PackedArrays}. */
+    private static final int PACKED_ARRAY_SIZE = 16;
+
     // ---------------------------------------------------------------------------------------------
 
     /**
      * Compile the given source unit (given as its root AST node) into a class whose (dot-separated)
      * binary name is {@code binaryName}.
      */
-    public CompilationResult compile (String binaryName, SighNode root)
+    public CompilationResult compile (String binaryName, SighNode root) {
+        return compile(binaryName, root, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compile the given source unit (given as its root AST node) into a class whose (dot-separated)
+     * binary name is {@code binaryName}.
+     *
+     * <p>The top-level code, each function and each structure are compiled separately (into
+     * {@link MethodNode}s or classes), then the methods are merged into the container class. If
+     * {@code pool} is non-null, they are compiled in parallel on it. This does not change the
+     * result: the methods are always merged in the same order.
+     */
+    public CompilationResult compile (String binaryName, SighNode root, ForkJoinPool pool)
+    {
+        return compileUnits(binaryName, Collections.singletonList(root), pool);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the given functions (and the functions nested in them) to static methods of a class
+     * whose (dot-separated) binary name is {@code binaryName}. The class has no {@code run} or
+     * {@code main} method, so the functions can only refer to each other, and not to top-level
+     * variables. None of them may declare structures.
+     */
+    public CompilationResult compileFunctions (
+            String binaryName, List<FunDeclarationNode> functions)
+    {
+        return compileUnits(binaryName, new ArrayList<>(functions), null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the given nodes, and the function and structure declarations nested in them, as
+     * separate units (see {@link #compileUnit}), and merges the results in the container class.
+     */
+    private CompilationResult compileUnits (String binaryName, List<SighNode> roots,
+                                            ForkJoinPool pool)
     {
         this.containerName = binaryName.replace('.', '/');
-        run(root);
-        GeneratedClass mainClass = new GeneratedClass(containerName, container.toByteArray());
-        List<GeneratedClass> structClasses = structs.stream()
-            .map(it -> new GeneratedClass(it.a, it.b.toByteArray()))
-            .collect(Collectors.toList());
 
+        // in the order of a depth-first traversal, parents before the declarations they contain
+        List<SighNode> units = new ArrayList<>();
+        ReflectiveFieldWalker<SighNode> walker =
+            new ReflectiveFieldWalker<>(SighNode.class, PRE_VISIT);
+        walker.registerFallback(PRE_VISIT, node -> {
+            if (node instanceof RootNode
+                    || node instanceof FunDeclarationNode
+                    || node instanceof StructDeclarationNode)
+                units.add(node);
+        });
+        roots.forEach(walker::walk);
+
+        List<Object> results = pool == null
+            ? units.stream().map(this::compileUnit).collect(Collectors.toList())
+            : pool.submit(() -> units.parallelStream()
+                .map(this::compileUnit)
+                .collect(Collectors.toList()))
+              .join();
+
+        ClassWriter container = new ClassWriter(classWriterFlags());
+        container.visit(V1_8, ACC_PUBLIC, containerName, null, "java/lang/Object", null);
+        if (sourceFile != null)
+            container.visitSource(sourceFile, null);
+        List<GeneratedClass> structClasses = new ArrayList<>();
+        List<String> memoTables = new ArrayList<>();
+        for (Object result: results) {
+            if (result instanceof List)
+                structClasses.addAll(cast(result));
+            else {
+                BytecodeCompiler compiler = (BytecodeCompiler) result;
+                compiler.fields.forEach(it -> it.accept(container));
+                compiler.methods.forEach(it -> it.accept(container));
+                memoTables.addAll(compiler.memoTables);
+            }
+        }
+        if (!memoTables.isEmpty())
+            memoTablesInitializer(container, memoTables);
+        container.visitEnd();
+
+        GeneratedClass mainClass = new GeneratedClass(containerName, container.toByteArray());
         return new CompilationResult(mainClass, structClasses);
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles a single root node, function or structure declaration, with a new compiler that
+     * skips the function and structure declarations nested in it. Returns the compiler itself
+     * for the root node or a function (whose {@link #fields} and {@link #methods} are then merged
+     * into the container class), and the list of {@link GeneratedClass} for a structure (the
+     * structure class, followed by the class for its arrays if it is columnar).
+     *
+     * <p>This may be called concurrently from multiple threads.
+     */
+    private Object compileUnit (SighNode node)
+    {
+        BytecodeCompiler compiler = new BytecodeCompiler(tables, computeFrames);
+        compiler.containerName = containerName;
+        compiler.sourceFile = sourceFile;
+        compiler.lineStarts = lineStarts;
+        compiler.memoCapacity = memoCapacity;
+        compiler.unit = node;
+        compiler.run(node);
+        if (node instanceof StructDeclarationNode)
+            return compiler.structs.stream()
+                .map(it -> new GeneratedClass(it.a, it.b.toByteArray()))
+                .collect(Collectors.toList());
+        return compiler;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Flags for the class writers: the maximum stack size and number of locals are always computed
+     * by ASM, but the stack map frames are emitted by the compiler (see {@link #jumpTarget}),
+     * unless {@link #computeFrames} is set.
+     */
+    private int classWriterFlags () {
+        return computeFrames ? ClassWriter.COMPUTE_FRAMES : ClassWriter.COMPUTE_MAXS;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Starts a new method of the container class. Its unreachable code will be dropped (see
+     * {@link DeadCodeFilter}).
+     */
+    private MethodVisitor newMethod (int access, String name, String descriptor) {
+        MethodNode method = new MethodNode(ASM5, access, name, descriptor, null, null);
+        methods.add(method);
+        lastLine = 0;
+        return new DeadCodeFilter(method);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object run (SighNode node) {
+        if (lineStarts != null && method != null && node instanceof StatementNode)
+            lineNumber(node);
         return visitor.apply(node);
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Top-level code belongs in the {@code run} method. If that method would be too large for the
+     * JVM, the top-level code is compiled again, split into chunks: {@code run} runs the first
+     * statements, then calls {@code run$1}, which runs the next statements, then calls {@code
+     * run$2}, etc. Each chunk returns the value returned by the next one, so that a top-level
+     * return in any chunk returns from {@code run}. Since the chunks can't share local variables,
+     * top-level variables are then stored in static fields instead.
+     */
     private Object root (RootNode node)
     {
-        container = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-        container.visit(V1_8, ACC_PUBLIC, containerName, null, "java/lang/Object", null);
-
-        // Top-level code belongs in the run method.
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, "run",
-            "([Ljava/lang/String;)Ljava/lang/Object;", null, null);
-        method.visitCode();
         topLevel = true;
-        node.statements.forEach(this::run);
-        // append "return null;" since we do not know if top-level code always returns
-        loadConstant(method, null);
-        method.visitInsn(ARETURN);
-        method.visitEnd();
-        method.visitMaxs(-1, -1);
-        container.visitEnd();
+        topLevelCode(node);
+        if (codeSize() > MAX_CODE_SIZE) {
+            methods.clear();
+            variables.clear();
+            chunked = true;
+            topLevelCode(node);
+        }
 
         // Traditional java main method to run standalone.
         // This just calls run, ignoring its return value.
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, "main",
-            "([Ljava/lang/String;)V", null, null);
+        method = newMethod(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V");
         method.visitCode();
         method.visitVarInsn(ALOAD, 0);
         method.visitMethodInsn(INVOKESTATIC, containerName,
             "run", "([Ljava/lang/String;)Ljava/lang/Object;", false);
         method.visitInsn(POP);
         method.visitInsn(RETURN); // explicitly necessary
-        method.visitEnd();
         method.visitMaxs(-1, -1);
-        container.visitEnd();
+        method.visitEnd();
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles the top-level code into {@code run}, and into further chunks if {@link #chunked}
+     * is set (see {@link #root}).
+     */
+    private void topLevelCode (RootNode node)
+    {
+        startChunk("run", "([Ljava/lang/String;)Ljava/lang/Object;");
+        locals.add("[Ljava/lang/String;"); // args, until overwritten by the first variable
+        int chunk = 0;
+
+        for (StatementNode statement: node.statements) {
+            if (chunked && codeSize() >= CHUNK_SIZE) {
+                String next = "run$" + ++chunk;
+                method.visitMethodInsn(INVOKESTATIC, containerName, next,
+                    "()Ljava/lang/Object;", false);
+                method.visitInsn(ARETURN);
+                endMethod();
+                startChunk(next, "()Ljava/lang/Object;");
+            }
+            run(statement);
+        }
+
+        // append "return null;" since we do not know if top-level code always returns
+        loadConstant(method, null);
+        method.visitInsn(ARETURN);
+        endMethod();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void startChunk (String name, String descriptor)
+    {
+        method = newMethod(ACC_PUBLIC | ACC_STATIC, name, descriptor);
+        method.visitCode();
+        variableCounter = 0;
+        locals.clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void endMethod () {
+        endDebugLocals(0);
+        method.visitMaxs(-1, -1);
+        method.visitEnd();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an upper bound of the size of the code of the current method (see {@link
+     * DeadCodeFilter#maxCodeSize()}).
+     */
+    private int codeSize () {
+        return ((DeadCodeFilter) method).maxCodeSize();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object funDecl (FunDeclarationNode node)
     {
+        if (node != unit)
+            return null; // compiled as its own unit
+
         int surroundingVariableCounter = variableCounter;
         MethodVisitor surroundingMethod = method;
         boolean surroundingIsTopLevel = topLevel;
 
         variableCounter = 0;
         topLevel = false;
+        locals.clear();
         node.parameters.forEach(this::run);
 
-        String descriptor = methodDescriptor(reactor.get(node, "type"));
-        method = container.visitMethod(ACC_PUBLIC | ACC_STATIC, node.name, descriptor, null, null);
+        boolean memoized = memoCapacity != 0 && MemoTable.memoizable(node, tables);
+        String descriptor = methodDescriptor(tables.type(node));
+        method = memoized
+            ? newMethod(ACC_PRIVATE | ACC_STATIC, node.name + "$body", descriptor)
+            : newMethod(ACC_PUBLIC | ACC_STATIC, node.name, descriptor);
         method.visitCode();
+        if (lineStarts != null) {
+            lineNumber(node);
+            Label start = new Label();
+            method.visitLabel(start);
+            node.parameters.forEach(it -> debugLocal(it, start));
+        }
+        if (tables.tailCall(node)) {
+            tailCallTarget = new Label();
+            jumpTarget(tailCallTarget, variableCounter);
+        }
         run(node.block);
+        tailCallTarget = null;
 
         // NOTE: The current semantic analysis check guarantee that there is we unconditionally
         // return. So we do not have to worry about instructions not followed by a return.
         // The only exception is for void methods - so we always add a return at the end in that
-        // case. In the future, it might be good to check that nothing follows a return in semantic
-        // analysis.
+        // case (it is dropped if unreachable, see DeadCodeFilter).
         if (descriptor.endsWith("V"))
             method.visitInsn(RETURN);
 
-        method.visitEnd();
-        method.visitMaxs(-1, -1);
+        endMethod();
+        if (memoized)
+            memoWrapper(node, descriptor);
 
         method = surroundingMethod;
         variableCounter = surroundingVariableCounter;
@@ -240,6 +577,108 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits the method of a memoized function (see {@link #memoize}), which looks up its
+     * arguments in the memo table of the function, and calls the method compiled from the body
+     * of the function if they are not found.
+     */
+    private void memoWrapper (FunDeclarationNode node, String descriptor)
+    {
+        String memoName = slashBinaryName(MemoTable.class);
+        String table = node.name + "$memo";
+        String tableDescriptor = "L" + memoName + ";";
+        fields.add(new FieldNode(ASM5, ACC_PUBLIC | ACC_STATIC | ACC_FINAL, table,
+            tableDescriptor, null, null));
+        memoTables.add(table);
+
+        FunType type = tables.type(node);
+        List<ParameterNode> parameters = node.parameters;
+        method = newMethod(ACC_PUBLIC | ACC_STATIC, node.name, descriptor);
+        method.visitCode();
+        variableCounter = 0;
+        locals.clear();
+        parameters.forEach(this::run);
+
+        // the key, see MemoTable#key
+        if (parameters.size() == 1) {
+            loadParameter(parameters.get(0));
+            box(type.paramTypes[0]);
+        } else {
+            loadConstant(method, parameters.size());
+            method.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+            for (int i = 0; i < parameters.size(); ++i) {
+                method.visitInsn(DUP);
+                loadConstant(method, i);
+                loadParameter(parameters.get(i));
+                box(type.paramTypes[i]);
+                method.visitInsn(AASTORE);
+            }
+            invokeStatic(method, MemoTable.class, "key", Object[].class);
+        }
+
+        org.objectweb.asm.Type object = org.objectweb.asm.Type.getType(Object.class);
+        int key = variableCounter++;
+        setLocal(key, object);
+        method.visitVarInsn(ASTORE, key);
+
+        method.visitFieldInsn(GETSTATIC, containerName, table, tableDescriptor);
+        method.visitVarInsn(ALOAD, key);
+        method.visitMethodInsn(INVOKEVIRTUAL, memoName, "get",
+            "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+        int result = variableCounter++;
+        setLocal(result, object);
+        method.visitVarInsn(ASTORE, result);
+
+        int returnOpcode = asmType(type.returnType).getOpcode(IRETURN);
+        Label miss = new Label();
+        method.visitVarInsn(ALOAD, result);
+        method.visitJumpInsn(IFNULL, miss);
+        method.visitVarInsn(ALOAD, result);
+        unbox(type.returnType);
+        method.visitInsn(returnOpcode);
+
+        jumpTarget(miss, variableCounter);
+        method.visitFieldInsn(GETSTATIC, containerName, table, tableDescriptor);
+        method.visitVarInsn(ALOAD, key);
+        parameters.forEach(this::loadParameter);
+        method.visitMethodInsn(INVOKESTATIC, containerName, node.name + "$body", descriptor, false);
+        box(type.returnType);
+        method.visitMethodInsn(INVOKEVIRTUAL, memoName, "put",
+            "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", false);
+        unbox(type.returnType);
+        method.visitInsn(returnOpcode);
+        endMethod();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void loadParameter (ParameterNode node) {
+        loadVariable(new Pair<>(tables.scope(node), node.name), nodeAsmType(node));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits the static initializer of the container class, which creates the memo tables held in
+     * the given fields (see {@link #memoize}).
+     */
+    private void memoTablesInitializer (ClassWriter container, List<String> memoTables)
+    {
+        String memoName = slashBinaryName(MemoTable.class);
+        MethodVisitor init = container.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        init.visitCode();
+        for (String table: memoTables) {
+            init.visitTypeInsn(NEW, memoName);
+            init.visitInsn(DUP);
+            loadConstant(init, memoCapacity);
+            init.visitMethodInsn(INVOKESPECIAL, memoName, "<init>", "(I)V", false);
+            init.visitFieldInsn(PUTSTATIC, containerName, table, "L" + memoName + ";");
+        }
+        init.visitInsn(RETURN);
+        init.visitMaxs(-1, -1);
+        init.visitEnd();
+    }
+
     private Object intLiteral (IntLiteralNode node) {
         method.visitLdcInsn(node.value);
         return null;
@@ -265,9 +704,29 @@ public class BytecodeCompiler
 
     private Object arrayLiteral (ArrayLiteralNode node)
     {
-        ArrayType type = reactor.get(node, "type");
+        ArrayType type = tables.type(node);
         Type compType = type.componentType;
 
+        if (node.components.size() >= PACKED_ARRAY_SIZE && packedArray(node, compType))
+            return null;
+
+        if (type.isColumnar()) {
+            String binaryName = columnsBinaryName((StructType) compType);
+            method.visitTypeInsn(NEW, binaryName);
+            method.visitInsn(DUP);
+            loadConstant(method, node.components.size());
+            method.visitMethodInsn(INVOKESPECIAL, binaryName, "<init>", "(I)V", false);
+            int i = 0;
+            for (ExpressionNode component: node.components) {
+                method.visitInsn(DUP);
+                loadConstant(method, i++);
+                run(component);
+                method.visitMethodInsn(INVOKEVIRTUAL, binaryName, "set",
+                    "(I" + fieldDescriptor(compType) + ")V", false);
+            }
+            return null;
+        }
+
         method.visitLdcInsn(node.components.size());
         int storeOpcode = AASTORE;
 
@@ -306,27 +765,91 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * If the given array literal is an {@code Int[]} or {@code Float[]} whose items are all
+     * literals, emits code that creates it from a packed representation (see {@link
+     * PackedArrays}) and returns true. Otherwise returns false.
+     */
+    private boolean packedArray (ArrayLiteralNode node, Type compType)
+    {
+        int length = node.components.size();
+        List<String> strings;
+
+        if (compType instanceof IntType) {
+            long[] items = new long[length];
+            for (int i = 0; i < length; ++i) {
+                ExpressionNode component = node.components.get(i);
+                if (!(component instanceof IntLiteralNode)) return false;
+                items[i] = ((IntLiteralNode) component).value;
+            }
+            strings = PackedArrays.pack(items);
+        } else if (compType instanceof FloatType) {
+            double[] items = new double[length];
+            for (int i = 0; i < length; ++i) {
+                ExpressionNode component = node.components.get(i);
+                if (component instanceof FloatLiteralNode)
+                    items[i] = ((FloatLiteralNode) component).value;
+                else if (component instanceof IntLiteralNode)
+                    items[i] = ((IntLiteralNode) component).value;
+                else
+                    return false;
+            }
+            strings = PackedArrays.pack(items);
+        } else {
+            return false;
+        }
+
+        method.visitLdcInsn(length);
+        loadConstant(method, strings.size());
+        method.visitTypeInsn(ANEWARRAY, "java/lang/String");
+        for (int i = 0; i < strings.size(); ++i) {
+            method.visitInsn(DUP);
+            loadConstant(method, i);
+            method.visitLdcInsn(strings.get(i));
+            method.visitInsn(AASTORE);
+        }
+        invokeStatic(method, PackedArrays.class,
+            compType instanceof IntType ? "unpackLongs" : "unpackDoubles",
+            int.class, String[].class);
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object binaryExpression (DiadicExpressionNode node)
     {
-        if (isShortCircuit(node.operator))
-            return shortCircuit(node);
+        diadic(node.operator, tables.type(node.left), tables.type(node.right),
+            () -> run(node.left), () -> run(node.right));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
-        run(node.left);
+    /**
+     * Emits {@code left operator right}, where {@code emitLeft} and {@code emitRight} emit the code
+     * that pushes the operands, of types {@code left} and {@code right}.
+     */
+    private void diadic (DiadicOperator operator, Type left, Type right,
+                         Runnable emitLeft, Runnable emitRight)
+    {
+        if (isArrayOperation(operator, left, right)) {
+            arrayOperation(operator, left, right, emitLeft, emitRight);
+            return;
+        }
 
-        Type left  = reactor.get(node.left, "type");
-        Type right = reactor.get(node.right, "type");
+        emitLeft.run();
 
         // promote long to double for mixed operations
-        if (enablesPromotion(node.operator) && left instanceof IntType && right instanceof FloatType)
+        if (enablesPromotion(operator) && left instanceof IntType && right instanceof FloatType)
             method.visitInsn(L2D);
 
         // string concatenation: convert value to string
-        if (node.operator == ADD && right instanceof StringType)
+        if (operator == ADD && right instanceof StringType)
             convertToString(left);
 
-        run(node.right);
+        emitRight.run();
 
-        switch (node.operator) {
+        switch (operator) {
             case ADD:
                 if (left instanceof StringType) {
                     convertToString(right);
@@ -343,23 +866,26 @@ public class BytecodeCompiler
             case REMAINDER: numOperation(LREM, DREM, left, right); break;
             case SUBTRACT:  numOperation(LSUB, DSUB, left, right); break;
 
+            // computed by SighRuntime (not short-circuiting, like in the interpreter)
+            case EXPONENT:  numCall("pow", left, right); break;
+            case AND:       numCall("and", left, right); break;
+            case OR:        numCall("or",  left, right); break;
+
             case EQUALITY:
-                comparison(node.operator, IFEQ, IF_ACMPEQ, left, right); break;
+                comparison(operator, left, right); break;
             case NOT_EQUALS:
-                comparison(node.operator, IFNE, IF_ACMPNE, left, right); break;
+                comparison(operator, left, right); break;
             case GREATER:
-                comparison(node.operator, IFGT, -1, left, right); break;
+                comparison(operator, left, right); break;
             case LOWER:
-                comparison(node.operator, IFLT, -1, left, right); break;
+                comparison(operator, left, right); break;
             case GREATER_EQUAL:
-                comparison(node.operator, IFGE, -1, left, right); break;
+                comparison(operator, left, right); break;
             case LOWER_EQUAL:
-                comparison(node.operator, IFLE, -1, left, right); break;
+                comparison(operator, left, right); break;
 
             // default: throw an exception
         }
-
-        return null;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -368,12 +894,9 @@ public class BytecodeCompiler
         return isArithmetic(op) || isComparison(op) || isEquality(op);
     }
 
-    private boolean isShortCircuit (DiadicOperator op) {
-        return op == AND || op == OR;
-    }
-
     private boolean isArithmetic (DiadicOperator op) {
-        return op == ADD || op == MULTIPLY || op == SUBTRACT || op == DIVIDE || op == REMAINDER;
+        return op == ADD || op == MULTIPLY || op == SUBTRACT || op == DIVIDE || op == REMAINDER
+            || op == EXPONENT || op == AND || op == OR;
     }
 
     private boolean isComparison (DiadicOperator op) {
@@ -384,19 +907,77 @@ public class BytecodeCompiler
         return op == EQUALITY || op == NOT_EQUALS;
     }
 
+    private boolean isArrayOperation (DiadicOperator op, Type left, Type right) {
+        return !(left instanceof StringType) && !(right instanceof StringType)
+            && (op == CONCAT || left instanceof ArrayType || right instanceof ArrayType);
+    }
+
+    private static boolean isFloating (Type type) {
+        return type instanceof FloatType
+            || type instanceof ArrayType && ((ArrayType) type).componentType instanceof FloatType;
+    }
+
     // ---------------------------------------------------------------------------------------------
 
-    private Object shortCircuit (DiadicExpressionNode node)
+    /**
+     * Emits an operation on numeric arrays: a broadcasting operator, as a call to {@link
+     * SighRuntime#apply(DiadicOperator, long[], long[])} and its overloads, or a concatenation.
+     * If the result is a {@code Float[]}, {@code Int} scalar operands are converted beforehand,
+     * while {@code Int[]} operands are passed as is, and converted by the runtime.
+     */
+    private void arrayOperation (DiadicOperator operator, Type left, Type right,
+                                 Runnable emitLeft, Runnable emitRight)
     {
-        int opcode = node.operator == AND ? IFEQ /* if 0 */ : /* OR */ IFNE /* if 1 */;
-        Label endLabel = new Label();
-        run(node.left);
-        method.visitInsn(DUP);
-        method.visitJumpInsn(opcode, endLabel);
-        method.visitInsn(POP);
-        run(node.right);
-        method.visitLabel(endLabel);
-        return null;
+        boolean floating = isFloating(left) || isFloating(right);
+
+        if (operator != CONCAT)
+            loadEnum(operator);
+
+        emitLeft.run();
+        if (floating && left instanceof IntType)
+            method.visitInsn(L2D);
+        emitRight.run();
+        if (floating && right instanceof IntType)
+            method.visitInsn(L2D);
+
+        Class<?> leftClass  = operandClass(left, floating);
+        Class<?> rightClass = operandClass(right, floating);
+
+        if (operator != CONCAT)
+            invokeStatic(method, SighRuntime.class, "apply",
+                DiadicOperator.class, leftClass, rightClass);
+        else if (leftClass.isArray() || rightClass.isArray())
+            invokeStatic(method, ArrayKernels.class, "concat", leftClass, rightClass);
+        else
+            invokeStatic(method, SighRuntime.class, "concat", leftClass, rightClass);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the Java class of a numeric operand of type {@code type} when it is passed to an
+     * array operation, whose result is a {@code Float[]} if {@code floating} is set.
+     */
+    private static Class<?> operandClass (Type type, boolean floating)
+    {
+        if (type instanceof ArrayType)
+            return javaArrayClass(((ArrayType) type).componentType);
+        if (type instanceof IntType && !floating)
+            return long.class;
+        if (type instanceof IntType || type instanceof FloatType)
+            return double.class;
+        throw new Error("unexpected array operand type: " + type);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits an instruction to load the given enum constant (an operator for the runtime).
+     */
+    private void loadEnum (Enum<?> constant) {
+        Class<?> klass = constant.getDeclaringClass();
+        method.visitFieldInsn(GETSTATIC, slashBinaryName(klass), constant.name(),
+            AsmUtils.fieldDescriptor(klass));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -413,6 +994,9 @@ public class BytecodeCompiler
         } else if (type instanceof NullType) {
             method.visitInsn(POP);
             method.visitLdcInsn("null");
+        } else if (type instanceof ArrayType && ((ArrayType) type).isColumnar()) {
+            // String.valueOf -> Object#toString
+            invokeStatic(method, String.class, "valueOf", Object.class);
         } else if (type instanceof ArrayType) {
             Type component = ((ArrayType) type).componentType;
             if (component.isPrimitive())
@@ -454,56 +1038,244 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
-    private void comparison (
-            DiadicOperator op,
-            int doubleWidthOpcode, int objOpcode,
-            Type left, Type right) {
+    /**
+     * Like {@link #numOperation}, but calls the {@link SighRuntime} method with the given name.
+     */
+    private void numCall (String name, Type left, Type right)
+    {
+        if (left instanceof IntType && right instanceof IntType) {
+            invokeStatic(method, SighRuntime.class, name, long.class, long.class);
+        } else {
+            if (left instanceof FloatType && right instanceof IntType)
+                method.visitInsn(L2D);
+            invokeStatic(method, SighRuntime.class, name, double.class, double.class);
+        }
+    }
 
-        Label trueLabel = new Label();
-        Label endLabel = new Label();
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a comparison without jumps, so that the operand stack is always empty at jump targets,
+     * whose stack map frames are then easy to emit (see {@link #jumpTarget}).
+     *
+     * <p>Numbers are compared with LCMP or DCMPL/DCMPG, whose result (-1, 0 or 1) is turned into 0
+     * or 1 with bitwise operations. References are compared by {@link SighRuntime#same}.
+     */
+    private void comparison (DiadicOperator op, Type left, Type right)
+    {
+        boolean numeric = (left instanceof IntType || left instanceof FloatType)
+            && (right instanceof IntType || right instanceof FloatType);
+
+        if (!numeric) {
+            invokeStatic(method, SighRuntime.class, "same", Object.class, Object.class);
+            if (op == NOT_EQUALS) {
+                method.visitInsn(LCONST_1);
+                method.visitInsn(LXOR);
+            }
+            return;
+        }
 
         if (left instanceof IntType && right instanceof IntType) {
             method.visitInsn(LCMP);
-            method.visitJumpInsn(doubleWidthOpcode, trueLabel);
-        } else if ((left instanceof FloatType || left instanceof IntType) && right instanceof FloatType) {
+        } else {
             // If left is an Int, we've added a L2D instruction before the long operand beforehand
+            if (left instanceof FloatType && right instanceof IntType)
+                method.visitInsn(L2D);
             // Proper NaN handling: if NaN is involved, has to be false for all operations.
-            int opcode = op == LOWER || op == LOWER_EQUAL ? DCMPG : DCMPL;
-            method.visitInsn(opcode);
-            method.visitJumpInsn(doubleWidthOpcode, trueLabel);
-        } else if (left instanceof FloatType && right instanceof IntType) {
-            method.visitInsn(L2D);
-            // Proper NaN handling: if NaN is involved, has to be false for all operations.
-            int opcode = op == LOWER || op == LOWER_EQUAL ? DCMPG : DCMPL;
-            method.visitInsn(opcode);
-            method.visitJumpInsn(doubleWidthOpcode, trueLabel);
-        } else {
-            method.visitJumpInsn(objOpcode, trueLabel);
+            // DCMPG yields 1 and DCMPL yields -1, which the operations below map to false.
+            method.visitInsn(op == LOWER || op == LOWER_EQUAL ? DCMPG : DCMPL);
+        }
+
+        // cmp is -1, 0 or 1
+        switch (op) {
+            case EQUALITY:      // (cmp & 1) ^ 1
+            case NOT_EQUALS:    // cmp & 1
+                method.visitInsn(ICONST_1);
+                method.visitInsn(IAND);
+                break;
+            case LOWER:         // cmp >>> 31
+            case GREATER_EQUAL: // (cmp >>> 31) ^ 1
+                signBit();
+                break;
+            case GREATER:       // -cmp >>> 31
+            case LOWER_EQUAL:   // (-cmp >>> 31) ^ 1
+                method.visitInsn(INEG);
+                signBit();
+                break;
+            default:
+                throw new Error("unreachable");
+        }
+        if (op == EQUALITY || op == GREATER_EQUAL || op == LOWER_EQUAL) {
+            method.visitInsn(ICONST_1);
+            method.visitInsn(IXOR);
         }
 
-        method.visitInsn(ICONST_0);
-        method.visitJumpInsn(GOTO, endLabel);
-        method.visitLabel(trueLabel);
-        method.visitInsn(ICONST_1);
-        method.visitLabel(endLabel);
+        // comparisons return a Float if one of the operands is one, an Int otherwise
+        boolean floating = left instanceof FloatType || right instanceof FloatType;
+        method.visitInsn(floating ? I2D : I2L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Shifts the sign bit of the int at the top of the stack to the lowest bit. */
+    private void signBit () {
+        method.visitIntInsn(BIPUSH, 31);
+        method.visitInsn(IUSHR);
     }
 
     // ---------------------------------------------------------------------------------------------
 
     private Object unaryExpression (MonadicExpressionNode node)
     {
-        // there is only NOT
-        assert node.operator == MonadicOperator.NOT;
+        monadic(node.operator, tables.type(node.operand), () -> run(node.operand));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits {@code operator operand}, where {@code emitOperand} emits the code that pushes the
+     * operand, of type {@code type}.
+     */
+    private void monadic (MonadicOperator operator, Type type, Runnable emitOperand)
+    {
+        if (type instanceof ArrayType) {
+            arrayMonadic(operator, ((ArrayType) type).componentType, emitOperand);
+            return;
+        }
+
+        boolean floating = type instanceof FloatType;
+        emitOperand.run();
+
+        switch (operator) {
+            case NOT:
+                if (floating) invokeStatic(method, ArrayKernels.class, "gamma", double.class);
+                else          invokeStatic(method, ArrayKernels.class, "factorial", long.class);
+                break;
+            case SELF_ADD:
+                method.visitInsn(DUP2);
+                method.visitInsn(floating ? DADD : LADD);
+                break;
+            case SELF_MULT:
+                method.visitInsn(DUP2);
+                method.visitInsn(floating ? DMUL : LMUL);
+                break;
+            case AND_SLASH:
+            case OR_SLASH:
+                // x != 0, computed as x || 0
+                loadConstant(method, floating ? (Object) 0d : (Object) 0L);
+                numCall("or", type, type);
+                break;
+            case HASHTAG:
+                method.visitInsn(POP2);
+                loadConstant(method, floating ? (Object) 1d : (Object) 1L);
+                break;
+            default:
+                // the other reductions of a single item return it
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits {@code operator operand} for an array operand, whose items have type {@code
+     * component}. The elementwise verbs and the reductions are computed by {@link SighRuntime} and
+     * {@link ArrayKernels}.
+     */
+    private void arrayMonadic (MonadicOperator operator, Type component, Runnable emitOperand)
+    {
+        Class<?> array = javaArrayClass(component);
+
+        switch (operator) {
+            case NOT:
+            case SELF_ADD:
+            case SELF_MULT:
+                loadEnum(operator);
+                emitOperand.run();
+                invokeStatic(method, SighRuntime.class, "apply", MonadicOperator.class, array);
+                return;
+        }
+
+        emitOperand.run();
+
+        switch (operator) {
+            case GRAB_LAST:
+                method.visitInsn(DUP);
+                method.visitInsn(ARRAYLENGTH);
+                method.visitInsn(ICONST_1);
+                method.visitInsn(ISUB);
+                method.visitInsn(asmType(component).getOpcode(IALOAD));
+                break;
+            case HASHTAG:
+                method.visitInsn(ARRAYLENGTH);
+                method.visitInsn(I2L);
+                break;
+            case SUM_SLASH:  invokeStatic(method, ArrayKernels.class, "sum", array);          break;
+            case MULT_SLASH: invokeStatic(method, ArrayKernels.class, "product", array);      break;
+            case MIN_SLASH:  invokeStatic(method, ArrayKernels.class, "subtractFold", array); break;
+            case DIV_SLASH:  invokeStatic(method, ArrayKernels.class, "divideFold", array);   break;
+            case AND_SLASH:  invokeStatic(method, SighRuntime.class, "and", array);           break;
+            case OR_SLASH:   invokeStatic(method, SighRuntime.class, "or", array);            break;
+            default:
+                throw new Error("unexpected monadic operator: " + operator);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores the value at the top of the stack, of type {@code type}, in a new local variable, and
+     * returns an emitter that loads it.
+     */
+    private Runnable storeTemporary (Type type)
+    {
+        org.objectweb.asm.Type asmType = asmType(type);
+        int index = variableCounter;
+        variableCounter += asmType.getSize();
+        setLocal(index, asmType);
+        method.visitVarInsn(asmType.getOpcode(ISTORE), index);
+        return () -> method.visitVarInsn(asmType.getOpcode(ILOAD), index);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The operand is evaluated once and kept in a local, from which both verbs read it. Their
+     * results go straight to the middle verb, on the operand stack.
+     */
+    private Object monadicFork (MonadicForkNode node)
+    {
+        Type type = tables.type(node.operand);
+        Type leftType = tables.leftType(node);
+        Type rightType = tables.rightType(node);
 
         run(node.operand);
-        Label falseLabel = new Label();
-        Label endLabel = new Label();
-        method.visitJumpInsn(IF_ZERO, falseLabel);
-        method.visitInsn(ICONST_0);
-        method.visitJumpInsn(GOTO, endLabel);
-        method.visitLabel(falseLabel);
-        method.visitInsn(ICONST_1);
-        method.visitLabel(endLabel);
+        Runnable operand = storeTemporary(type);
+
+        diadic(node.operatorM, leftType, rightType,
+            () -> monadic(node.operatorL, type, operand),
+            () -> monadic(node.operatorR, type, operand));
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Like {@link #monadicFork}, with both operands kept in locals.
+     */
+    private Object diadicFork (DiadicForkNode node)
+    {
+        Type typeL = tables.type(node.operandL);
+        Type typeR = tables.type(node.operandR);
+
+        run(node.operandL);
+        Runnable operandL = storeTemporary(typeL);
+        run(node.operandR);
+        Runnable operandR = storeTemporary(typeR);
+
+        diadic(node.operatorM, tables.leftType(node), tables.rightType(node),
+            () -> diadic(node.operatorL, typeL, typeR, operandL, operandR),
+            () -> diadic(node.operatorR, typeL, typeR, operandL, operandR));
         return null;
     }
 
@@ -514,7 +1286,12 @@ public class BytecodeCompiler
         run(node.array);
         run(node.index);
         method.visitInsn(L2I); // indices must be 32-bit int
-        method.visitInsn(nodeAsmType(node).getOpcode(IALOAD));
+        ArrayType type = tables.type(node.array);
+        if (type.isColumnar())
+            method.visitMethodInsn(INVOKEVIRTUAL, columnsBinaryName((StructType) type.componentType),
+                "get", "(I)" + nodeFieldDescriptor(node), false);
+        else
+            method.visitInsn(nodeAsmType(node).getOpcode(IALOAD));
         return null;
     }
 
@@ -522,13 +1299,13 @@ public class BytecodeCompiler
 
     private Object funCall (FunCallNode node)
     {
-        FunType funType = reactor.get(node.function, "type");
+        FunType funType = tables.type(node.function);
 
         // The function part can either be a reference, in which case we emit a call,
         // or a more complex expression, which will evaluate to a lambda.
 
         if (node.function instanceof ReferenceNode) {
-            DeclarationNode decl = reactor.get(node.function, "decl");
+            DeclarationNode decl = tables.decl(node.function);
             if (decl instanceof SyntheticDeclarationNode) {
                 return builtin(funType, decl.name(), node.arguments);
             }
@@ -542,8 +1319,8 @@ public class BytecodeCompiler
             }
         }
         else if (node.function instanceof ConstructorNode) {
-            StructDeclarationNode decl = reactor.get(((ConstructorNode) node.function).ref, "decl");
-            String binaryName = structBinaryName(reactor.get(decl, "declared"));
+            StructDeclarationNode decl = tables.decl(((ConstructorNode) node.function).ref);
+            String binaryName = structBinaryName(tables.declared(decl));
             method.visitTypeInsn(NEW, binaryName);
             method.visitInsn(DUP);
             runArguments(funType, node.arguments);
@@ -580,7 +1357,7 @@ public class BytecodeCompiler
     {
         Vanilla.forEachIndexed(arguments, (i, arg) -> {
             run(arg);
-            implicitConversion(funType.paramTypes[i], reactor.get(arg, "type"));
+            implicitConversion(funType.paramTypes[i], tables.type(arg));
         });
     }
 
@@ -589,9 +1366,9 @@ public class BytecodeCompiler
     private Object expressionStmt (ExpressionStatementNode node) {
         run(node.expression);
         if (node.expression instanceof AssignmentNode)
-            pop(reactor.get(node.expression, "type"));
+            pop(tables.type(node.expression));
         else if (node.expression instanceof FunCallNode) {
-            Type type = reactor.get(node.expression, "type");
+            Type type = tables.type(node.expression);
             if (!(type instanceof VoidType)) pop(type);
         }
         return null;
@@ -610,14 +1387,15 @@ public class BytecodeCompiler
             return null;
         }
 
+        if (tables.tailCall(node)) {
+            tailCall((FunCallNode) node.expression);
+            return null;
+        }
+
         run(node.expression);
 
         if (topLevel) {
-            Type type = reactor.get(node.expression, "type");
-            if (type instanceof IntType)
-                invokeStatic(method, Long.class, "valueOf", long.class);
-            else if (type instanceof FloatType)
-                invokeStatic(method, Double.class, "valueOf", double.class);
+            box(tables.type(node.expression));
             method.visitInsn(ARETURN);
         } else {
             method.visitInsn(nodeAsmType(node.expression).getOpcode(IRETURN));
@@ -628,8 +1406,54 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles a self tail call (see {@link AnalysisTables#tailCall}): the arguments are all
+     * evaluated, then assigned to the parameters, before jumping back to the start of the function.
+     */
+    private void tailCall (FunCallNode node)
+    {
+        runArguments(tables.type(node.function), node.arguments);
+        FunDeclarationNode function = tables.decl(node.function);
+        for (int i = function.parameters.size() - 1; i >= 0; --i) {
+            ParameterNode param = function.parameters.get(i);
+            storeVariable(new Pair<>(tables.scope(param), param.name), nodeAsmType(param));
+        }
+        method.visitJumpInsn(GOTO, tailCallTarget);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Boxes the value of the given type on top of the stack into a {@link Long} or a {@link
+     * Double} if it is a number, and leaves it unchanged otherwise.
+     */
+    private void box (Type type)
+    {
+        if (type instanceof IntType)
+            invokeStatic(method, Long.class, "valueOf", long.class);
+        else if (type instanceof FloatType)
+            invokeStatic(method, Double.class, "valueOf", double.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Unboxes the {@link Object} on top of the stack into a value of the given number type.
+     */
+    private void unbox (Type type)
+    {
+        String box = type instanceof IntType ? "java/lang/Long" : "java/lang/Double";
+        method.visitTypeInsn(CHECKCAST, box);
+        if (type instanceof IntType)
+            method.visitMethodInsn(INVOKEVIRTUAL, box, "longValue", "()J", false);
+        else
+            method.visitMethodInsn(INVOKEVIRTUAL, box, "doubleValue", "()D", false);
+    }
+
     private Object block (BlockNode node) {
+        int scope = debugLocals.size();
         node.statements.forEach(this::run);
+        endDebugLocals(scope);
         return null;
     }
 
@@ -639,31 +1463,60 @@ public class BytecodeCompiler
     {
         Label elseLabel = new Label();
         Label endLabel = new Label();
+        int variables = variableCounter;
         boolean hasElse = node.falseStatement != null;
-        run(node.condition);
-        method.visitJumpInsn(IFEQ, hasElse ? elseLabel : endLabel);
+        condition(node.condition, hasElse ? elseLabel : endLabel);
         run(node.trueStatement);
         if (hasElse) {
             method.visitJumpInsn(GOTO, endLabel);
-            method.visitLabel(elseLabel);
+            jumpTarget(elseLabel, variables);
             run(node.falseStatement);
         }
-        method.visitLabel(endLabel);
+        jumpTarget(endLabel, variables);
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits the condition of an if or while statement, which jumps to {@code falseLabel} if the
+     * condition does not hold, i.e. if its value (or the first item of its value, for arrays) is
+     * zero.
+     */
+    private void condition (ExpressionNode node, Label falseLabel)
+    {
+        run(node);
+        Type type = tables.type(node);
+
+        if (type instanceof ArrayType) {
+            type = ((ArrayType) type).componentType;
+            loadConstant(method, 0);
+            method.visitInsn(asmType(type).getOpcode(IALOAD));
+        }
+
+        if (type instanceof IntType) {
+            loadConstant(method, 0L);
+            method.visitInsn(LCMP);
+        } else if (type instanceof FloatType) {
+            loadConstant(method, 0d);
+            method.visitInsn(DCMPL); // NaN is not zero
+        }
+
+        method.visitJumpInsn(IF_ZERO, falseLabel);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object whileStmt (WhileNode node)
     {
         Label startLabel = new Label();
         Label endLabel = new Label();
-        method.visitLabel(startLabel);
-        run(node.condition);
-        method.visitJumpInsn(IFEQ, endLabel);
+        int variables = variableCounter;
+        jumpTarget(startLabel, variables);
+        condition(node.condition, endLabel);
         run(node.body);
         method.visitJumpInsn(GOTO, startLabel);
-        method.visitLabel(endLabel);
+        jumpTarget(endLabel, variables);
         return null;
     }
 
@@ -671,16 +1524,16 @@ public class BytecodeCompiler
 
     private Object reference (ReferenceNode node)
     {
-        DeclarationNode decl = reactor.get(node, "decl");
+        DeclarationNode decl = tables.decl(node);
 
         // TODO distinguish local variables from closures
         if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode) {
-            method.visitVarInsn(nodeAsmType(node).getOpcode(ILOAD), varIndex(node));
+            loadVariable(variable(node), nodeAsmType(node));
         }
         else if (decl instanceof StructDeclarationNode) {
             // NOTE: This is not used when the reference is part of a constructor call, the
             // resolution is handled in #funCall.
-            org.objectweb.asm.Type asmType = asmType(reactor.get(decl, "declared"));
+            org.objectweb.asm.Type asmType = asmType(tables.declared(decl));
             method.visitLdcInsn(asmType); // class constant for emitted type
         }
         else if (decl instanceof FunDeclarationNode) {
@@ -691,7 +1544,7 @@ public class BytecodeCompiler
             //  For now I use a method handle. There is no way to use it in the language however.
             method.visitLdcInsn(new Handle(
                 H_INVOKESTATIC, containerName, decl.name(),
-                methodDescriptor(reactor.get(decl, "type")), false));
+                methodDescriptor(tables.type(decl)), false));
         }
         else if (decl instanceof SyntheticDeclarationNode) {
             switch (decl.name()) {
@@ -729,12 +1582,15 @@ public class BytecodeCompiler
     private Object varDecl (VarDeclarationNode node)
     {
         org.objectweb.asm.Type type = nodeAsmType(node);
-        int index = registerVariable(node, type);
+        registerVariable(node, type);
         run(node.initializer);
         implicitConversion(node, node.initializer);
-        method.visitVarInsn(type.getOpcode(ISTORE), index);
-        // LATER: method.visitLocalVariable for debug information
-        // https://stackoverflow.com/questions/28633731
+        storeVariable(new Pair<>(tables.scope(node), node.name()), type);
+        if (lineStarts != null) {
+            Label start = new Label();
+            method.visitLabel(start);
+            debugLocal(node, start);
+        }
         return null;
     }
 
@@ -754,7 +1610,7 @@ public class BytecodeCompiler
             run(node.right);
             Type type = implicitConversion(node, node.right);
             dup(type);
-            method.visitVarInsn(nodeAsmType(node).getOpcode(ISTORE), varIndex(left));
+            storeVariable(variable(left), nodeAsmType(node));
         }
         else if (node.left instanceof ArrayAccessNode) {
             ArrayAccessNode left = (ArrayAccessNode) node.left;
@@ -764,6 +1620,23 @@ public class BytecodeCompiler
             run(node.right);
             Type type = implicitConversion(node, node.right);
             dup_x2(type);
+            ArrayType arrayType = tables.type(left.array);
+            if (arrayType.isColumnar())
+                method.visitMethodInsn(INVOKEVIRTUAL,
+                    columnsBinaryName((StructType) arrayType.componentType),
+                    "set", "(I" + nodeFieldDescriptor(node) + ")V", false);
+            else
+                method.visitInsn(nodeAsmType(node).getOpcode(IASTORE));
+        }
+        else if (node.left instanceof FieldAccessNode
+                && tables.columnarItem((FieldAccessNode) node.left) != null) {
+            FieldAccessNode left = (FieldAccessNode) node.left;
+            loadColumn(left);
+            run(tables.columnarItem(left).index);
+            method.visitInsn(L2I);
+            run(node.right);
+            Type type = implicitConversion(node, node.right);
+            dup_x2(type);
             method.visitInsn(nodeAsmType(node).getOpcode(IASTORE));
         }
         else if (node.left instanceof FieldAccessNode) {
@@ -772,8 +1645,8 @@ public class BytecodeCompiler
             run(node.right);
             Type type = implicitConversion(node, node.right);
             dup_x1(type);
-            StructType structType = reactor.get(left.stem, "type");
-            Type fieldType = reactor.get(node, "type");
+            StructType structType = tables.type(left.stem);
+            Type fieldType = tables.type(node);
             method.visitFieldInsn(PUTFIELD, structBinaryName(structType), left.fieldName,
                 fieldDescriptor(fieldType));
         }
@@ -784,14 +1657,19 @@ public class BytecodeCompiler
 
     private Object structDecl (StructDeclarationNode node)
     {
+        if (node != unit)
+            return null; // compiled as its own unit
+
         String binaryName = node.name;
-        struct = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        struct = new ClassWriter(classWriterFlags());
         struct.visit(V1_8, ACC_PUBLIC, binaryName, null, "java/lang/Object", null);
+        if (sourceFile != null)
+            struct.visitSource(sourceFile, null);
         node.fields.forEach(this::run);
 
         // generate constructor
         Type[] paramTypes =
-            node.fields.stream().map(f -> (Type) reactor.get(f, "type")).toArray(Type[]::new);
+            node.fields.stream().map(f -> (Type) tables.type(f)).toArray(Type[]::new);
         String descriptor = methodDescriptor(VoidType.INSTANCE, paramTypes);
         MethodVisitor init = struct.visitMethod(ACC_PUBLIC, "<init>", descriptor, null, null);
         init.visitCode();
@@ -812,11 +1690,122 @@ public class BytecodeCompiler
         struct.visitEnd();
         structs.add(new Pair<>(binaryName, struct));
         struct = null;
+
+        if (node.columnar)
+            columnsClass(node, paramTypes);
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Generates the class representing the arrays of the given columnar structure, whose fields
+     * have the given types: it has a {@code length} field, an array field for each field of the
+     * structure, a constructor that allocates the arrays, and {@code get} and {@code set} methods
+     * that copy an item to a new structure instance and from an existing one.
+     */
+    private void columnsClass (StructDeclarationNode node, Type[] fieldTypes)
+    {
+        StructType structType = tables.declared(node);
+        String structName = structBinaryName(structType);
+        String structDescriptor = fieldDescriptor(structType);
+        String binaryName = columnsBinaryName(structType);
+
+        ClassWriter columns = new ClassWriter(classWriterFlags());
+        columns.visit(V1_8, ACC_PUBLIC | ACC_FINAL, binaryName, null, "java/lang/Object", null);
+        if (sourceFile != null)
+            columns.visitSource(sourceFile, null);
+        columns.visitField(ACC_PUBLIC | ACC_FINAL, "length", "I", null, null);
+        for (int i = 0; i < fieldTypes.length; ++i)
+            columns.visitField(ACC_PUBLIC | ACC_FINAL, node.fields.get(i).name,
+                "[" + fieldDescriptor(fieldTypes[i]), null, null);
+
+        MethodVisitor init = columns.visitMethod(ACC_PUBLIC, "<init>", "(I)V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitVarInsn(ALOAD, 0);
+        init.visitVarInsn(ILOAD, 1);
+        init.visitFieldInsn(PUTFIELD, binaryName, "length", "I");
+        for (int i = 0; i < fieldTypes.length; ++i) {
+            init.visitVarInsn(ALOAD, 0);
+            init.visitVarInsn(ILOAD, 1);
+            if (fieldTypes[i] instanceof IntType)
+                init.visitIntInsn(NEWARRAY, T_LONG);
+            else if (fieldTypes[i] instanceof FloatType)
+                init.visitIntInsn(NEWARRAY, T_DOUBLE);
+            else
+                init.visitTypeInsn(ANEWARRAY, asmType(fieldTypes[i]).getInternalName());
+            init.visitFieldInsn(PUTFIELD, binaryName, node.fields.get(i).name,
+                "[" + fieldDescriptor(fieldTypes[i]));
+        }
+        init.visitInsn(RETURN);
+        init.visitMaxs(-1, -1);
+        init.visitEnd();
+
+        MethodVisitor get = columns.visitMethod(ACC_PUBLIC, "get",
+            "(I)" + structDescriptor, null, null);
+        get.visitCode();
+        if (fieldTypes.length == 0)
+            checkIndex(get, binaryName);
+        get.visitTypeInsn(NEW, structName);
+        get.visitInsn(DUP);
+        for (int i = 0; i < fieldTypes.length; ++i) {
+            get.visitVarInsn(ALOAD, 0);
+            get.visitFieldInsn(GETFIELD, binaryName, node.fields.get(i).name,
+                "[" + fieldDescriptor(fieldTypes[i]));
+            get.visitVarInsn(ILOAD, 1);
+            get.visitInsn(asmType(fieldTypes[i]).getOpcode(IALOAD));
+        }
+        get.visitMethodInsn(INVOKESPECIAL, structName, "<init>",
+            methodDescriptor(VoidType.INSTANCE, fieldTypes), false);
+        get.visitInsn(ARETURN);
+        get.visitMaxs(-1, -1);
+        get.visitEnd();
+
+        MethodVisitor set = columns.visitMethod(ACC_PUBLIC, "set",
+            "(I" + structDescriptor + ")V", null, null);
+        set.visitCode();
+        if (fieldTypes.length == 0) {
+            checkIndex(set, binaryName);
+            set.visitVarInsn(ALOAD, 2);
+            invokeStatic(set, Objects.class, "requireNonNull", Object.class);
+            set.visitInsn(POP);
+        }
+        for (int i = 0; i < fieldTypes.length; ++i) {
+            String name = node.fields.get(i).name;
+            String descriptor = fieldDescriptor(fieldTypes[i]);
+            set.visitVarInsn(ALOAD, 0);
+            set.visitFieldInsn(GETFIELD, binaryName, name, "[" + descriptor);
+            set.visitVarInsn(ILOAD, 1);
+            set.visitVarInsn(ALOAD, 2);
+            set.visitFieldInsn(GETFIELD, structName, name, descriptor);
+            set.visitInsn(asmType(fieldTypes[i]).getOpcode(IASTORE));
+        }
+        set.visitInsn(RETURN);
+        set.visitMaxs(-1, -1);
+        set.visitEnd();
+
+        columns.visitEnd();
+        structs.add(new Pair<>(binaryName, columns));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a bounds check for the index (local 1) in a method of a columns class without field
+     * arrays.
+     */
+    private static void checkIndex (MethodVisitor method, String binaryName)
+    {
+        method.visitVarInsn(ILOAD, 1);
+        method.visitVarInsn(ALOAD, 0);
+        method.visitFieldInsn(GETFIELD, binaryName, "length", "I");
+        invokeStatic(method, SighRuntime.class, "checkIndex", int.class, int.class);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Object fieldDecl (FieldDeclarationNode node)
     {
         struct.visitField(ACC_PUBLIC, node.name, nodeFieldDescriptor(node), null, null);
@@ -825,15 +1814,53 @@ public class BytecodeCompiler
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object fieldAccess (FieldAccessNode node) {
+    private Object fieldAccess (FieldAccessNode node)
+    {
+        ArrayAccessNode item = tables.columnarItem(node);
+        if (item != null) {
+            loadColumn(node);
+            run(item.index);
+            method.visitInsn(L2I);
+            method.visitInsn(nodeAsmType(node).getOpcode(IALOAD));
+            return null;
+        }
+
         run(node.stem);
-        String binaryName = asmType(reactor.get(node.stem, "type")).getClassName();
+        Type stemType = tables.type(node.stem);
+
+        if (stemType instanceof ArrayType) { // only field on arrays
+            if (((ArrayType) stemType).isColumnar())
+                method.visitFieldInsn(GETFIELD,
+                    columnsBinaryName((StructType) ((ArrayType) stemType).componentType),
+                    "length", "I");
+            else
+                method.visitInsn(ARRAYLENGTH);
+            method.visitInsn(I2L);
+            return null;
+        }
+
+        String binaryName = asmType(stemType).getClassName();
         method.visitFieldInsn(GETFIELD, binaryName, node.fieldName, nodeFieldDescriptor(node));
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Emits code that pushes the array of the accessed field, for a field access on an item of
+     * an array of columnar structures (see {@link AnalysisTables#columnarItem}).
+     */
+    private void loadColumn (FieldAccessNode node)
+    {
+        ArrayAccessNode item = tables.columnarItem(node);
+        run(item.array);
+        ArrayType type = tables.type(item.array);
+        method.visitFieldInsn(GETFIELD, columnsBinaryName((StructType) type.componentType),
+            node.fieldName, "[" + nodeFieldDescriptor(node));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private Constructor constructor (ConstructorNode node) {
         // not needed - handled in funCall instead
         return null;
@@ -848,7 +1875,7 @@ public class BytecodeCompiler
      * given node.
      */
     private org.objectweb.asm.Type nodeAsmType (SighNode node) {
-        return asmType(reactor.get(node, "type"));
+        return asmType(tables.type(node));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -857,7 +1884,7 @@ public class BytecodeCompiler
      * Return the JVM field descriptor for the given node, which must have a {@code type} attribute.
      */
     private String nodeFieldDescriptor (SighNode node) {
-        return fieldDescriptor(reactor.get(node, "type"));
+        return fieldDescriptor(tables.type(node));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -865,7 +1892,7 @@ public class BytecodeCompiler
     /**
      * Declares a variable introduce by the given declaration (which must be a {@link
      * VarDeclarationNode} or {@link ParameterNode}, and returns its index in its JVM method
-     * scope.
+     * scope, or -1 if it is a top-level variable held in a static field (see {@link #root}).
      */
     private int registerVariable (DeclarationNode node) {
         return registerVariable(node, nodeAsmType(node));
@@ -877,20 +1904,183 @@ public class BytecodeCompiler
      * See {@link #registerVariable(DeclarationNode)}. Takes the ASM type of the declaration
      * to compute faster in case it is already available.
      */
-    private int registerVariable (DeclarationNode node, org.objectweb.asm.Type type) {
+    private int registerVariable (DeclarationNode node, org.objectweb.asm.Type type)
+    {
+        if (topLevel && chunked) {
+            String name = node.name() + "$" + fieldVariables.size();
+            fieldVariables.put(new Pair<>(tables.scope(node), node.name()), name);
+            fields.add(new FieldNode(ASM5, ACC_PRIVATE | ACC_STATIC, name,
+                type.getDescriptor(), null, null));
+            return -1;
+        }
+
         int index = variableCounter;
         variableCounter += type.getSize();
-        variables.put(new Pair<>(reactor.get(node, "scope"), node.name()), index);
+        variables.put(new Pair<>(tables.scope(node), node.name()), index);
+        setLocal(index, type);
         return index;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Returns the variable index for the given reference, which must be a reference to a variable.
+     * Records that the local variable at {@code index} holds a value of the given type, see
+     * {@link #locals}.
      */
-    private int varIndex (ReferenceNode node) {
-        return variables.get(new Pair<>((Scope) reactor.get(node, "scope"), node.name));
+    private void setLocal (int index, org.objectweb.asm.Type type)
+    {
+        while (locals.size() < index + type.getSize())
+            locals.add(TOP);
+
+        Object verificationType;
+        switch (type.getSort()) {
+            case org.objectweb.asm.Type.LONG:   verificationType = LONG;   break;
+            case org.objectweb.asm.Type.DOUBLE: verificationType = DOUBLE; break;
+            case org.objectweb.asm.Type.FLOAT:  verificationType = FLOAT;  break;
+            case org.objectweb.asm.Type.ARRAY:  verificationType = type.getDescriptor(); break;
+            case org.objectweb.asm.Type.OBJECT: verificationType = type.getInternalName(); break;
+            default:                            verificationType = INTEGER; // boolean, etc
+        }
+
+        locals.set(index, verificationType);
+        if (type.getSize() == 2)
+            locals.set(index + 1, TOP);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Visits a label that is the target of jumps (forward or backward), followed by its stack map
+     * frame. Jumps only occur in statements (expressions never branch, see {@link #comparison}),
+     * so the stack is always empty, and the locals are those that were assigned before the
+     * statement started, i.e. those whose index is below {@code variables} (the value of {@link
+     * #variableCounter} at that time): they are definitely assigned on every path. The variables
+     * declared within the statement are forgotten.
+     */
+    private void jumpTarget (Label label, int variables)
+    {
+        for (int i = variables; i < locals.size(); ++i)
+            locals.set(i, TOP);
+
+        int end = Math.min(variables, locals.size());
+        while (end > 0 && locals.get(end - 1) == TOP) --end;
+
+        List<Object> frame = new ArrayList<>(end);
+        for (int i = 0; i < end; ++i) {
+            Object type = locals.get(i);
+            frame.add(type);
+            if (type == LONG || type == DOUBLE) ++i; // single entry for both slots
+        }
+
+        method.visitLabel(label);
+        method.visitFrame(F_NEW, frame.size(), frame.toArray(), 0, new Object[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the key of the given variable reference in {@link #variables} or {@link
+     * #fieldVariables}.
+     */
+    private Pair<Scope, String> variable (ReferenceNode node) {
+        return new Pair<>((Scope) tables.scope(node), node.name);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Loads the value of the given variable (see {@link #variable}), of the given type, on the
+     * stack.
+     */
+    private void loadVariable (Pair<Scope, String> variable, org.objectweb.asm.Type type)
+    {
+        String field = fieldVariables.get(variable);
+        if (field != null)
+            method.visitFieldInsn(GETSTATIC, containerName, field, type.getDescriptor());
+        else
+            method.visitVarInsn(type.getOpcode(ILOAD), variables.get(variable));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores the value at the top of the stack, of the given type, in the given variable (see
+     * {@link #variable}).
+     */
+    private void storeVariable (Pair<Scope, String> variable, org.objectweb.asm.Type type)
+    {
+        String field = fieldVariables.get(variable);
+        if (field != null)
+            method.visitFieldInsn(PUTSTATIC, containerName, field, type.getDescriptor());
+        else
+            method.visitVarInsn(type.getOpcode(ISTORE), variables.get(variable));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A local variable whose scope started at {@link #start}, see {@link #debugLocals}.
+     */
+    private static final class DebugLocal {
+        final String name, descriptor;
+        final int index;
+        final Label start;
+
+        DebugLocal (String name, String descriptor, int index, Label start) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.index = index;
+            this.start = start;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a line number for the code of the given node, if it is on another line than the
+     * previous one in the current method.
+     */
+    private void lineNumber (SighNode node)
+    {
+        int line = Arrays.binarySearch(lineStarts, node.span.start);
+        line = line >= 0 ? line + 1 : -line - 1; // 1-based
+        if (line == lastLine) return;
+        lastLine = line;
+        Label label = new Label();
+        method.visitLabel(label);
+        method.visitLineNumber(line, label);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the scope of the given variable or parameter as starting at {@code start}, which was
+     * just visited. Does nothing if {@code start} is unreachable, or if the variable is not a
+     * local.
+     */
+    private void debugLocal (DeclarationNode node, Label start)
+    {
+        Integer index = variables.get(new Pair<>(tables.scope(node), node.name()));
+        if (index == null || !((DeadCodeFilter) method).isReachable()) return;
+        debugLocals.add(new DebugLocal(
+            node.name(), nodeAsmType(node).getDescriptor(), index, start));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Ends the scope of the variables of {@link #debugLocals} from index {@code scope}, and emits
+     * their LocalVariableTable entries.
+     */
+    private void endDebugLocals (int scope)
+    {
+        if (debugLocals.size() <= scope) return;
+        Label end = new Label();
+        method.visitLabel(end);
+        for (DebugLocal local: debugLocals.subList(scope, debugLocals.size()))
+            method.visitLocalVariable(
+                local.name, local.descriptor, null, local.start, end, local.index);
+        debugLocals.subList(scope, debugLocals.size()).clear();
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -914,7 +2104,7 @@ public class BytecodeCompiler
      * Like {@link #implicitConversion(Type, Type)}, using the type attributes of the passed nodes.
      */
     private Type implicitConversion (SighNode left, SighNode right) {
-        return implicitConversion((Type) reactor.get(left,  "type"), reactor.get(right, "type"));
+        return implicitConversion((Type) tables.type(left), tables.type(right));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,298 @@
+package norswap.sigh.bytecode;
+
+import org.objectweb.asm.ClassWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent, content-addressed cache of {@link CompilationResult}s, which lets a program that
+ * has already been compiled run without being parsed, analyzed and compiled again.
+ *
+ * <p>Each entry is a file of the cache directory, named after a hash of the source, of the name
+ * of the generated class and of the {@link #COMPILER_VERSION}. It contains the bytecode of the
+ * main class, followed by that of the struct classes, and a checksum of the whole.
+ *
+ * <p>The cache can be shared between concurrent processes: entries are written to a temporary
+ * file, then atomically moved in place, so that they are never read partially written. A missing
+ * entry is simply a cache miss, as is a truncated or corrupted entry (which fails the checksum),
+ * which is also deleted. Entries are never evicted otherwise: the directory can be deleted at any
+ * time.
+ */
+public final class CodeCache
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Hash of the code that determines the generated bytecode, so that entries created by another
+     * version of the compiler are never used: all the classes of the compiler (the jar or class
+     * directory containing them, as the front-end, AST, types and runtime classes all matter), as
+     * well as the ASM library. If these can't be read, a random version is used, so that no entry
+     * is reused across processes.
+     */
+    public static final String COMPILER_VERSION = compilerVersion();
+
+    /** Header of the entry files, to be changed if their format ever changes. */
+    private static final int MAGIC = 0x51C4_0002;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Path directory;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public CodeCache (Path directory) {
+        this.directory = directory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The default cache directory: the value of the {@code sigh.cache.dir} system property if set,
+     * else {@code .cache/sigh} in the user's home directory.
+     */
+    public static Path defaultDirectory () {
+        String dir = System.getProperty("sigh.cache.dir");
+        return dir != null
+            ? Paths.get(dir)
+            : Paths.get(System.getProperty("user.home"), ".cache", "sigh");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Path directory () {
+        return directory;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the cached result of compiling {@code source} into a class named {@code binaryName},
+     * or null if there is none.
+     */
+    public CompilationResult get (String binaryName, String source)
+    {
+        Path entry = entry(binaryName, source);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(entry);
+        } catch (IOException e) {
+            return null; // missing or unreadable
+        }
+        CompilationResult result = read(bytes);
+        if (result == null) {
+            // truncated or corrupted: the program is compiled and the entry replaced
+            try { Files.deleteIfExists(entry); } catch (IOException ignored) {}
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the contents of an entry file, or returns null if it isn't valid.
+     */
+    private static CompilationResult read (byte[] bytes)
+    {
+        int length = bytes.length - 4; // without the checksum
+        if (length < 4 || checksum(bytes, length) != readInt(bytes, length))
+            return null;
+        ByteArrayInputStream buffer = new ByteArrayInputStream(bytes, 0, length);
+        try (DataInputStream in = new DataInputStream(buffer)) {
+            if (in.readInt() != MAGIC) return null;
+            GeneratedClass mainClass = readClass(in);
+            int count = in.readInt();
+            List<GeneratedClass> structures = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i)
+                structures.add(readClass(in));
+            return buffer.available() == 0
+                ? new CompilationResult(mainClass, structures)
+                : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stores the result of compiling {@code source} into a class named {@code binaryName}.
+     *
+     * <p>Failing to write the entry is not an error (e.g. in a read-only directory): it only means
+     * the program will be compiled again next time.
+     */
+    public void put (String binaryName, String source, CompilationResult result)
+    {
+        Path entry = entry(binaryName, source);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeInt(MAGIC);
+                writeClass(out, result.mainClass);
+                out.writeInt(result.structures.size());
+                for (GeneratedClass structure: result.structures)
+                    writeClass(out, structure);
+                out.writeInt(checksum(bytes.toByteArray(), bytes.size()));
+            }
+            Files.write(temp, bytes.toByteArray());
+            try {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            if (temp != null)
+                try { Files.deleteIfExists(temp); } catch (IOException ignored) {}
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Path of the entry file for {@code source} compiled into a class named {@code binaryName}.
+     */
+    public Path entry (String binaryName, String source) {
+        return directory.resolve(hash(COMPILER_VERSION, binaryName, source) + ".sighc");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static GeneratedClass readClass (DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new GeneratedClass(name, bytes);
+    }
+
+    private static void writeClass (DataOutputStream out, GeneratedClass klass) throws IOException {
+        out.writeUTF(klass.slashBinaryName());
+        out.writeInt(klass.bytes().length);
+        out.write(klass.bytes());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int checksum (byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static int readInt (byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+            | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Hex-encoded SHA-256 hash of the strings, each prefixed by its length to avoid ambiguities.
+     */
+    private static String hash (String... parts)
+    {
+        MessageDigest digest = sha256();
+        for (String part: parts) {
+            byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+            digest.update(intBytes(bytes.length));
+            digest.update(bytes);
+        }
+        return hex(digest.digest());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String compilerVersion ()
+    {
+        try {
+            return hash(codeSourceHash(CodeCache.class), codeSourceHash(ClassWriter.class));
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Hex-encoded SHA-256 hash of the jar or class directory the class was loaded from: of the
+     * jar file itself, or of every class file in the directory (with their relative paths).
+     */
+    private static String codeSourceHash (Class<?> klass) throws IOException, URISyntaxException
+    {
+        CodeSource source = klass.getProtectionDomain().getCodeSource();
+        if (source == null || source.getLocation() == null)
+            throw new IOException("unknown location for " + klass);
+        MessageDigest digest = sha256();
+        Path location = Paths.get(source.getLocation().toURI());
+        if (!Files.isDirectory(location)) {
+            digest.update(Files.readAllBytes(location));
+            return hex(digest.digest());
+        }
+        List<Path> classes;
+        try (Stream<Path> files = Files.walk(location)) {
+            classes = files
+                .filter(it -> it.toString().endsWith(".class"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+        for (Path file: classes) {
+            byte[] name = location.relativize(file).toString()
+                .replace('\\', '/').getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = Files.readAllBytes(file);
+            digest.update(intBytes(name.length));
+            digest.update(name);
+            digest.update(intBytes(bytes.length));
+            digest.update(bytes);
+        }
+        return hex(digest.digest());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static MessageDigest sha256 () {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // required on every Java platform
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static byte[] intBytes (int value) {
+        return new byte[] {
+            (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String hex (byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b: bytes)
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                   .append(Character.forDigit(b & 0xF, 16));
+        return builder.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
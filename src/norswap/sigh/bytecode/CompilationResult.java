@@ -22,7 +22,8 @@ public final class CompilationResult
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * The generated classes corresponding to structures defined in the source unit.
+     * The generated classes corresponding to structures defined in the source unit, and to the
+     * arrays of the columnar structures.
      */
     public final List<GeneratedClass> structures;
 
@@ -47,11 +48,22 @@ public final class CompilationResult
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Load the generated class in the current JVM (using {@link ByteArrayClassLoader#INSTANCE} and
-     * return the {@link Class} object for {@link #mainClass}.
+     * Load the generated class in the current JVM using a new class loader, and return the {@link
+     * Class} object for {@link #mainClass}. The classes can be unloaded once they, and the loader,
+     * are not reachable anymore.
      */
     public Class<?> load() {
-        return load(ByteArrayClassLoader.INSTANCE);
+        return load(new ByteArrayClassLoader());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Load the generated classes in the current JVM using a new class loader, in a {@link
+     * LoadedProgram} which can be run and then closed to allow the classes to be unloaded.
+     */
+    public LoadedProgram loadProgram() {
+        return new LoadedProgram(this);
     }
 
     // ---------------------------------------------------------------------------------------------
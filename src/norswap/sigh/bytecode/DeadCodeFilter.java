@@ -0,0 +1,193 @@
+package norswap.sigh.bytecode;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * A method visitor that drops unreachable code and keeps the stack map frames valid, so that
+ * {@link BytecodeCompiler} can emit frames at every jump target without having to compute whether
+ * code is reachable.
+ *
+ * <p>Code is unreachable after an unconditional jump, a return or a throw, until a label that is
+ * the target of a previous jump (the target of a backward jump is only reachable if the code before
+ * it is, since the jump itself is otherwise dropped). Instructions and frames visited while the
+ * code is unreachable are dropped: the JVM would otherwise require a frame before them.
+ *
+ * <p>A frame is only forwarded once it is followed by an instruction: it is dropped if the method
+ * ends first, and replaced if another frame is visited before, as happens when a label ends
+ * multiple nested statements. The last frame must then be the most general one (i.e. the one with
+ * the least locals).
+ *
+ * <p>Line numbers are handled like frames, as the JVM rejects those that don't precede an
+ * instruction.
+ *
+ * <p>It also keeps track of an upper bound of the size of the code it forwarded, see {@link
+ * #maxCodeSize()}.
+ */
+final class DeadCodeFilter extends MethodVisitor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final Set<Label> targets = new HashSet<>();
+    private boolean reachable = true;
+
+    private int frameType;
+    private Object[] frameLocals;
+    private Object[] frameStack;
+    private boolean pendingFrame;
+
+    private int line;
+    private Label lineStart;
+
+    private int maxCodeSize = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    DeadCodeFilter (MethodVisitor delegate) {
+        super(ASM5, delegate);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an upper bound of the size in bytes of the code forwarded so far, assuming that
+     * local variable instructions are wide, and that jumps are wide or have to be emulated with a
+     * wide goto. Methods can't have more than 65535 bytes of code.
+     */
+    int maxCodeSize () {
+        return maxCodeSize;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the code visited now would be emitted. In particular, a label visited while this
+     * is false may be at the very end of the method.
+     */
+    boolean isReachable () {
+        return reachable;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns true if an instruction visited now, whose maximum size is {@code size}, would be
+     * emitted. Flushes the pending frame and line number if there are some.
+     */
+    private boolean emit (int size)
+    {
+        if (!reachable) return false;
+        if (pendingFrame) {
+            pendingFrame = false;
+            super.visitFrame(frameType,
+                frameLocals.length, frameLocals, frameStack.length, frameStack);
+        }
+        if (lineStart != null) {
+            super.visitLineNumber(line, lineStart);
+            lineStart = null;
+        }
+        maxCodeSize += size;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visitLabel (Label label)
+    {
+        super.visitLabel(label);
+        if (targets.contains(label))
+            reachable = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visitFrame (
+            int type, int nLocal, Object[] local, int nStack, Object[] stack)
+    {
+        if (!reachable) return;
+        frameType = type;
+        frameLocals = Arrays.copyOf(local, nLocal);
+        frameStack = Arrays.copyOf(stack, nStack);
+        pendingFrame = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visitLineNumber (int line, Label start)
+    {
+        if (!reachable) return;
+        this.line = line;
+        this.lineStart = start;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visitJumpInsn (int opcode, Label label)
+    {
+        if (!emit(8)) return;
+        super.visitJumpInsn(opcode, label);
+        targets.add(label);
+        if (opcode == GOTO)
+            reachable = false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visitInsn (int opcode)
+    {
+        if (!emit(1)) return;
+        super.visitInsn(opcode);
+        if (opcode >= IRETURN && opcode <= RETURN || opcode == ATHROW)
+            reachable = false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Other instructions: only dropped if unreachable.
+
+    @Override public void visitIntInsn (int opcode, int operand) {
+        if (emit(3)) super.visitIntInsn(opcode, operand);
+    }
+
+    @Override public void visitVarInsn (int opcode, int var) {
+        if (emit(4)) super.visitVarInsn(opcode, var);
+    }
+
+    @Override public void visitTypeInsn (int opcode, String type) {
+        if (emit(3)) super.visitTypeInsn(opcode, type);
+    }
+
+    @Override public void visitFieldInsn (int opcode, String owner, String name, String desc) {
+        if (emit(3)) super.visitFieldInsn(opcode, owner, name, desc);
+    }
+
+    @Override public void visitMethodInsn (
+            int opcode, String owner, String name, String desc, boolean itf) {
+        if (emit(5)) super.visitMethodInsn(opcode, owner, name, desc, itf);
+    }
+
+    @Override public void visitInvokeDynamicInsn (
+            String name, String desc, Handle bsm, Object... bsmArgs) {
+        if (emit(5)) super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+    }
+
+    @Override public void visitLdcInsn (Object constant) {
+        if (emit(3)) super.visitLdcInsn(constant);
+    }
+
+    @Override public void visitIincInsn (int var, int increment) {
+        if (emit(6)) super.visitIincInsn(var, increment);
+    }
+
+    @Override public void visitMultiANewArrayInsn (String desc, int dims) {
+        if (emit(4)) super.visitMultiANewArrayInsn(desc, dims);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,198 @@
+package norswap.sigh.bytecode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Packages a {@link CompilationResult} into a self-contained runnable jar, whose manifest points
+ * to the main class.
+ *
+ * <p>Besides the generated classes, the jar contains the classes they need at run time (e.g.
+ * {@link SighRuntime}, {@link Null}, and through them the array kernels), and nothing else. These
+ * are found by following the class references of the generated classes, then of the runtime
+ * classes, transitively, skipping the classes of the Java platform. This means that neither the
+ * front-end (parser, semantic analysis) nor ASM end up in the jar, as the generated code never
+ * refers to them.
+ *
+ * <p>The runtime classes are copied as loaded by the class loader of this class. In particular,
+ * when compiling from the multi-release jar on Java 17+, the Java 17 versions of the classes are
+ * copied (the kernels fall back to scalar loops when they can't be loaded).
+ */
+public final class JarPackager
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private JarPackager () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes a runnable jar containing the compiled program and its runtime to {@code jar}.
+     */
+    public static void write (CompilationResult result, Path jar) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(Attributes.Name.MAIN_CLASS, result.mainClass.binaryName());
+        attributes.put(new Attributes.Name("Created-By"), "sighc");
+
+        try (OutputStream file = Files.newOutputStream(jar);
+             JarOutputStream out = new JarOutputStream(file, manifest)) {
+            for (Map.Entry<String, byte[]> klass: classes(result).entrySet()) {
+                out.putNextEntry(new JarEntry(klass.getKey() + ".class"));
+                out.write(klass.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the bytecode of the classes to package for the given result, indexed by their
+     * (slash-separated) binary name: the generated classes followed by the runtime classes they
+     * depend on.
+     */
+    public static Map<String, byte[]> classes (CompilationResult result)
+    {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        ArrayDeque<String> todo = new ArrayDeque<>();
+
+        classes.put(result.mainClass.slashBinaryName(), result.mainClass.bytes());
+        for (GeneratedClass structure: result.structures)
+            classes.put(structure.slashBinaryName(), structure.bytes());
+        for (byte[] bytes: classes.values())
+            collectReferences(bytes, todo);
+
+        while (!todo.isEmpty()) {
+            String name = todo.poll();
+            if (classes.containsKey(name) || isPlatformClass(name)) continue;
+            byte[] bytes = readClass(name);
+            classes.put(name, bytes);
+            collectReferences(bytes, todo);
+        }
+
+        return classes;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean isPlatformClass (String name) {
+        return name.startsWith("java/")
+            || name.startsWith("javax/")
+            || name.startsWith("jdk/")
+            || name.startsWith("sun/");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the (slash-separated) binary names of the classes referenced by the class to {@code
+     * out}: in its constant pool, and in the descriptors of its members and of the members it uses.
+     *
+     * <p>This reads the class file directly rather than using ASM, as the ASM version we depend on
+     * can't read the class files of recent Java versions (e.g. the Java 17 array kernels).
+     */
+    private static void collectReferences (byte[] bytes, ArrayDeque<String> out)
+    {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            in.skipBytes(8); // magic, minor & major version
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            List<Integer> classes = new ArrayList<>();
+            List<Integer> descriptors = new ArrayList<>();
+
+            for (int i = 1; i < count; ++i) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case 1:  utf8[i] = in.readUTF(); break;
+                    case 7:  classes.add(in.readUnsignedShort()); break;
+                    case 12: in.skipBytes(2); descriptors.add(in.readUnsignedShort()); break;
+                    case 16: descriptors.add(in.readUnsignedShort()); break;
+                    case 8: case 19: case 20: in.skipBytes(2); break;
+                    case 15: in.skipBytes(3); break;
+                    case 3: case 4: case 9: case 10: case 11: case 17: case 18:
+                        in.skipBytes(4); break;
+                    case 5: case 6: in.skipBytes(8); ++i; break; // takes two entries
+                    default: throw new IllegalArgumentException("unknown constant tag: " + tag);
+                }
+            }
+
+            in.skipBytes(6); // access flags, this class, super class
+            in.skipBytes(2 * in.readUnsignedShort()); // interfaces (also class constants)
+            for (int members = 0; members < 2; ++members) { // fields, then methods
+                for (int n = in.readUnsignedShort(); n > 0; --n) {
+                    in.skipBytes(4); // access flags, name
+                    descriptors.add(in.readUnsignedShort());
+                    for (int a = in.readUnsignedShort(); a > 0; --a) {
+                        in.skipBytes(2);
+                        in.skipBytes(in.readInt());
+                    }
+                }
+            }
+
+            for (int index: classes) {
+                String name = utf8[index];
+                if (name.startsWith("[")) addDescriptorClasses(name, out);
+                else out.add(name);
+            }
+            for (int index: descriptors)
+                addDescriptorClasses(utf8[index], out);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("malformed class file", e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Adds the binary names of the classes in a type or method descriptor to {@code out}.
+     */
+    private static void addDescriptorClasses (String descriptor, ArrayDeque<String> out)
+    {
+        for (int i = descriptor.indexOf('L'); i >= 0; i = descriptor.indexOf('L', i)) {
+            int end = descriptor.indexOf(';', i);
+            out.add(descriptor.substring(i + 1, end));
+            i = end;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static byte[] readClass (String name)
+    {
+        String resource = name + ".class";
+        ClassLoader loader = JarPackager.class.getClassLoader();
+        try (InputStream in = loader.getResourceAsStream(resource)) {
+            if (in == null)
+                throw new IllegalStateException("runtime class not found: " + resource);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) >= 0; )
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("can't read runtime class: " + resource, e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,187 @@
+package norswap.sigh.bytecode;
+
+import norswap.sigh.runtime.MemoTable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * A compiled program loaded in the current JVM, in a class loader of its own.
+ *
+ * <p>Each program is isolated: programs whose classes have the same names (e.g. structs with the
+ * same name) can be loaded at the same time. Once the program is {@link #close() closed}, it
+ * can't be run anymore, and this object does not reference its classes anymore. When nothing else
+ * does (e.g. values returned by the program, or running threads), the class loader and its
+ * classes are garbage collected, and their Metaspace is freed.
+ *
+ * <p>Long-running hosts should close the programs they are done with, and can use {@link
+ * #liveLoaders()} to check that their class loaders do get collected.
+ */
+public final class LoadedProgram implements AutoCloseable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Weak references to the loaders of all the loaded programs, cleared once collected. */
+    private static final Set<WeakReference<ClassLoader>> loaders =
+        Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    private static final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<>();
+
+    /** The Metaspace memory pool, or null if the JVM doesn't have one. */
+    private static final MemoryPoolMXBean metaspace = ManagementFactory.getMemoryPoolMXBeans()
+        .stream()
+        .filter(it -> it.getName().equals("Metaspace"))
+        .findFirst()
+        .orElse(null);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Dot-separated binary name of the main class. */
+    public final String name;
+
+    /** Number of classes of the program (the main class and the struct classes). */
+    public final int classCount;
+
+    /** Total size of the bytecode of the program's classes, in bytes. */
+    public final long bytecodeSize;
+
+    /**
+     * Growth of Metaspace usage while loading and initializing the program's classes, in bytes,
+     * or -1 if it can't be measured. This is an estimate: it includes the classes loaded
+     * concurrently by other threads, and doesn't include the classes that the program will only
+     * load later (e.g. the runtime classes).
+     */
+    public final long metaspaceSize;
+
+    private volatile Class<?> mainClass;
+
+    // ---------------------------------------------------------------------------------------------
+
+    LoadedProgram (CompilationResult result)
+    {
+        long before = metaspaceUsed();
+        ByteArrayClassLoader loader = new ByteArrayClassLoader();
+        Class<?> mainClass = result.load(loader);
+        try {
+            // link and initialize, so that this is accounted for
+            Class.forName(mainClass.getName(), true, loader);
+        } catch (ClassNotFoundException e) {
+            throw new AssertionError(e); // it was just defined
+        }
+        long after = metaspaceUsed();
+
+        this.mainClass = mainClass;
+        this.name = mainClass.getName();
+        this.classCount = 1 + result.structures.size();
+        long size = result.mainClass.bytes().length;
+        for (GeneratedClass structure: result.structures)
+            size += structure.bytes().length;
+        this.bytecodeSize = size;
+        this.metaspaceSize = before < 0 ? -1 : Math.max(0, after - before);
+
+        expunge();
+        loaders.add(new WeakReference<>(loader, collected));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long metaspaceUsed () {
+        return metaspace == null ? -1 : metaspace.getUsage().getUsed();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void expunge () {
+        for (Object ref; (ref = collected.poll()) != null; )
+            loaders.remove(ref);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of program class loaders that haven't been garbage collected yet, which
+     * includes those of the programs that haven't been closed.
+     */
+    public static int liveLoaders () {
+        expunge();
+        return loaders.size();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the main class of the program.
+     *
+     * @throws IllegalStateException if the program has been closed
+     */
+    public Class<?> mainClass ()
+    {
+        Class<?> mainClass = this.mainClass;
+        if (mainClass == null)
+            throw new IllegalStateException("program " + name + " has been closed");
+        return mainClass;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program, see {@link CompilationResult#callRun(Class, String...)}.
+     *
+     * @throws IllegalStateException if the program has been closed
+     */
+    public Object run (String... args) {
+        return CompilationResult.callRun(mainClass(), args);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the memo table of the function with the given name, or null if the function isn't
+     * memoized (see {@link BytecodeCompiler#memoize}).
+     *
+     * @throws IllegalStateException if the program has been closed
+     */
+    public MemoTable memoTable (String function)
+    {
+        try {
+            return (MemoTable) mainClass().getField(function + "$memo").get(null);
+        } catch (NoSuchFieldException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            throw new AssertionError(e); // the field is public
+        }
+    }
+
+    /**
+     * Whether {@link #close()} has been called.
+     */
+    public boolean isClosed () {
+        return mainClass == null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Drops the references to the program's classes, so that they can be unloaded. Running
+     * invocations of the program are not affected.
+     */
+    @Override public void close () {
+        mainClass = null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString ()
+    {
+        return String.format("%s (%d classes, %d bytes of bytecode, %s of Metaspace)%s",
+            name, classCount, bytecodeSize,
+            metaspaceSize < 0 ? "unknown amount" : metaspaceSize / 1024 + " KiB",
+            isClosed() ? " [closed]" : "");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,137 @@
+package norswap.sigh.bytecode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact encoding of the large constant {@code Int[]} and {@code Float[]} literals, which the
+ * generated code loads as string constants and unpacks at run time, instead of storing each item
+ * with a few instructions. This keeps methods far from the 64KB limit on their bytecode, and the
+ * class files small.
+ *
+ * <p>Each item is encoded as a little-endian variable-length sequence of 6-bit groups, stored in
+ * chars whose 7th bit is set when more groups follow. Chars are offset by one, so that they are
+ * all in {@code [1, 128]}, and take a single byte in the class file (except 128) — the modified
+ * UTF-8 encoding of the constant pool uses two bytes for the null char. Ints are zigzag-encoded,
+ * so that small negative numbers are short too. The bytes of Floats are reversed, so that the
+ * trailing zero bits of the mantissa of "round" numbers (e.g. 0.5) don't need to be stored.
+ *
+ * <p>A string constant can't take more than 65535 bytes in a class file, so the items are split
+ * into multiple strings, never across two strings.
+ */
+public final class PackedArrays
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private PackedArrays () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum number of chars in a string, which takes at most two bytes per char. */
+    private static final int MAX_STRING_LENGTH = 30_000;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Encodes the items (see the class documentation). */
+    public static List<String> pack (long[] items)
+    {
+        Packer packer = new Packer();
+        for (long item: items)
+            packer.add((item << 1) ^ (item >> 63));
+        return packer.finish();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Encodes the items (see the class documentation). */
+    public static List<String> pack (double[] items)
+    {
+        Packer packer = new Packer();
+        for (double item: items)
+            packer.add(Long.reverseBytes(Double.doubleToRawLongBits(item)));
+        return packer.finish();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Decodes {@code length} Int items encoded by {@link #pack(long[])}. */
+    public static long[] unpackLongs (int length, String[] strings)
+    {
+        long[] items = new long[length];
+        Unpacker unpacker = new Unpacker(strings);
+        for (int i = 0; i < length; ++i) {
+            long zigzag = unpacker.next();
+            items[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        return items;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Decodes {@code length} Float items encoded by {@link #pack(double[])}. */
+    public static double[] unpackDoubles (int length, String[] strings)
+    {
+        double[] items = new double[length];
+        Unpacker unpacker = new Unpacker(strings);
+        for (int i = 0; i < length; ++i)
+            items[i] = Double.longBitsToDouble(Long.reverseBytes(unpacker.next()));
+        return items;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Packer
+    {
+        final List<String> strings = new ArrayList<>();
+        final StringBuilder current = new StringBuilder();
+
+        void add (long bits)
+        {
+            if (current.length() > MAX_STRING_LENGTH - 11) { // at most 11 groups per item
+                strings.add(current.toString());
+                current.setLength(0);
+            }
+            while ((bits & ~0x3FL) != 0) {
+                current.append((char) (1 + (0x40 | (bits & 0x3F))));
+                bits >>>= 6;
+            }
+            current.append((char) (1 + bits));
+        }
+
+        List<String> finish () {
+            if (current.length() > 0 || strings.isEmpty())
+                strings.add(current.toString());
+            return strings;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Unpacker
+    {
+        final String[] strings;
+        int string = 0;
+        int index = 0;
+
+        Unpacker (String[] strings) {
+            this.strings = strings;
+        }
+
+        long next ()
+        {
+            String s = strings[string];
+            if (index == s.length()) {
+                s = strings[++string];
+                index = 0;
+            }
+            long bits = 0;
+            for (int shift = 0; ; shift += 6) {
+                int group = s.charAt(index++) - 1;
+                bits |= (long) (group & 0x3F) << shift;
+                if ((group & 0x40) == 0) return bits;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
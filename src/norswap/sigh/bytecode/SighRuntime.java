@@ -1,5 +1,12 @@
 package norswap.sigh.bytecode;
 
+import norswap.sigh.ast.DiadicOperator;
+import norswap.sigh.ast.MonadicOperator;
+import norswap.sigh.runtime.ArrayKernels;
+
+import static norswap.sigh.runtime.ArrayKernels.checkLengths;
+import static norswap.sigh.runtime.ArrayKernels.toDouble;
+
 public final class SighRuntime
 {
     /**
@@ -22,4 +29,171 @@ public final class SighRuntime
         System.out.println(string);
         return string;
     }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Broadcasting diadic operators on numeric arrays (every operator but <>), which allocate the
+    // result and fill it with the ArrayKernels. When an Int[] operand must be promoted, it is
+    // converted directly into the result, and the operation done in place. An Int scalar is
+    // promoted by the generated code (L2D) before the call.
+
+    public static long[] apply (DiadicOperator operator, long[] a, long[] b) {
+        checkLengths(a.length, b.length);
+        long[] out = new long[a.length];
+        ArrayKernels.apply(operator, a, b, out);
+        return out;
+    }
+
+    public static long[] apply (DiadicOperator operator, long[] a, long b) {
+        long[] out = new long[a.length];
+        ArrayKernels.apply(operator, a, b, out);
+        return out;
+    }
+
+    public static long[] apply (DiadicOperator operator, long a, long[] b) {
+        long[] out = new long[b.length];
+        ArrayKernels.apply(operator, a, b, out);
+        return out;
+    }
+
+    public static double[] apply (DiadicOperator operator, double[] a, double[] b) {
+        checkLengths(a.length, b.length);
+        double[] out = new double[a.length];
+        ArrayKernels.apply(operator, a, b, out);
+        return out;
+    }
+
+    public static double[] apply (DiadicOperator operator, double[] a, double b) {
+        double[] out = new double[a.length];
+        ArrayKernels.apply(operator, a, b, out);
+        return out;
+    }
+
+    public static double[] apply (DiadicOperator operator, double a, double[] b) {
+        double[] out = new double[b.length];
+        ArrayKernels.apply(operator, a, b, out);
+        return out;
+    }
+
+    public static double[] apply (DiadicOperator operator, long[] a, double[] b) {
+        checkLengths(a.length, b.length);
+        double[] out = toDouble(a, new double[a.length], 0);
+        ArrayKernels.apply(operator, out, b, out);
+        return out;
+    }
+
+    public static double[] apply (DiadicOperator operator, double[] a, long[] b) {
+        checkLengths(a.length, b.length);
+        double[] out = toDouble(b, new double[b.length], 0);
+        ArrayKernels.apply(operator, a, out, out);
+        return out;
+    }
+
+    public static double[] apply (DiadicOperator operator, long[] a, double b) {
+        double[] out = toDouble(a, new double[a.length], 0);
+        ArrayKernels.apply(operator, out, b, out);
+        return out;
+    }
+
+    public static double[] apply (DiadicOperator operator, double a, long[] b) {
+        double[] out = toDouble(b, new double[b.length], 0);
+        ArrayKernels.apply(operator, a, out, out);
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // <> on two scalars (the other cases are handled by ArrayKernels#concat).
+
+    public static long[] concat (long a, long b) {
+        return new long[] { a, b };
+    }
+
+    public static double[] concat (double a, double b) {
+        return new double[] { a, b };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Scalar operators that are not emitted inline, computed as in the interpreter.
+
+    public static long and (long a, long b) {
+        return a != 0 && b != 0 ? 1 : 0;
+    }
+
+    public static double and (double a, double b) {
+        return a != 0.0 && b != 0.0 ? 1.0 : 0.0;
+    }
+
+    public static long or (long a, long b) {
+        return a != 0 || b != 0 ? 1 : 0;
+    }
+
+    public static double or (double a, double b) {
+        return a != 0.0 || b != 0.0 ? 1.0 : 0.0;
+    }
+
+    public static long pow (long a, long b) {
+        return (long) Math.pow(a, b);
+    }
+
+    public static double pow (double a, double b) {
+        return Math.pow(a, b);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // == on references (strings, arrays, structures, null), i.e. identity. Called rather than
+    // emitted inline, so that expressions never contain jumps (see BytecodeCompiler#comparison).
+
+    public static long same (Object a, Object b) {
+        return a == b ? 1 : 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Monadic verbs on numeric arrays that are not emitted inline: the elementwise verbs (!, +:,
+    // *:), which allocate their result, and &/ and |/, which return a single item as is.
+
+    public static long[] apply (MonadicOperator operator, long[] a) {
+        long[] out = new long[a.length];
+        ArrayKernels.apply(operator, a, out);
+        return out;
+    }
+
+    public static double[] apply (MonadicOperator operator, double[] a) {
+        double[] out = new double[a.length];
+        ArrayKernels.apply(operator, a, out);
+        return out;
+    }
+
+    public static long and (long[] a) {
+        return a.length == 1 ? a[0] : ArrayKernels.allPositive(a) ? 1 : 0;
+    }
+
+    public static double and (double[] a) {
+        return a.length == 1 ? a[0] : ArrayKernels.allPositive(a) ? 1.0 : 0.0;
+    }
+
+    public static long or (long[] a) {
+        return a.length == 1 ? a[0] : ArrayKernels.anyPositive(a) ? 1 : 0;
+    }
+
+    public static double or (double[] a) {
+        return a.length == 1 ? a[0] : ArrayKernels.anyPositive(a) ? 1.0 : 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Bounds check for the arrays of columnar structures without fields, which have no field
+     * array to perform it.
+     */
+    public static void checkIndex (int index, int length) {
+        if (index < 0 || index >= length)
+            throw new ArrayIndexOutOfBoundsException(
+                "Index " + index + " out of bounds for length " + length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }
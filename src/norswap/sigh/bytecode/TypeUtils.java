@@ -21,6 +21,16 @@ public final class TypeUtils {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the slash-separated binary type name for the runtime representation of the arrays
+     * of the given columnar structure, which hold one array per field.
+     */
+    public static String columnsBinaryName (StructType type) {
+        return type.name() + "$Columns";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns a java {@link Class} used for the runtime representation of the given Sigh {@link
      * Type}.
@@ -102,6 +112,8 @@ public final class TypeUtils {
             return "Ljava/lang/String;";
         else if (type instanceof NullType)
             return "Lnorswap/sigh/bytecode/Null;";
+        else if (type instanceof ArrayType && ((ArrayType) type).isColumnar())
+            return "L" + columnsBinaryName((StructType) ((ArrayType) type).componentType) + ";";
         else if (type instanceof ArrayType)
             return "[" + fieldDescriptor(((ArrayType) type).componentType);
         else if (type instanceof TypeType)
@@ -0,0 +1,106 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.StructDeclarationNode;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.Type;
+
+/**
+ * Class representing arrays of {@link StructDeclarationNode#columnar columnar} structures in the
+ * interpreter: one array per field of the structure ({@code long[]} for {@code Int} fields,
+ * {@code double[]} for {@code Float} fields and {@code Object[]} for the others), in declaration
+ * order.
+ *
+ * <p>Items are stored by value: {@link #get(int)} returns a copy of an item, and {@link #set(int,
+ * Struct)} copies the fields of a structure into an item.
+ */
+public final class ColumnarArray
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public final StructDeclarationNode declaration;
+    final Object[] columns;
+    private final int length;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an array of {@code length} items, for a structure whose fields have the given types.
+     * The items must be {@link #set(int, Struct) set} before they are read.
+     */
+    ColumnarArray (StructDeclarationNode declaration, Type[] fieldTypes, int length)
+    {
+        this.declaration = declaration;
+        this.length = length;
+        this.columns = new Object[fieldTypes.length];
+        for (int i = 0; i < fieldTypes.length; ++i)
+            columns[i] = fieldTypes[i] instanceof IntType ? new long[length]
+                : fieldTypes[i] instanceof FloatType ? new double[length]
+                : new Object[length];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public int length () {
+        return length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the value of the field with the given index in the declaration, for an item. */
+    public Object get (int index, int field) {
+        return Operations.getItem(columns[field], index);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Sets the value of the field with the given index in the declaration, for an item. */
+    Object set (int index, int field, Object value) {
+        return Operations.setItem(columns[field], index, value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns a copy of an item. */
+    public Struct get (int index)
+    {
+        checkIndex(index);
+        Object[] fields = new Object[columns.length];
+        for (int i = 0; i < fields.length; ++i)
+            fields[i] = Operations.getItem(columns[i], index);
+        return new Struct(declaration, fields);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Copies the fields of {@code struct} into an item. */
+    void set (int index, Struct struct)
+    {
+        checkIndex(index);
+        for (int i = 0; i < columns.length; ++i)
+            Operations.setItem(columns[i], index, struct.fields[i]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Structures without fields have no column to perform the check.
+    private void checkIndex (int index) {
+        if (index < 0 || index >= length)
+            throw new ArrayIndexOutOfBoundsException(
+                "Index " + index + " out of bounds for length " + length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString ()
+    {
+        StringBuilder b = new StringBuilder("[");
+        for (int i = 0; i < length; ++i) {
+            if (i > 0) b.append(", ");
+            b.append(get(i));
+        }
+        return b.append("]").toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,18 +1,21 @@
 package norswap.sigh.interpreter;
 
 import norswap.sigh.ast.StructDeclarationNode;
+import norswap.sigh.types.Type;
 
 /**
- * Class representing structure constructors in the interpreter, simply wrapping the declaration
- * node. Such a wrapper is necessary, because the node is already used to represent the structure
- * type.
+ * Class representing structure constructors in the interpreter, wrapping the declaration node
+ * and the types of its fields, to which the arguments are converted. Such a wrapper is necessary,
+ * because the node is already used to represent the structure type.
  */
 public final class Constructor
 {
     public final StructDeclarationNode declaration;
+    final Type[] fieldTypes;
 
-    public Constructor (StructDeclarationNode declaration) {
+    public Constructor (StructDeclarationNode declaration, Type[] fieldTypes) {
         this.declaration = declaration;
+        this.fieldTypes = fieldTypes;
     }
 
     @Override public int hashCode () {
@@ -0,0 +1,15 @@
+package norswap.sigh.interpreter;
+
+/**
+ * A node of the executor tree built by {@link ExecutorCompiler}: a piece of code that evaluates
+ * a single AST node against a runtime frame.
+ *
+ * <p>Statements return {@code null}, or an {@link Interpreter.Return} if a return statement was
+ * executed (an {@link Interpreter.TailCall} for a self tail call). Expressions return their
+ * runtime value (see the value representation in {@link Interpreter}).
+ */
+@FunctionalInterface
+interface Executor
+{
+    Object execute (ScopeStorage frame);
+}
@@ -0,0 +1,845 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.AnalysisTables;
+import norswap.sigh.ast.*;
+import norswap.sigh.runtime.ArrayExpr;
+import norswap.sigh.runtime.MemoTable;
+import norswap.sigh.scopes.DeclarationKind;
+import norswap.sigh.scopes.RootScope;
+import norswap.sigh.scopes.Scope;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.StructType;
+import norswap.sigh.types.Type;
+import norswap.utils.exceptions.Exceptions;
+import norswap.utils.visitors.ValuedVisitor;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static norswap.utils.Vanilla.map;
+
+/**
+ * Compiles a Sigh AST into a tree of pre-linked {@link Executor} closures, which can then be run
+ * without going back to the AST or to the results of semantic analysis.
+ *
+ * <p>This implements the same semantics as the {@link Interpreter}, with the same runtime value
+ * representation, but all the work that only depends on the tree is done once, at compile time:
+ * dispatching on the node class, looking up semantic attributes (types, declarations, slots),
+ * resolving each variable reference to a number of frame hops and a slot, and linking calls to
+ * named functions directly to the callee.
+ *
+ * <p>Runtime exceptions are wrapped in an {@link InterpreterException} mentioning the statement
+ * (rather than the innermost node, as the {@link Interpreter} does) during which they occured.
+ */
+public final class ExecutorCompiler
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final ValuedVisitor<SighNode, Executor> visitor = new ValuedVisitor<>();
+    private final AnalysisTables tables;
+    private final IdentityHashMap<FunDeclarationNode, Function> functions = new IdentityHashMap<>();
+
+    /** The scope whose storage will be the current frame when the code being compiled runs. */
+    private Scope scope;
+
+    /** Executor for statements that do nothing at run time (declarations). */
+    private static final Executor NOTHING = frame -> null;
+
+    /** Capacity of the memo tables, or 0 if memoization is disabled (see {@link #memoize}). */
+    private int memoCapacity = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public ExecutorCompiler (AnalysisTables tables) {
+        this.tables = tables;
+
+        // expressions
+        visitor.register(IntLiteralNode.class, this::intLiteral);
+        visitor.register(FloatLiteralNode.class, this::floatLiteral);
+        visitor.register(StringLiteralNode.class, this::stringLiteral);
+        visitor.register(ReferenceNode.class, this::reference);
+        visitor.register(ConstructorNode.class, this::constructor);
+        visitor.register(ArrayLiteralNode.class, this::arrayLiteral);
+        visitor.register(ParenthesizedNode.class, this::parenthesized);
+        visitor.register(FieldAccessNode.class, this::fieldAccess);
+        visitor.register(ArrayAccessNode.class, this::arrayAccess);
+        visitor.register(FunCallNode.class, this::funCall);
+        visitor.register(MonadicExpressionNode.class, this::monadicExpression);
+        visitor.register(DiadicExpressionNode.class, this::diadicExpression);
+        visitor.register(MonadicForkNode.class, this::monadicForkExpression);
+        visitor.register(DiadicForkNode.class, this::diadicForkExpression);
+        visitor.register(AssignmentNode.class, this::assignment);
+
+        // statement groups & declarations
+        visitor.register(RootNode.class, this::root);
+        visitor.register(BlockNode.class, this::block);
+        visitor.register(VarDeclarationNode.class, this::varDecl);
+        visitor.register(FunDeclarationNode.class, this::funDecl);
+        // other declarations do nothing at run time (use fallback)
+
+        // statements
+        visitor.register(ExpressionStatementNode.class, this::expressionStmt);
+        visitor.register(IfNode.class, this::ifStmt);
+        visitor.register(WhileNode.class, this::whileStmt);
+        visitor.register(ReturnNode.class, this::returnStmt);
+
+        visitor.registerFallback(node -> NOTHING);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A compiled program, which can be run any number of times.
+     */
+    public static final class Program
+    {
+        private final Executor root;
+
+        private Program (Executor root) {
+            this.root = root;
+        }
+
+        public Object run () {
+            try {
+                return root.execute(null);
+            } catch (PassthroughException e) {
+                throw Exceptions.runtime(e.getCause());
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Enables memoization in the programs compiled afterwards, like {@link
+     * Interpreter#memoize(int)} does. The memo tables belong to the compiled program, and are
+     * kept across its runs. Returns this compiler.
+     */
+    public ExecutorCompiler memoize (int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.memoCapacity = capacity;
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the memo table of the function (see {@link #memoize}), or null if the function isn't
+     * memoized or hasn't been compiled.
+     */
+    public MemoTable memoTable (FunDeclarationNode function) {
+        Function compiled = functions.get(function);
+        return compiled == null ? null : compiled.memo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Program compile (RootNode root) {
+        return new Program(compile((SighNode) root));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor compile (SighNode node) {
+        return visitor.apply(node);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A compiled function. Instances are created on first reference, so that recursive calls and
+     * calls to functions declared later can be linked, and completed when the declaration itself
+     * is compiled.
+     */
+    private static final class Function
+    {
+        final Scope scope;
+        final int[] slots;
+        final FunType type;
+        final MemoTable memo; // null if not memoized
+        Executor body;
+
+        Function (Scope scope, int[] slots, FunType type, MemoTable memo) {
+            this.scope = scope;
+            this.slots = slots;
+            this.type = type;
+            this.memo = memo;
+        }
+
+        /**
+         * Calls the function, whose frame will have the given parent, which must be the storage
+         * for the scope in which the function was declared.
+         */
+        Object invoke (ScopeStorage parent, Object[] args)
+        {
+            Operations.coerce(args, type.paramTypes);
+            if (memo == null)
+                return run(parent, args);
+
+            Object key = MemoTable.key(args);
+            Object result = memo.get(key);
+            return result != null ? result : memo.put(key, run(parent, args));
+        }
+
+        private Object run (ScopeStorage parent, Object[] args)
+        {
+            ScopeStorage frame = new ScopeStorage(scope, parent);
+            for (int i = 0; i < slots.length; ++i)
+                frame.store(slots[i], args[i]);
+
+            Object status = body.execute(frame);
+            while (status instanceof Interpreter.TailCall) {
+                Object[] next = ((Interpreter.TailCall) status).args;
+                for (int i = 0; i < slots.length; ++i)
+                    frame.store(slots[i], Operations.coerce(next[i], type.paramTypes[i]));
+                status = body.execute(frame);
+            }
+            return status == null
+                ? null
+                : Operations.coerce(((Interpreter.Return) status).value, type.returnType);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Function function (FunDeclarationNode decl) {
+        return functions.computeIfAbsent(decl, it -> new Function(
+            tables.scope(it),
+            it.parameters.stream().mapToInt(tables::slot).toArray(),
+            tables.type(it),
+            memoCapacity != 0 && MemoTable.memoizable(it, tables)
+                ? new MemoTable(memoCapacity)
+                : null));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean isVariable (DeclarationNode decl) {
+        return decl instanceof VarDeclarationNode
+            || decl instanceof ParameterNode
+            || decl instanceof SyntheticDeclarationNode
+            && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.VARIABLE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of parent links to follow from the current frame to reach the storage for {@code
+     * target}, which must be the current scope or one of its ancestors.
+     */
+    private int hops (Scope target) {
+        return scope.depth - target.depth;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object[] evaluate (Executor[] executors, ScopeStorage frame) {
+        Object[] values = new Object[executors.length];
+        for (int i = 0; i < executors.length; ++i)
+            values[i] = executors[i].execute(frame);
+        return values;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Executes the statements until one of them returns, and returns the completion status (see
+     * {@link Interpreter.Return}).
+     */
+    private static Object execute (Executor[] statements, ScopeStorage frame) {
+        for (Executor statement: statements) {
+            Object status = statement.execute(frame);
+            if (status != null) return status;
+        }
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int index (Object value) {
+        long index = (long) value;
+        if (index < 0)
+            throw new ArrayIndexOutOfBoundsException("Negative index: " + index);
+        if (index >= Integer.MAX_VALUE - 1)
+            throw new ArrayIndexOutOfBoundsException("Index exceeds max array index (2ˆ31 - 2): " + index);
+        return (int) index;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object nonNullArray (Object object) {
+        if (object == Null.INSTANCE)
+            throw new PassthroughException(new NullPointerException("indexing null array"));
+        return object;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor intLiteral (IntLiteralNode node) {
+        Object value = node.value;
+        return frame -> value;
+    }
+
+    private Executor floatLiteral (FloatLiteralNode node) {
+        Object value = node.value;
+        return frame -> value;
+    }
+
+    private Executor stringLiteral (StringLiteralNode node) {
+        String value = node.value;
+        return frame -> value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor parenthesized (ParenthesizedNode node) {
+        return compile(node.expression);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor arrayLiteral (ArrayLiteralNode node)
+    {
+        Type componentType = ((ArrayType) tables.type(node)).componentType;
+        Executor[] components = map(node.components, new Executor[0], visitor);
+
+        if (componentType instanceof IntType)
+            return frame -> {
+                long[] array = new long[components.length];
+                for (int i = 0; i < array.length; ++i)
+                    array[i] = (long) components[i].execute(frame);
+                return array;
+            };
+
+        if (componentType instanceof FloatType)
+            return frame -> {
+                double[] array = new double[components.length];
+                for (int i = 0; i < array.length; ++i)
+                    array[i] = ((Number) components[i].execute(frame)).doubleValue();
+                return array;
+            };
+
+        if (((ArrayType) tables.type(node)).isColumnar()) {
+            StructDeclarationNode decl = ((StructType) componentType).node;
+            Type[] fieldTypes = fieldTypes(decl);
+            return frame ->
+                Operations.buildColumnarArray(decl, fieldTypes, evaluate(components, frame));
+        }
+
+        return frame -> evaluate(components, frame);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Type[] fieldTypes (StructDeclarationNode node) {
+        return node.fields.stream().map(f -> (Type) tables.type(f)).toArray(Type[]::new);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor assignment (AssignmentNode node)
+    {
+        if (node.left instanceof ReferenceNode) {
+            Scope declScope = tables.scope(node.left);
+            DeclarationNode decl = tables.decl(node.left);
+            int slot = tables.slot(decl);
+            int hops = hops(declScope);
+            Type type = tables.type(node);
+            Executor right = compile(node.right);
+            return frame -> {
+                Object rvalue = right.execute(frame);
+                frame.ancestor(hops).store(slot, Operations.coerce(rvalue, type));
+                return rvalue;
+            };
+        }
+
+        if (node.left instanceof ArrayAccessNode) {
+            ArrayAccessNode arrayAccess = (ArrayAccessNode) node.left;
+            Executor array = compile(arrayAccess.array);
+            Executor index = compile(arrayAccess.index);
+            Executor right = compile(node.right);
+            return frame -> {
+                Object target = nonNullArray(array.execute(frame));
+                int i = index(index.execute(frame));
+                try {
+                    return Operations.setItem(target, i, right.execute(frame));
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    throw new PassthroughException(e);
+                }
+            };
+        }
+
+        if (node.left instanceof FieldAccessNode) {
+            FieldAccessNode fieldAccess = (FieldAccessNode) node.left;
+            int slot = tables.slot(fieldAccess);
+            Executor right = compile(node.right);
+
+            ArrayAccessNode item = tables.columnarItem(fieldAccess);
+            if (item != null) {
+                Executor array = compile(item.array);
+                Executor index = compile(item.index);
+                return frame -> {
+                    ColumnarArray target = (ColumnarArray) nonNullArray(array.execute(frame));
+                    int i = index(index.execute(frame));
+                    try {
+                        return target.set(i, slot, right.execute(frame));
+                    } catch (ArrayIndexOutOfBoundsException e) {
+                        throw new PassthroughException(e);
+                    }
+                };
+            }
+
+            Executor stem = compile(fieldAccess.stem);
+            return frame -> {
+                Object object = stem.execute(frame);
+                if (object == Null.INSTANCE)
+                    throw new PassthroughException(
+                        new NullPointerException("accessing field of null object"));
+                Struct struct = (Struct) object;
+                Object value = right.execute(frame);
+                struct.fields[slot] = value;
+                return value;
+            };
+        }
+
+        throw new Error("should not reach here");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor arrayAccess (ArrayAccessNode node) {
+        Executor array = compile(node.array);
+        Executor index = compile(node.index);
+        return frame -> {
+            Object target = nonNullArray(array.execute(frame));
+            try {
+                return Operations.getItem(target, index(index.execute(frame)));
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new PassthroughException(e);
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor root (RootNode node)
+    {
+        RootScope rootScope = tables.scope(node);
+        int trueSlot  = tables.slot(rootScope._true);
+        int falseSlot = tables.slot(rootScope._false);
+        int nullSlot  = tables.slot(rootScope._null);
+
+        scope = rootScope;
+        Executor[] statements = statements(node.statements);
+        scope = null;
+
+        return frame -> {
+            ScopeStorage storage = new ScopeStorage(rootScope, null);
+            storage.store(trueSlot, true);
+            storage.store(falseSlot, false);
+            storage.store(nullSlot, Null.INSTANCE);
+            Object status = execute(statements, storage);
+            // allow returning from the main script
+            return status == null ? null : ((Interpreter.Return) status).value;
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor block (BlockNode node)
+    {
+        Scope blockScope = tables.scope(node);
+        Scope outer = scope;
+        scope = blockScope;
+        Executor[] statements = statements(node.statements);
+        scope = outer;
+
+        return frame -> execute(statements, new ScopeStorage(blockScope, frame));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor[] statements (List<StatementNode> nodes) {
+        return nodes.stream()
+            .map(this::statement)
+            .filter(it -> it != NOTHING)
+            .toArray(Executor[]::new);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles a statement, wrapping the runtime exceptions it may throw in an {@link
+     * InterpreterException}. Blocks, if and while statements are not wrapped: the statements they
+     * contain and their conditions are, so that exceptions are only wrapped once.
+     */
+    private Executor statement (StatementNode node)
+    {
+        Executor executor = compile(node);
+        if (executor == NOTHING
+                || node instanceof BlockNode
+                || node instanceof IfNode
+                || node instanceof WhileNode)
+            return executor;
+
+        return wrap(node, executor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Wraps the runtime exceptions thrown by the executor in an {@link InterpreterException}
+     * mentioning the statement, unless they have already been wrapped (in a function called by
+     * the statement).
+     */
+    private static Executor wrap (StatementNode node, Executor executor)
+    {
+        return frame -> {
+            try {
+                return executor.execute(frame);
+            } catch (InterpreterException | PassthroughException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new InterpreterException(
+                    "exception while executing " + node, node.span, e);
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor constructor (ConstructorNode node) {
+        // guaranteed safe by semantic analysis
+        Executor ref = compile(node.ref);
+        Type[] fieldTypes = fieldTypes(tables.decl(node.ref));
+        return frame -> new Constructor((StructDeclarationNode) ref.execute(frame), fieldTypes);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor expressionStmt (ExpressionStatementNode node) {
+        Executor expression = compile(node.expression);
+        return frame -> {
+            expression.execute(frame);
+            return null;  // discard value
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor fieldAccess (FieldAccessNode node)
+    {
+        ArrayAccessNode item = tables.columnarItem(node);
+        if (item != null) {
+            Executor array = compile(item.array);
+            Executor index = compile(item.index);
+            int slot = tables.slot(node);
+            return frame -> {
+                ColumnarArray target = (ColumnarArray) nonNullArray(array.execute(frame));
+                try {
+                    return target.get(index(index.execute(frame)), slot);
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    throw new PassthroughException(e);
+                }
+            };
+        }
+
+        Executor stem = compile(node.stem);
+
+        if (tables.type(node.stem) instanceof ArrayType) // only field on arrays
+            return frame -> (long) Operations.length(nonNull(stem.execute(frame)));
+
+        int slot = tables.slot(node);
+        return frame -> ((Struct) nonNull(stem.execute(frame))).fields[slot];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object nonNull (Object object) {
+        if (object == Null.INSTANCE)
+            throw new PassthroughException(
+                new NullPointerException("accessing field of null object"));
+        return object;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor funCall (FunCallNode node)
+    {
+        Executor[] arguments = map(node.arguments, new Executor[0], visitor);
+
+        Object target = node.function instanceof ReferenceNode
+            ? tables.decl(node.function)
+            : null;
+
+        if (target instanceof FunDeclarationNode) {
+            // direct call: link the callee and the location of its parent frame now
+            Function callee = function((FunDeclarationNode) target);
+            int hops = hops(callee.scope.parent);
+            return frame -> callee.invoke(frame.ancestor(hops), evaluate(arguments, frame));
+        }
+
+        Executor function = compile(node.function);
+        return frame -> {
+            Object decl = function.execute(frame);
+            Object[] args = evaluate(arguments, frame);
+
+            if (decl == Null.INSTANCE)
+                throw new PassthroughException(new NullPointerException("calling a null function"));
+
+            if (decl instanceof SyntheticDeclarationNode)
+                return builtin(((SyntheticDeclarationNode) decl).name(), args);
+
+            if (decl instanceof Constructor)
+                return Operations.buildStruct((Constructor) decl, args);
+
+            Function callee = functions.get((FunDeclarationNode) decl);
+            return callee.invoke(frame.frame(callee.scope.parent), args);
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Object builtin (String name, Object[] args) {
+        assert name.equals("print"); // only one at the moment
+        String out = Operations.convertToString(args[0]);
+        System.out.println(out);
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor funDecl (FunDeclarationNode node)
+    {
+        Function function = function(node);
+        Scope outer = scope;
+        scope = function.scope;
+        function.body = compile(node.block);
+        scope = outer;
+        return NOTHING;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor reference (ReferenceNode node)
+    {
+        Scope declScope = tables.scope(node);
+        DeclarationNode decl = tables.decl(node);
+
+        if (!isVariable(decl))
+            return frame -> decl; // structure or function
+
+        int slot = tables.slot(decl);
+        int hops = hops(declScope);
+        return hops == 0
+            ? frame -> frame.load(slot)
+            : frame -> frame.ancestor(hops).load(slot);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor returnStmt (ReturnNode node) {
+        if (node.expression == null)
+            return frame -> Interpreter.Return.VOID;
+        if (tables.tailCall(node)) {
+            Executor[] arguments =
+                map(((FunCallNode) node.expression).arguments, new Executor[0], visitor);
+            return frame -> new Interpreter.TailCall(evaluate(arguments, frame));
+        }
+        Executor expression = compile(node.expression);
+        return frame -> new Interpreter.Return(expression.execute(frame));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor varDecl (VarDeclarationNode node) {
+        int slot = tables.slot(node);
+        Type type = tables.type(node);
+        Executor initializer = compile(node.initializer);
+        return frame -> {
+            frame.store(slot, Operations.coerce(initializer.execute(frame), type));
+            return null;
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the condition of an if or while statement, which holds if its value (or the first
+     * item of its value, for arrays) is not zero.
+     */
+    private Predicate<ScopeStorage> condition (StatementNode statement, ExpressionNode node)
+    {
+        Executor condition = wrap(statement, compile(node));
+        Type type = tables.type(node);
+
+        if (type instanceof IntType)
+            return frame -> (long) condition.execute(frame) != 0;
+        if (type instanceof FloatType)
+            return frame -> (double) condition.execute(frame) != 0.0;
+        if (((ArrayType) type).componentType instanceof IntType)
+            return frame -> ((long[]) condition.execute(frame))[0] != 0;
+        return frame -> ((double[]) condition.execute(frame))[0] != 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor ifStmt (IfNode node)
+    {
+        Predicate<ScopeStorage> condition = condition(node, node.condition);
+        Executor trueStatement = statement(node.trueStatement);
+        Executor falseStatement = node.falseStatement == null
+            ? NOTHING
+            : statement(node.falseStatement);
+
+        return frame -> condition.test(frame)
+            ? trueStatement.execute(frame)
+            : falseStatement.execute(frame);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor whileStmt (WhileNode node)
+    {
+        Predicate<ScopeStorage> condition = condition(node, node.condition);
+        Executor body = statement(node.body);
+
+        return frame -> {
+            while (condition.test(frame)) {
+                Object status = body.execute(frame);
+                if (status != null) return status;
+            }
+            return null;
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor monadicExpression (MonadicExpressionNode node)
+    {
+        Type type = tables.type(node.operand);
+        MonadicOperator operator = node.operator;
+
+        if (isFusable(node)) {
+            Executor lazy = fuse(node);
+            return frame -> ((ArrayExpr) lazy.execute(frame)).force();
+        }
+
+        if (Operations.isReduction(operator, type) && isFusable(node.operand)) {
+            Executor lazy = fuse(node.operand);
+            return frame -> Operations.reduce(operator, type, (ArrayExpr) lazy.execute(frame));
+        }
+
+        Executor operand = compile(node.operand);
+        return frame -> Operations.monadicExpressionCalculate(type, operand.execute(frame), operator);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor diadicExpression (DiadicExpressionNode node)
+    {
+        Type leftType = tables.type(node.left);
+        Type rightType = tables.type(node.right);
+
+        if (isFusable(node)) {
+            Executor lazy = fuse(node);
+            return frame -> ((ArrayExpr) lazy.execute(frame)).force();
+        }
+
+        Executor left = compile(node.left);
+        Executor right = compile(node.right);
+        DiadicOperator operator = node.operator;
+        return frame -> Operations.diadicExpressionCalculate(
+            leftType, rightType, left.execute(frame), right.execute(frame), operator);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the operands of fused operations (see {@link Operations#fuse}).
+     */
+    private final Operations.Fusion<Executor> fusion = new Operations.Fusion<Executor>()
+    {
+        @Override public Executor operand (ExpressionNode node) {
+            return compile(node);
+        }
+
+        @Override public Executor monadic (MonadicOperator operator, Executor operand) {
+            return frame -> ArrayExpr.monadic(operator, operand.execute(frame));
+        }
+
+        @Override public Executor diadic
+                (DiadicOperator operator, Executor left, Executor right, boolean floating) {
+            return frame -> ArrayExpr.diadic(
+                operator, left.execute(frame), right.execute(frame), floating);
+        }
+    };
+
+    private boolean isFusable (ExpressionNode node) {
+        return Operations.isFusable(node, tables);
+    }
+
+    private Executor lazy (ExpressionNode node) {
+        return Operations.lazy(node, tables, fusion);
+    }
+
+    private Executor fuse (ExpressionNode node) {
+        return Operations.fuse(node, tables, fusion);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor monadicForkExpression (MonadicForkNode node)
+    {
+        Type type = tables.type(node.operand);
+        Type leftType = tables.leftType(node);
+        Type rightType = tables.rightType(node);
+        MonadicOperator operatorL = node.operatorL;
+        MonadicOperator operatorR = node.operatorR;
+        DiadicOperator operatorM = node.operatorM;
+        Executor operand = Operations.isLazyForkOperand(operatorL, operatorR, type)
+            ? lazy(node.operand)
+            : compile(node.operand);
+
+        return frame -> {
+            Object value = operand.execute(frame);
+            Object left = Operations.monadicVerb(operatorL, type, value);
+            Object right = Operations.monadicVerb(operatorR, type, value);
+            return Operations.force(
+                Operations.diadicVerb(operatorM, leftType, rightType, left, right));
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Executor diadicForkExpression (DiadicForkNode node)
+    {
+        Type typeLeft = tables.type(node.operandL);
+        Type typeRight = tables.type(node.operandR);
+        Type leftType = tables.leftType(node);
+        Type rightType = tables.rightType(node);
+        DiadicOperator operatorL = node.operatorL;
+        DiadicOperator operatorR = node.operatorR;
+        DiadicOperator operatorM = node.operatorM;
+        boolean lazy = Operations.isLazyForkOperands(node, tables);
+        Executor operandL = lazy ? fuse(node.operandL) : compile(node.operandL);
+        Executor operandR = lazy ? fuse(node.operandR) : compile(node.operandR);
+
+        return frame -> {
+            Object valueL = operandL.execute(frame);
+            Object valueR = operandR.execute(frame);
+            Object left = Operations.diadicVerb(operatorL, typeLeft, typeRight, valueL, valueR);
+            Object right = Operations.diadicVerb(operatorR, typeLeft, typeRight, valueL, valueR);
+            return Operations.force(
+                Operations.diadicVerb(operatorM, leftType, rightType, left, right));
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
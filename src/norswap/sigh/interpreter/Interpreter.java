@@ -1,64 +1,110 @@
 package norswap.sigh.interpreter;
 
+import norswap.sigh.AnalysisTables;
 import norswap.sigh.ast.*;
+import norswap.sigh.runtime.ArrayExpr;
+import norswap.sigh.runtime.MemoTable;
 import norswap.sigh.scopes.DeclarationKind;
 import norswap.sigh.scopes.RootScope;
 import norswap.sigh.scopes.Scope;
 import norswap.sigh.scopes.SyntheticDeclarationNode;
 import norswap.sigh.types.ArrayType;
 import norswap.sigh.types.FloatType;
+import norswap.sigh.types.FunType;
 import norswap.sigh.types.IntType;
-import norswap.sigh.types.StringType;
+import norswap.sigh.types.StructType;
 import norswap.sigh.types.Type;
-import norswap.uranium.Reactor;
-import norswap.utils.Util;
 import norswap.utils.exceptions.Exceptions;
-import norswap.utils.exceptions.NoStackException;
 import norswap.utils.visitors.ValuedVisitor;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.invoke.MethodHandle;
+import java.util.IdentityHashMap;
+import java.util.List;
 
 import static norswap.utils.Util.cast;
 import static norswap.utils.Vanilla.coIterate;
 import static norswap.utils.Vanilla.map;
 
 /**
- * Implements a simple but inefficient interpreter for Sigh.
+ * Implements a tree-walking interpreter for Sigh, which evaluates the AST directly using the
+ * results of semantic analysis frozen in {@link AnalysisTables}.
  *
- * <h2>Limitations</h2>
- * <ul>
- *     <li>The compiled code currently doesn't support closures (using variables in functions that
- *     are declared in some surroudning scopes outside the function). The top scope is supported.
- *     </li>
- * </ul>
+ * <p>Variables are stored in {@link ScopeStorage} frames: one flat array per scope instance,
+ * indexed by the {@code slot} that semantic analysis assigns to each declaration. The frame of a
+ * function invocation has for parent the frame of the scope the function is declared in, so
+ * functions can use the variables of their enclosing scopes while these scopes are executing.
+ * Returns and self tail calls are propagated out of blocks as completion values ({@link Return},
+ * {@link TailCall}) rather than exceptions, and tail calls rebind the parameters in place.
  *
  * <p>Runtime value representation:
  * <ul>
  *     <li>{@code Int}, {@code Float}, {@code Bool}: {@link Long}, {@link Double}, {@link Boolean}</li>
  *     <li>{@code String}: {@link String}</li>
  *     <li>{@code null}: {@link Null#INSTANCE}</li>
- *     <li>Arrays: {@code Object[]}</li>
- *     <li>Structs: {@code HashMap<String, Object>}</li>
+ *     <li>Arrays: {@code long[]} for {@code Int[]}, {@code double[]} for {@code Float[]}, {@link
+ *     ColumnarArray} for arrays of columnar structs and {@code Object[]} for other arrays</li>
+ *     <li>Structs: {@link Struct}</li>
  *     <li>Functions: the corresponding {@link DeclarationNode} ({@link FunDeclarationNode} or
  *     {@link SyntheticDeclarationNode}), excepted structure constructors, which are
  *     represented by {@link Constructor}</li>
  *     <li>Types: the corresponding {@link StructDeclarationNode}</li>
  * </ul>
+ *
+ * <p>Chains of elementwise operations on numeric arrays (e.g. {@code +/ ((a + b) * c)}) are
+ * evaluated as a single {@link ArrayExpr} rather than one operation at a time, so that no
+ * intermediate array is created. An {@link ArrayExpr} never escapes the expression that creates it.
+ * As it reads its operand arrays only once all operands are evaluated, this is only done when
+ * the operands have no side effects, which could otherwise modify these arrays.
+ *
+ * <p>When given a {@link Tiering} policy, the interpreter reports function calls and loop
+ * iterations to it, and calls the compiled version of the hot functions once it is available.
  */
 public final class Interpreter {
     // ---------------------------------------------------------------------------------------------
 
     private final ValuedVisitor<SighNode, Object> visitor = new ValuedVisitor<>();
-    private final Reactor reactor;
+    private final AnalysisTables tables;
     private ScopeStorage storage = null;
     private RootScope rootScope;
     private ScopeStorage rootStorage;
 
+    /** If non-null, the policy used to compile hot functions to bytecode. */
+    private final Tiering tiering;
+
+    /** Capacity of the memo tables, or 0 if memoization is disabled (see {@link #memoize}). */
+    private int memoCapacity = 0;
+
+    /** The memo table of each function called so far, or null if it is not memoizable. */
+    private final IdentityHashMap<FunDeclarationNode, MemoTable> memoTables =
+        new IdentityHashMap<>();
+
+    /** The types of the fields of each structure constructed so far (see {@link #fieldTypes}). */
+    private final IdentityHashMap<StructDeclarationNode, Type[]> fieldTypes =
+        new IdentityHashMap<>();
+
+    /** The function being executed, or null for top-level code. */
+    private FunDeclarationNode function = null;
+
+    /**
+     * The innermost node being executed. It is not restored when an exception is thrown, so that
+     * it identifies the node during which the exception occurred.
+     */
+    private SighNode current = null;
+
     // ---------------------------------------------------------------------------------------------
 
-    public Interpreter (Reactor reactor) {
-        this.reactor = reactor;
+    public Interpreter (AnalysisTables tables) {
+        this(tables, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an interpreter that runs the functions compiled by {@code tiering} (if non-null)
+     * once they are ready, instead of interpreting them.
+     */
+    public Interpreter (AnalysisTables tables, Tiering tiering) {
+        this.tables = tables;
+        this.tiering = tiering;
 
         // expressions
         visitor.register(IntLiteralNode.class, this::intLiteral);
@@ -94,41 +140,96 @@ public final class Interpreter {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Enables memoization: the calls to {@link MemoTable#memoizable memoizable} functions look up
+     * their arguments in a memo table (one per function, holding at most {@code capacity}
+     * results) and only run the function if they are not found. This includes the calls to
+     * functions compiled by the tiering policy, whose code is then compiled with memoization too
+     * (with tables of its own). Returns this interpreter.
+     */
+    public Interpreter memoize (int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.memoCapacity = capacity;
+        if (tiering != null)
+            tiering.memoize(capacity);
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the memo table of the function (see {@link #memoize}), or null if the function isn't
+     * memoized or hasn't been called yet.
+     */
+    public MemoTable memoTable (FunDeclarationNode function) {
+        return memoTables.get(function);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program. Runtime exceptions are wrapped (once) in an {@link InterpreterException}
+     * mentioning the innermost node during which they occurred.
+     */
     public Object interpret (SighNode root) {
         try {
             return run(root);
         } catch (PassthroughException e) {
             throw Exceptions.runtime(e.getCause());
+        } catch (RuntimeException e) {
+            throw new InterpreterException("exception while executing " + current, current.span, e);
+        } finally {
+            storage = null;
+            function = null;
+            current = null;
         }
     }
 
     // ---------------------------------------------------------------------------------------------
 
     private Object run (SighNode node) {
-        try {
-            return visitor.apply(node);
-        } catch (InterpreterException | Return | PassthroughException e) {
-            throw e;
-        } catch (RuntimeException e) {
-            throw new InterpreterException("exception while executing " + node, e);
-        }
+        SighNode outer = current;
+        current = node;
+        Object value = visitor.apply(node);
+        current = outer;
+        return value;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Used to implement the control flow of the return statement.
+     * Completion status of a statement during which a return statement was executed, holding the
+     * returned value. Statements that complete normally return null instead, and self tail calls
+     * return a {@link TailCall}.
      */
-    private static class Return extends NoStackException {
+    static final class Return {
+        static final Return VOID = new Return(null);
+
         final Object value;
 
-        private Return (Object value) {
+        Return (Object value) {
             this.value = value;
         }
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Completion status of a self tail call (see {@link AnalysisTables#tailCall}), holding the
+     * arguments of the call. The function is restarted with these arguments, in the same frame.
+     */
+    static final class TailCall {
+        final Object[] args;
+
+        TailCall (Object[] args) {
+            this.args = args;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private <T> T get (SighNode node) {
         return cast(run(node));
     }
@@ -155,27 +256,57 @@ public final class Interpreter {
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object[] arrayLiteral (ArrayLiteralNode node) {
+    private Object arrayLiteral (ArrayLiteralNode node) {
+        Type componentType = ((ArrayType) tables.type(node)).componentType;
+        int length = node.components.size();
+
+        if (componentType instanceof IntType) {
+            long[] array = new long[length];
+            for (int i = 0; i < length; ++i)
+                array[i] = get(node.components.get(i));
+            return array;
+        }
+
+        if (componentType instanceof FloatType) {
+            double[] array = new double[length];
+            for (int i = 0; i < length; ++i)
+                array[i] = this.<Number>get(node.components.get(i)).doubleValue();
+            return array;
+        }
+
+        if (((ArrayType) tables.type(node)).isColumnar()) {
+            StructDeclarationNode decl = ((StructType) componentType).node;
+            return Operations.buildColumnarArray(decl, fieldTypes(decl),
+                map(node.components, new Object[0], visitor));
+        }
+
         return map(node.components, new Object[0], visitor);
     }
 
     // ---------------------------------------------------------------------------------------------
 
+    private Type[] fieldTypes (StructDeclarationNode node) {
+        return fieldTypes.computeIfAbsent(node, it ->
+            it.fields.stream().map(f -> (Type) tables.type(f)).toArray(Type[]::new));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     public Object assignment (AssignmentNode node) {
         if (node.left instanceof ReferenceNode) {
-            Scope scope = reactor.get(node.left, "scope");
-            String name = ((ReferenceNode) node.left).name;
+            Scope scope = tables.scope(node.left);
+            DeclarationNode decl = tables.decl(node.left);
             Object rvalue = get(node.right);
-            assign(scope, name, rvalue, reactor.get(node, "type"));
+            assign(scope, tables.slot(decl), rvalue, tables.type(node));
             return rvalue;
         }
 
         if (node.left instanceof ArrayAccessNode) {
             ArrayAccessNode arrayAccess = (ArrayAccessNode) node.left;
-            Object[] array = getNonNullArray(arrayAccess.array);
+            Object array = getNonNullArray(arrayAccess.array);
             int index = getIndex(arrayAccess.index);
             try {
-                return array[index] = get(node.right);
+                return Operations.setItem(array, index, get(node.right));
             } catch (ArrayIndexOutOfBoundsException e) {
                 throw new PassthroughException(e);
             }
@@ -183,13 +314,23 @@ public final class Interpreter {
 
         if (node.left instanceof FieldAccessNode) {
             FieldAccessNode fieldAccess = (FieldAccessNode) node.left;
+            ArrayAccessNode item = tables.columnarItem(fieldAccess);
+            if (item != null) {
+                ColumnarArray array = (ColumnarArray) getNonNullArray(item.array);
+                int index = getIndex(item.index);
+                try {
+                    return array.set(index, tables.slot(fieldAccess), get(node.right));
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    throw new PassthroughException(e);
+                }
+            }
             Object object = get(fieldAccess.stem);
             if (object == Null.INSTANCE)
                 throw new PassthroughException(
                     new NullPointerException("accessing field of null object"));
-            Map<String, Object> struct = cast(object);
+            Struct struct = (Struct) object;
             Object right = get(node.right);
-            struct.put(fieldAccess.fieldName, right);
+            struct.fields[tables.slot(fieldAccess)] = right;
             return right;
         }
 
@@ -209,11 +350,11 @@ public final class Interpreter {
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object[] getNonNullArray (ExpressionNode node) {
+    private Object getNonNullArray (ExpressionNode node) {
         Object object = get(node);
         if (object == Null.INSTANCE)
             throw new PassthroughException(new NullPointerException("indexing null array"));
-        return (Object[]) object;
+        return object;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -222,9 +363,9 @@ public final class Interpreter {
     // ---------------------------------------------------------------------------------------------
 
     private Object arrayAccess (ArrayAccessNode node) {
-        Object[] array = getNonNullArray(node.array);
+        Object array = getNonNullArray(node.array);
         try {
-            return array[getIndex(node.index)];
+            return Operations.getItem(array, getIndex(node.index));
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new PassthroughException(e);
         }
@@ -234,28 +375,37 @@ public final class Interpreter {
 
     private Object root (RootNode node) {
         assert storage == null;
-        rootScope = reactor.get(node, "scope");
+        rootScope = tables.scope(node);
         storage = rootStorage = new ScopeStorage(rootScope, null);
-        storage.initRoot(rootScope);
+        storage.initRoot(rootScope, tables);
 
-        try {
-            node.statements.forEach(this::run);
-        } catch (Return r) {
-            return r.value;
-            // allow returning from the main script
-        } finally {
-            storage = null;
-        }
-        return null;
+        Object status = statements(node.statements);
+        storage = null;
+        // allow returning from the main script
+        return status == null ? null : ((Return) status).value;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Void block (BlockNode node) {
-        Scope scope = reactor.get(node, "scope");
+    private Object block (BlockNode node) {
+        Scope scope = tables.scope(node);
         storage = new ScopeStorage(scope, storage);
-        node.statements.forEach(this::run);
+        Object status = statements(node.statements);
         storage = storage.parent;
+        return status;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the statements until one of them returns, and returns the completion status (see
+     * {@link Return}).
+     */
+    private Object statements (List<StatementNode> statements) {
+        for (StatementNode statement: statements) {
+            Object status = run(statement);
+            if (status != null) return status;
+        }
         return null;
     }
 
@@ -263,7 +413,8 @@ public final class Interpreter {
 
     private Constructor constructor (ConstructorNode node) {
         // guaranteed safe by semantic analysis
-        return new Constructor(get(node.ref));
+        StructDeclarationNode decl = get(node.ref);
+        return new Constructor(decl, fieldTypes(decl));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -275,21 +426,31 @@ public final class Interpreter {
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object fieldAccess (FieldAccessNode node) {
+    private Object fieldAccess (FieldAccessNode node)
+    {
+        ArrayAccessNode item = tables.columnarItem(node);
+        if (item != null) {
+            ColumnarArray array = (ColumnarArray) getNonNullArray(item.array);
+            try {
+                return array.get(getIndex(item.index), tables.slot(node));
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new PassthroughException(e);
+            }
+        }
+
         Object stem = get(node.stem);
         if (stem == Null.INSTANCE)
             throw new PassthroughException(
                 new NullPointerException("accessing field of null object"));
-        return stem instanceof Map
-            ? Util.<Map<String, Object>>cast(stem).get(node.fieldName)
-            : (long) ((Object[]) stem).length; // only field on arrays
+        return stem instanceof Struct
+            ? ((Struct) stem).fields[tables.slot(node)]
+            : (long) Operations.length(stem); // only field on arrays
     }
 
     // ---------------------------------------------------------------------------------------------
 
     private Object funCall (FunCallNode node) {
         Object decl = get(node.function);
-        node.arguments.forEach(this::run);
         Object[] args = map(node.arguments, new Object[0], visitor);
 
         if (decl == Null.INSTANCE)
@@ -299,684 +460,251 @@ public final class Interpreter {
             return builtin(((SyntheticDeclarationNode) decl).name(), args);
 
         if (decl instanceof Constructor)
-            return buildStruct(((Constructor) decl).declaration, args);
-
-        ScopeStorage oldStorage = storage;
-        Scope scope = reactor.get(decl, "scope");
-        storage = new ScopeStorage(scope, storage);
+            return Operations.buildStruct((Constructor) decl, args);
 
         FunDeclarationNode funDecl = (FunDeclarationNode) decl;
-        coIterate(args, funDecl.parameters,
-            (arg, param) -> storage.set(scope, param.name, arg));
+        Operations.coerce(args, ((FunType) tables.type(funDecl)).paramTypes);
+        MemoTable memo = memoCapacity == 0 ? null : memo(funDecl);
+        if (memo == null)
+            return invoke(funDecl, args);
 
-        try {
-            get(funDecl.block);
-        } catch (Return r) {
-            return r.value;
-        } finally {
-            storage = oldStorage;
-        }
-        return null;
+        Object key = MemoTable.key(args);
+        Object result = memo.get(key);
+        return result != null ? result : memo.put(key, invoke(funDecl, args));
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Object builtin (String name, Object[] args) {
-        assert name.equals("print"); // only one at the moment
-        String out = convertToString(args[0]);
-        System.out.println(out);
-        return out;
+    /**
+     * Returns the memo table of the function, creating it on the first call, or null if the
+     * function isn't memoizable.
+     */
+    private MemoTable memo (FunDeclarationNode function)
+    {
+        MemoTable memo = memoTables.get(function);
+        if (memo == null && !memoTables.containsKey(function)) {
+            memo = MemoTable.memoizable(function, tables) ? new MemoTable(memoCapacity) : null;
+            memoTables.put(function, memo);
+        }
+        return memo;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private String convertToString (Object arg) {
-        if (arg == Null.INSTANCE)
-            return "null";
-        else if (arg instanceof Object[])
-            return Arrays.deepToString((Object[]) arg);
-        else if (arg instanceof FunDeclarationNode)
-            return ((FunDeclarationNode) arg).name;
-        else if (arg instanceof StructDeclarationNode)
-            return ((StructDeclarationNode) arg).name;
-        else if (arg instanceof Constructor)
-            return "$" + ((Constructor) arg).declaration.name;
-        else
-            return arg.toString();
-    }
+    private Object invoke (FunDeclarationNode funDecl, Object[] args) {
+        if (tiering != null) {
+            MethodHandle compiled = tiering.call(funDecl);
+            if (compiled != null)
+                return tiering.invoke(funDecl, compiled, args);
+        }
 
-    // ---------------------------------------------------------------------------------------------
+        ScopeStorage oldStorage = storage;
+        FunDeclarationNode oldFunction = function;
+        Scope scope = tables.scope(funDecl);
+        // The parent of the function's storage is the storage of the scope it was declared in,
+        // which is always an ancestor of the storage at the call site.
+        storage = new ScopeStorage(scope, storage.frame(scope.parent));
+        function = funDecl;
 
-    private HashMap<String, Object> buildStruct (StructDeclarationNode node, Object[] args) {
-        HashMap<String, Object> struct = new HashMap<>();
-        for (int i = 0; i < node.fields.size(); ++i)
-            struct.put(node.fields.get(i).name, args[i]);
-        return struct;
-    }
+        coIterate(args, funDecl.parameters,
+            (arg, param) -> storage.set(scope, tables.slot(param), arg));
 
+        FunType type = tables.type(funDecl);
+        Object status = run(funDecl.block);
+        while (status instanceof TailCall) {
+            coIterate(Operations.coerce(((TailCall) status).args, type.paramTypes),
+                funDecl.parameters,
+                (arg, param) -> storage.set(scope, tables.slot(param), arg));
+            status = run(funDecl.block);
+        }
 
+        storage = oldStorage;
+        function = oldFunction;
+        return status == null ? null : Operations.coerce(((Return) status).value, type.returnType);
+    }
 
+    // ---------------------------------------------------------------------------------------------
 
+    private Object builtin (String name, Object[] args) {
+        assert name.equals("print"); // only one at the moment
+        String out = Operations.convertToString(args[0]);
+        System.out.println(out);
+        return out;
+    }
 
     // ---------------------------------------------------------------------------------------------
 
     private Object reference (ReferenceNode node) {
-        Scope scope = reactor.get(node, "scope");
-        DeclarationNode decl = reactor.get(node, "decl");
+        Scope scope = tables.scope(node);
+        DeclarationNode decl = tables.decl(node);
 
         if (decl instanceof VarDeclarationNode
             || decl instanceof ParameterNode
             || decl instanceof SyntheticDeclarationNode
             && ((SyntheticDeclarationNode) decl).kind() == DeclarationKind.VARIABLE)
             return scope == rootScope
-                ? rootStorage.get(scope, node.name)
-                : storage.get(scope, node.name);
+                ? rootStorage.get(scope, tables.slot(decl))
+                : storage.get(scope, tables.slot(decl));
 
         return decl; // structure or function
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private Void returnStmt (ReturnNode node) {
-        throw new Return(node.expression == null ? null : get(node.expression));
+    private Object returnStmt (ReturnNode node) {
+        if (node.expression == null)
+            return Return.VOID;
+        if (tables.tailCall(node))
+            return new TailCall(
+                map(((FunCallNode) node.expression).arguments, new Object[0], visitor));
+        return new Return(get(node.expression));
     }
 
     // ---------------------------------------------------------------------------------------------
 
     private Void varDecl (VarDeclarationNode node) {
-        Scope scope = reactor.get(node, "scope");
-        assign(scope, node.name, get(node.initializer), reactor.get(node, "type"));
+        Scope scope = tables.scope(node);
+        assign(scope, tables.slot(node), get(node.initializer), tables.type(node));
         return null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
-    private void assign (Scope scope, String name, Object value, Type targetType) {
-        if (value instanceof Long && targetType instanceof FloatType)
-            value = ((Long) value).doubleValue();
-        storage.set(scope, name, value);
+    private void assign (Scope scope, int slot, Object value, Type targetType) {
+        storage.set(scope, slot, Operations.coerce(value, targetType));
     }
 
     // --------------------------------- modified functions ----------------------------------------
 
 
-    private Void ifStmt (IfNode node) {
-        Object cond = get(node.condition);
-        Type condType = reactor.get(node.condition, "type");
-        if(condType instanceof IntType)
-        {
-            if ((long) get(node.condition) != 0)
-                get(node.trueStatement);
-            else if (node.falseStatement != null)
-                get(node.falseStatement);
-        }
-        else if(condType instanceof FloatType)
-        {
-            if ((double) get(node.condition) != 0.0)
-                get(node.trueStatement);
-            else if (node.falseStatement != null)
-                get(node.falseStatement);
-        }
-        else if(((ArrayType) condType).componentType instanceof IntType)
-        {
-            if ( (long) ((Object[]) get(node.condition))[0] != 0)
-                get(node.trueStatement);
-            else if (node.falseStatement != null)
-                get(node.falseStatement);
-        }
-        else
-        {
-            if ( (double) ((Object[]) get(node.condition))[0] != 0.0)
-                get(node.trueStatement);
-            else if (node.falseStatement != null)
-                get(node.falseStatement);
-        }
-
+    private Object ifStmt (IfNode node) {
+        if (condition(node.condition))
+            return run(node.trueStatement);
+        else if (node.falseStatement != null)
+            return run(node.falseStatement);
         return null;
     }
 
-    private Void whileStmt (WhileNode node) {
-        Object cond = get(node.condition);
-        Type condType = reactor.get(node.condition, "type");
-        if(condType instanceof IntType)
-        {
-            while ((long) get(node.condition) != 0)
-                get(node.body);
-        }
-        else
-        {
-            while ((double) get(node.condition) != 0.0)
-                get(node.body);
+    private Object whileStmt (WhileNode node) {
+        while (condition(node.condition)) {
+            Object status = run(node.body);
+            if (status != null) return status;
+            backEdge();
         }
-
         return null;
     }
 
-    // ------------------ new functions ------------------------------------------------------------
-
-    // ------------------------------------- Math function -----------------------------------------
-
-    private long factorial(long n)
-    {
-        if (n == 0) {
-            return 1;
-        }
-        else {
-            return (n * factorial(n - 1));
-        }
-    }
-
-    // factorial of double
-    // source : https://rosettacode.org/wiki/Gamma_function#Java
-    private double la_gamma(double x) {
-        double[] p = {0.99999999999980993, 676.5203681218851, -1259.1392167224028,
-            771.32342877765313, -176.61502916214059, 12.507343278686905,
-            -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
-        int g = 7;
-        if (x < 0.5) return Math.PI / (Math.sin(Math.PI * x) * la_gamma(1 - x));
-
-        double a = p[0];
-        double t = x + g + 0.5;
-        for (int i = 1; i < p.length; i++) {
-            a += p[i] / (x + i);
-        }
-        return Math.sqrt(2*Math.PI)*Math.pow(t, x+0.5)*Math.exp(-t)*a;
-    }
-
-    // ---------------------------------Type Conversion function -----------------------------------
-    public Long castObjectToLong(Object object) {
-        return Long.valueOf(object.toString());
-    }
-
-    public long[] castObjectArrayToLong(Object[] objects){
-        long[] longs = new long[objects.length];
-
-        for(int i = 0; i < objects.length;i++)
-        {
-            longs[i] = (long) objects[i];
-        }
-        return longs;
-    }
-
-    public double[] castObjectArrayToDouble(Object[] objects){
-        double[] doubles = new double[objects.length];
-
-        for(int i = 0; i < objects.length;i++)
-        {
-            doubles[i] = (double) objects[i];
-        }
-        return doubles;
+    /**
+     * Evaluates the condition of an if or while statement, which holds if its value (or the first
+     * item of its value, for arrays) is not zero.
+     */
+    private boolean condition (ExpressionNode node) {
+        Object value = get(node);
+        Type type = tables.type(node);
+        if (type instanceof IntType)
+            return (long) value != 0;
+        if (type instanceof FloatType)
+            return (double) value != 0.0;
+        if (((ArrayType) type).componentType instanceof IntType)
+            return ((long[]) value)[0] != 0;
+        return ((double[]) value)[0] != 0.0;
     }
 
-    public double[] castLongArrayToDouble(long[] longs){
-        double[] doubles = new double[longs.length];
-
-        for(int i = 0; i < longs.length;i++)
-        {
-            doubles[i] = (double) longs[i];
-        }
-        return doubles;
+    /**
+     * Records an iteration of a loop for tiering.
+     */
+    private void backEdge () {
+        if (tiering != null && function != null)
+            tiering.backEdge(function);
     }
 
     // ---------------------------------------------------------------------------------------------
 
     private Object diadicExpression (DiadicExpressionNode node) {
-        Type leftType = reactor.get(node.left, "type");
-        Type rightType = reactor.get(node.right, "type");
+        Type leftType = tables.type(node.left);
+        Type rightType = tables.type(node.right);
+
+        if (isFusable(node))
+            return ((ArrayExpr) fuse(node)).force();
 
         Object left = get(node.left);
         Object right = get(node.right);
 
         DiadicOperator operator = node.operator;
 
-        return diadicExpressionCalculate(leftType,rightType,left,right,operator);
-    }
-
-    private Object diadicExpressionCalculate(Type leftType, Type rightType, Object left, Object right, DiadicOperator operator)
-    {
-        // Cases where both operands should not be evaluated.
-        if (operator == DiadicOperator.ADD && (leftType instanceof StringType || rightType instanceof StringType))
-            return convertToString(left) + convertToString(right);
-
-        boolean floating = istypefloat(leftType) || istypefloat(rightType);
-        boolean numeric = (leftType instanceof FloatType || leftType instanceof IntType) && (rightType instanceof FloatType || rightType instanceof IntType);
-        boolean array = leftType instanceof ArrayType || rightType instanceof ArrayType;
-
-        if (array)
-            return arrayOp(operator, left, right, leftType, rightType,floating);
-        else if (numeric)
-            return numericOp(operator, floating, (Number) left, (Number) right);
-
-        switch (operator) {
-            case EQUALITY:
-                return leftType.isPrimitive() ? left.equals(right) : left == right;
-            case NOT_EQUALS:
-                return leftType.isPrimitive() ? !left.equals(right) : left != right;
-        }
-
-        throw new Error("should not reach here");
-    }
-
-    // ---------------------------------------------------------------------------------------------
-
-    private boolean booleanOp (Object left, Object right, boolean isAnd) {
-        return isAnd
-            ? (boolean) left && (boolean) right
-            : (boolean) left || (boolean) right;
+        return Operations.diadicExpressionCalculate(leftType,rightType,left,right,operator);
     }
 
-    private boolean oropdouble(double left, double right){
-        return left == 0.0 && right == 0.0;
-    }
-
-    private boolean oroplong(long left, long right){
-        return left == 0 && right == 0;
-    }
-
-    private boolean andopdouble(double left, double right){
-        return left != 0.0 && right != 0.0;
-    }
-
-    private boolean andoplong(long left, long right){
-        return left != 0 && right != 0;
-    }
-
-
-    // ---------------------------------------------------------------------------------------------
-
-    private Object numericOp
-        (DiadicOperator operator, boolean floating, Number left, Number right) {
-        long ileft, iright;
-        double fleft, fright;
-
-        fleft = left.doubleValue();
-        fright = right.doubleValue();
-
-        ileft = left.longValue();
-        iright = right.longValue();
-
-        Object result;
-        return getvalDiadicOperation(operator,floating,ileft,iright,fleft,fright);
-    }
+    private Object monadicExpression (MonadicExpressionNode node) {
+        Type opType = tables.type(node.operand);
 
+        if (isFusable(node))
+            return ((ArrayExpr) fuse(node)).force();
 
+        if (Operations.isReduction(node.operator, opType) && isFusable(node.operand))
+            return Operations.reduce(node.operator, opType, (ArrayExpr) fuse(node.operand));
 
-    private Object monadicExpression (MonadicExpressionNode node) {
-        Type opType = reactor.get(node.operand, "type");
         Object operand = get(node.operand);
         MonadicOperator operator = node.operator;
-        return monadicExpressionCalculate(opType,operand,operator);
-    }
-
-    private Object monadicExpressionCalculate(Type opType, Object operand, MonadicOperator operator)
-    {
-        if(opType instanceof IntType || opType instanceof FloatType)
-        {
-            return monadicOp(operator,opType,operand);
-        }
-        else if(opType instanceof ArrayType)
-        {
-            return monadicOpArray(operator,opType,operand);
-        }
-
-        throw new Error("should not reach here");
-    }
-
-    private Object monadicOp(MonadicOperator operator, Type opType, Object operand)
-    {
-        boolean floating = opType instanceof FloatType;
-        double fvalue = 1.0;
-        long lvalue = 1;
-
-        if(floating)
-            fvalue = (double) operand;
-        else
-            lvalue = (long) operand;
-
-        switch (operator) {
-            case NOT:
-                return floating ? (Object) la_gamma(fvalue) : (Object) factorial(lvalue);
-            case GRAB_LAST:
-                return floating ? (Object) fvalue : (Object) lvalue;
-            case SUM_SLASH:
-                return floating ? (Object) fvalue : (Object) lvalue;
-            case MULT_SLASH:
-                return floating ? (Object) fvalue : (Object) lvalue;
-            case MIN_SLASH:
-                return floating ? (Object) fvalue : (Object) lvalue;
-            case AND_SLASH:
-                return floating ? (Object) (fvalue != 0.0 ? 1.0 : 0.0) : (Object) (lvalue != 0 ? 1L : 0L);
-            case OR_SLASH:
-                return floating ? (Object) (fvalue != 0.0 ? 1.0 : 0.0) : (Object) (lvalue != 0 ? 1L : 0L);
-            case DIV_SLASH:
-                return floating ? (Object) fvalue : (Object) lvalue;
-            case SELF_ADD:
-                return floating ? (Object) (fvalue + fvalue) : (Object) (lvalue + lvalue);
-            case SELF_MULT:
-                return floating ?  (Object) (fvalue * fvalue) : (Object) (lvalue * lvalue);
-            case HASHTAG:
-                return floating ? (Object) 1.0 : (Object) ((long) 1);
-            default:
-                return floating ? (Object) fvalue : (Object) lvalue;
-        }
+        return Operations.monadicExpressionCalculate(opType,operand,operator);
     }
 
-    private Object monadicOpArray(MonadicOperator  operator, Type opType, Object operand)
-    {
-        boolean floating = ((ArrayType) opType).componentType instanceof FloatType;
-        double[] fvalue = {0};
-        long[] lvalue = {0};
-        int length;
-        if(floating) {
-            fvalue = castObjectArrayToDouble((Object[]) operand);
-            length = fvalue.length;
-        }
-        else {
-            lvalue = castObjectArrayToLong((Object[]) operand);
-            length =  lvalue.length;
-        }
-        Object[] result = new Object[length];
-
-        if( operator.equals(MonadicOperator.NOT)|| operator.equals(MonadicOperator.SELF_ADD) || operator.equals(MonadicOperator.SELF_MULT))
-        {
-            for(int i = 0; i < length; i++)
-            {
-                if(operator.equals(MonadicOperator.NOT))
-                    result[i] = floating ? (Object) la_gamma(fvalue[i]) : (Object) factorial(lvalue[i]);
-                else if(operator.equals(MonadicOperator.SELF_ADD))
-                    result[i] = floating ? (Object) (fvalue[i] + fvalue[i]) : (Object) (lvalue[i] + lvalue[i]);
-                else // operator.equals(MonadicOperator.SELF_MULT)
-                    result[i] = floating ? (Object) (fvalue[i] * fvalue[i]) : (Object) (lvalue[i] * lvalue[i]);
-            }
-            return  result;
+    /**
+     * Evaluates the operands of fused operations (see {@link Operations#fuse}).
+     */
+    private final Operations.Fusion<Object> fusion = new Operations.Fusion<Object>() {
+        @Override public Object operand (ExpressionNode node) {
+            return get(node);
         }
-        else if ( operator.equals(MonadicOperator.GRAB_LAST))
-        {
-            return floating ? (Object) (fvalue[length-1]) : (Object) (lvalue[length-1]) ;
+        @Override public Object monadic (MonadicOperator operator, Object operand) {
+            return ArrayExpr.monadic(operator, operand);
         }
-        else if (operator.equals(MonadicOperator.HASHTAG))
-        {
-            return length;
+        @Override public Object diadic
+                (DiadicOperator operator, Object left, Object right, boolean floating) {
+            return ArrayExpr.diadic(operator, left, right, floating);
         }
-        else {
-            if(floating) {
-                for (int i = length - 2; i >= 0; i--) {
-                    if (operator.equals(MonadicOperator.SUM_SLASH))
-                        fvalue[i] = fvalue[i] + fvalue[i + 1];
-                    else if (operator.equals(MonadicOperator.MULT_SLASH))
-                        fvalue[i] = fvalue[i] * fvalue[i + 1];
-                    else if (operator.equals(MonadicOperator.DIV_SLASH))
-                        fvalue[i] = fvalue[i] / fvalue[i + 1];
-                    else if (operator.equals(MonadicOperator.MIN_SLASH))
-                        fvalue[i] = fvalue[i] - fvalue[i + 1];
-                    else if (operator.equals(MonadicOperator.AND_SLASH))
-                        fvalue[i] = (fvalue[i] > 0 && fvalue[i+1] > 0 ? 1.0 : 0.0);
-                    else if (operator.equals(MonadicOperator.OR_SLASH))
-                        fvalue[i] = (fvalue[i] > 0 || fvalue[i+1] > 0 ? 1.0 : 0.0);
-                    else
-                        fvalue[i] = fvalue[i];
+    };
 
-                }
-                return (Object) fvalue[0];
-            }
-            else
-            {
-                for(int i = length-2; i >= 0; i--)
-                {
-                    if(operator.equals(MonadicOperator.SUM_SLASH))
-                        lvalue[i] = lvalue[i] + lvalue[i+1];
-                    else  if(operator.equals(MonadicOperator.MULT_SLASH))
-                        lvalue[i] = lvalue[i] * lvalue[i+1];
-                    else  if(operator.equals(MonadicOperator.DIV_SLASH))
-                        lvalue[i] = lvalue[i] / lvalue[i+1];
-                    else  if(operator.equals(MonadicOperator.MIN_SLASH))
-                        lvalue[i] = lvalue[i] - lvalue[i+1];
-                    else if (operator.equals(MonadicOperator.AND_SLASH))
-                        lvalue[i] = (lvalue[i] > 0 && lvalue[i+1] > 0 ? 1L : 0L);
-                    else if (operator.equals(MonadicOperator.OR_SLASH))
-                        lvalue[i] = (lvalue[i] > 0 || lvalue[i+1] > 0 ? 1L : 0L);
-                    else
-                        lvalue[i] = lvalue[i];
-
-                }
-                return (Object) lvalue[0];
-            }
-        }
+    private boolean isFusable (ExpressionNode node) {
+        return Operations.isFusable(node, tables);
     }
 
-    private boolean istypefloat(Type type)
-    {
-        boolean isfloat = type instanceof FloatType;
-        if(type instanceof ArrayType){
-            if(((ArrayType) type).componentType instanceof FloatType){
-                isfloat = true;
-            }
-        }
-        return isfloat;
-    }
-
-    private Object arrayOp
-        (DiadicOperator operator, Object left, Object right, Type leftType, Type rightType, boolean floating) {
-        long[] aileft = new long[10000];
-        long[] airight = new long[10000];
-        double[] afleft = new double[10000];
-        double[] afright = new double[10000];
-        long ileft = 0;
-        long iright = 0;
-        double fleft = 0.0;
-        double fright = 0.0;
-
-        int llength = 1;
-        int rlength = 1;
-
-        Object[] aleft = new Object[10000];
-        Object[] aright = new Object[10000];
-
-        if(leftType instanceof ArrayType)
-            aleft = (Object[]) left;
-
-        if(rightType instanceof ArrayType)
-            aright = (Object[]) right;
-
-
-        // cast object into their values 
-        if (leftType instanceof ArrayType) {
-            if (((ArrayType) leftType).componentType instanceof IntType) {
-                aileft = castObjectArrayToLong(aleft);
-                afleft = castLongArrayToDouble(aileft);
-                llength = aileft.length;
-            } else if (((ArrayType) leftType).componentType instanceof FloatType) {
-                afleft = castObjectArrayToDouble(aleft);
-                llength = afleft.length;
-            }
-        } else {
-            if (leftType instanceof IntType) {
-                ileft = (long) left;
-                fleft = (double) ileft;
-            } else if (leftType instanceof FloatType)
-                fleft = (double) left;
-        }
-
-        if (rightType instanceof ArrayType) {
-            if (((ArrayType) rightType).componentType instanceof IntType) {
-                airight = castObjectArrayToLong(aright);
-                afright = castLongArrayToDouble(airight);
-                rlength = airight.length;
-            } else if (((ArrayType) rightType).componentType instanceof FloatType) {
-                afright = castObjectArrayToDouble(aright);
-                rlength = afright.length;
-            }
-        } else {
-            if (rightType instanceof IntType) {
-                iright = (long) right;
-                fright = (double) right;
-            } else if (rightType instanceof FloatType)
-                fright = (double) right;
-        }
-
-
-        // Check if array have same length
-        if (leftType instanceof ArrayType && rightType instanceof ArrayType) {
-
-            if (llength != rlength)
-                throw new Error("Length Error. Tried to process 2 arrays of different length.");
-
-        }
-        Object Result[];
-        if (operator == DiadicOperator.CONCAT){
-            int length = llength + rlength;
-            Result = new Object[length];
-
-            int pointer = 0;
-
-            if(leftType instanceof ArrayType)
-            {
-                for (int i = 0; i < llength; i++) {
-                    if (floating)
-                        Result[i] = afleft[i];
-                    else
-                        Result[i] = aileft[i];
-
-                    pointer++;
-                }
-            }
-            else
-            {
-                Result[0] = floating ? (Object) fleft : (Object) ileft;
-                pointer = 1;
-            }
-
-            if(rightType instanceof ArrayType)
-            {
-                for (int i = 0; i < rlength; i++) {
-                    if (floating)
-                        Result[i+pointer] = afright[i];
-                    else
-                        Result[i+pointer] = airight[i];
-                }
-            }
-            else
-            {
-                Result[pointer] = floating ? (Object) fright : (Object) iright;
-            }
-        }
-        else {
-            int length = Integer.max(llength, rlength);
-            Result = new Object[length];
-
-            if (leftType instanceof ArrayType && rightType instanceof ArrayType) {
-                for (int i = 0; i < length; i++) {
-                    Object val = getvalDiadicOperation(operator, floating, aileft[i], airight[i], afleft[i], afright[i]);
-                    Result[i] = val;
-                }
-            } else if (leftType instanceof ArrayType) {
-                for (int i = 0; i < length; i++) {
-                    Object val = getvalDiadicOperation(operator, floating, aileft[i], iright, afleft[i], fright);
-                    Result[i] = val;
-                }
-            } else {
-                for (int i = 0; i < length; i++) {
-                    Object val = getvalDiadicOperation(operator, floating, ileft, airight[i], fleft, afright[i]);
-                    Result[i] = val;
-                }
-            }
-        }
-        return Result;
-    }
-
-    private Object getvalDiadicOperation (DiadicOperator operator, Boolean floating, long ileft, long iright, double fleft, double fright) {
-        switch (operator) {
-            case MULTIPLY:
-                return floating ? (Object) (fleft * fright) : (Object) (ileft * iright);
-            case DIVIDE:
-                return floating ? (Object) (fleft / fright) : (Object) (ileft / iright);
-            case REMAINDER:
-                return floating ? (Object) (fleft % fright) : (Object) (ileft % iright);
-            case ADD:
-                return floating ? (Object) (fleft + fright) : (Object) (ileft + iright);
-            case SUBTRACT:
-                return floating ? (Object) (fleft - fright) : (Object) (ileft - iright);
-            case EXPONENT:
-                return floating ? (Object) Math.pow(fleft, fright) : (Object) ((long) Math.pow(ileft, iright));
-            case GREATER:
-                return floating ? (Object) (fleft > fright ? 1.0 : 0.0) : (Object) (ileft > iright ? (long) 1 : (long) 0);
-            case LOWER:
-                return floating ? (Object) (fleft < fright ? 1.0 : 0.0) : (Object) (ileft < iright ? (long) 1 : (long) 0);
-            case GREATER_EQUAL:
-                return floating ? (Object) (fleft >= fright ? 1.0 : 0.0) : (Object) (ileft >= iright ? (long) 1 : (long) 0);
-            case LOWER_EQUAL:
-                return floating ? (Object) (fleft <= fright ? 1.0 : 0.0) : (Object) (ileft <= iright ? (long) 1 : (long) 0);
-            case EQUALITY:
-                return floating ? (Object) (fleft == fright ? 1.0 : 0.0) : (Object) (ileft == iright ? (long) 1 : (long) 0);
-            case NOT_EQUALS:
-                return floating ? (Object) (fleft != fright ? 1.0 : 0.0) : (Object) (ileft != iright ? (long) 1 : (long) 0);
-            case OR:
-                return floating ? (Object) (oropdouble(fleft,fright) ? 0.0 : 1.0) : (Object) (oroplong(ileft,iright) ? (long) 0 : (long) 1);
-            case AND:
-                return floating ? (Object) (andopdouble(fleft,fright) ? 1.0 : 0.0) : (Object) (andoplong(ileft,iright) ? (long) 1 : (long) 0);
-            case CONCAT: //only used in numeric op == int/float <> int/float, no  array involved
-                return floating ? new Object[]{fleft, fright} : new Object[]{ileft, iright};
-            default:
-                throw new Error("should not reach here");
-        }
+    private Object lazy (ExpressionNode node) {
+        return Operations.lazy(node, tables, fusion);
     }
 
+    private Object fuse (ExpressionNode node) {
+        return Operations.fuse(node, tables, fusion);
+    }
 
+    // ---------------------------------------------------------------------------------------------
 
     private Object monadicForkExpression (MonadicForkNode node) {
-        Type type = reactor.get(node.operand, "type");
-        MonadicOperator operatorL = node.operatorL;
-        MonadicOperator operatorR = node.operatorR;
-        DiadicOperator operatorM = node.operatorM;
-        Object operand = get(node.operand);
+        Type type = tables.type(node.operand);
+        Object operand = Operations.isLazyForkOperand(node.operatorL, node.operatorR, type)
+            ? lazy(node.operand)
+            : get(node.operand);
 
-        Object left = monadicExpressionCalculate(type,operand,operatorL);
-        Type leftType = findObjectType(left);
-        Object right = monadicExpressionCalculate(type,operand,operatorR);
-        Type rightType = findObjectType(right);
-        Object result = diadicExpressionCalculate(leftType,rightType,left,right,operatorM) ;
-        return result;
+        Object left = Operations.monadicVerb(node.operatorL, type, operand);
+        Object right = Operations.monadicVerb(node.operatorR, type, operand);
+        return Operations.force(Operations.diadicVerb(
+            node.operatorM, tables.leftType(node), tables.rightType(node), left, right));
     }
 
-    private Type findObjectType(Object object){
-        if(object instanceof Long)
-        {
-            return IntType.INSTANCE;
-        }
-        else if (object instanceof Double)
-        {
-            return FloatType.INSTANCE;
-        }
-        else if(object instanceof  Object[])
-        {
-            Object[] object2 = (Object[]) object;
-            if(object2[0] instanceof  Long)
-            {
-                return new  ArrayType(IntType.INSTANCE);
-            }
-            else if(object2[0] instanceof  Double)
-            {
-                return new  ArrayType(FloatType.INSTANCE);
-            }
-        }
+    private Object diadicForkExpression (DiadicForkNode node) {
+        Type typeLeft = tables.type(node.operandL);
+        Type typeRight = tables.type(node.operandR);
+        boolean lazy = Operations.isLazyForkOperands(node, tables);
+        Object operandL = lazy ? fuse(node.operandL) : get(node.operandL);
+        Object operandR = lazy ? fuse(node.operandR) : get(node.operandR);
 
-        throw new Error("should not reach here. Didnt find class of object "+ object.getClass().getCanonicalName());
+        Object left = Operations.diadicVerb(
+            node.operatorL, typeLeft, typeRight, operandL, operandR);
+        Object right = Operations.diadicVerb(
+            node.operatorR, typeLeft, typeRight, operandL, operandR);
+        return Operations.force(Operations.diadicVerb(
+            node.operatorM, tables.leftType(node), tables.rightType(node), left, right));
     }
 
-    private Object diadicForkExpression (DiadicForkNode node) {
-        Type typeLeft = reactor.get(node.operandL, "type");
-        Type typeRight = reactor.get(node.operandR,"type");
-        DiadicOperator operatorL = node.operatorL;
-        DiadicOperator operatorR = node.operatorR;
-        DiadicOperator operatorM = node.operatorM;
-        Object operandL = get(node.operandL);
-        Object operandR = get(node.operandR);
-
-        Object left = diadicExpressionCalculate(typeLeft,typeRight,operandL,operandR,operatorL);
-        Type leftType = findObjectType(left);
-        Object right = diadicExpressionCalculate(typeLeft,typeRight,operandL,operandR,operatorR);
-        Type rightType = findObjectType(right);
-        Object result = diadicExpressionCalculate(leftType,rightType,left,right,operatorM) ;
-        return result;
-    }
+    // ---------------------------------------------------------------------------------------------
 }
@@ -1,10 +1,17 @@
 package norswap.sigh.interpreter;
 
+import norswap.autumn.positions.Span;
+
 /**
  * Simple wrapper for exceptions thrown while running the interpreter.
  */
 public final class InterpreterException extends RuntimeException {
-    public InterpreterException (String message, Throwable cause) {
+
+    /** The source span of the node during which the exception occurred. */
+    public final Span span;
+
+    public InterpreterException (String message, Span span, Throwable cause) {
         super(message, cause);
+        this.span = span;
     }
 }
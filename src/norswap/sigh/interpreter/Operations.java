@@ -0,0 +1,763 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.AnalysisTables;
+import norswap.sigh.ast.ArrayAccessNode;
+import norswap.sigh.ast.ArrayLiteralNode;
+import norswap.sigh.ast.ConstructorNode;
+import norswap.sigh.ast.DiadicExpressionNode;
+import norswap.sigh.ast.DiadicForkNode;
+import norswap.sigh.ast.DiadicOperator;
+import norswap.sigh.ast.ExpressionNode;
+import norswap.sigh.ast.FieldAccessNode;
+import norswap.sigh.ast.FloatLiteralNode;
+import norswap.sigh.ast.FunCallNode;
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.IntLiteralNode;
+import norswap.sigh.ast.MonadicExpressionNode;
+import norswap.sigh.ast.MonadicForkNode;
+import norswap.sigh.ast.MonadicOperator;
+import norswap.sigh.ast.ParenthesizedNode;
+import norswap.sigh.ast.ReferenceNode;
+import norswap.sigh.ast.StringLiteralNode;
+import norswap.sigh.ast.StructDeclarationNode;
+import norswap.sigh.runtime.ArrayExpr;
+import norswap.sigh.runtime.ArrayKernels;
+import norswap.sigh.types.ArrayType;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.StringType;
+import norswap.sigh.types.Type;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The value-level operations of Sigh (arithmetic, comparisons and the array verbs), on the runtime
+ * value representation described in {@link Interpreter}.
+ *
+ * <p>These do not depend on the tree being executed, and are shared by the {@link Interpreter} and
+ * the {@link ExecutorCompiler}.
+ */
+final class Operations
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private Operations () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    static String convertToString (Object arg) {
+        if (arg == Null.INSTANCE)
+            return "null";
+        else if (arg instanceof long[])
+            return Arrays.toString((long[]) arg);
+        else if (arg instanceof double[])
+            return Arrays.toString((double[]) arg);
+        else if (arg instanceof Object[])
+            return Arrays.deepToString((Object[]) arg);
+        else if (arg instanceof FunDeclarationNode)
+            return ((FunDeclarationNode) arg).name;
+        else if (arg instanceof StructDeclarationNode)
+            return ((StructDeclarationNode) arg).name;
+        else if (arg instanceof Constructor)
+            return "$" + ((Constructor) arg).declaration.name;
+        else
+            return arg.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Takes ownership of {@code args}, which must be freshly allocated, and converts them to the
+     * types of the fields (see {@link #coerce(Object[], Type[])}).
+     */
+    static Struct buildStruct (Constructor constructor, Object[] args) {
+        return new Struct(constructor.declaration, coerce(args, constructor.fieldTypes));
+    }
+
+    // ---------------------------------Type Conversion function -----------------------------------
+
+    static double[] castLongArrayToDouble(long[] longs){
+        double[] doubles = new double[longs.length];
+
+        for(int i = 0; i < longs.length;i++)
+        {
+            doubles[i] = (double) longs[i];
+        }
+        return doubles;
+    }
+
+    /**
+     * Applies the implicit conversion from {@code Int} to {@code Float} (and from {@code Int[]} to
+     * {@code Float[]}) to a value stored into a variable, parameter or field of type {@code
+     * targetType}, or returned by a function with that return type.
+     */
+    static Object coerce (Object value, Type targetType)
+    {
+        if (value instanceof Long && targetType instanceof FloatType)
+            return ((Long) value).doubleValue();
+        if (value instanceof long[] && targetType instanceof ArrayType
+                && ((ArrayType) targetType).componentType instanceof FloatType)
+            return castLongArrayToDouble((long[]) value);
+        return value;
+    }
+
+    /**
+     * Applies {@link #coerce(Object, Type)} to each value (e.g. the arguments of a call), in
+     * place, and returns the array.
+     */
+    static Object[] coerce (Object[] values, Type[] targetTypes)
+    {
+        for (int i = 0; i < values.length; ++i)
+            values[i] = coerce(values[i], targetTypes[i]);
+        return values;
+    }
+
+    // ------------------------------------- Array access ------------------------------------------
+
+    // Arrays of Int and Float are represented by long[] and double[], arrays of columnar structures
+    // by ColumnarArray, other arrays by Object[].
+
+    static int length (Object array) {
+        if (array instanceof long[])   return ((long[]) array).length;
+        if (array instanceof double[]) return ((double[]) array).length;
+        if (array instanceof ColumnarArray) return ((ColumnarArray) array).length();
+        return ((Object[]) array).length;
+    }
+
+    static Object getItem (Object array, int index) {
+        if (array instanceof long[])   return ((long[]) array)[index];
+        if (array instanceof double[]) return ((double[]) array)[index];
+        if (array instanceof ColumnarArray) return ((ColumnarArray) array).get(index);
+        return ((Object[]) array)[index];
+    }
+
+    static Object setItem (Object array, int index, Object value) {
+        if (array instanceof long[])   return ((long[]) array)[index] = (long) value;
+        if (array instanceof double[]) return ((double[]) array)[index] = ((Number) value).doubleValue();
+        if (array instanceof ColumnarArray) {
+            ((ColumnarArray) array).set(index, nonNullItem(value));
+            return value;
+        }
+        return ((Object[]) array)[index] = value;
+    }
+
+    /**
+     * Builds an array of the columnar structure {@code node}, whose fields have the given types,
+     * from the given items.
+     */
+    static ColumnarArray buildColumnarArray (
+            StructDeclarationNode node, Type[] fieldTypes, Object[] items)
+    {
+        ColumnarArray array = new ColumnarArray(node, fieldTypes, items.length);
+        for (int i = 0; i < items.length; ++i)
+            array.set(i, nonNullItem(items[i]));
+        return array;
+    }
+
+    private static Struct nonNullItem (Object value) {
+        if (value == Null.INSTANCE)
+            throw new PassthroughException(
+                new NullPointerException("storing null in an array of columnar structures"));
+        return (Struct) value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+
+
+    static Object diadicExpressionCalculate(Type leftType, Type rightType, Object left, Object right, DiadicOperator operator)
+    {
+        // Cases where both operands should not be evaluated.
+        if (operator == DiadicOperator.ADD && (leftType instanceof StringType || rightType instanceof StringType))
+            return convertToString(left) + convertToString(right);
+
+        boolean floating = istypefloat(leftType) || istypefloat(rightType);
+        boolean numeric = (leftType instanceof FloatType || leftType instanceof IntType) && (rightType instanceof FloatType || rightType instanceof IntType);
+        boolean array = leftType instanceof ArrayType || rightType instanceof ArrayType;
+
+        if (array)
+            return arrayOp(operator, left, right, leftType, rightType,floating);
+        else if (numeric)
+            return numericOp(operator, floating, (Number) left, (Number) right);
+
+        switch (operator) {
+            case EQUALITY:
+                return leftType.isPrimitive() ? left.equals(right) : left == right;
+            case NOT_EQUALS:
+                return leftType.isPrimitive() ? !left.equals(right) : left != right;
+        }
+
+        throw new Error("should not reach here");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static boolean oropdouble(double left, double right){
+        return left == 0.0 && right == 0.0;
+    }
+
+    static boolean oroplong(long left, long right){
+        return left == 0 && right == 0;
+    }
+
+    static boolean andopdouble(double left, double right){
+        return left != 0.0 && right != 0.0;
+    }
+
+    static boolean andoplong(long left, long right){
+        return left != 0 && right != 0;
+    }
+
+
+    // ---------------------------------------------------------------------------------------------
+
+    static Object numericOp
+        (DiadicOperator operator, boolean floating, Number left, Number right) {
+        long ileft, iright;
+        double fleft, fright;
+
+        fleft = left.doubleValue();
+        fright = right.doubleValue();
+
+        ileft = left.longValue();
+        iright = right.longValue();
+
+        return getvalDiadicOperation(operator,floating,ileft,iright,fleft,fright);
+    }
+
+
+    static Object monadicExpressionCalculate(Type opType, Object operand, MonadicOperator operator)
+    {
+        if(opType instanceof IntType || opType instanceof FloatType)
+        {
+            return monadicOp(operator,opType,operand);
+        }
+        else if(opType instanceof ArrayType)
+        {
+            return monadicOpArray(operator,opType,operand);
+        }
+
+        throw new Error("should not reach here");
+    }
+
+    static Object monadicOp(MonadicOperator operator, Type opType, Object operand)
+    {
+        boolean floating = opType instanceof FloatType;
+        double fvalue = 1.0;
+        long lvalue = 1;
+
+        if(floating)
+            fvalue = (double) operand;
+        else
+            lvalue = (long) operand;
+
+        switch (operator) {
+            case NOT:
+                return floating ? (Object) ArrayKernels.gamma(fvalue) : (Object) ArrayKernels.factorial(lvalue);
+            case GRAB_LAST:
+                return floating ? (Object) fvalue : (Object) lvalue;
+            case SUM_SLASH:
+                return floating ? (Object) fvalue : (Object) lvalue;
+            case MULT_SLASH:
+                return floating ? (Object) fvalue : (Object) lvalue;
+            case MIN_SLASH:
+                return floating ? (Object) fvalue : (Object) lvalue;
+            case AND_SLASH:
+                return floating ? (Object) (fvalue != 0.0 ? 1.0 : 0.0) : (Object) (lvalue != 0 ? 1L : 0L);
+            case OR_SLASH:
+                return floating ? (Object) (fvalue != 0.0 ? 1.0 : 0.0) : (Object) (lvalue != 0 ? 1L : 0L);
+            case DIV_SLASH:
+                return floating ? (Object) fvalue : (Object) lvalue;
+            case SELF_ADD:
+                return floating ? (Object) (fvalue + fvalue) : (Object) (lvalue + lvalue);
+            case SELF_MULT:
+                return floating ?  (Object) (fvalue * fvalue) : (Object) (lvalue * lvalue);
+            case HASHTAG:
+                return floating ? (Object) 1.0 : (Object) ((long) 1);
+            default:
+                return floating ? (Object) fvalue : (Object) lvalue;
+        }
+    }
+
+    static Object monadicOpArray(MonadicOperator  operator, Type opType, Object operand)
+    {
+        boolean floating = ((ArrayType) opType).componentType instanceof FloatType;
+        int length = length(operand);
+
+        switch (operator) {
+            case NOT:
+            case SELF_ADD:
+            case SELF_MULT:
+                if (floating) {
+                    double[] result = new double[length];
+                    ArrayKernels.apply(operator, (double[]) operand, result);
+                    return result;
+                } else {
+                    long[] result = new long[length];
+                    ArrayKernels.apply(operator, (long[]) operand, result);
+                    return result;
+                }
+            case GRAB_LAST:
+                return getItem(operand, length - 1);
+            case HASHTAG:
+                return (long) length;
+        }
+
+        // Reductions, which do not copy the array. The associative ones may run in parallel.
+        // &/ and |/ on a single item return the item itself.
+        switch (operator) {
+            case SUM_SLASH:
+                return floating
+                    ? (Object) ArrayKernels.sum((double[]) operand)
+                    : (Object) ArrayKernels.sum((long[]) operand);
+            case MULT_SLASH:
+                return floating
+                    ? (Object) ArrayKernels.product((double[]) operand)
+                    : (Object) ArrayKernels.product((long[]) operand);
+            case AND_SLASH:
+                if (length == 1) return getItem(operand, 0);
+                return floating
+                    ? (Object) (ArrayKernels.allPositive((double[]) operand) ? 1.0 : 0.0)
+                    : (Object) (ArrayKernels.allPositive((long[]) operand) ? 1L : 0L);
+            case OR_SLASH:
+                if (length == 1) return getItem(operand, 0);
+                return floating
+                    ? (Object) (ArrayKernels.anyPositive((double[]) operand) ? 1.0 : 0.0)
+                    : (Object) (ArrayKernels.anyPositive((long[]) operand) ? 1L : 0L);
+            case MIN_SLASH:
+                return floating
+                    ? (Object) ArrayKernels.subtractFold((double[]) operand)
+                    : (Object) ArrayKernels.subtractFold((long[]) operand);
+            case DIV_SLASH:
+                return floating
+                    ? (Object) ArrayKernels.divideFold((double[]) operand)
+                    : (Object) ArrayKernels.divideFold((long[]) operand);
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ------------------------------------- Array fusion ------------------------------------------
+
+    // Elementwise array operations are not computed one at a time: the backends build an ArrayExpr
+    // for the whole chain of elementwise operations in an expression, and force it (or reduce it)
+    // once, when its value is used by anything else.
+
+    private static boolean isNumeric (Type type) {
+        return type instanceof IntType || type instanceof FloatType;
+    }
+
+    private static boolean isNumericArray (Type type) {
+        return type instanceof ArrayType && isNumeric(((ArrayType) type).componentType);
+    }
+
+    /**
+     * Whether {@code left operator right} is an elementwise operation on numeric arrays, which can
+     * be part of an {@link ArrayExpr}.
+     */
+    static boolean isElementwise (DiadicOperator operator, Type leftType, Type rightType)
+    {
+        if (operator == DiadicOperator.CONCAT)
+            return false;
+        boolean leftArray = leftType instanceof ArrayType;
+        boolean rightArray = rightType instanceof ArrayType;
+        return (leftArray || rightArray)
+            && (leftArray  ? isNumericArray(leftType)  : isNumeric(leftType))
+            && (rightArray ? isNumericArray(rightType) : isNumeric(rightType));
+    }
+
+    /**
+     * Whether {@code operator operand} is an elementwise operation on a numeric array, which can be
+     * part of an {@link ArrayExpr}.
+     */
+    static boolean isElementwise (MonadicOperator operator, Type operandType) {
+        return isNumericArray(operandType)
+            && (operator == MonadicOperator.NOT
+                || operator == MonadicOperator.SELF_ADD
+                || operator == MonadicOperator.SELF_MULT);
+    }
+
+    /**
+     * Whether {@code operator operand} is a reduction of a numeric array, which can be computed
+     * directly over an {@link ArrayExpr} (see {@link #reduce}).
+     */
+    static boolean isReduction (MonadicOperator operator, Type operandType)
+    {
+        if (!isNumericArray(operandType))
+            return false;
+        switch (operator) {
+            case SUM_SLASH:
+            case MULT_SLASH:
+            case AND_SLASH:
+            case OR_SLASH:
+            case MIN_SLASH:
+            case DIV_SLASH:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns {@code operator operand}, where {@code operator} is a reduction (see {@link
+     * #isReduction}). The associative reductions do not compute {@code operand} as a whole.
+     */
+    static Object reduce (MonadicOperator operator, Type operandType, ArrayExpr operand)
+    {
+        boolean floating = operand.floating;
+        switch (operator) {
+            case SUM_SLASH:
+                return floating ? (Object) operand.doubleSum() : (Object) operand.longSum();
+            case MULT_SLASH:
+                return floating ? (Object) operand.doubleProduct() : (Object) operand.longProduct();
+            case AND_SLASH:
+                if (operand.length == 1) break;
+                return floating
+                    ? (Object) (operand.allPositive() ? 1.0 : 0.0)
+                    : (Object) (operand.allPositive() ? 1L : 0L);
+            case OR_SLASH:
+                if (operand.length == 1) break;
+                return floating
+                    ? (Object) (operand.anyPositive() ? 1.0 : 0.0)
+                    : (Object) (operand.anyPositive() ? 1L : 0L);
+        }
+        // -/ and :/ are right folds
+        return monadicOpArray(operator, operandType, operand.force());
+    }
+
+    /**
+     * Whether evaluating the expression has no side effects: it only reads variables, builds
+     * values and calls pure functions (see {@link AnalysisTables#pure}).
+     *
+     * <p>An {@link ArrayExpr} reads the arrays of its operands only when it is forced, after all of
+     * them have been evaluated. Operations are therefore only fused when this holds for their
+     * operands, as an operand could otherwise modify an array read by another one.
+     */
+    static boolean isSideEffectFree (ExpressionNode node, AnalysisTables tables)
+    {
+        if (node instanceof IntLiteralNode
+                || node instanceof FloatLiteralNode
+                || node instanceof StringLiteralNode
+                || node instanceof ReferenceNode
+                || node instanceof ConstructorNode)
+            return true;
+        if (node instanceof ParenthesizedNode)
+            return isSideEffectFree(((ParenthesizedNode) node).expression, tables);
+        if (node instanceof ArrayLiteralNode)
+            return allSideEffectFree(((ArrayLiteralNode) node).components, tables);
+        if (node instanceof FieldAccessNode)
+            return isSideEffectFree(((FieldAccessNode) node).stem, tables);
+        if (node instanceof ArrayAccessNode) {
+            ArrayAccessNode access = (ArrayAccessNode) node;
+            return isSideEffectFree(access.array, tables)
+                && isSideEffectFree(access.index, tables);
+        }
+        if (node instanceof MonadicExpressionNode)
+            return isSideEffectFree(((MonadicExpressionNode) node).operand, tables);
+        if (node instanceof DiadicExpressionNode) {
+            DiadicExpressionNode diadic = (DiadicExpressionNode) node;
+            return isSideEffectFree(diadic.left, tables)
+                && isSideEffectFree(diadic.right, tables);
+        }
+        if (node instanceof MonadicForkNode)
+            return isSideEffectFree(((MonadicForkNode) node).operand, tables);
+        if (node instanceof DiadicForkNode) {
+            DiadicForkNode fork = (DiadicForkNode) node;
+            return isSideEffectFree(fork.operandL, tables)
+                && isSideEffectFree(fork.operandR, tables);
+        }
+        if (node instanceof FunCallNode) {
+            FunCallNode call = (FunCallNode) node;
+            boolean pure = call.function instanceof ConstructorNode
+                || call.function instanceof ReferenceNode
+                    && tables.decl(call.function) instanceof FunDeclarationNode
+                    && tables.pure(tables.decl(call.function));
+            return pure && allSideEffectFree(call.arguments, tables);
+        }
+        return false; // assignments
+    }
+
+    private static boolean allSideEffectFree (List<ExpressionNode> nodes, AnalysisTables tables)
+    {
+        for (ExpressionNode node: nodes)
+            if (!isSideEffectFree(node, tables))
+                return false;
+        return true;
+    }
+
+    /**
+     * Whether the node is an elementwise array operation, whose value can be an {@link ArrayExpr}.
+     */
+    static boolean isElementwise (ExpressionNode node, AnalysisTables tables)
+    {
+        if (node instanceof ParenthesizedNode)
+            return isElementwise(((ParenthesizedNode) node).expression, tables);
+        if (node instanceof DiadicExpressionNode) {
+            DiadicExpressionNode diadic = (DiadicExpressionNode) node;
+            return isElementwise(
+                diadic.operator, tables.type(diadic.left), tables.type(diadic.right));
+        }
+        if (node instanceof MonadicExpressionNode) {
+            MonadicExpressionNode monadic = (MonadicExpressionNode) node;
+            return isElementwise(monadic.operator, tables.type(monadic.operand));
+        }
+        return false;
+    }
+
+    /**
+     * Whether the value of the node can be an {@link ArrayExpr}: it must be an elementwise
+     * operation whose operands have no side effects (see {@link #isSideEffectFree}).
+     */
+    static boolean isFusable (ExpressionNode node, AnalysisTables tables) {
+        return isElementwise(node, tables) && isSideEffectFree(node, tables);
+    }
+
+    /**
+     * Whether the operands of the diadic fork {@code operandL (left middle right) operandR} can be
+     * passed to its verbs as unforced {@link ArrayExpr}s.
+     */
+    static boolean isLazyForkOperands (DiadicForkNode node, AnalysisTables tables)
+    {
+        Type typeLeft = tables.type(node.operandL);
+        Type typeRight = tables.type(node.operandR);
+        return isElementwise(node.operatorL, typeLeft, typeRight)
+            && isElementwise(node.operatorR, typeLeft, typeRight)
+            && isSideEffectFree(node.operandL, tables)
+            && isSideEffectFree(node.operandR, tables);
+    }
+
+    /**
+     * How a backend builds {@link ArrayExpr}s: {@code T} is a value for the interpreter, and an
+     * executor that returns one for the executor compiler.
+     */
+    interface Fusion<T>
+    {
+        /** Evaluates a node that isn't an elementwise operation. */
+        T operand (ExpressionNode node);
+
+        /** See {@link ArrayExpr#monadic}. */
+        T monadic (MonadicOperator operator, T operand);
+
+        /** See {@link ArrayExpr#diadic}. */
+        T diadic (DiadicOperator operator, T left, T right, boolean floating);
+    }
+
+    /**
+     * Returns {@link #fuse} if the node is fusable (see {@link #isFusable}), or evaluates it
+     * normally otherwise.
+     */
+    static <T> T lazy (ExpressionNode node, AnalysisTables tables, Fusion<T> fusion) {
+        return isFusable(node, tables) ? fuse(node, tables, fusion) : fusion.operand(node);
+    }
+
+    /**
+     * Returns the value of a fusable node as an unforced {@link ArrayExpr}, evaluating its operands
+     * that aren't elementwise operations normally.
+     */
+    static <T> T fuse (ExpressionNode node, AnalysisTables tables, Fusion<T> fusion)
+    {
+        if (!isElementwise(node, tables))
+            return fusion.operand(node);
+        if (node instanceof ParenthesizedNode)
+            return fuse(((ParenthesizedNode) node).expression, tables, fusion);
+        if (node instanceof MonadicExpressionNode) {
+            MonadicExpressionNode monadic = (MonadicExpressionNode) node;
+            return fusion.monadic(monadic.operator, fuse(monadic.operand, tables, fusion));
+        }
+        DiadicExpressionNode diadic = (DiadicExpressionNode) node;
+        boolean floating = istypefloat(tables.type(diadic.left))
+            || istypefloat(tables.type(diadic.right));
+        T left = fuse(diadic.left, tables, fusion);
+        T right = fuse(diadic.right, tables, fusion);
+        return fusion.diadic(diadic.operator, left, right, floating);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Forks are evaluated with the verbs below, which accept and return unforced ArrayExprs, so
+    // that a fork whose verbs are elementwise runs as a single fused loop over its operands, and
+    // that the middle verb is applied to the scalar results of reductions without any copy.
+
+    /**
+     * Whether the operand of the monadic fork {@code (left _ right) operand} can be passed
+     * unforced to its verbs: if at most one of them reads the whole operand on its own (the
+     * elementwise verbs are fused with the middle verb, and {@code #} only needs the length).
+     */
+    static boolean isLazyForkOperand (
+            MonadicOperator left, MonadicOperator right, Type operandType)
+    {
+        int passes = 0;
+        if (!isElementwise(left, operandType) && left != MonadicOperator.HASHTAG)
+            ++passes;
+        if (!isElementwise(right, operandType) && right != MonadicOperator.HASHTAG)
+            ++passes;
+        return passes <= 1;
+    }
+
+    /**
+     * Returns {@code operator operand} for a verb of a fork, where {@code operand} may be an
+     * {@link ArrayExpr}. Returns an unforced {@link ArrayExpr} for the elementwise verbs.
+     *
+     * <p>The {@code #} verb returns the length of an {@link ArrayExpr} without forcing it.
+     */
+    static Object monadicVerb (MonadicOperator operator, Type operandType, Object operand)
+    {
+        if (isElementwise(operator, operandType))
+            return ArrayExpr.monadic(operator, operand);
+
+        if (operator == MonadicOperator.HASHTAG && operandType instanceof ArrayType)
+            return operand instanceof ArrayExpr
+                ? (long) ((ArrayExpr) operand).length
+                : (long) length(operand);
+
+        if (operand instanceof ArrayExpr) {
+            ArrayExpr expr = (ArrayExpr) operand;
+            if (isReduction(operator, operandType))
+                return reduce(operator, operandType, expr);
+            operand = expr.force();
+        }
+
+        return monadicExpressionCalculate(operandType, operand, operator);
+    }
+
+    /**
+     * Returns {@code left operator right} for a verb of a fork, where the operands may be
+     * {@link ArrayExpr}s. Returns an unforced {@link ArrayExpr} for elementwise operations.
+     */
+    static Object diadicVerb (
+            DiadicOperator operator, Type leftType, Type rightType, Object left, Object right)
+    {
+        if (isElementwise(operator, leftType, rightType))
+            return ArrayExpr.diadic(
+                operator, left, right, istypefloat(leftType) || istypefloat(rightType));
+        return diadicExpressionCalculate(
+            leftType, rightType, force(left), force(right), operator);
+    }
+
+    /**
+     * Returns the value of {@code value}, forcing it if it is an {@link ArrayExpr}.
+     */
+    static Object force (Object value) {
+        return value instanceof ArrayExpr ? ((ArrayExpr) value).force() : value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static boolean istypefloat(Type type)
+    {
+        boolean isfloat = type instanceof FloatType;
+        if(type instanceof ArrayType){
+            if(((ArrayType) type).componentType instanceof FloatType){
+                isfloat = true;
+            }
+        }
+        return isfloat;
+    }
+
+    static Object arrayOp
+        (DiadicOperator operator, Object left, Object right, Type leftType, Type rightType, boolean floating) {
+        if (operator == DiadicOperator.CONCAT)
+            return concat(left, right, floating);
+
+        boolean leftArray = leftType instanceof ArrayType;
+        boolean rightArray = rightType instanceof ArrayType;
+
+        // Check if array have same length
+        if (leftArray && rightArray)
+            ArrayKernels.checkLengths(length(left), length(right));
+
+        int length = leftArray ? length(left) : length(right);
+
+        if (!floating) {
+            long[] out = new long[length];
+            if (leftArray && rightArray)
+                ArrayKernels.apply(operator, (long[]) left, (long[]) right, out);
+            else if (leftArray)
+                ArrayKernels.apply(operator, (long[]) left, (long) right, out);
+            else
+                ArrayKernels.apply(operator, (long) left, (long[]) right, out);
+            return out;
+        }
+
+        // An Int[] operand is converted into the result array, and the operation done in place.
+        double[] out = new double[length];
+        double[] a = left instanceof long[]
+            ? ArrayKernels.toDouble((long[]) left, out, 0)
+            : leftArray ? (double[]) left : null;
+        double[] b = right instanceof long[]
+            ? ArrayKernels.toDouble((long[]) right, out, 0)
+            : rightArray ? (double[]) right : null;
+
+        if (a != null && b != null)
+            ArrayKernels.apply(operator, a, b, out);
+        else if (a != null)
+            ArrayKernels.apply(operator, a, ((Number) right).doubleValue(), out);
+        else
+            ArrayKernels.apply(operator, ((Number) left).doubleValue(), b, out);
+        return out;
+    }
+
+    private static Object concat (Object left, Object right, boolean floating)
+    {
+        if (!floating) {
+            if (left instanceof long[])
+                return right instanceof long[]
+                    ? ArrayKernels.concat((long[]) left, (long[]) right)
+                    : ArrayKernels.concat((long[]) left, (long) right);
+            return ArrayKernels.concat((long) left, (long[]) right);
+        }
+
+        if (left instanceof long[])
+            return right instanceof double[]
+                ? ArrayKernels.concat((long[]) left, (double[]) right)
+                : ArrayKernels.concat((long[]) left, ((Number) right).doubleValue());
+        if (right instanceof long[])
+            return left instanceof double[]
+                ? ArrayKernels.concat((double[]) left, (long[]) right)
+                : ArrayKernels.concat(((Number) left).doubleValue(), (long[]) right);
+        if (left instanceof double[])
+            return right instanceof double[]
+                ? ArrayKernels.concat((double[]) left, (double[]) right)
+                : ArrayKernels.concat((double[]) left, ((Number) right).doubleValue());
+        return ArrayKernels.concat(((Number) left).doubleValue(), (double[]) right);
+    }
+
+    static Object getvalDiadicOperation (DiadicOperator operator, Boolean floating, long ileft, long iright, double fleft, double fright) {
+        switch (operator) {
+            case MULTIPLY:
+                return floating ? (Object) (fleft * fright) : (Object) (ileft * iright);
+            case DIVIDE:
+                return floating ? (Object) (fleft / fright) : (Object) (ileft / iright);
+            case REMAINDER:
+                return floating ? (Object) (fleft % fright) : (Object) (ileft % iright);
+            case ADD:
+                return floating ? (Object) (fleft + fright) : (Object) (ileft + iright);
+            case SUBTRACT:
+                return floating ? (Object) (fleft - fright) : (Object) (ileft - iright);
+            case EXPONENT:
+                return floating ? (Object) Math.pow(fleft, fright) : (Object) ((long) Math.pow(ileft, iright));
+            case GREATER:
+                return floating ? (Object) (fleft > fright ? 1.0 : 0.0) : (Object) (ileft > iright ? (long) 1 : (long) 0);
+            case LOWER:
+                return floating ? (Object) (fleft < fright ? 1.0 : 0.0) : (Object) (ileft < iright ? (long) 1 : (long) 0);
+            case GREATER_EQUAL:
+                return floating ? (Object) (fleft >= fright ? 1.0 : 0.0) : (Object) (ileft >= iright ? (long) 1 : (long) 0);
+            case LOWER_EQUAL:
+                return floating ? (Object) (fleft <= fright ? 1.0 : 0.0) : (Object) (ileft <= iright ? (long) 1 : (long) 0);
+            case EQUALITY:
+                return floating ? (Object) (fleft == fright ? 1.0 : 0.0) : (Object) (ileft == iright ? (long) 1 : (long) 0);
+            case NOT_EQUALS:
+                return floating ? (Object) (fleft != fright ? 1.0 : 0.0) : (Object) (ileft != iright ? (long) 1 : (long) 0);
+            case OR:
+                return floating ? (Object) (oropdouble(fleft,fright) ? 0.0 : 1.0) : (Object) (oroplong(ileft,iright) ? (long) 0 : (long) 1);
+            case AND:
+                return floating ? (Object) (andopdouble(fleft,fright) ? 1.0 : 0.0) : (Object) (andoplong(ileft,iright) ? (long) 1 : (long) 0);
+            case CONCAT: //only used in numeric op == int/float <> int/float, no  array involved
+                return floating ? (Object) new double[]{fleft, fright} : (Object) new long[]{ileft, iright};
+            default:
+                throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
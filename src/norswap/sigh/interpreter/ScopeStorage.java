@@ -1,8 +1,9 @@
 package norswap.sigh.interpreter;
 
+import norswap.sigh.AnalysisTables;
 import norswap.sigh.scopes.RootScope;
 import norswap.sigh.scopes.Scope;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * The concrete instantiation of a {@link Scope} at runtime.
@@ -10,6 +11,11 @@ import java.util.HashMap;
  * <p>The scope itself cannot be used directly, as many "copies" of the scope will be needed
  * at runtime (for instance, one for each function invocation), sometimes at the same type,
  * in the presence of recursion.
+ *
+ * <p>A storage is a flat array of values, indexed by the {@code slot} attribute that semantic
+ * analysis assigns to each variable declaration. The {@link #parent} of a storage is always the
+ * storage for the lexically enclosing scope, so a variable is found by walking up as many parents
+ * as the difference between the depth of the current scope and that of the declaring scope.
  */
 public final class ScopeStorage
 {
@@ -20,43 +26,91 @@ public final class ScopeStorage
 
     // ---------------------------------------------------------------------------------------------
 
-    private final HashMap<String, Object> values = new HashMap<>();
+    private final Object[] values;
 
     // ---------------------------------------------------------------------------------------------
 
     ScopeStorage (Scope scope, ScopeStorage parent) {
         this.scope = scope;
         this.parent = parent;
+        this.values = new Object[scope.slotCount()];
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Returns the value with the given name, defined in the given scope (determined by semantic
-     * analysis), which should be this scope or one of its ancestors.
+     * Returns the storage for the given scope, which should be the scope of this storage or one of
+     * its ancestors.
      */
-    Object get (Scope scope, String name)
+    ScopeStorage frame (Scope scope)
     {
-        if (scope == this.scope)
-            return values.get(name);
-        else if (parent != null)
-            return parent.get(scope, name);
-        else
-            throw new Error("[implementation bug] could not lookup name: " + name);
+        ScopeStorage storage = this;
+        for (int hops = this.scope.depth - scope.depth; hops > 0; --hops)
+            storage = storage.parent;
+
+        if (storage == null || storage.scope != scope)
+            throw new Error("[implementation bug] could not find storage for scope: " + scope);
+
+        return storage;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value in the given slot, defined in the given scope (determined by semantic
+     * analysis), which should be this scope or one of its ancestors.
+     */
+    Object get (Scope scope, int slot) {
+        return scope == this.scope
+            ? values[slot]
+            : frame(scope).values[slot];
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
-     * Sets the value with the given name, defined in the given scope (determined by semantic
+     * Sets the value in the given slot, defined in the given scope (determined by semantic
      * analysis), which should be this scope or one of its ancestors.
      */
-    void set (Scope scope, String name, Object value)
+    void set (Scope scope, int slot, Object value)
     {
         if (scope == this.scope)
-            values.put(name, value);
+            values[slot] = value;
         else
-            parent.set(scope, name, value);
+            frame(scope).values[slot] = value;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the storage {@code hops} levels up the parent chain (this storage if 0).
+     */
+    ScopeStorage ancestor (int hops)
+    {
+        ScopeStorage storage = this;
+        for (; hops > 0; --hops)
+            storage = storage.parent;
+        return storage;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the value in the given slot of this storage, for callers that have already
+     * resolved the right storage (see {@link #ancestor(int)}).
+     */
+    Object load (int slot) {
+        return values[slot];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the value in the given slot of this storage, for callers that have already
+     * resolved the right storage (see {@link #ancestor(int)}).
+     */
+    void store (int slot, Object value) {
+        values[slot] = value;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -64,11 +118,11 @@ public final class ScopeStorage
     /**
      * To be called on the root frame to initialize its variables.
      */
-    void initRoot(RootScope root)
+    void initRoot (RootScope root, AnalysisTables tables)
     {
-        set(root, root._true  .name(), true);
-        set(root, root._false .name(), false);
-        set(root, root._null  .name(), Null.INSTANCE);
+        set(root, tables.slot(root._true), true);
+        set(root, tables.slot(root._false), false);
+        set(root, tables.slot(root._null), Null.INSTANCE);
 
         // Function and types are not assigned values in frames - instead they derive
         // their runtime value values from the corresponding DeclarationNode.
@@ -77,7 +131,7 @@ public final class ScopeStorage
     // ---------------------------------------------------------------------------------------------
 
     @Override public String toString() {
-        return "ScopeStorage " + values.toString();
+        return "ScopeStorage " + Arrays.toString(values);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -0,0 +1,58 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.ast.StructDeclarationNode;
+import java.util.LinkedHashMap;
+
+/**
+ * Class representing structure instances in the interpreter: a fixed-layout record whose fields
+ * are stored in declaration order, and accessed by the index that semantic analysis resolves for
+ * each field access (the {@code slot} attribute of the {@link
+ * norswap.sigh.ast.FieldAccessNode}), without any name lookup.
+ *
+ * <p>The declaration node is the shape of the record, shared by all the instances of the
+ * structure.
+ */
+public final class Struct
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public final StructDeclarationNode declaration;
+    final Object[] fields;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Takes ownership of {@code fields}, which must have one item per field of the declaration. */
+    Struct (StructDeclarationNode declaration, Object[] fields) {
+        this.declaration = declaration;
+        this.fields = fields;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Returns the value of the field with the given index in the declaration. */
+    public Object get (int index) {
+        return fields[index];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a map from field names to field values, in declaration order. Mostly useful for tests
+     * and debugging: the map is a copy, updating it does not affect the structure.
+     */
+    public LinkedHashMap<String, Object> toMap ()
+    {
+        LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < fields.length; ++i)
+            map.put(declaration.fields.get(i).name, fields[i]);
+        return map;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString () {
+        return toMap().toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,424 @@
+package norswap.sigh.interpreter;
+
+import norswap.sigh.AnalysisTables;
+import norswap.sigh.ast.*;
+import norswap.sigh.bytecode.ByteArrayClassLoader;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.runtime.MemoTable;
+import norswap.sigh.scopes.SyntheticDeclarationNode;
+import norswap.sigh.types.*;
+import norswap.utils.visitors.ReflectiveFieldWalker;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static norswap.sigh.bytecode.TypeUtils.methodDescriptor;
+import static norswap.utils.visitors.WalkVisitType.POST_VISIT;
+import static norswap.utils.visitors.WalkVisitType.PRE_VISIT;
+
+/**
+ * Tiered execution for the {@link Interpreter}: functions start out interpreted, and the hot ones
+ * are compiled to JVM bytecode by the {@link BytecodeCompiler} in the background.
+ *
+ * <p>The interpreter reports every call of a function, as well as every iteration of the loops
+ * in its body (loop back-edges), which means that a function with a long-running loop is also
+ * considered hot. When the count of a function reaches the threshold, the function is compiled
+ * together with the functions it calls, on the {@link Executor} given to the constructor. Once
+ * this is done, the function's calls made by the interpreter run the compiled code instead. The
+ * invocations that are already running keep being interpreted (there is no on-stack replacement).
+ *
+ * <p>Only the functions whose values are represented in the same way by both backends are
+ * compiled: those that only manipulate numbers, strings and numeric arrays, only call other such
+ * functions and {@code print}, and do not access variables declared outside of them (the bytecode
+ * compiler does not support closures). The other functions are always interpreted, as are the
+ * functions whose compilation fails.
+ *
+ * <p>The counters are only accessed from the interpreter thread; the compiled code is published
+ * through a volatile field.
+ */
+public final class Tiering
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Default number of calls and loop iterations after which a function is compiled, which can
+     * be set with the {@code sigh.tiering.threshold} system property (values that are not positive
+     * are ignored).
+     */
+    public static final int DEFAULT_THRESHOLD = defaultThreshold();
+
+    private static int defaultThreshold () {
+        int threshold = Integer.getInteger("sigh.tiering.threshold", 1000);
+        return threshold >= 1 ? threshold : 1000;
+    }
+
+    /**
+     * The executor used to compile functions when none is specified: a single daemon thread, so
+     * that compilation never prevents the JVM from exiting.
+     */
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "sigh-tiering");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Used to give a unique name to the generated classes. */
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final AnalysisTables tables;
+    private final int threshold;
+    private final Executor compiler;
+
+    /** Capacity of the memo tables of the compiled code, or 0 (see {@link #memoize}). */
+    private int memoCapacity = 0;
+
+    private final IdentityHashMap<FunDeclarationNode, Function> functions = new IdentityHashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Function
+    {
+        /** Number of calls and loop iterations so far. */
+        int count;
+
+        /** Whether compilation was already attempted (or the function was found ineligible). */
+        boolean attempted;
+
+        /** The compiled function, taking its arguments as an array, or null if not ready. */
+        volatile MethodHandle compiled;
+
+        /** The memo table of the compiled function, or null if it isn't memoized. */
+        volatile MemoTable memo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Tiering (AnalysisTables tables) {
+        this(tables, DEFAULT_THRESHOLD, BACKGROUND);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a tiering policy compiling functions once their count reaches {@code threshold},
+     * by running compilation tasks on {@code compiler} (e.g. {@code Runnable::run} to compile
+     * synchronously).
+     */
+    public Tiering (AnalysisTables tables, int threshold, Executor compiler)
+    {
+        if (threshold < 1)
+            throw new IllegalArgumentException("threshold must be positive: " + threshold);
+        this.tables = tables;
+        this.threshold = threshold;
+        this.compiler = compiler;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes the functions compiled afterwards memoize their calls, see {@link
+     * BytecodeCompiler#memoize}. Their memo tables are separate from those of the interpreter.
+     */
+    void memoize (int capacity) {
+        this.memoCapacity = capacity;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the given function has been compiled, and its calls now run the compiled code.
+     */
+    public boolean isCompiled (FunDeclarationNode decl) {
+        Function function = functions.get(decl);
+        return function != null && function.compiled != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the memo table used by the compiled code of the function (see {@link #memoize}), or
+     * null if the function isn't compiled or memoized.
+     */
+    public MemoTable memoTable (FunDeclarationNode decl) {
+        Function function = functions.get(decl);
+        return function == null ? null : function.memo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Function function (FunDeclarationNode decl) {
+        return functions.computeIfAbsent(decl, k -> new Function());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records a call of the function, and returns its compiled code if it is ready, or null if
+     * the call must be interpreted.
+     */
+    MethodHandle call (FunDeclarationNode decl)
+    {
+        Function function = function(decl);
+        MethodHandle compiled = function.compiled;
+        if (compiled == null)
+            count(decl, function);
+        return compiled;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records an iteration of a loop in the body of the function.
+     */
+    void backEdge (FunDeclarationNode decl) {
+        Function function = function(decl);
+        if (function.compiled == null)
+            count(decl, function);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void count (FunDeclarationNode decl, Function function)
+    {
+        if (function.attempted || ++function.count < threshold)
+            return;
+
+        function.attempted = true;
+        List<FunDeclarationNode> unit = compilationUnit(decl);
+        if (unit == null)
+            return;
+
+        // Only the interpreter thread accesses the map.
+        List<Function> states = new ArrayList<>(unit.size());
+        for (FunDeclarationNode it: unit) {
+            Function state = function(it);
+            state.attempted = true;
+            states.add(state);
+        }
+        compiler.execute(() -> compile(unit, states));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the compiled code of a function, converting the arguments from the interpreter's
+     * representation.
+     */
+    Object invoke (FunDeclarationNode decl, MethodHandle compiled, Object[] args)
+    {
+        FunType type = tables.type(decl);
+        for (int i = 0; i < args.length; ++i) {
+            Type paramType = type.paramTypes[i];
+            Object arg = args[i];
+            if (paramType instanceof IntType)
+                args[i] = ((Number) arg).longValue();
+            else if (paramType instanceof FloatType)
+                args[i] = ((Number) arg).doubleValue();
+            else if (arg == Null.INSTANCE)
+                args[i] = null;
+            else
+                args[i] = Operations.coerce(arg, paramType); // e.g. Int[] to Float[]
+        }
+        try {
+            return (Object) compiled.invokeExact(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Compiles the functions and publishes their code. Runs on the compiler executor.
+     */
+    private void compile (List<FunDeclarationNode> unit, List<Function> states)
+    {
+        MethodHandle[] handles = new MethodHandle[unit.size()];
+        MemoTable[] memos = new MemoTable[unit.size()];
+        try {
+            String name = "SighTiered$" + counter.incrementAndGet();
+            BytecodeCompiler bytecodeCompiler = new BytecodeCompiler(tables);
+            if (memoCapacity != 0)
+                bytecodeCompiler.memoize(memoCapacity);
+            Class<?> klass = bytecodeCompiler
+                .compileFunctions(name, unit)
+                .load(new ByteArrayClassLoader());
+            // Verify and initialize the class here rather than on the first call.
+            Class.forName(name, true, klass.getClassLoader());
+
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodType generic = MethodType.methodType(Object.class, Object[].class);
+            for (int i = 0; i < handles.length; ++i) {
+                FunDeclarationNode decl = unit.get(i);
+                FunType type = tables.type(decl);
+                MethodType methodType = MethodType.fromMethodDescriptorString(
+                    methodDescriptor(type), klass.getClassLoader());
+                handles[i] = lookup.findStatic(klass, decl.name, methodType)
+                    .asSpreader(Object[].class, type.paramTypes.length)
+                    .asType(generic);
+                if (memoCapacity != 0 && MemoTable.memoizable(decl, tables))
+                    memos[i] = (MemoTable) klass.getField(decl.name + "$memo").get(null);
+            }
+        } catch (Throwable t) {
+            // The functions keep being interpreted.
+            return;
+        }
+        for (int i = 0; i < handles.length; ++i) {
+            states.get(i).memo = memos[i];
+            states.get(i).compiled = handles[i];
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the functions to compile in order to compile {@code root}: itself and the functions
+     * it calls (transitively), excepted those nested in another function of the list, which are
+     * compiled with it. Returns null if one of these functions can't be compiled.
+     */
+    private List<FunDeclarationNode> compilationUnit (FunDeclarationNode root)
+    {
+        List<FunDeclarationNode> unit = new ArrayList<>();
+        Set<SighNode> compiled = Collections.newSetFromMap(new IdentityHashMap<>());
+        ArrayDeque<FunDeclarationNode> todo = new ArrayDeque<>();
+        todo.add(root);
+
+        while (!todo.isEmpty()) {
+            FunDeclarationNode decl = todo.poll();
+            if (compiled.contains(decl)) continue;
+            Eligibility check = new Eligibility();
+            check.walker.walk(decl);
+            if (!check.eligible) return null;
+            // Drop the functions nested in this one, which were compiled independently.
+            unit.removeIf(check.nodes::contains);
+            unit.add(decl);
+            compiled.addAll(check.nodes);
+            todo.addAll(check.callees);
+        }
+
+        // All the functions become methods of the same class.
+        Set<String> names = new HashSet<>();
+        for (SighNode node: compiled)
+            if (node instanceof FunDeclarationNode
+                    && !names.add(((FunDeclarationNode) node).name))
+                return null;
+
+        return unit;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Checks whether a function (including its nested functions) can be compiled, and collects
+     * the functions it calls.
+     */
+    private final class Eligibility
+    {
+        final ReflectiveFieldWalker<SighNode> walker =
+            new ReflectiveFieldWalker<>(SighNode.class, PRE_VISIT, POST_VISIT);
+
+        final Set<SighNode> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<FunDeclarationNode> callees = new ArrayList<>();
+        boolean eligible = true;
+
+        /** The enclosing functions. */
+        private final ArrayDeque<FunDeclarationNode> functions = new ArrayDeque<>();
+
+        /** The declarations of the variables and parameters of the enclosing functions. */
+        private final ArrayDeque<Set<DeclarationNode>> locals = new ArrayDeque<>();
+
+        /** References that are the target of a function call. */
+        private final Set<ReferenceNode> calls = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Eligibility () {
+            walker.registerFallback(PRE_VISIT, this::preVisit);
+            walker.registerFallback(POST_VISIT, this::postVisit);
+        }
+
+        private void preVisit (SighNode node)
+        {
+            nodes.add(node);
+
+            if (node instanceof FunDeclarationNode) {
+                functions.push((FunDeclarationNode) node);
+                locals.push(Collections.newSetFromMap(new IdentityHashMap<>()));
+                check(tables.<FunType>type(node).returnType);
+            }
+            else if (node instanceof VarDeclarationNode || node instanceof ParameterNode) {
+                locals.peek().add((DeclarationNode) node);
+                check(tables.type(node));
+            }
+            else if (node instanceof StructDeclarationNode
+                    || node instanceof ConstructorNode
+                    || node instanceof FieldAccessNode)
+                eligible = false;
+            else if (node instanceof FunCallNode) {
+                ExpressionNode function = ((FunCallNode) node).function;
+                if (function instanceof ReferenceNode)
+                    calls.add((ReferenceNode) function);
+                else
+                    eligible = false;
+                check(tables.type(node));
+            }
+            else if (node instanceof ReferenceNode)
+                reference((ReferenceNode) node);
+            else if (node instanceof ReturnNode && ((ReturnNode) node).expression != null) {
+                // The bytecode compiler does not convert the returned value.
+                Type returnType = tables.<FunType>type(functions.peek()).returnType;
+                Type type = tables.type(((ReturnNode) node).expression);
+                eligible &= returnType.name().equals(type.name());
+            }
+            else if (node instanceof ExpressionNode)
+                check(tables.type(node));
+        }
+
+        private void postVisit (SighNode node) {
+            if (node instanceof FunDeclarationNode) {
+                functions.pop();
+                locals.pop();
+            }
+        }
+
+        private void reference (ReferenceNode node)
+        {
+            DeclarationNode decl = tables.decl(node);
+            if (decl instanceof FunDeclarationNode && calls.contains(node))
+                callees.add((FunDeclarationNode) decl);
+            else if (decl instanceof SyntheticDeclarationNode && calls.contains(node))
+                eligible &= decl.name().equals("print");
+            else if (decl instanceof VarDeclarationNode || decl instanceof ParameterNode)
+                eligible &= locals.peek().contains(decl);
+            else
+                eligible = false;
+        }
+
+        private void check (Type type)
+        {
+            if (type instanceof ArrayType) {
+                Type component = ((ArrayType) type).componentType;
+                eligible &= component instanceof IntType || component instanceof FloatType;
+            }
+            else if (!(type instanceof IntType || type instanceof FloatType
+                    || type instanceof StringType || type instanceof VoidType
+                    || type instanceof FunType))
+                eligible = false;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
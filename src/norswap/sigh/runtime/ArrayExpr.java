@@ -0,0 +1,488 @@
+package norswap.sigh.runtime;
+
+import norswap.sigh.ast.DiadicOperator;
+import norswap.sigh.ast.MonadicOperator;
+import norswap.sigh.runtime.ArrayKernels.FloatReduction;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A deferred elementwise expression over numeric arrays, such as {@code ((a + b) * c) - d}.
+ *
+ * <p>Instead of computing an intermediate array for each operator, the backends build the graph of
+ * an array expression (whose leaves are evaluated arrays and scalars), and only force it when its
+ * value is needed. Forcing runs a single fused loop over the output, which writes the result array
+ * and nothing else. A reduction over the expression ({@link #longSum()}, ...) runs the same loop
+ * without writing any array at all.
+ *
+ * <p>The loop processes the output in tiles of {@link #TILE} items: each node of the graph
+ * computes its tile into a small scratch buffer using the {@link ArrayKernels}, so the
+ * intermediate values stay in cache and the kernels keep using the vector instructions. Tiles are
+ * aligned on the blocks of {@link Parallel} reductions, so a fused reduction gives the same result
+ * as reducing the forced array. Large expressions are forced in parallel, each thread using its
+ * own scratch buffers. A node may be used several times in the same expression (as the operand of
+ * a fork is), in which case it is evaluated again for each use, instead of being stored.
+ *
+ * <p>Array operands are read when the expression is forced, and so must not be modified in
+ * between. The leaves of an expression being the values of already evaluated expressions, this
+ * holds as long as the expression is forced before the next statement runs.
+ */
+public abstract class ArrayExpr
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of items processed at once by each node.
+     */
+    static final int TILE = Parallel.BLOCK;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Whether the result is a {@code double[]} (else a {@code long[]}). */
+    public final boolean floating;
+
+    /** Length of the result. */
+    public final int length;
+
+    /** Index of the scratch buffer this node writes to, assigned when the expression is forced. */
+    int register = -1;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ArrayExpr (boolean floating, int length) {
+        this.floating = floating;
+        this.length = length;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the expression for {@code left operator right}, where each operand is an {@link
+     * ArrayExpr}, a {@code long[]} or {@code double[]} array, or a {@link Long} or {@link Double}
+     * scalar, and at least one operand is not a scalar. The operator may not be {@link
+     * DiadicOperator#CONCAT}.
+     *
+     * <p>If {@code floating} is set, the result is a {@code Float[]} and {@code Int} operands are
+     * converted, otherwise all operands must be {@code Int}. Checks that two array operands have
+     * the same length.
+     */
+    public static ArrayExpr diadic (
+            DiadicOperator operator, Object left, Object right, boolean floating)
+    {
+        ArrayExpr l = left  instanceof Number ? null : promote(of(left),  floating);
+        ArrayExpr r = right instanceof Number ? null : promote(of(right), floating);
+
+        if (l != null && r != null)
+            ArrayKernels.checkLengths(l.length, r.length);
+
+        return new Diadic(operator, l, r,
+            l == null ? (Number) left : null,
+            r == null ? (Number) right : null,
+            floating, l != null ? l.length : r.length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the expression for the elementwise monadic verb {@code operator} ({@code !}, {@code
+     * +:} or {@code *:}) applied to {@code operand}, an {@link ArrayExpr} or a {@code long[]} or
+     * {@code double[]} array.
+     */
+    public static ArrayExpr monadic (MonadicOperator operator, Object operand) {
+        ArrayExpr e = of(operand);
+        return new Monadic(operator, e);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static ArrayExpr of (Object value)
+    {
+        if (value instanceof ArrayExpr) return (ArrayExpr) value;
+        if (value instanceof long[])    return new Leaf(value, false, ((long[]) value).length);
+        if (value instanceof double[])  return new Leaf(value, true, ((double[]) value).length);
+        throw new Error("[implementation bug] not a numeric array: " + value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static ArrayExpr promote (ArrayExpr e, boolean floating)
+    {
+        if (!floating || e.floating)
+            return e;
+        if (e instanceof Leaf) // convert while copying
+            return new Leaf(((Leaf) e).array, true, e.length);
+        return new ToDouble(e);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assigns registers to this node and its children, starting at {@code next}, and returns the
+     * next free register.
+     */
+    abstract int assign (int next);
+
+    /**
+     * Writes the items {@code [from, from + n)} of this node's value to the items {@code [0, n)}
+     * of its register.
+     */
+    abstract void evaluate (Scratch scratch, int from, int n);
+
+    /**
+     * Allocates the scratch buffers of this node and its children, of size {@code tile}.
+     */
+    abstract void allocate (long[][] longs, double[][] doubles, int tile);
+
+    void allocateSelf (long[][] longs, double[][] doubles, int tile) {
+        if (floating) doubles[register] = new double[tile];
+        else          longs[register]   = new long[tile];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Computes the value of the expression: a new {@code long[]} or {@code double[]}.
+     */
+    public Object force ()
+    {
+        Object out = floating ? new double[length] : new long[length];
+        Evaluation eval = new Evaluation(this);
+        Parallel.RangeTask task = (from, to) -> {
+            Scratch scratch = eval.acquire();
+            for (int i = from; i < to; i += TILE) {
+                int n = Math.min(TILE, to - i);
+                evaluate(scratch, i, n);
+                System.arraycopy(scratch.buffer(register), 0, out, i, n);
+            }
+            eval.release(scratch);
+        };
+        if (Parallel.enabled(length))
+            Parallel.forRange(length, task);
+        else
+            task.run(0, length);
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Reductions over the value of the expression, which do not compute it as a whole: each block
+    // of a Parallel reduction tree is a single tile.
+
+    public long longSum () {
+        Evaluation eval = new Evaluation(this);
+        return Parallel.reduceLongs(length, (from, to) -> {
+            Scratch scratch = eval.tile(from, to);
+            long result = ArrayKernels.sum(scratch.longs[register], 0, to - from);
+            eval.release(scratch);
+            return result;
+        }, Long::sum);
+    }
+
+    public double doubleSum () {
+        Evaluation eval = new Evaluation(this);
+        FloatReduction mode = ArrayKernels.floatReduction();
+        return Parallel.reduceDoubles(length, (from, to) -> {
+            Scratch scratch = eval.tile(from, to);
+            double result = ArrayKernels.sum(scratch.doubles[register], 0, to - from, mode);
+            eval.release(scratch);
+            return result;
+        }, Double::sum);
+    }
+
+    public long longProduct () {
+        Evaluation eval = new Evaluation(this);
+        return Parallel.reduceLongs(length, (from, to) -> {
+            Scratch scratch = eval.tile(from, to);
+            long result = ArrayKernels.product(scratch.longs[register], 0, to - from);
+            eval.release(scratch);
+            return result;
+        }, (x, y) -> x * y);
+    }
+
+    public double doubleProduct () {
+        Evaluation eval = new Evaluation(this);
+        FloatReduction mode = ArrayKernels.floatReduction();
+        return Parallel.reduceDoubles(length, (from, to) -> {
+            Scratch scratch = eval.tile(from, to);
+            double result = ArrayKernels.product(scratch.doubles[register], 0, to - from, mode);
+            eval.release(scratch);
+            return result;
+        }, (x, y) -> x * y);
+    }
+
+    /**
+     * Whether all items are strictly positive. Stops at the first tile with an item that isn't.
+     */
+    public boolean allPositive () {
+        return !search(false);
+    }
+
+    /**
+     * Whether any item is strictly positive. Stops at the first tile with an item that is.
+     */
+    public boolean anyPositive () {
+        return search(true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private boolean search (boolean positive)
+    {
+        Evaluation eval = new Evaluation(this);
+        return Parallel.any(length, (from, to) -> {
+            Scratch scratch = eval.acquire();
+            try {
+                for (int i = from; i < to; i += TILE) {
+                    int n = Math.min(TILE, to - i);
+                    evaluate(scratch, i, n);
+                    boolean found = floating
+                        ? positive
+                            ? ArrayKernels.anyPositive(scratch.doubles[register], 0, n)
+                            : ArrayKernels.anyNonPositive(scratch.doubles[register], 0, n)
+                        : positive
+                            ? ArrayKernels.anyPositive(scratch.longs[register], 0, n)
+                            : ArrayKernels.anyNonPositive(scratch.longs[register], 0, n);
+                    if (found) return true;
+                }
+                return false;
+            } finally {
+                eval.release(scratch);
+            }
+        });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The scratch buffers of one thread: one per node, indexed by register.
+     */
+    private static final class Scratch
+    {
+        final long[][] longs;
+        final double[][] doubles;
+
+        Scratch (long[][] longs, double[][] doubles) {
+            this.longs = longs;
+            this.doubles = doubles;
+        }
+
+        Object buffer (int register) {
+            return longs[register] != null ? longs[register] : doubles[register];
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The state of a single evaluation of an expression: the registers assignment, and the
+     * scratch buffers that are not in use by a thread.
+     */
+    private static final class Evaluation
+    {
+        private final ArrayExpr root;
+        private final int registers;
+        private final int tile;
+        private final ConcurrentLinkedQueue<Scratch> free = new ConcurrentLinkedQueue<>();
+
+        Evaluation (ArrayExpr root) {
+            this.root = root;
+            this.registers = root.assign(0);
+            this.tile = Math.min(TILE, root.length);
+        }
+
+        Scratch acquire ()
+        {
+            Scratch scratch = free.poll();
+            if (scratch != null) return scratch;
+            long[][] longs = new long[registers][];
+            double[][] doubles = new double[registers][];
+            root.allocate(longs, doubles, tile);
+            return new Scratch(longs, doubles);
+        }
+
+        void release (Scratch scratch) {
+            free.add(scratch);
+        }
+
+        /**
+         * Acquires a scratch, and evaluates the tile {@code [from, to)} into it.
+         */
+        Scratch tile (int from, int to) {
+            Scratch scratch = acquire();
+            root.evaluate(scratch, from, to - from);
+            return scratch;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Leaf extends ArrayExpr
+    {
+        final Object array;
+
+        Leaf (Object array, boolean floating, int length) {
+            super(floating, length);
+            this.array = array;
+        }
+
+        @Override int assign (int next) {
+            register = next;
+            return next + 1;
+        }
+
+        @Override void allocate (long[][] longs, double[][] doubles, int tile) {
+            allocateSelf(longs, doubles, tile);
+        }
+
+        @Override void evaluate (Scratch scratch, int from, int n)
+        {
+            int reg = register;
+            if (!floating)
+                System.arraycopy(array, from, scratch.longs[reg], 0, n);
+            else if (array instanceof double[])
+                System.arraycopy(array, from, scratch.doubles[reg], 0, n);
+            else {
+                long[] a = (long[]) array;
+                double[] out = scratch.doubles[reg];
+                for (int i = 0; i < n; ++i)
+                    out[i] = a[from + i];
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class ToDouble extends ArrayExpr
+    {
+        final ArrayExpr operand;
+
+        ToDouble (ArrayExpr operand) {
+            super(true, operand.length);
+            this.operand = operand;
+        }
+
+        @Override int assign (int next) {
+            next = operand.assign(next);
+            register = next;
+            return next + 1;
+        }
+
+        @Override void allocate (long[][] longs, double[][] doubles, int tile) {
+            operand.allocate(longs, doubles, tile);
+            allocateSelf(longs, doubles, tile);
+        }
+
+        @Override void evaluate (Scratch scratch, int from, int n) {
+            operand.evaluate(scratch, from, n);
+            long[] a = scratch.longs[operand.register];
+            double[] out = scratch.doubles[register];
+            for (int i = 0; i < n; ++i)
+                out[i] = a[i];
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Monadic extends ArrayExpr
+    {
+        final MonadicOperator operator;
+        final ArrayExpr operand;
+
+        Monadic (MonadicOperator operator, ArrayExpr operand) {
+            super(operand.floating, operand.length);
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override int assign (int next) {
+            next = operand.assign(next);
+            register = next;
+            return next + 1;
+        }
+
+        @Override void allocate (long[][] longs, double[][] doubles, int tile) {
+            operand.allocate(longs, doubles, tile);
+            allocateSelf(longs, doubles, tile);
+        }
+
+        @Override void evaluate (Scratch scratch, int from, int n)
+        {
+            operand.evaluate(scratch, from, n);
+            int a = operand.register, out = register;
+            if (floating)
+                ArrayKernels.apply(operator, scratch.doubles[a], scratch.doubles[out], 0, n);
+            else
+                ArrayKernels.apply(operator, scratch.longs[a], scratch.longs[out], 0, n);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A diadic operation, where one of the operands may be a scalar (in which case the expression
+     * for that side is null).
+     */
+    private static final class Diadic extends ArrayExpr
+    {
+        final DiadicOperator operator;
+        final ArrayExpr left, right;
+        final long leftLong, rightLong;
+        final double leftDouble, rightDouble;
+
+        Diadic (DiadicOperator operator, ArrayExpr left, ArrayExpr right,
+                Number leftScalar, Number rightScalar, boolean floating, int length)
+        {
+            super(floating, length);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.leftLong    = leftScalar  == null ? 0   : leftScalar.longValue();
+            this.leftDouble  = leftScalar  == null ? 0.0 : leftScalar.doubleValue();
+            this.rightLong   = rightScalar == null ? 0   : rightScalar.longValue();
+            this.rightDouble = rightScalar == null ? 0.0 : rightScalar.doubleValue();
+        }
+
+        @Override int assign (int next) {
+            if (left  != null) next = left.assign(next);
+            if (right != null) next = right.assign(next);
+            register = next;
+            return next + 1;
+        }
+
+        @Override void allocate (long[][] longs, double[][] doubles, int tile) {
+            if (left  != null) left.allocate(longs, doubles, tile);
+            if (right != null) right.allocate(longs, doubles, tile);
+            allocateSelf(longs, doubles, tile);
+        }
+
+        @Override void evaluate (Scratch scratch, int from, int n)
+        {
+            if (left  != null) left.evaluate(scratch, from, n);
+            if (right != null) right.evaluate(scratch, from, n);
+            int out = register;
+
+            if (floating) {
+                double[] o = scratch.doubles[out];
+                double[] a = left  == null ? null : scratch.doubles[left.register];
+                double[] b = right == null ? null : scratch.doubles[right.register];
+                if (a != null && b != null)
+                    ArrayKernels.apply(operator, a, b, o, 0, n);
+                else if (a != null)
+                    ArrayKernels.apply(operator, a, rightDouble, o, 0, n);
+                else
+                    ArrayKernels.apply(operator, leftDouble, b, o, 0, n);
+            } else {
+                long[] o = scratch.longs[out];
+                long[] a = left  == null ? null : scratch.longs[left.register];
+                long[] b = right == null ? null : scratch.longs[right.register];
+                if (a != null && b != null)
+                    ArrayKernels.apply(operator, a, b, o, 0, n);
+                else if (a != null)
+                    ArrayKernels.apply(operator, a, rightLong, o, 0, n);
+                else
+                    ArrayKernels.apply(operator, leftLong, b, o, 0, n);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
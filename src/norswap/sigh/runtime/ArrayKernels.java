@@ -0,0 +1,1189 @@
+package norswap.sigh.runtime;
+
+import norswap.sigh.ast.DiadicOperator;
+import norswap.sigh.ast.MonadicOperator;
+import java.util.Locale;
+
+/**
+ * Kernels for the broadcasting diadic operators and the array verbs on numeric arrays, shared by
+ * the interpreter and the bytecode backend. {@code Int[]} and {@code Float[]} arrays are {@code
+ * long[]} and {@code double[]}.
+ *
+ * <p>There is one loop per operator, element type and operand shape (array-array, array-scalar and
+ * scalar-array), which writes the range {@code [from, to)} of an {@code out} array supplied by the
+ * caller, whose length is the length of the result. The kernels themselves do not allocate and
+ * never box.
+ *
+ * <p>{@code out} may be one of the operands: this is used to avoid an extra allocation when an
+ * {@code Int[]} must be promoted to a {@code Float[]}, by converting it directly into the result
+ * array (see {@link #toDouble(long[], double[], int)}) and then operating in place.
+ *
+ * <p>The {@code apply} methods dispatch on an operator once per call, for callers that only know
+ * the operator at run time. They cover the whole of {@code out}, split across threads when it is
+ * large enough (see {@link Parallel}), while the overloads taking a range only process that range,
+ * on the calling thread. They (and the reductions) use the Vector API kernels of
+ * {@link VectorKernels} instead of the scalar loops on large arrays, when these are available
+ * (see {@link #SIMD}).
+ */
+public final class ArrayKernels
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private ArrayKernels () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the Vector API kernels are in use. This requires running on Java 17+ from the
+     * multi-release jar (whose {@code META-INF/versions/17} holds the real {@link VectorKernels}),
+     * with {@code --add-modules jdk.incubator.vector}. They can be turned off with {@code
+     * -Dsigh.simd=false}.
+     */
+    public static final boolean SIMD = simdAvailable();
+
+    /**
+     * Arrays shorter than this are always processed by the scalar loops, as setting up the vector
+     * loop is not worth it.
+     */
+    private static final int SIMD_THRESHOLD = 32;
+
+    private static boolean simdAvailable () {
+        if (!Boolean.parseBoolean(System.getProperty("sigh.simd", "true")))
+            return false;
+        try {
+            return VectorKernels.available();
+        } catch (LinkageError e) {
+            return false; // jdk.incubator.vector not in the module graph
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Checks that the operands of an array-array operation have the same length.
+     */
+    public static void checkLengths (int left, int right) {
+        if (left != right)
+            throw new Error("Length Error. Tried to process 2 arrays of different length.");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Converts {@code a} into {@code out}, starting at {@code offset}, and returns {@code out}.
+     */
+    public static double[] toDouble (long[] a, double[] out, int offset) {
+        for (int i = 0; i < a.length; ++i)
+            out[offset + i] = a[i];
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void apply (DiadicOperator operator, long[] a, long[] b, long[] out)
+    {
+        if (Parallel.enabled(out.length))
+            Parallel.forRange(out.length, (from, to) -> apply(operator, a, b, out, from, to));
+        else
+            apply(operator, a, b, out, 0, out.length);
+    }
+
+    public static void apply (
+            DiadicOperator operator, long[] a, long[] b, long[] out, int from, int to)
+    {
+        if (SIMD && to - from >= SIMD_THRESHOLD
+                && VectorKernels.apply(operator, a, b, out, from, to))
+            return;
+
+        switch (operator) {
+            case MULTIPLY:      multiply(a, b, out, from, to); return;
+            case DIVIDE:        divide(a, b, out, from, to); return;
+            case REMAINDER:     remainder(a, b, out, from, to); return;
+            case ADD:           add(a, b, out, from, to); return;
+            case SUBTRACT:      subtract(a, b, out, from, to); return;
+            case EXPONENT:      exponent(a, b, out, from, to); return;
+            case EQUALITY:      equality(a, b, out, from, to); return;
+            case NOT_EQUALS:    notEquals(a, b, out, from, to); return;
+            case GREATER:       greater(a, b, out, from, to); return;
+            case LOWER:         lower(a, b, out, from, to); return;
+            case GREATER_EQUAL: greaterEqual(a, b, out, from, to); return;
+            case LOWER_EQUAL:   lowerEqual(a, b, out, from, to); return;
+            case AND:           and(a, b, out, from, to); return;
+            case OR:            or(a, b, out, from, to); return;
+            default: throw new Error("should not reach here");
+        }
+    }
+
+    public static void apply (DiadicOperator operator, long[] a, long b, long[] out)
+    {
+        if (Parallel.enabled(out.length))
+            Parallel.forRange(out.length, (from, to) -> apply(operator, a, b, out, from, to));
+        else
+            apply(operator, a, b, out, 0, out.length);
+    }
+
+    public static void apply (
+            DiadicOperator operator, long[] a, long b, long[] out, int from, int to)
+    {
+        if (SIMD && to - from >= SIMD_THRESHOLD
+                && VectorKernels.apply(operator, a, b, out, from, to))
+            return;
+
+        switch (operator) {
+            case MULTIPLY:      multiply(a, b, out, from, to); return;
+            case DIVIDE:        divide(a, b, out, from, to); return;
+            case REMAINDER:     remainder(a, b, out, from, to); return;
+            case ADD:           add(a, b, out, from, to); return;
+            case SUBTRACT:      subtract(a, b, out, from, to); return;
+            case EXPONENT:      exponent(a, b, out, from, to); return;
+            case EQUALITY:      equality(a, b, out, from, to); return;
+            case NOT_EQUALS:    notEquals(a, b, out, from, to); return;
+            case GREATER:       greater(a, b, out, from, to); return;
+            case LOWER:         lower(a, b, out, from, to); return;
+            case GREATER_EQUAL: greaterEqual(a, b, out, from, to); return;
+            case LOWER_EQUAL:   lowerEqual(a, b, out, from, to); return;
+            case AND:           and(a, b, out, from, to); return;
+            case OR:            or(a, b, out, from, to); return;
+            default: throw new Error("should not reach here");
+        }
+    }
+
+    public static void apply (DiadicOperator operator, long a, long[] b, long[] out)
+    {
+        if (Parallel.enabled(out.length))
+            Parallel.forRange(out.length, (from, to) -> apply(operator, a, b, out, from, to));
+        else
+            apply(operator, a, b, out, 0, out.length);
+    }
+
+    public static void apply (
+            DiadicOperator operator, long a, long[] b, long[] out, int from, int to)
+    {
+        if (SIMD && to - from >= SIMD_THRESHOLD
+                && VectorKernels.apply(operator, a, b, out, from, to))
+            return;
+
+        switch (operator) {
+            case MULTIPLY:      multiply(a, b, out, from, to); return;
+            case DIVIDE:        divide(a, b, out, from, to); return;
+            case REMAINDER:     remainder(a, b, out, from, to); return;
+            case ADD:           add(a, b, out, from, to); return;
+            case SUBTRACT:      subtract(a, b, out, from, to); return;
+            case EXPONENT:      exponent(a, b, out, from, to); return;
+            case EQUALITY:      equality(a, b, out, from, to); return;
+            case NOT_EQUALS:    notEquals(a, b, out, from, to); return;
+            case GREATER:       greater(a, b, out, from, to); return;
+            case LOWER:         lower(a, b, out, from, to); return;
+            case GREATER_EQUAL: greaterEqual(a, b, out, from, to); return;
+            case LOWER_EQUAL:   lowerEqual(a, b, out, from, to); return;
+            case AND:           and(a, b, out, from, to); return;
+            case OR:            or(a, b, out, from, to); return;
+            default: throw new Error("should not reach here");
+        }
+    }
+
+    public static void apply (DiadicOperator operator, double[] a, double[] b, double[] out)
+    {
+        if (Parallel.enabled(out.length))
+            Parallel.forRange(out.length, (from, to) -> apply(operator, a, b, out, from, to));
+        else
+            apply(operator, a, b, out, 0, out.length);
+    }
+
+    public static void apply (
+            DiadicOperator operator, double[] a, double[] b, double[] out, int from, int to)
+    {
+        if (SIMD && to - from >= SIMD_THRESHOLD
+                && VectorKernels.apply(operator, a, b, out, from, to))
+            return;
+
+        switch (operator) {
+            case MULTIPLY:      multiply(a, b, out, from, to); return;
+            case DIVIDE:        divide(a, b, out, from, to); return;
+            case REMAINDER:     remainder(a, b, out, from, to); return;
+            case ADD:           add(a, b, out, from, to); return;
+            case SUBTRACT:      subtract(a, b, out, from, to); return;
+            case EXPONENT:      exponent(a, b, out, from, to); return;
+            case EQUALITY:      equality(a, b, out, from, to); return;
+            case NOT_EQUALS:    notEquals(a, b, out, from, to); return;
+            case GREATER:       greater(a, b, out, from, to); return;
+            case LOWER:         lower(a, b, out, from, to); return;
+            case GREATER_EQUAL: greaterEqual(a, b, out, from, to); return;
+            case LOWER_EQUAL:   lowerEqual(a, b, out, from, to); return;
+            case AND:           and(a, b, out, from, to); return;
+            case OR:            or(a, b, out, from, to); return;
+            default: throw new Error("should not reach here");
+        }
+    }
+
+    public static void apply (DiadicOperator operator, double[] a, double b, double[] out)
+    {
+        if (Parallel.enabled(out.length))
+            Parallel.forRange(out.length, (from, to) -> apply(operator, a, b, out, from, to));
+        else
+            apply(operator, a, b, out, 0, out.length);
+    }
+
+    public static void apply (
+            DiadicOperator operator, double[] a, double b, double[] out, int from, int to)
+    {
+        if (SIMD && to - from >= SIMD_THRESHOLD
+                && VectorKernels.apply(operator, a, b, out, from, to))
+            return;
+
+        switch (operator) {
+            case MULTIPLY:      multiply(a, b, out, from, to); return;
+            case DIVIDE:        divide(a, b, out, from, to); return;
+            case REMAINDER:     remainder(a, b, out, from, to); return;
+            case ADD:           add(a, b, out, from, to); return;
+            case SUBTRACT:      subtract(a, b, out, from, to); return;
+            case EXPONENT:      exponent(a, b, out, from, to); return;
+            case EQUALITY:      equality(a, b, out, from, to); return;
+            case NOT_EQUALS:    notEquals(a, b, out, from, to); return;
+            case GREATER:       greater(a, b, out, from, to); return;
+            case LOWER:         lower(a, b, out, from, to); return;
+            case GREATER_EQUAL: greaterEqual(a, b, out, from, to); return;
+            case LOWER_EQUAL:   lowerEqual(a, b, out, from, to); return;
+            case AND:           and(a, b, out, from, to); return;
+            case OR:            or(a, b, out, from, to); return;
+            default: throw new Error("should not reach here");
+        }
+    }
+
+    public static void apply (DiadicOperator operator, double a, double[] b, double[] out)
+    {
+        if (Parallel.enabled(out.length))
+            Parallel.forRange(out.length, (from, to) -> apply(operator, a, b, out, from, to));
+        else
+            apply(operator, a, b, out, 0, out.length);
+    }
+
+    public static void apply (
+            DiadicOperator operator, double a, double[] b, double[] out, int from, int to)
+    {
+        if (SIMD && to - from >= SIMD_THRESHOLD
+                && VectorKernels.apply(operator, a, b, out, from, to))
+            return;
+
+        switch (operator) {
+            case MULTIPLY:      multiply(a, b, out, from, to); return;
+            case DIVIDE:        divide(a, b, out, from, to); return;
+            case REMAINDER:     remainder(a, b, out, from, to); return;
+            case ADD:           add(a, b, out, from, to); return;
+            case SUBTRACT:      subtract(a, b, out, from, to); return;
+            case EXPONENT:      exponent(a, b, out, from, to); return;
+            case EQUALITY:      equality(a, b, out, from, to); return;
+            case NOT_EQUALS:    notEquals(a, b, out, from, to); return;
+            case GREATER:       greater(a, b, out, from, to); return;
+            case LOWER:         lower(a, b, out, from, to); return;
+            case GREATER_EQUAL: greaterEqual(a, b, out, from, to); return;
+            case LOWER_EQUAL:   lowerEqual(a, b, out, from, to); return;
+            case AND:           and(a, b, out, from, to); return;
+            case OR:            or(a, b, out, from, to); return;
+            default: throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // MULTIPLY (*)
+
+    public static void multiply (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] * b[i];
+    }
+
+    public static void multiply (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] * b;
+    }
+
+    public static void multiply (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a * b[i];
+    }
+
+    public static void multiply (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] * b[i];
+    }
+
+    public static void multiply (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] * b;
+    }
+
+    public static void multiply (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a * b[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // DIVIDE (/)
+
+    public static void divide (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] / b[i];
+    }
+
+    public static void divide (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] / b;
+    }
+
+    public static void divide (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a / b[i];
+    }
+
+    public static void divide (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] / b[i];
+    }
+
+    public static void divide (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] / b;
+    }
+
+    public static void divide (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a / b[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // REMAINDER (%)
+
+    public static void remainder (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] % b[i];
+    }
+
+    public static void remainder (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] % b;
+    }
+
+    public static void remainder (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a % b[i];
+    }
+
+    public static void remainder (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] % b[i];
+    }
+
+    public static void remainder (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] % b;
+    }
+
+    public static void remainder (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a % b[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // ADD (+)
+
+    public static void add (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] + b[i];
+    }
+
+    public static void add (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] + b;
+    }
+
+    public static void add (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a + b[i];
+    }
+
+    public static void add (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] + b[i];
+    }
+
+    public static void add (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] + b;
+    }
+
+    public static void add (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a + b[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // SUBTRACT (-)
+
+    public static void subtract (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] - b[i];
+    }
+
+    public static void subtract (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] - b;
+    }
+
+    public static void subtract (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a - b[i];
+    }
+
+    public static void subtract (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] - b[i];
+    }
+
+    public static void subtract (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] - b;
+    }
+
+    public static void subtract (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a - b[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // EXPONENT (^)
+
+    public static void exponent (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = (long) Math.pow(a[i], b[i]);
+    }
+
+    public static void exponent (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = (long) Math.pow(a[i], b);
+    }
+
+    public static void exponent (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = (long) Math.pow(a, b[i]);
+    }
+
+    public static void exponent (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = Math.pow(a[i], b[i]);
+    }
+
+    public static void exponent (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = Math.pow(a[i], b);
+    }
+
+    public static void exponent (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = Math.pow(a, b[i]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // EQUALITY (==)
+
+    public static void equality (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] == b[i] ? 1 : 0;
+    }
+
+    public static void equality (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] == b ? 1 : 0;
+    }
+
+    public static void equality (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a == b[i] ? 1 : 0;
+    }
+
+    public static void equality (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] == b[i] ? 1.0 : 0.0;
+    }
+
+    public static void equality (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] == b ? 1.0 : 0.0;
+    }
+
+    public static void equality (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a == b[i] ? 1.0 : 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // NOT_EQUALS (!=)
+
+    public static void notEquals (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != b[i] ? 1 : 0;
+    }
+
+    public static void notEquals (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != b ? 1 : 0;
+    }
+
+    public static void notEquals (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a != b[i] ? 1 : 0;
+    }
+
+    public static void notEquals (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != b[i] ? 1.0 : 0.0;
+    }
+
+    public static void notEquals (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != b ? 1.0 : 0.0;
+    }
+
+    public static void notEquals (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a != b[i] ? 1.0 : 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // GREATER (>)
+
+    public static void greater (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] > b[i] ? 1 : 0;
+    }
+
+    public static void greater (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] > b ? 1 : 0;
+    }
+
+    public static void greater (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a > b[i] ? 1 : 0;
+    }
+
+    public static void greater (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] > b[i] ? 1.0 : 0.0;
+    }
+
+    public static void greater (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] > b ? 1.0 : 0.0;
+    }
+
+    public static void greater (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a > b[i] ? 1.0 : 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // LOWER (<)
+
+    public static void lower (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] < b[i] ? 1 : 0;
+    }
+
+    public static void lower (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] < b ? 1 : 0;
+    }
+
+    public static void lower (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a < b[i] ? 1 : 0;
+    }
+
+    public static void lower (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] < b[i] ? 1.0 : 0.0;
+    }
+
+    public static void lower (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] < b ? 1.0 : 0.0;
+    }
+
+    public static void lower (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a < b[i] ? 1.0 : 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // GREATER_EQUAL (>=)
+
+    public static void greaterEqual (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] >= b[i] ? 1 : 0;
+    }
+
+    public static void greaterEqual (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] >= b ? 1 : 0;
+    }
+
+    public static void greaterEqual (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a >= b[i] ? 1 : 0;
+    }
+
+    public static void greaterEqual (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] >= b[i] ? 1.0 : 0.0;
+    }
+
+    public static void greaterEqual (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] >= b ? 1.0 : 0.0;
+    }
+
+    public static void greaterEqual (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a >= b[i] ? 1.0 : 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // LOWER_EQUAL (<=)
+
+    public static void lowerEqual (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] <= b[i] ? 1 : 0;
+    }
+
+    public static void lowerEqual (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] <= b ? 1 : 0;
+    }
+
+    public static void lowerEqual (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a <= b[i] ? 1 : 0;
+    }
+
+    public static void lowerEqual (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] <= b[i] ? 1.0 : 0.0;
+    }
+
+    public static void lowerEqual (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] <= b ? 1.0 : 0.0;
+    }
+
+    public static void lowerEqual (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a <= b[i] ? 1.0 : 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // AND (&&)
+
+    public static void and (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != 0 && b[i] != 0 ? 1 : 0;
+    }
+
+    public static void and (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != 0 && b != 0 ? 1 : 0;
+    }
+
+    public static void and (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a != 0 && b[i] != 0 ? 1 : 0;
+    }
+
+    public static void and (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != 0.0 && b[i] != 0.0 ? 1.0 : 0.0;
+    }
+
+    public static void and (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != 0.0 && b != 0.0 ? 1.0 : 0.0;
+    }
+
+    public static void and (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a != 0.0 && b[i] != 0.0 ? 1.0 : 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // OR (||)
+
+    public static void or (long[] a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != 0 || b[i] != 0 ? 1 : 0;
+    }
+
+    public static void or (long[] a, long b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != 0 || b != 0 ? 1 : 0;
+    }
+
+    public static void or (long a, long[] b, long[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a != 0 || b[i] != 0 ? 1 : 0;
+    }
+
+    public static void or (double[] a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != 0.0 || b[i] != 0.0 ? 1.0 : 0.0;
+    }
+
+    public static void or (double[] a, double b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a[i] != 0.0 || b != 0.0 ? 1.0 : 0.0;
+    }
+
+    public static void or (double a, double[] b, double[] out, int from, int to) {
+        for (int i = from; i < to; ++i)
+            out[i] = a != 0.0 || b[i] != 0.0 ? 1.0 : 0.0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Elementwise monadic verbs (!, +:, *:)
+
+    public static void apply (MonadicOperator operator, long[] a, long[] out)
+    {
+        if (Parallel.enabled(out.length))
+            Parallel.forRange(out.length, (from, to) -> apply(operator, a, out, from, to));
+        else
+            apply(operator, a, out, 0, out.length);
+    }
+
+    public static void apply (MonadicOperator operator, long[] a, long[] out, int from, int to)
+    {
+        switch (operator) {
+            case NOT:
+                for (int i = from; i < to; ++i) out[i] = factorial(a[i]);
+                return;
+            case SELF_ADD:
+                for (int i = from; i < to; ++i) out[i] = a[i] + a[i];
+                return;
+            case SELF_MULT:
+                for (int i = from; i < to; ++i) out[i] = a[i] * a[i];
+                return;
+            default: throw new Error("should not reach here");
+        }
+    }
+
+    public static void apply (MonadicOperator operator, double[] a, double[] out)
+    {
+        if (Parallel.enabled(out.length))
+            Parallel.forRange(out.length, (from, to) -> apply(operator, a, out, from, to));
+        else
+            apply(operator, a, out, 0, out.length);
+    }
+
+    public static void apply (MonadicOperator operator, double[] a, double[] out, int from, int to)
+    {
+        switch (operator) {
+            case NOT:
+                for (int i = from; i < to; ++i) out[i] = gamma(a[i]);
+                return;
+            case SELF_ADD:
+                for (int i = from; i < to; ++i) out[i] = a[i] + a[i];
+                return;
+            case SELF_MULT:
+                for (int i = from; i < to; ++i) out[i] = a[i] * a[i];
+                return;
+            default: throw new Error("should not reach here");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static long factorial (long n) {
+        return n == 0 ? 1 : n * factorial(n - 1);
+    }
+
+    // factorial of double
+    // source : https://rosettacode.org/wiki/Gamma_function#Java
+    public static double gamma (double x) {
+        double[] p = {0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+            771.32342877765313, -176.61502916214059, 12.507343278686905,
+            -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
+        int g = 7;
+        if (x < 0.5) return Math.PI / (Math.sin(Math.PI * x) * gamma(1 - x));
+
+        double a = p[0];
+        double t = x + g + 0.5;
+        for (int i = 1; i < p.length; i++) {
+            a += p[i] / (x + i);
+        }
+        return Math.sqrt(2*Math.PI)*Math.pow(t, x+0.5)*Math.exp(-t)*a;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Reductions (+/, ./, &/, |/, -/, :/)
+
+    // +/ and ./ are reduced over the trees of Parallel.reduceLongs/reduceDoubles, without copying
+    // the input. This is exact on integers (overflow wraps around in any order), but on floats the
+    // result depends on the order of the operations, which is set by the FloatReduction mode.
+
+    /**
+     * How floating-point sums and products are computed. In all modes, the result only depends on
+     * the input and the mode (not on the number of threads); only {@link #FAST} depends on the
+     * platform.
+     */
+    public enum FloatReduction
+    {
+        /**
+         * Blocks are reduced with the vector kernels when available (see {@link #SIMD}), whose
+         * result depends on the vector width of the platform.
+         */
+        FAST,
+
+        /**
+         * Pairwise (cascade) summation over the whole input, which keeps the rounding error in
+         * O(log n). Products are computed the same way.
+         */
+        PAIRWISE,
+
+        /**
+         * Kahan (compensated) summation within each block, blocks being combined pairwise. The
+         * most accurate and the slowest. Products are computed as in {@link #PAIRWISE}.
+         */
+        KAHAN
+    }
+
+    private static volatile FloatReduction floatReduction = defaultFloatReduction();
+
+    // Like Integer.getInteger, ignores malformed values rather than making the class unusable.
+    private static FloatReduction defaultFloatReduction ()
+    {
+        String mode = System.getProperty("sigh.float.reduction", "fast");
+        try {
+            return FloatReduction.valueOf(mode.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return FloatReduction.FAST;
+        }
+    }
+
+    /**
+     * Sets the mode of floating-point reductions. The default is {@link FloatReduction#FAST},
+     * unless set with the {@code sigh.float.reduction} system property (case-insensitive, invalid
+     * values are ignored).
+     */
+    public static void floatReduction (FloatReduction mode) {
+        if (mode == null) throw new IllegalArgumentException("mode is null");
+        floatReduction = mode;
+    }
+
+    public static FloatReduction floatReduction () {
+        return floatReduction;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Pairwise reductions switch to a simple loop below this many items. */
+    private static final int PAIRWISE_LEAF = 16;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static long sum (long[] a) {
+        return Parallel.reduceLongs(a.length, (from, to) -> sum(a, from, to), Long::sum);
+    }
+
+    static long sum (long[] a, int from, int to) {
+        if (SIMD && to - from >= SIMD_THRESHOLD) return VectorKernels.sum(a, from, to);
+        long acc = 0;
+        for (int i = from; i < to; ++i)
+            acc += a[i];
+        return acc;
+    }
+
+    public static long product (long[] a) {
+        return Parallel.reduceLongs(a.length, (from, to) -> product(a, from, to), (x, y) -> x * y);
+    }
+
+    static long product (long[] a, int from, int to) {
+        if (SIMD && to - from >= SIMD_THRESHOLD) return VectorKernels.product(a, from, to);
+        long acc = 1;
+        for (int i = from; i < to; ++i)
+            acc *= a[i];
+        return acc;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static double sum (double[] a)
+    {
+        FloatReduction mode = floatReduction;
+        return Parallel.reduceDoubles(a.length, (from, to) -> sum(a, from, to, mode), Double::sum);
+    }
+
+    /**
+     * Sums a block of at most {@link Parallel#BLOCK} items, in the given mode.
+     */
+    static double sum (double[] a, int from, int to, FloatReduction mode) {
+        switch (mode) {
+            case FAST:     return sum(a, from, to);
+            case PAIRWISE: return pairwiseSum(a, from, to);
+            default:       return kahanSum(a, from, to);
+        }
+    }
+
+    private static double sum (double[] a, int from, int to) {
+        if (SIMD && to - from >= SIMD_THRESHOLD) return VectorKernels.sum(a, from, to);
+        double acc = 0.0;
+        for (int i = from; i < to; ++i)
+            acc += a[i];
+        return acc;
+    }
+
+    private static double pairwiseSum (double[] a, int from, int to)
+    {
+        if (to - from <= PAIRWISE_LEAF) {
+            double acc = 0.0;
+            for (int i = from; i < to; ++i)
+                acc += a[i];
+            return acc;
+        }
+        int mid = (from + to) >>> 1;
+        return pairwiseSum(a, from, mid) + pairwiseSum(a, mid, to);
+    }
+
+    private static double kahanSum (double[] a, int from, int to)
+    {
+        double sum = 0.0;
+        double compensation = 0.0;
+        for (int i = from; i < to; ++i) {
+            double y = a[i] - compensation;
+            double t = sum + y;
+            compensation = (t - sum) - y;
+            sum = t;
+        }
+        return sum;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static double product (double[] a)
+    {
+        FloatReduction mode = floatReduction;
+        return Parallel.reduceDoubles(a.length,
+            (from, to) -> product(a, from, to, mode), (x, y) -> x * y);
+    }
+
+    /**
+     * Multiplies a block of at most {@link Parallel#BLOCK} items, in the given mode.
+     */
+    static double product (double[] a, int from, int to, FloatReduction mode) {
+        return mode == FloatReduction.FAST
+            ? product(a, from, to)
+            : pairwiseProduct(a, from, to);
+    }
+
+    private static double product (double[] a, int from, int to) {
+        if (SIMD && to - from >= SIMD_THRESHOLD) return VectorKernels.product(a, from, to);
+        double acc = 1.0;
+        for (int i = from; i < to; ++i)
+            acc *= a[i];
+        return acc;
+    }
+
+    private static double pairwiseProduct (double[] a, int from, int to)
+    {
+        if (to - from <= PAIRWISE_LEAF) {
+            double acc = 1.0;
+            for (int i = from; i < to; ++i)
+                acc *= a[i];
+            return acc;
+        }
+        int mid = (from + to) >>> 1;
+        return pairwiseProduct(a, from, mid) * pairwiseProduct(a, mid, to);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // &/ and |/ (on arrays of at least two items) are searches that stop at the first item that
+    // decides the result.
+
+    /**
+     * Whether all items are strictly positive.
+     */
+    public static boolean allPositive (long[] a) {
+        return !Parallel.any(a.length, (from, to) -> anyNonPositive(a, from, to));
+    }
+
+    /**
+     * Whether all items are strictly positive.
+     */
+    public static boolean allPositive (double[] a) {
+        return !Parallel.any(a.length, (from, to) -> anyNonPositive(a, from, to));
+    }
+
+    /**
+     * Whether any item is strictly positive.
+     */
+    public static boolean anyPositive (long[] a) {
+        return Parallel.any(a.length, (from, to) -> anyPositive(a, from, to));
+    }
+
+    /**
+     * Whether any item is strictly positive.
+     */
+    public static boolean anyPositive (double[] a) {
+        return Parallel.any(a.length, (from, to) -> anyPositive(a, from, to));
+    }
+
+    static boolean anyPositive (long[] a, int from, int to) {
+        if (SIMD && to - from >= SIMD_THRESHOLD) return VectorKernels.anyPositive(a, from, to);
+        for (int i = from; i < to; ++i)
+            if (a[i] > 0) return true;
+        return false;
+    }
+
+    static boolean anyPositive (double[] a, int from, int to) {
+        if (SIMD && to - from >= SIMD_THRESHOLD) return VectorKernels.anyPositive(a, from, to);
+        for (int i = from; i < to; ++i)
+            if (a[i] > 0) return true;
+        return false;
+    }
+
+    static boolean anyNonPositive (long[] a, int from, int to) {
+        if (SIMD && to - from >= SIMD_THRESHOLD) return !VectorKernels.allPositive(a, from, to);
+        for (int i = from; i < to; ++i)
+            if (!(a[i] > 0)) return true;
+        return false;
+    }
+
+    static boolean anyNonPositive (double[] a, int from, int to) {
+        if (SIMD && to - from >= SIMD_THRESHOLD) return !VectorKernels.allPositive(a, from, to);
+        for (int i = from; i < to; ++i)
+            if (!(a[i] > 0)) return true; // NaN is not positive
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // -/ and :/ are not associative, and keep their right fold semantics: a - (b - (c - ...)).
+    // The array must not be empty.
+
+    public static long subtractFold (long[] a) {
+        long acc = a[a.length - 1];
+        for (int i = a.length - 2; i >= 0; --i)
+            acc = a[i] - acc;
+        return acc;
+    }
+
+    public static double subtractFold (double[] a) {
+        double acc = a[a.length - 1];
+        for (int i = a.length - 2; i >= 0; --i)
+            acc = a[i] - acc;
+        return acc;
+    }
+
+    public static long divideFold (long[] a) {
+        long acc = a[a.length - 1];
+        for (int i = a.length - 2; i >= 0; --i)
+            acc = a[i] / acc;
+        return acc;
+    }
+
+    public static double divideFold (double[] a) {
+        double acc = a[a.length - 1];
+        for (int i = a.length - 2; i >= 0; --i)
+            acc = a[i] / acc;
+        return acc;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // CONCAT (<>)
+
+    public static long[] concat (long[] a, long[] b) {
+        long[] out = new long[a.length + b.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    public static long[] concat (long[] a, long b) {
+        long[] out = new long[a.length + 1];
+        System.arraycopy(a, 0, out, 0, a.length);
+        out[a.length] = b;
+        return out;
+    }
+
+    public static long[] concat (long a, long[] b) {
+        long[] out = new long[1 + b.length];
+        out[0] = a;
+        System.arraycopy(b, 0, out, 1, b.length);
+        return out;
+    }
+
+    public static double[] concat (double[] a, double[] b) {
+        double[] out = new double[a.length + b.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    public static double[] concat (double[] a, double b) {
+        double[] out = new double[a.length + 1];
+        System.arraycopy(a, 0, out, 0, a.length);
+        out[a.length] = b;
+        return out;
+    }
+
+    public static double[] concat (double a, double[] b) {
+        double[] out = new double[1 + b.length];
+        out[0] = a;
+        System.arraycopy(b, 0, out, 1, b.length);
+        return out;
+    }
+
+    public static double[] concat (long[] a, double[] b) {
+        double[] out = new double[a.length + b.length];
+        toDouble(a, out, 0);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    public static double[] concat (double[] a, long[] b) {
+        double[] out = new double[a.length + b.length];
+        System.arraycopy(a, 0, out, 0, a.length);
+        toDouble(b, out, a.length);
+        return out;
+    }
+
+    public static double[] concat (long[] a, double b) {
+        double[] out = new double[a.length + 1];
+        toDouble(a, out, 0);
+        out[a.length] = b;
+        return out;
+    }
+
+    public static double[] concat (double a, long[] b) {
+        double[] out = new double[1 + b.length];
+        out[0] = a;
+        toDouble(b, out, 1);
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,135 @@
+package norswap.sigh.runtime;
+
+import norswap.sigh.AnalysisTables;
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.types.FloatType;
+import norswap.sigh.types.FunType;
+import norswap.sigh.types.IntType;
+import norswap.sigh.types.StringType;
+import norswap.sigh.types.Type;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A memo table for the calls of a {@link #memoizable} function, mapping the arguments of calls
+ * (see {@link #key}) to their result. The backends use one table per function, when memoization is
+ * enabled.
+ *
+ * <p>The table is bounded: once it holds {@link #capacity()} results, adding a result evicts the
+ * least recently used one. It counts the lookups that found a result ({@link #hits()}) and those
+ * that didn't ({@link #misses()}), which is useful to tune the capacity.
+ *
+ * <p>Tables are thread-safe, as a compiled program can be run by multiple threads at once. The lock
+ * is not held while a result is computed, so concurrent calls with the same arguments may both
+ * compute it.
+ */
+public final class MemoTable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private final int capacity;
+    private final LinkedHashMap<Object, Object> results;
+    private long hits;
+    private long misses;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public MemoTable (int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry (Map.Entry<Object, Object> eldest) {
+                return size() > MemoTable.this.capacity;
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the calls to the function can be memoized: the function must be pure (see {@link
+     * AnalysisTables#pure}), its parameters must be immutable values ({@code Int}, {@code Float} or
+     * {@code String}), and it must return a number, so that a result is never null.
+     */
+    public static boolean memoizable (FunDeclarationNode function, AnalysisTables tables)
+    {
+        if (!tables.pure(function))
+            return false;
+        FunType type = tables.type(function);
+        if (!(type.returnType instanceof IntType || type.returnType instanceof FloatType))
+            return false;
+        for (Type param: type.paramTypes)
+            if (!(param instanceof IntType
+                    || param instanceof FloatType
+                    || param instanceof StringType))
+                return false;
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the key for a call with the given arguments: the argument itself if there is only
+     * one, or a list of the arguments. The array must not be modified afterwards.
+     */
+    public static Object key (Object[] args) {
+        return args.length == 1 ? args[0] : Arrays.asList(args);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the result memoized for the given key (see {@link #key}), or null if there is none.
+     */
+    public synchronized Object get (Object key)
+    {
+        Object result = results.get(key);
+        if (result == null) ++misses;
+        else ++hits;
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Memoizes the result for the given key (see {@link #key}), and returns it.
+     */
+    public synchronized Object put (Object key, Object result) {
+        results.put(key, result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maximum number of results held by the table. */
+    public int capacity () {
+        return capacity;
+    }
+
+    /** Number of results currently held by the table. */
+    public synchronized int size () {
+        return results.size();
+    }
+
+    /** Number of lookups that found a result. */
+    public synchronized long hits () {
+        return hits;
+    }
+
+    /** Number of lookups that didn't find a result. */
+    public synchronized long misses () {
+        return misses;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public synchronized String toString () {
+        return String.format("MemoTable (%d/%d results, %d hits, %d misses)",
+            results.size(), capacity, hits, misses);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
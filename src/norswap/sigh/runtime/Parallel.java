@@ -0,0 +1,320 @@
+package norswap.sigh.runtime;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Configuration and helpers for running the {@link ArrayKernels} on several cores.
+ *
+ * <p>Operations whose result has at least {@link #threshold()} items are split into contiguous
+ * ranges of the output, which are processed by the tasks of a {@link ForkJoinPool}. Each task
+ * only writes to its own range, and computes each item exactly like the sequential loop, so the
+ * results do not depend on the number of threads or on scheduling.
+ *
+ * <p>Reductions are computed over a tree whose shape only depends on the length of the input: the
+ * input is cut into blocks of {@link #BLOCK} items, which are reduced on their own, then combined
+ * pairwise. Subtrees are processed in parallel above the threshold, but the same tree is computed
+ * by a single thread below it, so that even non-associative combinations (like floating-point
+ * additions) give the same result in both cases.
+ *
+ * <p>By default, the common pool is used and the threshold can be set with the {@code
+ * sigh.parallel.threshold} system property. Both can be changed with {@link #configure}, e.g. to
+ * use a dedicated pool. A threshold of {@link Integer#MAX_VALUE} disables parallelism.
+ */
+public final class Parallel
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Default value of {@link #threshold()}. Below this, the cost of forking tasks and waking up
+     * threads is higher than what can be gained on elementwise loops.
+     */
+    public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+    /**
+     * Minimum number of items processed by a single task.
+     */
+    private static final int MIN_CHUNK = 1 << 13;
+
+    /**
+     * Number of items in the leaves of reduction trees.
+     */
+    static final int BLOCK = 1 << 12;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+    private static volatile int threshold =
+        Integer.getInteger("sigh.parallel.threshold", DEFAULT_THRESHOLD);
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Parallel () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the pool the array operations run on, and the result size from which they are split
+     * across its threads.
+     */
+    public static void configure (ForkJoinPool pool, int threshold)
+    {
+        if (pool == null)
+            throw new IllegalArgumentException("pool is null");
+        if (threshold < 1)
+            throw new IllegalArgumentException("threshold must be positive: " + threshold);
+        Parallel.pool = pool;
+        Parallel.threshold = threshold;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static ForkJoinPool pool () {
+        return pool;
+    }
+
+    public static int threshold () {
+        return threshold;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether an operation producing {@code length} items should run in parallel.
+     */
+    static boolean enabled (int length) {
+        return length >= threshold && pool.getParallelism() > 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A loop over the range {@code [from, to)} of some output.
+     */
+    @FunctionalInterface
+    interface RangeTask {
+        void run (int from, int to);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs {@code task} over {@code [0, length)}, split in chunks processed in parallel, and
+     * returns when all of them are done.
+     */
+    static void forRange (int length, RangeTask task)
+    {
+        ForkJoinPool pool = Parallel.pool;
+        // A few chunks per thread, to balance the load.
+        int chunk = Math.max(MIN_CHUNK, length / (pool.getParallelism() * 4));
+        pool.invoke(new Chunk(task, 0, length, chunk));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Chunk extends RecursiveAction
+    {
+        private final RangeTask task;
+        private final int from, to, chunk;
+
+        Chunk (RangeTask task, int from, int to, int chunk) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override protected void compute ()
+        {
+            if (to - from <= chunk) {
+                task.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Chunk(task, from, mid, chunk), new Chunk(task, mid, to, chunk));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @FunctionalInterface
+    interface LongRangeReduction {
+        long reduce (int from, int to);
+    }
+
+    @FunctionalInterface
+    interface DoubleRangeReduction {
+        double reduce (int from, int to);
+    }
+
+    /**
+     * A search over the range {@code [from, to)}, returning true if an item was found.
+     */
+    @FunctionalInterface
+    interface RangeSearch {
+        boolean find (int from, int to);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reduces {@code [0, length)} by calling {@code leaf} on each block, and combining the block
+     * results pairwise, in order.
+     */
+    static long reduceLongs (int length, LongRangeReduction leaf, LongBinaryOperator combine)
+    {
+        if (length <= BLOCK)
+            return leaf.reduce(0, length);
+        boolean parallel = enabled(length);
+        LongTree tree = new LongTree(leaf, combine, 0, length, parallel);
+        return parallel ? pool.invoke(tree) : tree.compute();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reduces {@code [0, length)} by calling {@code leaf} on each block, and combining the block
+     * results pairwise, in order.
+     */
+    static double reduceDoubles (
+            int length, DoubleRangeReduction leaf, DoubleBinaryOperator combine)
+    {
+        if (length <= BLOCK)
+            return leaf.reduce(0, length);
+        boolean parallel = enabled(length);
+        DoubleTree tree = new DoubleTree(leaf, combine, 0, length, parallel);
+        return parallel ? pool.invoke(tree) : tree.compute();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code search} finds an item in {@code [0, length)}. In parallel, the chunks that
+     * have not started yet are skipped as soon as one of them finds an item.
+     */
+    static boolean any (int length, RangeSearch search)
+    {
+        if (!enabled(length))
+            return search.find(0, length);
+        ForkJoinPool pool = Parallel.pool;
+        int chunk = Math.max(MIN_CHUNK, length / (pool.getParallelism() * 4));
+        AtomicBoolean found = new AtomicBoolean();
+        pool.invoke(new Search(search, found, 0, length, chunk));
+        return found.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Splits {@code [from, to)} in two on a block boundary, with as many blocks on each side
+     * (one more on the left if the number of blocks is odd).
+     */
+    private static int split (int from, int to) {
+        int blocks = (to - from + BLOCK - 1) / BLOCK;
+        return from + (blocks + 1) / 2 * BLOCK;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class LongTree extends RecursiveTask<Long>
+    {
+        private final LongRangeReduction leaf;
+        private final LongBinaryOperator combine;
+        private final int from, to;
+        private final boolean parallel;
+
+        LongTree (LongRangeReduction leaf, LongBinaryOperator combine,
+                  int from, int to, boolean parallel) {
+            this.leaf = leaf;
+            this.combine = combine;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+
+        @Override protected Long compute ()
+        {
+            if (to - from <= BLOCK)
+                return leaf.reduce(from, to);
+            int mid = split(from, to);
+            LongTree left  = new LongTree(leaf, combine, from, mid, parallel);
+            LongTree right = new LongTree(leaf, combine, mid, to, parallel);
+            if (!parallel)
+                return combine.applyAsLong(left.compute(), right.compute());
+            right.fork();
+            long l = left.compute();
+            return combine.applyAsLong(l, right.join());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class DoubleTree extends RecursiveTask<Double>
+    {
+        private final DoubleRangeReduction leaf;
+        private final DoubleBinaryOperator combine;
+        private final int from, to;
+        private final boolean parallel;
+
+        DoubleTree (DoubleRangeReduction leaf, DoubleBinaryOperator combine,
+                    int from, int to, boolean parallel) {
+            this.leaf = leaf;
+            this.combine = combine;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+
+        @Override protected Double compute ()
+        {
+            if (to - from <= BLOCK)
+                return leaf.reduce(from, to);
+            int mid = split(from, to);
+            DoubleTree left  = new DoubleTree(leaf, combine, from, mid, parallel);
+            DoubleTree right = new DoubleTree(leaf, combine, mid, to, parallel);
+            if (!parallel)
+                return combine.applyAsDouble(left.compute(), right.compute());
+            right.fork();
+            double l = left.compute();
+            return combine.applyAsDouble(l, right.join());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Search extends RecursiveAction
+    {
+        private final RangeSearch search;
+        private final AtomicBoolean found;
+        private final int from, to, chunk;
+
+        Search (RangeSearch search, AtomicBoolean found, int from, int to, int chunk) {
+            this.search = search;
+            this.found = found;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override protected void compute ()
+        {
+            if (found.get())
+                return;
+            if (to - from <= chunk) {
+                if (search.find(from, to))
+                    found.set(true);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(
+                new Search(search, found, from, mid, chunk),
+                new Search(search, found, mid, to, chunk));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
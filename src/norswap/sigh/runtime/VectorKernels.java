@@ -0,0 +1,104 @@
+package norswap.sigh.runtime;
+
+import norswap.sigh.ast.DiadicOperator;
+
+/**
+ * Vector API (SIMD) versions of the {@link ArrayKernels}.
+ *
+ * <p>This is the Java 8 version of the class, which does nothing: {@link #available()} returns
+ * false, so {@link ArrayKernels} never calls the other methods. The real implementation lives
+ * in {@code src17} and is packaged under {@code META-INF/versions/17} in the multi-release jar,
+ * where it replaces this class when running on Java 17+.
+ *
+ * <p>The {@code apply} methods process the range {@code [from, to)} of {@code out}, and return
+ * false when they do not support the operator, in which case the caller must fall back to the
+ * scalar loops.
+ */
+final class VectorKernels
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private VectorKernels () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    static boolean available () {
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static boolean apply (
+            DiadicOperator operator, long[] a, long[] b, long[] out, int from, int to)
+    {
+        return false;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, long[] a, long b, long[] out, int from, int to)
+    {
+        return false;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, long a, long[] b, long[] out, int from, int to)
+    {
+        return false;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, double[] a, double[] b, double[] out, int from, int to)
+    {
+        return false;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, double[] a, double b, double[] out, int from, int to)
+    {
+        return false;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, double a, double[] b, double[] out, int from, int to)
+    {
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    // The reductions are only called when available() returns true.
+
+    static long sum (long[] a, int from, int to) {
+        throw new Error("should not reach here");
+    }
+
+    static double sum (double[] a, int from, int to) {
+        throw new Error("should not reach here");
+    }
+
+    static long product (long[] a, int from, int to) {
+        throw new Error("should not reach here");
+    }
+
+    static double product (double[] a, int from, int to) {
+        throw new Error("should not reach here");
+    }
+
+    static boolean allPositive (long[] a, int from, int to) {
+        throw new Error("should not reach here");
+    }
+
+    static boolean allPositive (double[] a, int from, int to) {
+        throw new Error("should not reach here");
+    }
+
+    static boolean anyPositive (long[] a, int from, int to) {
+        throw new Error("should not reach here");
+    }
+
+    static boolean anyPositive (double[] a, int from, int to) {
+        throw new Error("should not reach here");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
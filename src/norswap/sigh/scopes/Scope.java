@@ -2,6 +2,8 @@ package norswap.sigh.scopes;
 
 import norswap.sigh.ast.DeclarationNode;
 import norswap.sigh.ast.SighNode;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 
 /**
@@ -21,15 +23,25 @@ public class Scope
      */
     public final Scope parent;
 
+    /**
+     * The lexical nesting depth of this scope: 0 for the root scope, and one more than its parent
+     * for every other scope.
+     */
+    public final int depth;
+
     // ---------------------------------------------------------------------------------------------
 
     private final HashMap<String, DeclarationNode> declarations = new HashMap<>();
 
+    /** Number of variable slots allocated so far, see {@link #allocateSlot()}. */
+    private int slotCount = 0;
+
     // ---------------------------------------------------------------------------------------------
 
     public Scope (SighNode node, Scope parent) {
         this.node = node;
         this.parent = parent;
+        this.depth = parent == null ? 0 : parent.depth + 1;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -43,6 +55,35 @@ public class Scope
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the declarations made directly in this scope.
+     */
+    public Collection<DeclarationNode> declarations () {
+        return Collections.unmodifiableCollection(declarations.values());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reserves a new variable slot in this scope and returns its index. Every variable declared
+     * in the scope receives its own slot, so that the runtime storage for the scope can be a flat
+     * array indexed by slot.
+     */
+    public int allocateSlot () {
+        return slotCount++;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of variable slots allocated in this scope.
+     */
+    public int slotCount () {
+        return slotCount;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Looks up the name in the scope and its parents, returning a context comprising the
      * found declaration and the scope in which it occurs, or null if not found.
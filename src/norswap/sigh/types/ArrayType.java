@@ -1,5 +1,7 @@
 package norswap.sigh.types;
 
+import norswap.sigh.ast.StructDeclarationNode;
+
 public final class ArrayType extends Type
 {
     public final Type componentType;
@@ -8,6 +10,13 @@ public final class ArrayType extends Type
         this.componentType = componentType;
     }
 
+    /**
+     * Whether this is an array of a {@link StructDeclarationNode#columnar columnar} structure.
+     */
+    public boolean isColumnar () {
+        return componentType instanceof StructType && ((StructType) componentType).node.columnar;
+    }
+
     @Override public String name() {
         return componentType.toString() + "[]";
     }
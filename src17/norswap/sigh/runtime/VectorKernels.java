@@ -0,0 +1,347 @@
+package norswap.sigh.runtime;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import norswap.sigh.ast.DiadicOperator;
+
+import static jdk.incubator.vector.VectorOperators.*;
+
+/**
+ * Vector API (SIMD) versions of the {@link ArrayKernels}.
+ *
+ * <p>This is the Java 17 version of the class, packaged under {@code META-INF/versions/17} in the
+ * multi-release jar. It needs {@code --add-modules jdk.incubator.vector}: without it, loading the
+ * class fails with a {@link LinkageError}, which {@link ArrayKernels} catches to fall back on the
+ * scalar loops.
+ *
+ * <p>Loops use the preferred (widest) species of the platform, then handle the remaining items
+ * with a masked iteration. In the {@code apply} methods, a {@code null} array stands for a scalar
+ * operand, which is broadcast once before the loop.
+ *
+ * <p>The {@code apply} methods process the range {@code [from, to)} of {@code out}, and return
+ * false when they do not support the operator, in which case the caller must fall back to the
+ * scalar loops. This is the case of the operators that have no
+ * vector instruction and would be no faster ({@code %}, {@code ^}, and {@code /} on integers),
+ * and of {@code ^} on floats, whose vector version is not guaranteed to be bit-identical to {@link
+ * Math#pow}.
+ */
+final class VectorKernels
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final VectorSpecies<Long>   LONGS   = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    private static final LongVector   LONG_ZERO   = LongVector.zero(LONGS);
+    private static final LongVector   LONG_ONE    = LongVector.broadcast(LONGS, 1L);
+    private static final DoubleVector DOUBLE_ZERO = DoubleVector.zero(DOUBLES);
+    private static final DoubleVector DOUBLE_ONE  = DoubleVector.broadcast(DOUBLES, 1.0);
+
+    // ---------------------------------------------------------------------------------------------
+
+    private VectorKernels () {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    static boolean available () {
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static boolean apply (
+            DiadicOperator operator, long[] a, long[] b, long[] out, int from, int to)
+    {
+        if (!supportsLongs(operator)) return false;
+        run(operator, a, 0L, b, 0L, out, from, to);
+        return true;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, long[] a, long b, long[] out, int from, int to)
+    {
+        if (!supportsLongs(operator)) return false;
+        run(operator, a, 0L, null, b, out, from, to);
+        return true;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, long a, long[] b, long[] out, int from, int to)
+    {
+        if (!supportsLongs(operator)) return false;
+        run(operator, null, a, b, 0L, out, from, to);
+        return true;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, double[] a, double[] b, double[] out, int from, int to)
+    {
+        if (!supportsDoubles(operator)) return false;
+        run(operator, a, 0.0, b, 0.0, out, from, to);
+        return true;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, double[] a, double b, double[] out, int from, int to)
+    {
+        if (!supportsDoubles(operator)) return false;
+        run(operator, a, 0.0, null, b, out, from, to);
+        return true;
+    }
+
+    static boolean apply (
+            DiadicOperator operator, double a, double[] b, double[] out, int from, int to)
+    {
+        if (!supportsDoubles(operator)) return false;
+        run(operator, null, a, b, 0.0, out, from, to);
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static boolean supportsLongs (DiadicOperator operator) {
+        switch (operator) {
+            case DIVIDE:
+            case REMAINDER:
+            case EXPONENT:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean supportsDoubles (DiadicOperator operator) {
+        switch (operator) {
+            case REMAINDER:
+            case EXPONENT:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static VectorOperators.Comparison comparison (DiadicOperator operator) {
+        switch (operator) {
+            case EQUALITY:      return EQ;
+            case NOT_EQUALS:    return NE;
+            case GREATER:       return GT;
+            case LOWER:         return LT;
+            case GREATER_EQUAL: return GE;
+            case LOWER_EQUAL:   return LE;
+            default:
+                throw new Error("[implementation bug] not a comparison: " + operator);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void run (
+            DiadicOperator operator, long[] a, long sa, long[] b, long sb, long[] out,
+            int from, int to)
+    {
+        LongVector va = a == null ? LongVector.broadcast(LONGS, sa) : null;
+        LongVector vb = b == null ? LongVector.broadcast(LONGS, sb) : null;
+        int bound = from + LONGS.loopBound(to - from);
+        int i = from;
+
+        for (; i < bound; i += LONGS.length()) {
+            LongVector x = a == null ? va : LongVector.fromArray(LONGS, a, i);
+            LongVector y = b == null ? vb : LongVector.fromArray(LONGS, b, i);
+            step(operator, x, y).intoArray(out, i);
+        }
+
+        if (i < to) {
+            VectorMask<Long> m = LONGS.indexInRange(i, to);
+            LongVector x = a == null ? va : LongVector.fromArray(LONGS, a, i, m);
+            LongVector y = b == null ? vb : LongVector.fromArray(LONGS, b, i, m);
+            step(operator, x, y).intoArray(out, i, m);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void run (
+            DiadicOperator operator, double[] a, double sa, double[] b, double sb, double[] out,
+            int from, int to)
+    {
+        DoubleVector va = a == null ? DoubleVector.broadcast(DOUBLES, sa) : null;
+        DoubleVector vb = b == null ? DoubleVector.broadcast(DOUBLES, sb) : null;
+        int bound = from + DOUBLES.loopBound(to - from);
+        int i = from;
+
+        for (; i < bound; i += DOUBLES.length()) {
+            DoubleVector x = a == null ? va : DoubleVector.fromArray(DOUBLES, a, i);
+            DoubleVector y = b == null ? vb : DoubleVector.fromArray(DOUBLES, b, i);
+            step(operator, x, y).intoArray(out, i);
+        }
+
+        if (i < to) {
+            VectorMask<Double> m = DOUBLES.indexInRange(i, to);
+            DoubleVector x = a == null ? va : DoubleVector.fromArray(DOUBLES, a, i, m);
+            DoubleVector y = b == null ? vb : DoubleVector.fromArray(DOUBLES, b, i, m);
+            step(operator, x, y).intoArray(out, i, m);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static VectorMask<Long> isTrue (LongVector x) {
+        return x.compare(NE, 0L);
+    }
+
+    private static VectorMask<Double> isTrue (DoubleVector x) {
+        return x.compare(NE, 0.0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static LongVector step (DiadicOperator operator, LongVector x, LongVector y)
+    {
+        switch (operator) {
+            case MULTIPLY: return x.mul(y);
+            case ADD:      return x.add(y);
+            case SUBTRACT: return x.sub(y);
+            case AND:      return LONG_ZERO.blend(LONG_ONE, isTrue(x).and(isTrue(y)));
+            case OR:       return LONG_ZERO.blend(LONG_ONE, isTrue(x).or(isTrue(y)));
+            default:       return LONG_ZERO.blend(LONG_ONE, x.compare(comparison(operator), y));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static DoubleVector step (DiadicOperator operator, DoubleVector x, DoubleVector y)
+    {
+        switch (operator) {
+            case MULTIPLY: return x.mul(y);
+            case DIVIDE:   return x.div(y);
+            case ADD:      return x.add(y);
+            case SUBTRACT: return x.sub(y);
+            case AND:      return DOUBLE_ZERO.blend(DOUBLE_ONE, isTrue(x).and(isTrue(y)));
+            case OR:       return DOUBLE_ZERO.blend(DOUBLE_ONE, isTrue(x).or(isTrue(y)));
+            default:       return DOUBLE_ZERO.blend(DOUBLE_ONE, x.compare(comparison(operator), y));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static long sum (long[] a, int from, int to)
+    {
+        LongVector acc = LONG_ZERO;
+        int bound = from + LONGS.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += LONGS.length())
+            acc = acc.add(LongVector.fromArray(LONGS, a, i));
+        if (i < to) // masked load: inactive lanes are 0
+            acc = acc.add(LongVector.fromArray(LONGS, a, i, LONGS.indexInRange(i, to)));
+        return acc.reduceLanes(ADD);
+    }
+
+    static double sum (double[] a, int from, int to)
+    {
+        DoubleVector acc = DOUBLE_ZERO;
+        int bound = from + DOUBLES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += DOUBLES.length())
+            acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i));
+        if (i < to)
+            acc = acc.add(DoubleVector.fromArray(DOUBLES, a, i, DOUBLES.indexInRange(i, to)));
+        return acc.reduceLanes(ADD);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static long product (long[] a, int from, int to)
+    {
+        LongVector acc = LONG_ONE;
+        int bound = from + LONGS.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += LONGS.length())
+            acc = acc.mul(LongVector.fromArray(LONGS, a, i));
+        if (i < to) { // inactive lanes keep their accumulated value
+            VectorMask<Long> m = LONGS.indexInRange(i, to);
+            acc = acc.lanewise(MUL, LongVector.fromArray(LONGS, a, i, m), m);
+        }
+        return acc.reduceLanes(MUL);
+    }
+
+    static double product (double[] a, int from, int to)
+    {
+        DoubleVector acc = DOUBLE_ONE;
+        int bound = from + DOUBLES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += DOUBLES.length())
+            acc = acc.mul(DoubleVector.fromArray(DOUBLES, a, i));
+        if (i < to) {
+            VectorMask<Double> m = DOUBLES.indexInRange(i, to);
+            acc = acc.lanewise(MUL, DoubleVector.fromArray(DOUBLES, a, i, m), m);
+        }
+        return acc.reduceLanes(MUL);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static boolean allPositive (long[] a, int from, int to)
+    {
+        int bound = from + LONGS.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += LONGS.length())
+            if (!LongVector.fromArray(LONGS, a, i).compare(GT, 0L).allTrue())
+                return false;
+        if (i < to) {
+            VectorMask<Long> m = LONGS.indexInRange(i, to);
+            return !m.andNot(LongVector.fromArray(LONGS, a, i, m).compare(GT, 0L)).anyTrue();
+        }
+        return true;
+    }
+
+    static boolean allPositive (double[] a, int from, int to)
+    {
+        int bound = from + DOUBLES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += DOUBLES.length())
+            if (!DoubleVector.fromArray(DOUBLES, a, i).compare(GT, 0.0).allTrue())
+                return false;
+        if (i < to) {
+            VectorMask<Double> m = DOUBLES.indexInRange(i, to);
+            return !m.andNot(DoubleVector.fromArray(DOUBLES, a, i, m).compare(GT, 0.0)).anyTrue();
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static boolean anyPositive (long[] a, int from, int to)
+    {
+        int bound = from + LONGS.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += LONGS.length())
+            if (LongVector.fromArray(LONGS, a, i).compare(GT, 0L).anyTrue())
+                return true;
+        if (i < to) {
+            VectorMask<Long> m = LONGS.indexInRange(i, to);
+            return LongVector.fromArray(LONGS, a, i, m).compare(GT, 0L).and(m).anyTrue();
+        }
+        return false;
+    }
+
+    static boolean anyPositive (double[] a, int from, int to)
+    {
+        int bound = from + DOUBLES.loopBound(to - from);
+        int i = from;
+        for (; i < bound; i += DOUBLES.length())
+            if (DoubleVector.fromArray(DOUBLES, a, i).compare(GT, 0.0).anyTrue())
+                return true;
+        if (i < to) {
+            VectorMask<Double> m = DOUBLES.indexInRange(i, to);
+            return DoubleVector.fromArray(DOUBLES, a, i, m).compare(GT, 0.0).and(m).anyTrue();
+        }
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,19 +1,47 @@
 import norswap.autumn.Autumn;
 import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
+import norswap.sigh.AnalysisTables;
 import norswap.sigh.SemanticAnalysis;
 import norswap.sigh.SighGrammar;
+import norswap.sigh.SighRunner;
+import norswap.sigh.SighRunner.Backend;
+import norswap.sigh.Sighc;
 import norswap.sigh.ast.SighNode;
 import norswap.sigh.bytecode.ByteArrayClassLoader;
 import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.sigh.bytecode.CodeCache;
 import norswap.sigh.bytecode.CompilationResult;
+import norswap.sigh.bytecode.JarPackager;
+import norswap.sigh.bytecode.LoadedProgram;
+import norswap.sigh.runtime.MemoTable;
 import norswap.uranium.Reactor;
 import norswap.utils.IO;
 import norswap.utils.visitors.Walker;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 import org.testng.annotations.Test;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarFile;
 
 import static norswap.utils.Util.cast;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
 
 @SuppressWarnings("FieldCanBeLocal")
 public class BytecodeTests
@@ -28,23 +56,7 @@ public class BytecodeTests
      */
     public void check (String input, String expected)
     {
-        SighGrammar grammar = new SighGrammar();
-        ParseOptions options = ParseOptions.builder().recordCallStack(true).get();
-        ParseResult parseResult = Autumn.parse(grammar.root, input, options);
-        if (!parseResult.fullMatch) throw new AssertionError(parseResult.toString());
-
-        SighNode tree = cast(parseResult.topValue());
-        Reactor reactor = new Reactor();
-        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
-        walker.walk(tree);
-        reactor.run();
-
-        if (!reactor.errors().isEmpty())
-            throw new AssertionError(reactor.reportErrors(Object::toString));
-
-        String className = "BytecodeTestsRun";
-        BytecodeCompiler compiler = new BytecodeCompiler(reactor);
-        CompilationResult result = compiler.compile(className, tree);
+        CompilationResult result = compile(input, 0);
 
         // using a new loader each time allows to overwrite the class every time.
         Class<?> mainClass = result.load(new ByteArrayClassLoader());
@@ -68,6 +80,35 @@ public class BytecodeTests
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Compiles the input program, with memoization if {@code memoCapacity} is non-zero (see {@link
+     * BytecodeCompiler#memoize}).
+     */
+    private CompilationResult compile (String input, int memoCapacity)
+    {
+        SighGrammar grammar = new SighGrammar();
+        ParseOptions options = ParseOptions.builder().recordCallStack(true).get();
+        ParseResult parseResult = Autumn.parse(grammar.root, input, options);
+        if (!parseResult.fullMatch) throw new AssertionError(parseResult.toString());
+
+        SighNode tree = cast(parseResult.topValue());
+        Reactor reactor = new Reactor();
+        Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
+        walker.walk(tree);
+        reactor.run();
+
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+
+        String className = "BytecodeTestsRun";
+        BytecodeCompiler compiler = new BytecodeCompiler(AnalysisTables.freeze(tree, reactor));
+        if (memoCapacity != 0)
+            compiler.memoize(memoCapacity);
+        return compiler.compile(className, tree);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Checks that the input <b>expression</b> can be converted to a string and printed, and that the printed
      * string corresponds to the {@code expected} string.
@@ -267,7 +308,7 @@ public class BytecodeTests
         checkExpr("3.0 - 2.0 % 3.0", "1.0");
     }
 
-  /*  @Test public void testBinariesIntOpArray(){
+    @Test public void testBinariesIntOpArray(){
         checkExpr("1 + [2]", "[3]");
         checkExpr("1 + [1, 2, 3]", "[2, 3, 4]");
         checkExpr("1 - [2]", "[-1]");
@@ -279,7 +320,81 @@ public class BytecodeTests
         checkExpr("6 % [2]", "[0]");
         checkExpr("3 % [1, 2, 3]", "[0, 1, 0]");
 
-    }*/
+    }
+
+    @Test public void testMonadicVerbs() {
+        checkExpr("! 3", "6");
+        checkExpr("+: 3", "6");
+        checkExpr("*: 1.5", "2.25");
+        checkExpr("+/ 2", "2");
+        checkExpr("# 2.0", "1.0");
+        checkExpr("&/ 2", "1");
+        checkExpr("|/ 0.0", "0.0");
+
+        checkExpr("! [1, 3, 5]", "[1, 6, 120]");
+        checkExpr("+: [1.0, 2.0]", "[2.0, 4.0]");
+        checkExpr("*: [1, 2, 3]", "[1, 4, 9]");
+        checkExpr("{: [1, 2, 3]", "3");
+        checkExpr("# [1, 2, 3]", "3");
+        checkExpr("# [1.0, 2.0]", "2");
+        checkExpr("+/ [1, 2, 3]", "6");
+        checkExpr("./ [1.0, 2.0, 3.0]", "6.0");
+        checkExpr("-/ [1, 2, 3]", "2");
+        checkExpr(":/ [8.0, 4.0, 2.0]", "4.0");
+        checkExpr("&/ [1, 0, 3]", "0");
+        checkExpr("|/ [1, 0, 3]", "1");
+        checkExpr("&/ [5]", "5");
+    }
+
+    @Test public void testForks() {
+        checkExpr("(+/ + {:) [1, 2, 3]", "9");
+        checkExpr("(! + !) [1, 3, 5]", "[2, 12, 240]");
+        checkExpr("(./ / {:) [1, 2, 3]", "2");
+        checkExpr("({: % -/) [1, 2, 3]", "1");
+        checkExpr("(./ + !) [1, 3, 5]", "[16, 21, 135]");
+        checkExpr("(+/ + {:) 2", "4");
+        checkExpr("(+/ + {:) [1.0, 2.0, 3.0]", "9.0");
+        checkExpr("(+/ / #) [1.0, 2.0, 3.0, 6.0]", "3.0");
+        checkExpr("(+/ > #) [1, 2]", "1");
+        checkExpr("(# + #) [1.5, 2.5]", "4");
+
+        checkExpr("[1, 2] (+ - *) [1, 2]", "[1, 0]");
+        checkExpr("[1, 2] (/ + %) [1, 2]", "[1, 1]");
+        checkExpr("1 (+ * +) 2", "9");
+        checkExpr("1.0 (/ + %) 2.0", "1.5");
+        checkExpr("[1, 2] (+ <> *) 2", "[3, 4, 2, 4]");
+        checkExpr("2 (+ * -) 1.5", "1.75");
+
+        check("var x: Int[] = [1, 2, 3]; var y: Float = (+/ / #) x; print(\"\" + y)", "2.0");
+    }
+
+    @Test public void testArrayOperators() {
+        checkExpr("[1, 2, 3] + [4, 5, 6]", "[5, 7, 9]");
+        checkExpr("[1, 2, 3] * 2", "[2, 4, 6]");
+        checkExpr("[1.0, 2.0] - [0.5, 0.5]", "[0.5, 1.5]");
+        checkExpr("[1.0, 2.0] / 2.0", "[0.5, 1.0]");
+        checkExpr("[1, 2] + [0.5, 0.5]", "[1.5, 2.5]");
+        checkExpr("[1.5, 2.5] * [2, 2]", "[3.0, 5.0]");
+        checkExpr("1 + [0.5, 1.5]", "[1.5, 2.5]");
+        checkExpr("[1, 2] * 1.5", "[1.5, 3.0]");
+        checkExpr("[1, 2, 3] > 1", "[0, 1, 1]");
+        checkExpr("[1.0, 2.0] == [1.0, 3.0]", "[1.0, 0.0]");
+        checkExpr("[2, 3] ^ 2", "[4, 9]");
+        checkExpr("[1, 0] && [1, 1]", "[1, 0]");
+
+        checkExpr("[1, 2] <> [3]", "[1, 2, 3]");
+        checkExpr("[1, 2] <> 3", "[1, 2, 3]");
+        checkExpr("1 <> [2.0]", "[1.0, 2.0]");
+        checkExpr("[1] <> [2.5]", "[1.0, 2.5]");
+        checkExpr("1 <> 2", "[1, 2]");
+        checkExpr("1.5 <> 2", "[1.5, 2.0]");
+
+        check("var x: Int[] = [1, 2]; x = x * x + 1; print(\"\" + x)", "[2, 6]");
+        check("if (2) print(\"a\")", "a");
+        check("if (0.0) print(\"a\") else print(\"b\")", "b");
+        check("if ([1, 2][1] > 1) print(\"a\") else print(\"b\")", "a");
+        check("var x: Int = 0; while (x < 3) { x = x + 1 } print(\"\" + x)", "3");
+    }
 /*
     @Test public void testBinariesDoubleOpArray(){
 
@@ -377,4 +492,441 @@ public class BytecodeTests
         checkExpr("true || print(\"x\") == \"y\"", "true");
         checkExpr("false && print(\"x\") == \"y\"", "false"); */
     }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testCodeCache() throws IOException {
+        Path dir = Files.createTempDirectory("sigh-cache");
+        CodeCache cache = new CodeCache(dir);
+        SighRunner runner = new SighRunner(Backend.BYTECODE, cache);
+        String program = makePair + "return x.x + 41";
+
+        // miss: compiled and stored, with the struct class
+        assertEquals(runner.run(program), 42L);
+        CompilationResult cached = cache.get("SighProgram", program);
+        assertNotNull(cached);
+        assertEquals(cached.structures.size(), 1);
+
+        // hit: the class is reused
+        assertEquals(runner.run(program), 42L);
+        assertEquals(new SighRunner(Backend.BYTECODE, new CodeCache(dir)).run(program), 42L);
+
+        // other source, or other class name: miss
+        assertNull(cache.get("SighProgram", program + " "));
+        assertNull(cache.get("OtherProgram", program));
+
+        // a hit does not parse the source at all
+        cache.put("SighProgram", "not a program", cached);
+        assertEquals(runner.run("not a program"), 42L);
+
+        // truncated entry: miss, then replaced
+        Path entry = cache.entry("SighProgram", program);
+        Files.write(entry, new byte[] { 0x51 });
+        assertNull(cache.get("SighProgram", program));
+        assertEquals(runner.run(program), 42L);
+        assertNotNull(cache.get("SighProgram", program));
+
+        // corrupted entry: miss, and deleted
+        byte[] bytes = Files.readAllBytes(entry);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(entry, bytes);
+        assertNull(cache.get("SighProgram", program));
+        assertFalse(Files.exists(entry));
+        Files.write(entry, Arrays.copyOf(bytes, bytes.length / 2));
+        assertNull(cache.get("SighProgram", program));
+        assertFalse(Files.exists(entry));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testJarPackager() throws Exception {
+        String program = makePair + "var a: Int[] = [1, 2] * 3 ; print(\"\" + x.x + \":\" + +/ a)";
+        CompilationResult result = Sighc.compile("<test>", program, "PackagedProgram");
+        assertNotNull(result);
+
+        Map<String, byte[]> classes = JarPackager.classes(result);
+        assertTrue(classes.containsKey("PackagedProgram"));
+        assertTrue(classes.containsKey("Pair"));
+        assertTrue(classes.containsKey("norswap/sigh/bytecode/SighRuntime"));
+        for (String name: classes.keySet()) {
+            assertFalse(name.contains("objectweb"));
+            assertFalse(name.startsWith("norswap/autumn") || name.startsWith("norswap/uranium"));
+            assertFalse(name.startsWith("norswap/sigh/interpreter"));
+        }
+        assertFalse(classes.containsKey("norswap/sigh/SighGrammar"));
+        assertFalse(classes.containsKey("norswap/sigh/bytecode/BytecodeCompiler"));
+
+        Path jar = Files.createTempFile("sighc", ".jar");
+        JarPackager.write(result, jar);
+        try (JarFile file = new JarFile(jar.toFile())) {
+            assertEquals(file.getManifest().getMainAttributes().getValue("Main-Class"),
+                "PackagedProgram");
+        }
+
+        // no parent: only the jar (and the platform) is visible
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { jar.toUri().toURL() }, null)) {
+            Class<?> mainClass = loader.loadClass("PackagedProgram");
+            String out = IO.captureStdout(() -> {
+                CompilationResult.callMain(mainClass);
+                return null;
+            }).a;
+            assertEquals(out, "1:9\n");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testLoadedPrograms() {
+        // two programs with the same class names, loaded at the same time
+        CompilationResult first = Sighc.compile("<a>", makePair + "return x.x", "Program");
+        CompilationResult second = Sighc.compile("<b>", makePair + "return x.y", "Program");
+        assertNotNull(first);
+        assertNotNull(second);
+
+        LoadedProgram a = first.loadProgram();
+        LoadedProgram b = second.loadProgram();
+        assertEquals(a.run(), 1L);
+        assertEquals(b.run(), 2.0);
+        assertEquals(a.classCount, 2);
+        assertEquals(a.bytecodeSize,
+            (long) first.mainClass.bytes().length + first.structures.get(0).bytes().length);
+        assertTrue(a.metaspaceSize >= -1);
+
+        WeakReference<ClassLoader> loader = new WeakReference<>(a.mainClass().getClassLoader());
+        a.close();
+        assertTrue(a.isClosed());
+        assertThrows(IllegalStateException.class, a::run);
+        assertEquals(b.run(), 2.0);
+        b.close();
+
+        // once closed (and unreachable), the classes can be unloaded
+        for (int i = 0; i < 20 && loader.get() != null; ++i)
+            System.gc();
+        assertNull(loader.get());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testParallelCompilation() {
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < 50; ++i) {
+            program.append("struct S").append(i).append(" { var x: Int }\n");
+            program.append("fun f").append(i).append(" (x: Int): Int { ")
+                .append("fun g").append(i).append(" (y: Int): Int { return y * ").append(i)
+                .append(" } return g").append(i).append("(x) + $S").append(i).append("(x).x }\n");
+        }
+        program.append("var sum: Int = 0\n");
+        for (int i = 0; i < 50; ++i)
+            program.append("sum = sum + f").append(i).append("(2)\n");
+        program.append("print(\"\" + sum)");
+
+        SighNode tree = cast(Autumn.parse(new SighGrammar().root, program.toString(),
+            ParseOptions.builder().get()).topValue());
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(tree);
+        reactor.run();
+        assertTrue(reactor.errors().isEmpty());
+        AnalysisTables tables = AnalysisTables.freeze(tree, reactor);
+
+        CompilationResult sequential =
+            new BytecodeCompiler(tables).compile("ParallelProgram", tree);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        CompilationResult parallel;
+        try {
+            parallel = new BytecodeCompiler(tables).compile("ParallelProgram", tree, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        // identical output
+        assertEquals(parallel.mainClass.bytes(), sequential.mainClass.bytes());
+        assertEquals(parallel.structures.size(), 50);
+        for (int i = 0; i < 50; ++i) {
+            assertEquals(parallel.structures.get(i).binaryName(), "S" + i);
+            assertEquals(parallel.structures.get(i).bytes(), sequential.structures.get(i).bytes());
+        }
+
+        // sum of 2 * (i + 1) for i in [0, 50)
+        String out = IO.captureStdout(() -> parallel.loadProgram().run()).a;
+        assertEquals(out, "2550\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testStackMapFrames() {
+        // variables declared in branches and loops, dead code after returns, nested statements
+        // ending at the same offset, comparisons in expressions
+        String f =
+            "fun f (x: Int): Int {" +
+            "  if x > 10 {" +
+            "    var y: Int = x * 2" +
+            "    if y > 30 { return y } else { return 0 - y }" +
+            "  }" +
+            "  var i: Int = 0" +
+            "  while i < x {" +
+            "    var z: Float = 1.5" +
+            "    i = i + 1" +
+            "    if i == 3 { if z > 1 { return i } }" +
+            "  }" +
+            "  return i + 100 " +
+            "}";
+        check(f + "print(\"\" + f(20) + \" \" + f(12) + \" \" + f(5) + \" \" + f(2))",
+            "40 -24 3 102");
+
+        check("var s: String = \"a\" ; var n: Int = 0 ;" +
+              "while n < 3 { if s == s { n = n + 1 } } ;" +
+              "print(\"\" + n) ; print(\"\" + (s != s)) ; print(\"\" + (1.5 >= 2)) ;" +
+              "print(\"\" + (2 <= 2)) ; print(\"\" + (1 > 0.5)) ; print(\"\" + (3 == 3.0))",
+            "3\n0\n0.0\n1\n1.0\n1.0");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testLargePrograms() throws Exception {
+        // top-level code much larger than the 64KB limit, and a big constant table
+        int tableSize = 100_000;
+        StringBuilder program = new StringBuilder("var sum: Int = 0\n");
+        program.append("var table: Int[] = [");
+        for (int i = 0; i < tableSize; ++i)
+            program.append(i == 0 ? "" : ", ").append(i * 3 - 50_000);
+        program.append("]\n");
+        for (int i = 0; i < 4000; ++i)
+            program.append("var v").append(i).append(": Int = ").append(i).append("\n")
+                .append("sum = sum + v").append(i).append("\n");
+        program.append("var i: Int = 0\n")
+            .append("while i < #table { sum = sum + table[i] ; i = i + 1 }\n")
+            .append("print(\"\" + v0 + \" \" + v3999 + \" \" + sum)\n")
+            .append("return sum\n")
+            .append("print(\"unreachable\")\n");
+
+        long sum = 0;
+        for (int i = 0; i < 4000; ++i) sum += i;
+        for (int i = 0; i < tableSize; ++i) sum += i * 3 - 50_000;
+
+        SighNode tree = cast(Autumn.parse(new SighGrammar().root, program.toString(),
+            ParseOptions.builder().get()).topValue());
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(tree);
+        reactor.run();
+        assertTrue(reactor.errors().isEmpty());
+        CompilationResult result = new BytecodeCompiler(AnalysisTables.freeze(tree, reactor))
+            .compile("LargeProgram", tree);
+
+        try (LoadedProgram loaded = result.loadProgram()) {
+            loaded.mainClass().getMethod("run$1"); // split into chunks
+            long expected = sum;
+            Object[] value = new Object[1];
+            String out = IO.captureStdout(() -> value[0] = loaded.run()).a;
+            assertEquals(out, "0 3999 " + expected + "\n");
+            assertEquals(value[0], expected);
+        }
+
+        // packed literals with extreme values, and Ints in Floats
+        check("var a: Int[] = [0, -1, 1, 63, 64, -64, -65, 9223372036854775807," +
+                "-9223372036854775808, 2, 3, 4, 5, 6, 7, 8, 9] ; print(\"\" + a)",
+            "[0, -1, 1, 63, 64, -64, -65, 9223372036854775807, -9223372036854775808, " +
+            "2, 3, 4, 5, 6, 7, 8, 9]");
+        check("var a: Float[] = [0.5, -1.25, 3.0, 0.1, 1000000.0, 0.0, -0.0, 2.0, 2.0, 2.0, 2.0," +
+                "2.0, 2.0, 2.0, 2.0, 2.0, 123456.789] ; print(\"\" + a)",
+            "[0.5, -1.25, 3.0, 0.1, 1000000.0, 0.0, -0.0, 2.0, 2.0, 2.0, 2.0, " +
+            "2.0, 2.0, 2.0, 2.0, 2.0, 123456.789]");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testDebugInfo() {
+        String program =
+            "fun f (x: Int): Int {\n" +
+            "    var y: Int = x - 1\n" +
+            "    return x / y\n" +
+            "}\n" +
+            "print(\"\" + f(1))\n";
+
+        CompilationResult plain = Sighc.compile("test.si", program, "DebugProgram");
+        CompilationResult debug = Sighc.compile("dir/test.si", program, "DebugProgram", true);
+        assertTrue(debug.mainClass.bytes().length > plain.mainClass.bytes().length);
+
+        StackTraceElement plainFrame = frameOf("f", plain);
+        assertNull(plainFrame.getFileName());
+        assertTrue(plainFrame.getLineNumber() < 0);
+
+        StackTraceElement debugFrame = frameOf("f", debug);
+        assertEquals(debugFrame.getFileName(), "test.si");
+        assertEquals(debugFrame.getLineNumber(), 3);
+        assertEquals(frameOf("run", debug).getLineNumber(), 5);
+
+        ClassNode plainClass = new ClassNode();
+        new ClassReader(plain.mainClass.bytes()).accept(plainClass, 0);
+        ClassNode debugClass = new ClassNode();
+        new ClassReader(debug.mainClass.bytes()).accept(debugClass, 0);
+        for (MethodNode method: plainClass.methods)
+            assertTrue(method.localVariables == null || method.localVariables.isEmpty());
+        for (MethodNode method: debugClass.methods) {
+            if (!method.name.equals("f")) continue;
+            // entries are emitted when the scope of the variables ends
+            assertEquals(method.localVariables.size(), 2);
+            assertEquals(method.localVariables.get(0).name, "y");
+            assertEquals(method.localVariables.get(0).index, 2);
+            assertEquals(method.localVariables.get(1).name, "x");
+            assertEquals(method.localVariables.get(1).desc, "J");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testColumnarStructs() {
+        String pairs =
+            "columnar struct P { var x: Int ; var y: Float }" +
+            "var a: P[] = [$P(1, 0.5), $P(2, 1.5), $P(3, 2.5)] ;";
+
+        check(pairs + "print(\"\" + a[1].x) ; print(\"\" + a[2].y) ; print(\"\" + a.length)",
+            "2\n2.5\n3");
+        check(pairs + "a[1].y = 4 ; a[2].x = a[1].x ; print(\"\" + a[1].y) ; print(\"\" + a[2].x)",
+            "4.0\n2");
+
+        // items are stored by value
+        check(pairs + "var p: P = a[0] ; p.x = 10 ; print(\"\" + a[0].x)", "1");
+        check(pairs + "var p: P = $P(4, 4.5) ; a[0] = p ; p.x = 10 ;" +
+                "print(\"\" + a[0].x) ; print(\"\" + a[0].y)",
+            "4\n4.5");
+
+        check(pairs +
+            "fun sum (b: P[]): Int {" +
+            "    var s: Int = 0 ; var i: Int = 0" +
+            "    while i < b.length { s = s + b[i].x ; i = i + 1 }" +
+            "    return s" +
+            "}" +
+            "print(\"\" + sum(a))",
+            "6");
+
+        // one array per field
+        CompilationResult result = Sighc.compile("test.si",
+            pairs + "columnar struct E {} var e: E[] = [$E()]", "ColumnarProgram");
+        ClassNode columns = new ClassNode();
+        new ClassReader(result.structures.get(1).bytes()).accept(columns, 0);
+        assertEquals(columns.name, "P$Columns");
+        assertEquals(columns.fields.size(), 3);
+        assertEquals(columns.fields.get(1).desc, "[J");
+        assertEquals(columns.fields.get(2).desc, "[D");
+        assertEquals(result.structures.get(3).binaryName(), "E$Columns");
+
+        assertTrue(thrownBy(pairs + "a[0] = null") instanceof NullPointerException);
+        assertTrue(thrownBy("columnar struct E {} var e: E[] = [$E()] ; var f: E = e[1]")
+            instanceof ArrayIndexOutOfBoundsException);
+        assertTrue(thrownBy("columnar struct E {} var e: E[] = [$E()] ; var f: E = e[-1]")
+            instanceof ArrayIndexOutOfBoundsException);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testTailCalls() {
+        String sum =
+            "fun sum (n: Int, acc: Int): Int {" +
+            "    if n == 0 { return acc }" +
+            "    return sum(n - 1, acc + n)" +
+            "}";
+        check(sum + "print(\"\" + sum(1000000, 0))", "500000500000");
+
+        // arguments are all evaluated before the parameters are assigned
+        check("fun gcd (a: Int, b: Int): Int { if b == 0 { return a } return gcd(b, a % b) }" +
+            "print(\"\" + gcd(1071, 462))", "21");
+
+        // from inside a loop declaring variables, with an implicit conversion
+        check("fun half (x: Float, n: Int): Float {" +
+                "    while n > 0 {" +
+                "        var y: Float = x / 2" +
+                "        if y < 1 { return y }" +
+                "        return half(y, n - 1)" +
+                "    }" +
+                "    return x" +
+                "}" +
+                "print(\"\" + half(100, 3)) ; print(\"\" + half(100, 10))",
+            "12.5\n0.78125");
+
+        // the call is a jump, also when debug information is emitted
+        CompilationResult result = Sighc.compile("test.si",
+            sum + "var s: Int = sum(1000000, 0)", "TailCallProgram", true);
+        CompilationResult.callMain(result.load(new ByteArrayClassLoader()));
+        ClassNode main = new ClassNode();
+        new ClassReader(result.mainClass.bytes()).accept(main, 0);
+        for (MethodNode method: main.methods)
+            if (method.name.equals("sum"))
+                for (AbstractInsnNode insn: method.instructions)
+                    assertFalse(insn instanceof MethodInsnNode);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testMemoization() {
+        String input =
+            "fun fib (n: Int): Int { if n < 2 { return n } return fib(n - 1) + fib(n - 2) }" +
+            "fun paths (x: Int, y: Float): Int {" +
+            "    if x == 0 { return 1 }" +
+            "    if y < 1 { return 1 }" +
+            "    return paths(x - 1, y) + paths(x, y - 1)" +
+            "}" +
+            "fun shown (n: Int): Int { print(\"\" + n) ; return n }" +
+            "var total: Int = fib(80) - paths(20, 20) ;" +
+            "return total";
+
+        try (LoadedProgram program = compile(input, 1000).loadProgram()) {
+            assertEquals(program.run(), 23416728348467685L - 137846528820L);
+            MemoTable fib = program.memoTable("fib");
+            assertEquals(fib.size(), 81);
+            assertEquals(fib.misses(), 81L);
+            assertEquals(fib.hits(), 78L);
+            assertEquals(program.memoTable("paths").size(), 21 * 21 - 1);
+            assertNull(program.memoTable("shown"));
+
+            // the tables belong to the loaded program
+            assertEquals(program.run(), 23416728348467685L - 137846528820L);
+            assertEquals(fib.misses(), 81L);
+            assertEquals(fib.hits(), 79L);
+        }
+
+        try (LoadedProgram program = compile(input, 30).loadProgram()) {
+            assertEquals(program.run(), 23416728348467685L - 137846528820L);
+            assertEquals(program.memoTable("paths").size(), 30);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program, which must throw, and returns the exception thrown by the program.
+     */
+    private Throwable thrownBy (String input)
+    {
+        try {
+            check(input, null);
+        } catch (Throwable t) {
+            while (t.getCause() != null)
+                t = t.getCause();
+            return t;
+        }
+        throw new AssertionError("no exception thrown");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the program, which must throw, and returns the frame of the given method of the main
+     * class in the stack trace.
+     */
+    private static StackTraceElement frameOf (String method, CompilationResult result)
+    {
+        Throwable thrown = null;
+        try (LoadedProgram program = result.loadProgram()) {
+            program.run();
+        } catch (Throwable t) {
+            thrown = t;
+        }
+        assertNotNull(thrown);
+        while (thrown.getCause() != null)
+            thrown = thrown.getCause();
+        for (StackTraceElement frame: thrown.getStackTrace())
+            if (frame.getClassName().equals("DebugProgram") && frame.getMethodName().equals(method))
+                return frame;
+        throw new AssertionError("no frame for " + method);
+    }
 }
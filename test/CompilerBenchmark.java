@@ -0,0 +1,113 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.sigh.AnalysisTables;
+import norswap.sigh.SemanticAnalysis;
+import norswap.sigh.SighGrammar;
+import norswap.sigh.ast.SighNode;
+import norswap.sigh.bytecode.BytecodeCompiler;
+import norswap.uranium.Reactor;
+import java.util.Arrays;
+
+import static norswap.utils.Util.cast;
+
+/**
+ * Compares the time it takes to compile a large generated program to bytecode when the compiler
+ * emits the stack map frames, and when ASM computes them ({@code ClassWriter.COMPUTE_FRAMES}).
+ *
+ * <p>Usage: {@code ./gradlew compilerBenchmark [--args="<functions> <iterations>"]}. Parsing and
+ * semantic analysis are done once, only the compilation is timed. The median of the iterations is
+ * reported, after as many warmup iterations.
+ */
+public final class CompilerBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public static void main (String[] args)
+    {
+        int functions  = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        SighNode tree = cast(Autumn.parse(new SighGrammar().root, program(functions),
+            ParseOptions.builder().get()).topValue());
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(tree);
+        reactor.run();
+        if (!reactor.errors().isEmpty())
+            throw new AssertionError(reactor.reportErrors(Object::toString));
+        AnalysisTables tables = AnalysisTables.freeze(tree, reactor);
+
+        BytecodeCompiler emitted  = new BytecodeCompiler(tables, false);
+        BytecodeCompiler computed = new BytecodeCompiler(tables, true);
+
+        // interleaved, so that both are equally affected by JIT compilation and GC
+        double[] emittedTimes  = new double[iterations];
+        double[] computedTimes = new double[iterations];
+        for (int i = -iterations; i < iterations; ++i) {
+            double e = time(emitted, tree);
+            double c = time(computed, tree);
+            if (i < 0) continue; // warmup
+            emittedTimes[i] = e;
+            computedTimes[i] = c;
+        }
+
+        double e = median(emittedTimes);
+        double c = median(computedTimes);
+        System.out.printf("%d functions, median of %d iterations%n", functions, iterations);
+        System.out.printf("emitted frames:  %8.2f ms%n", e);
+        System.out.printf("computed frames: %8.2f ms%n", c);
+        System.out.printf("speedup:         %8.2fx%n", c / e);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static double time (BytecodeCompiler compiler, SighNode tree)
+    {
+        long start = System.nanoTime();
+        compiler.compile("BenchmarkProgram", tree);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static double median (double[] times)
+    {
+        double[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A program with many functions with nested loops and conditionals, declaring variables of
+     * various types along the way: this is where computing frames is expensive, since it requires
+     * a data flow analysis of the whole method.
+     */
+    private static String program (int functions)
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < functions; ++i) {
+            b.append("fun f").append(i).append(" (n: Int, s: String): Int {\n")
+             .append("  var total: Int = 0\n")
+             .append("  var i: Int = 0\n")
+             .append("  while i < n {\n")
+             .append("    var x: Float = 0.5 * i\n")
+             .append("    var j: Int = 0\n")
+             .append("    while j < i {\n")
+             .append("      var a: Int[] = [i, j, ").append(i).append("]\n")
+             .append("      if (j % 2) == 0 { total = total + a[2] }\n")
+             .append("      else { if x > 3 { total = total - j } else { total = total + 1 } }\n")
+             .append("      j = j + 1\n")
+             .append("    }\n")
+             .append("    if s == s { var t: String = s + i ; if i > 5 { total = total + 2 } }\n")
+             .append("    i = i + 1\n")
+             .append("  }\n")
+             .append("  if total > 1000 { return total } else { return 0 - total }\n")
+             .append("}\n");
+        }
+        b.append("print(\"\" + f0(10, \"x\"))\n");
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -106,6 +106,10 @@ public class GrammarTests extends AutumnTestFixture {
                 new FieldDeclarationNode(null, "x", new SimpleTypeNode(null, "Int")),
                 new FieldDeclarationNode(null, "y", new SimpleTypeNode(null, "Int")))));
 
+        successExpect("columnar struct P { var x: Int }",
+            new StructDeclarationNode(null, true, "P", asList(
+                new FieldDeclarationNode(null, "x", new SimpleTypeNode(null, "Int")))));
+
         successExpect("fun f (x: Int): Int { return 1 }",
             new FunDeclarationNode(null, "f",
                 asList(new ParameterNode(null, "x", new SimpleTypeNode(null, "Int"))),
@@ -3,11 +3,24 @@ import norswap.autumn.Grammar;
 import norswap.autumn.Grammar.rule;
 import norswap.autumn.ParseResult;
 import norswap.autumn.positions.LineMapString;
+import norswap.sigh.AnalysisTables;
 import norswap.sigh.SemanticAnalysis;
 import norswap.sigh.SighGrammar;
+import norswap.sigh.SighRunner.Backend;
+import norswap.sigh.ast.FunDeclarationNode;
+import norswap.sigh.ast.RootNode;
 import norswap.sigh.ast.SighNode;
+import norswap.sigh.ast.StatementNode;
+import norswap.sigh.interpreter.ExecutorCompiler;
 import norswap.sigh.interpreter.Interpreter;
+import norswap.sigh.interpreter.InterpreterException;
 import norswap.sigh.interpreter.Null;
+import norswap.sigh.interpreter.Struct;
+import norswap.sigh.interpreter.Tiering;
+import norswap.sigh.runtime.ArrayKernels;
+import norswap.sigh.runtime.ArrayKernels.FloatReduction;
+import norswap.sigh.runtime.MemoTable;
+import norswap.sigh.runtime.Parallel;
 import norswap.uranium.Reactor;
 import norswap.uranium.SemanticError;
 import norswap.utils.IO;
@@ -16,10 +29,15 @@ import norswap.utils.data.wrappers.Pair;
 import norswap.utils.visitors.Walker;
 import org.testng.annotations.Test;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
 
 public final class InterpreterTests extends TestFixture {
 
@@ -53,7 +71,27 @@ public final class InterpreterTests extends TestFixture {
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The backends that support the whole language. With {@link Backend#TIERED}, functions are
+     * compiled synchronously after their first call, so that the next calls run the compiled code.
+     */
+    private static final Backend[] BACKENDS =
+        { Backend.INTERPRETER, Backend.TIERED, Backend.EXECUTOR_TREE };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Checks the program with each of the {@link #BACKENDS}.
+     */
     private void check (rule rule, String input, Object expectedReturn, String expectedOutput) {
+        for (Backend backend: BACKENDS)
+            check(rule, input, expectedReturn, expectedOutput, backend);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void check (rule rule, String input, Object expectedReturn, String expectedOutput,
+                        Backend backend) {
         // TODO
         // (1) write proper parsing tests
         // (2) write some kind of automated runner, and use it here
@@ -61,10 +99,22 @@ public final class InterpreterTests extends TestFixture {
         autumnFixture.rule = rule;
         ParseResult parseResult = autumnFixture.success(input);
         SighNode root = parseResult.topValue();
+        AnalysisTables tables = analyze(root, input);
+        Pair<String, Object> result = IO.captureStdout(() -> run(root, tables, backend));
+        Object actual = result.b instanceof Struct ? ((Struct) result.b).toMap() : result.b;
+        assertEquals(actual, expectedReturn);
+        if (expectedOutput != null) assertEquals(result.a, expectedOutput);
+    }
 
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs semantic analysis on the tree parsed from {@code input}, failing if there are errors.
+     */
+    private AnalysisTables analyze (SighNode root, String input)
+    {
         Reactor reactor = new Reactor();
         Walker<SighNode> walker = SemanticAnalysis.createWalker(reactor);
-        Interpreter interpreter = new Interpreter(reactor);
         walker.walk(root);
         reactor.run();
         Set<SemanticError> errors = reactor.errors();
@@ -79,9 +129,43 @@ public final class InterpreterTests extends TestFixture {
             throw new AssertionError(report);
         }
 
-        Pair<String, Object> result = IO.captureStdout(() -> interpreter.interpret(root));
-        assertEquals(result.b, expectedReturn);
-        if (expectedOutput != null) assertEquals(result.a, expectedOutput);
+        return AnalysisTables.freeze(root, reactor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testFreezeTwice ()
+    {
+        autumnFixture.rule = grammar.root;
+        SighNode root = autumnFixture.success("return 1").topValue();
+        Reactor reactor = new Reactor();
+        SemanticAnalysis.createWalker(reactor).walk(root);
+        reactor.run();
+        AnalysisTables first = AnalysisTables.freeze(root, reactor);
+        AnalysisTables second = AnalysisTables.freeze(root, reactor);
+        // freezing the tree again must not invalidate the first tables
+        assertEquals(new Interpreter(first).interpret(root), 1L);
+        assertEquals(new Interpreter(second).interpret(root), 1L);
+        SighNode other = autumnFixture.success("return 2").topValue();
+        assertThrows(IllegalArgumentException.class, () -> first.type(other));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Object run (SighNode root, AnalysisTables tables, Backend backend)
+    {
+        switch (backend) {
+            case INTERPRETER:
+                return new Interpreter(tables).interpret(root);
+            case EXECUTOR_TREE:
+                return new ExecutorCompiler(tables).compile((RootNode) root).run();
+            case TIERED:
+                Tiering tiering = new Tiering(tables, 1, Runnable::run);
+                return new Interpreter(tables, tiering).interpret(root);
+            default:
+                throw new Error("unknown backend: " + backend);
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -101,7 +185,9 @@ public final class InterpreterTests extends TestFixture {
     // ---------------------------------------------------------------------------------------------
 
     private void checkThrows (String input, Class<? extends Throwable> expected) {
-        assertThrows(expected, () -> check(input, null));
+        assertNotNull(rule, "You forgot to initialize the rule field.");
+        for (Backend backend: BACKENDS)
+            assertThrows(expected, () -> check(rule, input, null, null, backend));
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -112,7 +198,7 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("42.0", 42.0d);
         checkExpr("\"hello\"", "hello");
         checkExpr("(42)", 42L);
-        checkExpr("[1, 2, 3]", new Object[]{1L, 2L, 3L});
+        checkExpr("[1, 2, 3]", new long[]{1L, 2L, 3L});
         checkExpr("null", Null.INSTANCE);
 
         //todo fix this
@@ -135,8 +221,8 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("3 % 2", 1L);
         checkExpr("2 ^ 3", 8L);
         checkExpr("3 ^ 2", 9L);
-        checkExpr("2 <> 3", new Object[]{2L, 3L});
-        checkExpr("3 <> 2", new Object[]{3L, 2L});
+        checkExpr("2 <> 3", new long[]{2L, 3L});
+        checkExpr("3 <> 2", new long[]{3L, 2L});
 
         checkExpr("1.0 + 2.0", 3.0d);
         checkExpr("2.0 - 1.0", 1.0d);
@@ -147,8 +233,8 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("3.0 % 2.0", 1.0d);
         checkExpr("2.0 ^ 3.0", 8.0d);
         checkExpr("3.0 ^ 2.0", 9.0d);
-        checkExpr("2.0 <> 3.0", new Object[]{2d, 3d});
-        checkExpr("3.0 <> 2.0", new Object[]{3d, 2d});
+        checkExpr("2.0 <> 3.0", new double[]{2d, 3d});
+        checkExpr("3.0 <> 2.0", new double[]{3d, 2d});
 
         checkExpr("1 + 2.0", 3.0d);
         checkExpr("2 - 1.0", 1.0d);
@@ -159,8 +245,8 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("3 % 2.0", 1.0d);
         checkExpr("2 ^ 3.0", 8d);
         checkExpr("3 ^ 2.0", 9d);
-        checkExpr("2 <> 3.0", new Object[]{2d, 3d});
-        checkExpr("3 <> 2.0", new Object[]{3d, 2d});
+        checkExpr("2 <> 3.0", new double[]{2d, 3d});
+        checkExpr("3 <> 2.0", new double[]{3d, 2d});
 
         checkExpr("1.0 + 2", 3.0d);
         checkExpr("2.0 - 1", 1.0d);
@@ -171,8 +257,8 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("3.0 % 2", 1.0d);
         checkExpr("2.0 ^ 3", 8d);
         checkExpr("3.0 ^ 2", 9d);
-        checkExpr("2.0 <> 3", new Object[]{2d, 3d});
-        checkExpr("3.0 <> 2", new Object[]{3d, 2d});
+        checkExpr("2.0 <> 3", new double[]{2d, 3d});
+        checkExpr("3.0 <> 2", new double[]{3d, 2d});
     }
 
 
@@ -232,6 +318,21 @@ public final class InterpreterTests extends TestFixture {
             point);
 
         check("var str: String = null; return print(str + 1)", "null1", "null1\n");
+
+        check(
+            "fun fact (n: Int): Int { if (n <= 1) return 1 else return n * fact(n - 1) } " +
+                "return fact(5)",
+            120L);
+
+        check(
+            "var base: Int = 10;" +
+                "fun outer (a: Int): Int {" +
+                "    var b: Int = a + 1;" +
+                "    fun inner (c: Int): Int { return base + c }" +
+                "    { var b: Int = 100; a = a + b }" +
+                "    return inner(a + b) }" +
+                "return outer(1)",
+            113L);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -253,6 +354,23 @@ public final class InterpreterTests extends TestFixture {
         checkThrows("var array: Int[] = null; return array.length", NullPointerException.class);
 
         check("var x: Int[] = [0, 1]; x[0] = 3; return x[0]", 3L);
+        check("var x: Float[] = [0, 1]; x[0] = 3; return x", new double[]{3d, 1d});
+        check("var x: Float[] = [0.5, 1]; return x", new double[]{0.5d, 1d});
+
+        // Int[] values are converted when bound to Float[] parameters, fields and return values
+        check("fun f (a: Float[]): Float { a[0] = 1.5 ; return a[0] } return f([1, 2])", 1.5);
+        check("fun g (a: Float[], n: Int): Float {" +
+                "    if n == 0 { a[0] = 0.5 ; return a[0] }" +
+                "    return g([1, 2], n - 1)" +
+                "}" +
+                "return g([1.5], 2)",
+            0.5);
+        check("struct S { var a: Float[] } var s: S = $S([1, 2]); s.a[0] = 1.5; return s.a",
+            new double[]{1.5d, 2d});
+        check("fun h (): Float[] { return [1, 2] } return h()", new double[]{1d, 2d});
+        check("var x: String[] = [\"a\", \"b\"]; x[1] = \"c\"; return x",
+            new Object[]{"a", "c"});
+        check("var x: Int[][] = [[1], [2, 3]]; return x[1][1]", 3L);
         checkThrows("var x: Int[] = []; x[0] = 3; return x[0]",
             ArrayIndexOutOfBoundsException.class);
         checkThrows("var x: Int[] = null; x[0] = 3",
@@ -281,6 +399,62 @@ public final class InterpreterTests extends TestFixture {
                 "var p: P = null;" +
                 "p.y = 42",
             NullPointerException.class);
+        // fields are stored in declaration order, and shared by aliases
+        check(
+            "struct Node { var value: Int; var name: String; var next: Node }" +
+                "var a: Node = $Node(1, \"a\", null);" +
+                "var b: Node = $Node(2, \"b\", a);" +
+                "b.next.value = 7;" +
+                "return a.value + b.value",
+            9L);
+
+        check("struct Q { var z: Int; var a: Int } return \"\" + $Q(1, 2)", "{z=1, a=2}");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void testColumnarStructs ()
+    {
+        String pairs =
+            "columnar struct P { var x: Int; var y: Float }" +
+            "var a: P[] = [$P(1, 0.5), $P(2, 1.5), $P(3, 2.5)];";
+
+        check(pairs + "return a[1].x", 2L);
+        check(pairs + "return a[2].y", 2.5);
+        check(pairs + "return a.length", 3L);
+        check(pairs + "a[1].y = 4; return a[1].y", 4.0);
+        check(pairs + "return \"\" + a", "[{x=1, y=0.5}, {x=2, y=1.5}, {x=3, y=2.5}]");
+
+        // items are stored by value
+        check(pairs + "var p: P = a[0]; p.x = 10; return a[0].x", 1L);
+        check(pairs + "var p: P = $P(4, 4.5); a[0] = p; p.x = 10; return a[0].x", 4L);
+        check(pairs + "a[0] = $P(4, 4.5); return a[0]", point(4L, 4.5));
+
+        check(pairs +
+            "fun sum (b: P[]): Int {" +
+            "    var s: Int = 0; var i: Int = 0" +
+            "    while i < b.length { s = s + b[i].x; i = i + 1 }" +
+            "    return s" +
+            "}" +
+            "return sum(a)",
+            6L);
+
+        checkThrows(pairs + "return a[3].x", ArrayIndexOutOfBoundsException.class);
+        checkThrows(pairs + "a[0] = null", NullPointerException.class);
+        checkThrows("columnar struct P { var x: Int } var a: P[] = [$P(1), null]",
+            NullPointerException.class);
+        checkThrows("columnar struct E {} var a: E[] = [$E()]; return a[1]",
+            ArrayIndexOutOfBoundsException.class);
+        checkThrows("columnar struct E {} var a: E[] = [$E()]; return a[-1]",
+            ArrayIndexOutOfBoundsException.class);
+    }
+
+    private static Map<String, Object> point (Object x, Object y) {
+        Map<String, Object> point = new HashMap<>();
+        point.put("x", x);
+        point.put("y", y);
+        return point;
     }
 
 
@@ -311,6 +485,85 @@ public final class InterpreterTests extends TestFixture {
 
     // ---------------------------------------------------------------------------------------------
 
+    @Test public void testTailCalls()
+    {
+        // deep enough to overflow the stack if each call used a Java frame
+        check("fun sum (n: Int, acc: Int): Int {" +
+                "    if n == 0 { return acc }" +
+                "    return sum(n - 1, acc + n)" +
+                "}" +
+                "return sum(100000, 0)",
+            5000050000L);
+
+        // arguments are all evaluated before the parameters are assigned
+        check("fun gcd (a: Int, b: Int): Int { if b == 0 { return a } return gcd(b, a % b) }" +
+            "return gcd(1071, 462)", 21L);
+
+        // from inside a loop declaring variables
+        check("fun half (x: Float, n: Int): Float {" +
+                "    while n > 0 {" +
+                "        var y: Float = x / 2" +
+                "        if y < 1 { return y }" +
+                "        return half(y, n - 1)" +
+                "    }" +
+                "    return x" +
+                "}" +
+                "return half(100.0, 10)",
+            0.78125);
+
+        // not a tail call
+        check("fun count (n: Int): Int { if n == 0 { return 0 } return 1 + count(n - 1) }" +
+            "return count(100)", 100L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testReturnFromLoops()
+    {
+        String find =
+            "fun find (a: Int[], x: Int): Int {" +
+            "    var i: Int = 0" +
+            "    while i < a.length { { if a[i] == x { return i } } i = i + 1 }" +
+            "    return -1" +
+            "}";
+        check(find + "return find([5, 6, 7], 7)", 2L);
+        check(find + "return find([5, 6, 7], 9)", -1L);
+
+        check("fun count (n: Int): Int {" +
+                "    while 1 { if n == 0 { return 0 } return 1 + count(n - 1) }" +
+                "    return -1" +
+                "}" +
+                "return count(500)",
+            500L);
+
+        // conditions are evaluated once per test
+        check("var n: Int = 0; fun inc (): Int { n = n + 1; return n } if inc() { } return n", 1L);
+        check("var n: Int = 0; fun next (): Int { n = n + 1; return 3 - n } while next() { }" +
+            "return n", 3L);
+
+        // runtime errors are wrapped once, with the location of the failing node
+        String input =
+            "fun f (x: Int): Int { while 1 { if x == 0 { return 1 / x } x = x - 1 } return 0 }" +
+            "return f(3)";
+        autumnFixture.rule = grammar.root;
+        for (Backend backend: BACKENDS) {
+            SighNode root = autumnFixture.success(input).topValue();
+            AnalysisTables tables = analyze(root, input);
+            try {
+                run(root, tables, backend);
+                throw new AssertionError("no exception thrown by " + backend);
+            } catch (InterpreterException e) {
+                assertTrue(e.getCause() instanceof ArithmeticException);
+                if (backend == Backend.INTERPRETER)
+                    assertEquals(e.span.start, input.indexOf("1 / x"));
+                if (backend == Backend.EXECUTOR_TREE)
+                    assertEquals(e.span.start, input.indexOf("return 1 / x"));
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     // NOTE(norswap): Not incredibly complete, but should cover the basics.
 
     //------------------------------------- new tests ----------------------------------------------
@@ -351,152 +604,264 @@ public final class InterpreterTests extends TestFixture {
     }
 
     @Test public void testBinariesIntOpArray(){
-        checkExpr("1 + [2]", new Object[]{3L});
-        checkExpr("1 + [1, 2, 3]", new Object[]{2L, 3L, 4L});
-        checkExpr("1 - [2]", new Object[]{-1L});
-        checkExpr("1 - [1, 2, 3]", new Object[]{0L, -1L, -2L});
-        checkExpr("2 * [2]", new Object[]{4L});
-        checkExpr("2 * [1, 2, 3]", new Object[]{2L, 4L, 6L});
-        checkExpr("6 / [2]", new Object[]{3L});
-        checkExpr("6 / [1, 2, 3]", new Object[]{6L, 3L, 2L});
-        checkExpr("6 % [2]", new Object[]{0L});
-        checkExpr("3 % [1, 2, 3]", new Object[]{0L, 1L, 0L});
-        checkExpr("2 < [2]", new Object[]{0L});
-        checkExpr("2 < [1, 2, 3]", new Object[]{0L, 0L, 1L});
-        checkExpr("2 > [2]", new Object[]{0L});
-        checkExpr("2 > [1, 2, 3]", new Object[]{1L, 0L, 0L});
-        checkExpr("2 <= [2]", new Object[]{1L});
-        checkExpr("2 <= [1, 2, 3]", new Object[]{0L, 1L, 1L});
-        checkExpr("2 >= [2]", new Object[]{1L});
-        checkExpr("2 >= [1, 2, 3]", new Object[]{1L, 1L, 0L});
-        checkExpr("6 ^ [2]", new Object[]{36L});
-        checkExpr("3 ^ [1, 2, 3]", new Object[]{3L, 9L, 27L});
-        checkExpr("6 <> [2]", new Object[]{6L, 2L});
-        checkExpr("3 <> [1, 2, 3]", new Object[]{3L, 1L, 2L, 3L});
-        checkExpr("0 || [0]",  new Object[]{0L});
-        checkExpr("0 || [1, 17, 0]",  new Object[]{1L, 1L, 0L});
-        checkExpr("1 && [0]",  new Object[]{0L});
-        checkExpr("1 && [17]",  new Object[]{1L});
-        checkExpr("1 && [1, 117, 0]",  new Object[]{1L, 1L, 0L});
+        checkExpr("1 + [2]", new long[]{3L});
+        checkExpr("1 + [1, 2, 3]", new long[]{2L, 3L, 4L});
+        checkExpr("1 - [2]", new long[]{-1L});
+        checkExpr("1 - [1, 2, 3]", new long[]{0L, -1L, -2L});
+        checkExpr("2 * [2]", new long[]{4L});
+        checkExpr("2 * [1, 2, 3]", new long[]{2L, 4L, 6L});
+        checkExpr("6 / [2]", new long[]{3L});
+        checkExpr("6 / [1, 2, 3]", new long[]{6L, 3L, 2L});
+        checkExpr("6 % [2]", new long[]{0L});
+        checkExpr("3 % [1, 2, 3]", new long[]{0L, 1L, 0L});
+        checkExpr("2 < [2]", new long[]{0L});
+        checkExpr("2 < [1, 2, 3]", new long[]{0L, 0L, 1L});
+        checkExpr("2 > [2]", new long[]{0L});
+        checkExpr("2 > [1, 2, 3]", new long[]{1L, 0L, 0L});
+        checkExpr("2 <= [2]", new long[]{1L});
+        checkExpr("2 <= [1, 2, 3]", new long[]{0L, 1L, 1L});
+        checkExpr("2 >= [2]", new long[]{1L});
+        checkExpr("2 >= [1, 2, 3]", new long[]{1L, 1L, 0L});
+        checkExpr("6 ^ [2]", new long[]{36L});
+        checkExpr("3 ^ [1, 2, 3]", new long[]{3L, 9L, 27L});
+        checkExpr("6 <> [2]", new long[]{6L, 2L});
+        checkExpr("3 <> [1, 2, 3]", new long[]{3L, 1L, 2L, 3L});
+        checkExpr("0 || [0]",  new long[]{0L});
+        checkExpr("0 || [1, 17, 0]",  new long[]{1L, 1L, 0L});
+        checkExpr("1 && [0]",  new long[]{0L});
+        checkExpr("1 && [17]",  new long[]{1L});
+        checkExpr("1 && [1, 117, 0]",  new long[]{1L, 1L, 0L});
     }
 
     @Test public void testBinariesDoubleOpArray(){
 
-        checkExpr("1.0 + [2.0]", new Object[]{3d});
-        checkExpr("1.0 + [1.0, 2.0, 3.0]", new Object[]{2d, 3d, 4d});
-        checkExpr("1.0 - [2.0]", new Object[]{-1d});
-        checkExpr("1.0 - [1.0, 2.0, 3.0]", new Object[]{0d, -1d, -2d});
-        checkExpr("2.0 * [2.0]", new Object[]{4d});
-        checkExpr("2.0 * [1.0, 2.0, 3.0]", new Object[]{2d, 4d, 6d});
-        checkExpr("6.0 / [2.0]", new Object[]{3d});
-        checkExpr("6.0 / [1.0, 2.0, 3.0]", new Object[]{6d, 3d, 2d});
-        checkExpr("6.0 % [2.0]", new Object[]{0d});
-        checkExpr("3.0 % [1.0, 2.0, 3.0]", new Object[]{0d, 1d, 0d});
-        checkExpr("6.0 ^ [2.0]", new Object[]{36.0d});
-        checkExpr("3.0 ^ [1.0, 2.0, 3.0]", new Object[]{3.0d, 9.0d, 27.0d});
-        checkExpr("2.0 < [2.0]", new Object[]{0d});
-        checkExpr("2.0 < [1.0, 2.0, 3.0]", new Object[]{0d, 0d, 1d});
-        checkExpr("2.0 > [2.0]", new Object[]{0d});
-        checkExpr("2.0 > [1.0, 2.0, 3.0]", new Object[]{1d, 0d, 0d});
-        checkExpr("2.0 <= [2.0]", new Object[]{1d});
-        checkExpr("2.0 <= [1.0, 2.0, 3.0]", new Object[]{0d, 1d, 1d});
-        checkExpr("2.0 >= [2.0]", new Object[]{1d});
-        checkExpr("2.0 >= [1.0, 2.0, 3.0]", new Object[]{1d, 1d, 0d});
-        checkExpr("6.0 <> [2.0]", new Object[]{6d, 2d});
-        checkExpr("3.0 <> [1.0, 2.0, 3.0]", new Object[]{3d, 1d, 2d, 3d});
-        checkExpr("0.0 || [0.0]",  new Object[]{0d});
-        checkExpr("0.0 || [1.0, 17.0, 0.0]",  new Object[]{1d, 1d, 0d});
-        checkExpr("1.0 && [0.0]",  new Object[]{0d});
-        checkExpr("1.0 && [17.0]",  new Object[]{1d});
-        checkExpr("1.0 && [1.0, 117.0, 0.0]",  new Object[]{1d, 1d, 0d});
+        checkExpr("1.0 + [2.0]", new double[]{3d});
+        checkExpr("1.0 + [1.0, 2.0, 3.0]", new double[]{2d, 3d, 4d});
+        checkExpr("1.0 - [2.0]", new double[]{-1d});
+        checkExpr("1.0 - [1.0, 2.0, 3.0]", new double[]{0d, -1d, -2d});
+        checkExpr("2.0 * [2.0]", new double[]{4d});
+        checkExpr("2.0 * [1.0, 2.0, 3.0]", new double[]{2d, 4d, 6d});
+        checkExpr("6.0 / [2.0]", new double[]{3d});
+        checkExpr("6.0 / [1.0, 2.0, 3.0]", new double[]{6d, 3d, 2d});
+        checkExpr("6.0 % [2.0]", new double[]{0d});
+        checkExpr("3.0 % [1.0, 2.0, 3.0]", new double[]{0d, 1d, 0d});
+        checkExpr("6.0 ^ [2.0]", new double[]{36.0d});
+        checkExpr("3.0 ^ [1.0, 2.0, 3.0]", new double[]{3.0d, 9.0d, 27.0d});
+        checkExpr("2.0 < [2.0]", new double[]{0d});
+        checkExpr("2.0 < [1.0, 2.0, 3.0]", new double[]{0d, 0d, 1d});
+        checkExpr("2.0 > [2.0]", new double[]{0d});
+        checkExpr("2.0 > [1.0, 2.0, 3.0]", new double[]{1d, 0d, 0d});
+        checkExpr("2.0 <= [2.0]", new double[]{1d});
+        checkExpr("2.0 <= [1.0, 2.0, 3.0]", new double[]{0d, 1d, 1d});
+        checkExpr("2.0 >= [2.0]", new double[]{1d});
+        checkExpr("2.0 >= [1.0, 2.0, 3.0]", new double[]{1d, 1d, 0d});
+        checkExpr("6.0 <> [2.0]", new double[]{6d, 2d});
+        checkExpr("3.0 <> [1.0, 2.0, 3.0]", new double[]{3d, 1d, 2d, 3d});
+        checkExpr("0.0 || [0.0]",  new double[]{0d});
+        checkExpr("0.0 || [1.0, 17.0, 0.0]",  new double[]{1d, 1d, 0d});
+        checkExpr("1.0 && [0.0]",  new double[]{0d});
+        checkExpr("1.0 && [17.0]",  new double[]{1d});
+        checkExpr("1.0 && [1.0, 117.0, 0.0]",  new double[]{1d, 1d, 0d});
 
     }
 
     @Test public void testBinariesArrayIntOpArray(){
 
-        checkExpr("[1] + [2]", new Object[]{3L});
-        checkExpr("[1, 2, 3] + [1, 2, 3]",  new Object[]{2L, 4L, 6L});
-        checkExpr("[1] - [2]",  new Object[]{-1L});
-        checkExpr("[1, 5 ,2] - [1, 2, 3]", new Object[]{0L, 3L, -1L});
-        checkExpr("[2] * [2]",  new Object[]{4L});
-        checkExpr("[5, 4, 3] * [1, 2, 3]",  new Object[]{5L, 8L, 9L});
-        checkExpr("[6] / [2]",  new Object[]{3L});
-        checkExpr("[2, 8, 9] / [1, 2, 3]",  new Object[]{2L, 4L, 3L});
-        checkExpr("[6] % [2]",  new Object[]{0L});
-        checkExpr("[4, 3, 2] % [1, 2, 3]",  new Object[]{0L, 1L, 2L});
-        checkExpr("[2] < [2]", new Object[]{0L});
-        checkExpr("[2, 2, 2] < [1, 2, 3]", new Object[]{0L, 0L, 1L});
-        checkExpr("[2] > [2]", new Object[]{0L});
-        checkExpr("[2, 2, 2] > [1, 2, 3]", new Object[]{1L, 0L, 0L});
-        checkExpr("[2] <= [2]", new Object[]{1L});
-        checkExpr("[2, 2, 2] <= [1, 2, 3]", new Object[]{0L, 1L, 1L});
-        checkExpr("[2] >= [2]", new Object[]{1L});
-        checkExpr("[2, 2, 2] >= [1, 2, 3]", new Object[]{1L, 1L, 0L});
-        checkExpr("[6] <> [2]",  new Object[]{6L, 2L});
-        checkExpr("[4, 3, 2] <> [1, 2, 3]",  new Object[]{4L, 3L, 2L, 1L, 2L, 3L});
-        checkExpr("[6] ^ [2]",  new Object[]{36L});
-        checkExpr("[4, 3, 2] ^ [1, 2, 3]",  new Object[]{4L, 9L, 8L});
-        checkExpr("[0] || [0]",  new Object[]{0L});
-        checkExpr("[0, 1, 0] || [1, 1, 0]",  new Object[]{1L, 1L, 0L});
-        checkExpr("[1] && [0]",  new Object[]{0L});
-        checkExpr("[1] && [17]",  new Object[]{1L});
-        checkExpr("[0, 1, 0] && [1, 1, 0]",  new Object[]{0L, 1L, 0L});
+        checkExpr("[1] + [2]", new long[]{3L});
+        checkExpr("[1, 2, 3] + [1, 2, 3]",  new long[]{2L, 4L, 6L});
+        checkExpr("[1] - [2]",  new long[]{-1L});
+        checkExpr("[1, 5 ,2] - [1, 2, 3]", new long[]{0L, 3L, -1L});
+        checkExpr("[2] * [2]",  new long[]{4L});
+        checkExpr("[5, 4, 3] * [1, 2, 3]",  new long[]{5L, 8L, 9L});
+        checkExpr("[6] / [2]",  new long[]{3L});
+        checkExpr("[2, 8, 9] / [1, 2, 3]",  new long[]{2L, 4L, 3L});
+        checkExpr("[6] % [2]",  new long[]{0L});
+        checkExpr("[4, 3, 2] % [1, 2, 3]",  new long[]{0L, 1L, 2L});
+        checkExpr("[2] < [2]", new long[]{0L});
+        checkExpr("[2, 2, 2] < [1, 2, 3]", new long[]{0L, 0L, 1L});
+        checkExpr("[2] > [2]", new long[]{0L});
+        checkExpr("[2, 2, 2] > [1, 2, 3]", new long[]{1L, 0L, 0L});
+        checkExpr("[2] <= [2]", new long[]{1L});
+        checkExpr("[2, 2, 2] <= [1, 2, 3]", new long[]{0L, 1L, 1L});
+        checkExpr("[2] >= [2]", new long[]{1L});
+        checkExpr("[2, 2, 2] >= [1, 2, 3]", new long[]{1L, 1L, 0L});
+        checkExpr("[6] <> [2]",  new long[]{6L, 2L});
+        checkExpr("[4, 3, 2] <> [1, 2, 3]",  new long[]{4L, 3L, 2L, 1L, 2L, 3L});
+        checkExpr("[6] ^ [2]",  new long[]{36L});
+        checkExpr("[4, 3, 2] ^ [1, 2, 3]",  new long[]{4L, 9L, 8L});
+        checkExpr("[0] || [0]",  new long[]{0L});
+        checkExpr("[0, 1, 0] || [1, 1, 0]",  new long[]{1L, 1L, 0L});
+        checkExpr("[1] && [0]",  new long[]{0L});
+        checkExpr("[1] && [17]",  new long[]{1L});
+        checkExpr("[0, 1, 0] && [1, 1, 0]",  new long[]{0L, 1L, 0L});
 
     }
 
     @Test public void testBinariesArrayDoubleOpArray(){
-        checkExpr("[1.0] + [2.0]", new Object[]{3d});
-        checkExpr("[1.0, 2.0, 3.0] + [1.0, 2.0, 3.0]",  new Object[]{2d, 4d, 6d});
-        checkExpr("[1.0] - [2.0]",  new Object[]{-1d});
-        checkExpr("[1.0, 5.0 ,2.0] - [1.0, 2.0, 3.0]", new Object[]{0d, 3d, -1d});
-        checkExpr("[2.0] * [2.0]",  new Object[]{4d});
-        checkExpr("[5.0, 4.0, 3.0] * [1.0, 2.0, 3.0]",  new Object[]{5d, 8d, 9d});
-        checkExpr("[6.0] / [2.0]",  new Object[]{3d});
-        checkExpr("[2.0, 8.0, 9.0] / [1.0, 2.0, 3.0]",  new Object[]{2d, 4d, 3d});
-        checkExpr("[6.0] % [2.0]",  new Object[]{0d});
-        checkExpr("[4.0, 3.0, 2.0] % [1.0, 2.0, 3.0]",  new Object[]{0d, 1d, 2d});
-        checkExpr("[6.0] ^ [2.0]",  new Object[]{36d});
-        checkExpr("[4.0, 3.0, 2.0] ^ [1.0, 2.0, 3.0]",  new Object[]{4d, 9d, 8d});
-        checkExpr("[2.0] < [2.0]", new Object[]{0d});
-        checkExpr("[2.0, 2.0, 2.0] < [1.0, 2.0, 3.0]", new Object[]{0d, 0d, 1d});
-        checkExpr("[2.0] > [2.0]", new Object[]{0d});
-        checkExpr("[2.0, 2.0, 2.0] > [1.0, 2.0, 3.0]", new Object[]{1d, 0d, 0d});
-        checkExpr("[2.0] <= [2.0]", new Object[]{1d});
-        checkExpr("[2.0, 2.0, 2.0] <= [1.0, 2.0, 3.0]", new Object[]{0d, 1d, 1d});
-        checkExpr("[2.0] >= [2.0]", new Object[]{1d});
-        checkExpr("[2.0, 2.0, 2.0] >= [1.0, 2.0, 3.0]", new Object[]{1d, 1d, 0d});
-        checkExpr("[6.0] <> [2.0]",  new Object[]{6d, 2d});
-        checkExpr("[4.0, 3.0, 2.0] <> [1.0, 2.0, 3.0]",  new Object[]{4d, 3d, 2d, 1d, 2d, 3d});
-        checkExpr("[0.0] || [0.0]",  new Object[]{0d});
-        checkExpr("[0.0, 1.0, 0.0] || [1.0, 1.0, 0.0]",  new Object[]{1d, 1d, 0d});
-        checkExpr("[1.0] && [0.0]",  new Object[]{0d});
-        checkExpr("[1.0] && [17.0]",  new Object[]{1d});
-        checkExpr("[0.0, 1.0, 0.0] && [1.0, 1.0, 0.0]",  new Object[]{0d, 1d, 0d});
+        checkExpr("[1.0] + [2.0]", new double[]{3d});
+        checkExpr("[1.0, 2.0, 3.0] + [1.0, 2.0, 3.0]",  new double[]{2d, 4d, 6d});
+        checkExpr("[1.0] - [2.0]",  new double[]{-1d});
+        checkExpr("[1.0, 5.0 ,2.0] - [1.0, 2.0, 3.0]", new double[]{0d, 3d, -1d});
+        checkExpr("[2.0] * [2.0]",  new double[]{4d});
+        checkExpr("[5.0, 4.0, 3.0] * [1.0, 2.0, 3.0]",  new double[]{5d, 8d, 9d});
+        checkExpr("[6.0] / [2.0]",  new double[]{3d});
+        checkExpr("[2.0, 8.0, 9.0] / [1.0, 2.0, 3.0]",  new double[]{2d, 4d, 3d});
+        checkExpr("[6.0] % [2.0]",  new double[]{0d});
+        checkExpr("[4.0, 3.0, 2.0] % [1.0, 2.0, 3.0]",  new double[]{0d, 1d, 2d});
+        checkExpr("[6.0] ^ [2.0]",  new double[]{36d});
+        checkExpr("[4.0, 3.0, 2.0] ^ [1.0, 2.0, 3.0]",  new double[]{4d, 9d, 8d});
+        checkExpr("[2.0] < [2.0]", new double[]{0d});
+        checkExpr("[2.0, 2.0, 2.0] < [1.0, 2.0, 3.0]", new double[]{0d, 0d, 1d});
+        checkExpr("[2.0] > [2.0]", new double[]{0d});
+        checkExpr("[2.0, 2.0, 2.0] > [1.0, 2.0, 3.0]", new double[]{1d, 0d, 0d});
+        checkExpr("[2.0] <= [2.0]", new double[]{1d});
+        checkExpr("[2.0, 2.0, 2.0] <= [1.0, 2.0, 3.0]", new double[]{0d, 1d, 1d});
+        checkExpr("[2.0] >= [2.0]", new double[]{1d});
+        checkExpr("[2.0, 2.0, 2.0] >= [1.0, 2.0, 3.0]", new double[]{1d, 1d, 0d});
+        checkExpr("[6.0] <> [2.0]",  new double[]{6d, 2d});
+        checkExpr("[4.0, 3.0, 2.0] <> [1.0, 2.0, 3.0]",  new double[]{4d, 3d, 2d, 1d, 2d, 3d});
+        checkExpr("[0.0] || [0.0]",  new double[]{0d});
+        checkExpr("[0.0, 1.0, 0.0] || [1.0, 1.0, 0.0]",  new double[]{1d, 1d, 0d});
+        checkExpr("[1.0] && [0.0]",  new double[]{0d});
+        checkExpr("[1.0] && [17.0]",  new double[]{1d});
+        checkExpr("[0.0, 1.0, 0.0] && [1.0, 1.0, 0.0]",  new double[]{0d, 1d, 0d});
     }
 
     @Test public void testBinariesArrayIntDoubleOpArray(){
-        checkExpr("[1] + [2.0]", new Object[]{3d});
-        checkExpr("[1, 2, 3] + [1.0, 2.0, 3.0]",  new Object[]{2d, 4d, 6d});
-        checkExpr("[1.0] - [2]",  new Object[]{-1d});
-        checkExpr("[1, 5 ,2] - [1.0, 2.0, 3.0]", new Object[]{0d, 3d, -1d});
-        checkExpr("[2.0] * [2]",  new Object[]{4d});
-        checkExpr("[5.0, 4.0, 3.0] * [1, 2, 3]",  new Object[]{5d, 8d, 9d});
-        checkExpr("[6.0] / [2.0]",  new Object[]{3d});
-        checkExpr("[2.0, 8.0, 9.0] / [1, 2, 3]",  new Object[]{2d, 4d, 3d});
-        checkExpr("[6] % [2.0]",  new Object[]{0d});
-        checkExpr("[4, 3, 2] % [1.0, 2.0, 3.0]",  new Object[]{0d, 1d, 2d});
-        checkExpr("[6] ^ [2.0]",  new Object[]{36.0d});
-        checkExpr("[4, 3, 2] ^ [1.0, 2.0, 3.0]",  new Object[]{4d, 9d, 8d});
-        checkExpr("[2] < [2.0]", new Object[]{0d});
-        checkExpr("[2, 2, 2] < [1.0, 2.0, 3.0]", new Object[]{0d, 0d, 1d});
-        checkExpr("[2.0] > [2]", new Object[]{0d});
-        checkExpr("[2.0, 2.0, 2.0] > [1, 2, 3]", new Object[]{1d, 0d, 0d});
-        checkExpr("[2.0] <= [2]", new Object[]{1d});
-        checkExpr("[2.0, 2.0, 2.0] <= [1, 2, 3]", new Object[]{0d, 1d, 1d});
-        checkExpr("[2] >= [2.0]", new Object[]{1d});
-        checkExpr("[2, 2, 2] >= [1.0, 2.0, 3.0]", new Object[]{1d, 1d, 0d});
-        checkExpr("[6] <> [2.0]",  new Object[]{6d, 2d});
-        checkExpr("[4, 3, 2] <> [1.0, 2.0, 3.0]",  new Object[]{4d, 3d, 2d, 1d, 2d, 3d});
+        checkExpr("[1] + [2.0]", new double[]{3d});
+        checkExpr("[1, 2, 3] + [1.0, 2.0, 3.0]",  new double[]{2d, 4d, 6d});
+        checkExpr("[1.0] - [2]",  new double[]{-1d});
+        checkExpr("[1, 5 ,2] - [1.0, 2.0, 3.0]", new double[]{0d, 3d, -1d});
+        checkExpr("[2.0] * [2]",  new double[]{4d});
+        checkExpr("[5.0, 4.0, 3.0] * [1, 2, 3]",  new double[]{5d, 8d, 9d});
+        checkExpr("[6.0] / [2.0]",  new double[]{3d});
+        checkExpr("[2.0, 8.0, 9.0] / [1, 2, 3]",  new double[]{2d, 4d, 3d});
+        checkExpr("[6] % [2.0]",  new double[]{0d});
+        checkExpr("[4, 3, 2] % [1.0, 2.0, 3.0]",  new double[]{0d, 1d, 2d});
+        checkExpr("[6] ^ [2.0]",  new double[]{36.0d});
+        checkExpr("[4, 3, 2] ^ [1.0, 2.0, 3.0]",  new double[]{4d, 9d, 8d});
+        checkExpr("[2] < [2.0]", new double[]{0d});
+        checkExpr("[2, 2, 2] < [1.0, 2.0, 3.0]", new double[]{0d, 0d, 1d});
+        checkExpr("[2.0] > [2]", new double[]{0d});
+        checkExpr("[2.0, 2.0, 2.0] > [1, 2, 3]", new double[]{1d, 0d, 0d});
+        checkExpr("[2.0] <= [2]", new double[]{1d});
+        checkExpr("[2.0, 2.0, 2.0] <= [1, 2, 3]", new double[]{0d, 1d, 1d});
+        checkExpr("[2] >= [2.0]", new double[]{1d});
+        checkExpr("[2, 2, 2] >= [1.0, 2.0, 3.0]", new double[]{1d, 1d, 0d});
+        checkExpr("[6] <> [2.0]",  new double[]{6d, 2d});
+        checkExpr("[4, 3, 2] <> [1.0, 2.0, 3.0]",  new double[]{4d, 3d, 2d, 1d, 2d, 3d});
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testBinariesLargeArray(){
+        rule = grammar.root;
+        // longer than the former fixed-size scratch arrays
+        String array = "var x: Int[] = [0]; var i: Int = 1; while (i < 15000) { x = x <> i; i = i + 1 } ";
+        check(array + "return +/ (1 + x)", 112507500L);
+        check(array + "return +/ (x * 2.0)", 224985000d);
+        check(array + "return +/ (x - (x * 1.0))", 0d);
+        check(array + "return {: (x <> [1.5])", 1.5d);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testFusedArrayExpressions()
+    {
+        rule = grammar.root;
+        checkExpr("[1, 2, 3] * [4, 5, 6] + 1 - [1, 1, 1]", new long[]{4, 10, 18});
+        checkExpr("([1, 2] + 0.5) * 2", new double[]{3.0, 5.0});
+        checkExpr("2 * !([1, 2, 3])", new long[]{2, 4, 12});
+        checkExpr("+: ([1, 2] * [3, 4])", new long[]{6, 16});
+        checkExpr("+/ ([1, 2, 3] * [4, 5, 6])", 32L);
+        checkExpr("+/ (+: [1.5, 2.5])", 8.0);
+        checkExpr("./ (1 + [1, 2, 3])", 24L);
+        checkExpr("&/ ([1, 2] > 0)", 1L);
+        checkExpr("&/ ([5] - 4)", 1L);
+        checkExpr("|/ ([1, 2] > 1.5)", 1d);
+        checkExpr("-/ ([1, 2, 3] * 2)", 4L);
+        check("var a: Int[] = [1, 2]; var b: Float[] = a + 0.5; return b * a", new double[]{1.5, 5.0});
+        check("var a: Int[] = [1, 2]; var b: Int[] = a; a = a + b; return a + b", new long[]{3, 6});
+
+        // across several tiles
+        String array = "var x: Int[] = [0]; var i: Int = 1; while (i < 10000) { x = x <> i; i = i + 1 } ";
+        check(array + "return +/ ((x * 2) - x)", 49995000L);
+        check(array + "return {: ((x * 2.0) - x)", 9999d);
+        check(array + "return &/ (((x + 1) * 2) > 1)", 1L);
+
+        checkThrows("return [1, 2] * ([1, 2] + [1])", Error.class);
+
+        // operations are not fused when an operand could modify the arrays of the others
+        String bump =
+            "fun bump (x: Int[]): Int[] { x[0] = 100 ; return x } var a: Int[] = [1, 2]; ";
+        check(bump + "return (a * 2) + bump(a)", new long[]{102, 6});
+        check(bump + "return +/ ((a * 2) + bump(a))", 108L);
+        check("fun twice (x: Int[]): Int[] { return x * 2 } var a: Int[] = [1, 2];" +
+            "return (a + 1) * twice(a)", new long[]{4, 12});
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testParallelArrays()
+    {
+        rule = grammar.root;
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ForkJoinPool defaultPool = Parallel.pool();
+        int defaultThreshold = Parallel.threshold();
+        Parallel.configure(pool, 16);
+        try {
+            String array = "var x: Int[] = [0]; var i: Int = 1; while (i < 15000) { x = x <> i; i = i + 1 } ";
+            check(array + "return +/ (1 + x)", 112507500L);
+            check(array + "return +/ (x * 2.0)", 224985000d);
+            check(array + "return +/ (x - (x * 1.0))", 0d);
+            check(array + "return +/ (x > 7499)", 7500L);
+            check(array + "return +/ (+: x)", 224985000L);
+            check(array + "return +/ (*: (x < 3))", 3L);
+            check(array + "return {: (2.0 ^ (x < 3))", 1d);
+            check("var x: Int[] = [1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17]; "
+                + "return x * 2", new long[]{2, 4, 6, 8, 10, 12, 14, 16, 18, 20, 22, 24, 26, 28, 30, 32, 34});
+            check(array + "return &/ (x >= 0)", 1L);
+            check(array + "return &/ (x > 0)", 0L);
+            check(array + "return |/ (x > 14998)", 1L);
+            check(array + "return |/ (x < 0)", 0L);
+            check(array + "return ./ (x < 15000)", 1L);
+            check(array + "return -/ (x < 2)", 0L);
+        } finally {
+            Parallel.configure(defaultPool, defaultThreshold);
+            pool.shutdown();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testFloatReductions()
+    {
+        rule = grammar.root;
+        String array = "var x: Float[] = [0.0]; var i: Int = 1; while (i < 15000) { x = x <> (i * 0.1); i = i + 1 } ";
+        double[] values = new double[15000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = i * 0.1;
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ForkJoinPool defaultPool = Parallel.pool();
+        int defaultThreshold = Parallel.threshold();
+        FloatReduction defaultMode = ArrayKernels.floatReduction();
+        try {
+            for (FloatReduction mode: FloatReduction.values()) {
+                ArrayKernels.floatReduction(mode);
+                // sequential result
+                Parallel.configure(defaultPool, Integer.MAX_VALUE);
+                double expected = ArrayKernels.sum(values);
+                assertTrue(Math.abs(expected - 11249250d) < 1e-3, mode + ": " + expected);
+                // must not depend on the number of threads
+                Parallel.configure(pool, 16);
+                check(array + "return +/ x", expected);
+            }
+        } finally {
+            ArrayKernels.floatReduction(defaultMode);
+            Parallel.configure(defaultPool, defaultThreshold);
+            pool.shutdown();
+        }
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -513,7 +878,7 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("1.0 == 2.0", 0d);
 
         checkExpr("1 == 1.0", 1d);
-        checkExpr("[1] == [1]", new Object[]{1L});
+        checkExpr("[1] == [1]", new long[]{1L});
 
         checkExpr("1 != 1", 0L);
         checkExpr("1 != 2", 1L);
@@ -522,7 +887,7 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("1 != 1.0", 0d);
 
         checkExpr("\"hi\" != \"hi2\"", true);
-        checkExpr("[1] != [1]", new Object[]{0L});
+        checkExpr("[1] != [1]", new long[]{0L});
 
         // test short circuit
         //TODO WTF IS THAT
@@ -544,10 +909,10 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("|/ [5, 1, 9]",1L);
         checkExpr("|/ [1, 0, 7]",1L);
         checkExpr("|/ [0, 0, 0]",0L);
-        checkExpr("+: [2, 8, 1]",new Object[]{4L, 16L, 2L});
-        checkExpr("*: [5, 3, 9]",new Object[]{25L, 9L, 81L});
-        checkExpr("# [7, 12, 5, 8, 62, 32]", 6);
-        checkExpr("! [1, 3, 5]",new Object[]{1L, 6L, 120L});
+        checkExpr("+: [2, 8, 1]",new long[]{4L, 16L, 2L});
+        checkExpr("*: [5, 3, 9]",new long[]{25L, 9L, 81L});
+        checkExpr("# [7, 12, 5, 8, 62, 32]", 6L);
+        checkExpr("! [1, 3, 5]",new long[]{1L, 6L, 120L});
     }
 
     @Test
@@ -564,10 +929,11 @@ public final class InterpreterTests extends TestFixture {
         checkExpr("&/ [1.0, 0.0, 7.0]",0d);
         checkExpr("|/ [1.0, 0.0, 7.0]",1.0d);
         checkExpr("|/ [0.0, 0.0, 0.0]",0d);
-        checkExpr("+: [2.0, 8.0, 1.0]",new Object[]{4d, 16d, 2d});
-        checkExpr("*: [5.0, 3.0, 9.0]",new Object[]{25d, 9d, 81d});
-        checkExpr("# [3.0, 5.0, 6.0, 7.0]", 4);
-        checkExpr("! [1.0, 3.0, 5.0]",new Object[]{1.0000000000000002d, 6.000000000000007d, 120.00000000000021d});
+        checkExpr("+: [2.0, 8.0, 1.0]",new double[]{4d, 16d, 2d});
+        checkExpr("*: [5.0, 3.0, 9.0]",new double[]{25d, 9d, 81d});
+        checkExpr("# [3.0, 5.0, 6.0, 7.0]", 4L);
+        checkExpr("\"\" + # [1.0, 2.0]", "2");
+        checkExpr("! [1.0, 3.0, 5.0]",new double[]{1.0000000000000002d, 6.000000000000007d, 120.00000000000021d});
     }
 
     @Test
@@ -612,10 +978,10 @@ public final class InterpreterTests extends TestFixture {
     public void testMonadicForkExpressionIntArray () {
 
         checkExpr("(+/ + {:) [1, 2, 3]", 9L);
-        checkExpr("(! + !) [1, 3, 5]", new Object[]{2L,12L, 240L});
+        checkExpr("(! + !) [1, 3, 5]", new long[]{2L,12L, 240L});
         checkExpr("(./ / {:) [1, 2, 3]", 2L);
         checkExpr("({: % -/) [1, 2, 3]", 1L);
-        checkExpr("(./ + !) [1, 3, 5]", new Object[]{16L,21L, 135L});
+        checkExpr("(./ + !) [1, 3, 5]", new long[]{16L,21L, 135L});
     }
 
     @Test
@@ -632,7 +998,7 @@ public final class InterpreterTests extends TestFixture {
     public void testMonadicForkExpressionDoubleArray () {
 
         checkExpr("(+/ + {:) [1.0, 2.0, 3.0]", 9d);
-        checkExpr("(! + !) [1.0, 3.0, 5.0]",new Object[]{2.0000000000000004d, 12.000000000000014d, 240.00000000000043d});
+        checkExpr("(! + !) [1.0, 3.0, 5.0]",new double[]{2.0000000000000004d, 12.000000000000014d, 240.00000000000043d});
         checkExpr("(./ / {:) [1.0, 2.0, 3.0]", 2d);
         checkExpr("({: % -/) [1.0, 2.0, 3.0]", 1d);
     }
@@ -650,10 +1016,10 @@ public final class InterpreterTests extends TestFixture {
     @Test
     public void testDiadicForkExpressionIntArrayArray () {
 
-        checkExpr("[1, 2] (+ - *) [1, 2]", new Object[]{1L,0L});
-        checkExpr("[1, 2] (/ + %) [1, 2]", new Object[]{1L,1L});
-        checkExpr("[1, 2] (+ * +) [1, 2]", new Object[]{4L,16L});
-        checkExpr("[1, 2] (- / /) [1, 2]", new Object[]{0L,0L});
+        checkExpr("[1, 2] (+ - *) [1, 2]", new long[]{1L,0L});
+        checkExpr("[1, 2] (/ + %) [1, 2]", new long[]{1L,1L});
+        checkExpr("[1, 2] (+ * +) [1, 2]", new long[]{4L,16L});
+        checkExpr("[1, 2] (- / /) [1, 2]", new long[]{0L,0L});
 
     }
 
@@ -670,10 +1036,10 @@ public final class InterpreterTests extends TestFixture {
     @Test
     public void testDiadicForkExpressionDoubleArrayArray () {
 
-        checkExpr("[1.0, 2.0] (+ - *) [1.0, 2.0]", new Object[]{1d,0d});
-        checkExpr("[1.0, 2.0] (/ + %) [1.0, 2.0]", new Object[]{1d,1d});
-        checkExpr("[1.0, 2.0] (+ * +) [1.0, 2.0]", new Object[]{4d,16d});
-        checkExpr("[1.0, 2.0] (- / /) [1.0, 2.0]", new Object[]{0d,0d});
+        checkExpr("[1.0, 2.0] (+ - *) [1.0, 2.0]", new double[]{1d,0d});
+        checkExpr("[1.0, 2.0] (/ + %) [1.0, 2.0]", new double[]{1d,1d});
+        checkExpr("[1.0, 2.0] (+ * +) [1.0, 2.0]", new double[]{4d,16d});
+        checkExpr("[1.0, 2.0] (- / /) [1.0, 2.0]", new double[]{0d,0d});
 
     }
 
@@ -687,9 +1053,140 @@ public final class InterpreterTests extends TestFixture {
 
     }
 
+    @Test
+    public void testFusedForks () {
+
+        // # is an Int, even for Float[]
+        checkExpr("(+/ / #) [1.0, 2.0, 3.0, 6.0]", 3d);
+        checkExpr("(+/ / #) [2, 4, 9]", 5L);
+        checkExpr("(# * {:) [1.5, 2.5]", 5d);
+        checkExpr("(# + #) [1.5, 2.5]", 4L);
+        check("var n: Int = ((# + #) [1.5, 2.5]) + (# [1.5]); return n", 5L);
+
+        // verbs over an unforced operand
+        checkExpr("(+/ / #) ([1.0, 2.0, 3.0] * 2.0)", 4d);
+        checkExpr("(+: - *:) ([1, 2, 3] + 1)", new long[]{0L, -3L, -8L});
+        checkExpr("(./ + +:) ([1, 2, 3] + 1)", new long[]{28L, 30L, 32L});
+        checkExpr("(+/ - {:) ([1, 2, 3] + 1)", 5L);
+        checkExpr("[1, 2] (+ <> *) ([3, 4] + 1)", new long[]{5L, 7L, 4L, 10L});
+        checkExpr("([1, 2] * 2) (+ * -) [3, 4]", new long[]{-5L, 0L});
+        checkExpr("[1, 2] (+ - *) 2.5", new double[]{1d, -0.5d});
+
+        // empty arrays
+        check("var x: Float[] = []; return (+/ + #) x", 0d);
+        check("var x: Int[] = []; return (! * +:) x", new long[0]);
+        check("var x: Int[] = []; return x (+ - *) x", new long[0]);
+    }
+
     // ---------------------------------------------------------------------------------------------
 
+    @Test
+    public void testTieredExecution ()
+    {
+        String input =
+            "var offset: Int = 1 \n" +
+            "fun sq (x: Int): Int { return x * x } \n" +
+            "fun shifted (x: Int): Int { return sq(x) + offset } \n" +
+            "fun sum (n: Int): Int { \n" +
+            "    var s: Int = 0 \n" +
+            "    var i: Int = 0 \n" +
+            "    while (i < n) { s = s + sq(i) ; i = i + 1 } \n" +
+            "    return s } \n" +
+            "var total: Int = 0 \n" +
+            "var i: Int = 0 \n" +
+            "while (i < 100) { total = total + shifted(i) ; i = i + 1 } \n" +
+            "return \"\" + sum(100) + \" \" + total";
+
+        autumnFixture.rule = grammar.root;
+        RootNode root = autumnFixture.success(input).topValue();
+        AnalysisTables tables = analyze(root, input);
+        Tiering tiering = new Tiering(tables, 10, Runnable::run);
+        Object result = new Interpreter(tables, tiering).interpret(root);
+        assertEquals(result, "328350 328450");
+
+        Map<String, FunDeclarationNode> functions = new HashMap<>();
+        for (StatementNode stmt: root.statements)
+            if (stmt instanceof FunDeclarationNode)
+                functions.put(((FunDeclarationNode) stmt).name, (FunDeclarationNode) stmt);
+
+        // hot, and compiled with its callees
+        assertTrue(tiering.isCompiled(functions.get("sq")));
+        // hot because of its loop, but only after its single call started
+        assertTrue(tiering.isCompiled(functions.get("sum")));
+        // reads a top-level variable
+        assertFalse(tiering.isCompiled(functions.get("shifted")));
+
+        // Int[] arguments are converted for the compiled code of Float[] parameters
+        rule = grammar.root;
+        check("fun first (a: Float[]): Float { a[1] = 0.5 ; return a[0] + a[1] } \n" +
+            "var s: Float = 0 \n" +
+            "var i: Int = 0 \n" +
+            "while (i < 20) { s = s + first([i, 1]) ; i = i + 1 } \n" +
+            "return s",
+            200.0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
+    @Test
+    public void testMemoization ()
+    {
+        String input =
+            "var offset: Int = 0 \n" +
+            "fun fib (n: Int): Int { if n < 2 { return n } return fib(n - 1) + fib(n - 2) } \n" +
+            "fun even (n: Int): Int { if n == 0 { return 1 } return odd(n - 1) } \n" +
+            "fun odd (n: Int): Int { if n == 0 { return 0 } return even(n - 1) } \n" +
+            "fun abs (x: Float): Float { var y: Float = x ; if y < 0 { y = 0 - y } return y } \n" +
+            "fun shifted (n: Int): Int { return fib(n) + offset } \n" +
+            "fun first (a: Int[]): Int { a[0] = 1 ; return a[0] } \n" +
+            "fun shown (n: Int): Int { print(\"\" + n) ; return n } \n" +
+            "fun calls (n: Int): Int { return shown(n) } \n" +
+            "return fib(80)";
+
+        autumnFixture.rule = grammar.root;
+        RootNode root = autumnFixture.success(input).topValue();
+        AnalysisTables tables = analyze(root, input);
+
+        Map<String, FunDeclarationNode> functions = new HashMap<>();
+        for (StatementNode stmt: root.statements)
+            if (stmt instanceof FunDeclarationNode)
+                functions.put(((FunDeclarationNode) stmt).name, (FunDeclarationNode) stmt);
+
+        for (String name: new String[] { "fib", "even", "odd", "abs" })
+            assertTrue(tables.pure(functions.get(name)), name);
+        for (String name: new String[] { "shifted", "first", "shown", "calls" })
+            assertFalse(tables.pure(functions.get(name)), name);
+
+        // each result is computed once, and looked up by the other caller
+        FunDeclarationNode fib = functions.get("fib");
+        Interpreter interpreter = new Interpreter(tables).memoize(100);
+        assertEquals(interpreter.interpret(root), 23416728348467685L);
+        MemoTable table = interpreter.memoTable(fib);
+        assertEquals(table.size(), 81);
+        assertEquals(table.misses(), 81L);
+        assertEquals(table.hits(), 78L);
+
+        ExecutorCompiler compiler = new ExecutorCompiler(tables).memoize(100);
+        assertEquals(compiler.compile(root).run(), 23416728348467685L);
+        assertEquals(compiler.memoTable(fib).hits(), 78L);
+        assertNull(compiler.memoTable(functions.get("shifted")));
+
+        Tiering tiering = new Tiering(tables, 1, Runnable::run);
+        interpreter = new Interpreter(tables, tiering).memoize(100);
+        assertEquals(interpreter.interpret(root), 23416728348467685L);
+        // only the first call is interpreted: the calls it makes (which the interpreter looks up in
+        // its own table first) and theirs run the compiled code, which has a table of its own
+        assertEquals(interpreter.memoTable(fib).misses(), 3L);
+        assertEquals(tiering.memoTable(fib).misses(), 80L);
+        assertTrue(tiering.memoTable(fib).hits() > 0);
+
+        // the least recently used results are evicted, the recent ones are enough here
+        interpreter = new Interpreter(tables).memoize(10);
+        assertEquals(interpreter.interpret(root), 23416728348467685L);
+        assertEquals(interpreter.memoTable(fib).size(), 10);
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
     @Test
     public void testIfWhile () {
@@ -218,6 +218,17 @@ public final class SemanticAnalysisTests extends UraniumTestFixture
             "struct P { var x: Int; var y: Int }" +
             "return $P(1, 2).z",
             "Trying to access missing field z on struct P");
+
+        successInput(
+            "columnar struct P { var x: Int; var y: Float }" +
+            "var a: P[] = [$P(1, 2), $P(3, 4)];" +
+            "a[1].y = a[0].x;" +
+            "return a[0]");
+
+        // columnar arrays can't hold nulls
+        successInput("struct P { var x: Int } var a: P[] = [null]");
+        failureInputWith("columnar struct P { var x: Int } var a: P[] = [null]",
+            "incompatible initializer type provided for variable `a`: expected P[] but got Null[]");
     }
 
 